@@ -0,0 +1,90 @@
+package ch.animal.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.Random;
+
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalStore;
+import ch.animal.persistence.AnimalFileFormat;
+import ch.animal.persistence.ProgressListener;
+
+/**
+ * Generates synthetic animal data for the benchmarks. The data looks like
+ * what the application holds: a few hundred animal types, a few dozen feed
+ * types and units, stocks with two decimals and order dates within two
+ * years. The same size always gives the same data.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public final class AnimalData {
+
+    private static final String[] TIERE = { "Kuh", "Schwein", "Huhn", "Pferd", "Schaf", "Ziege", "Ente",
+            "Gans", "Kaninchen", "Lama", "Esel", "Truthahn" };
+    private static final String[] FUTTER = { "Heu", "Stroh", "Mais", "Gerste", "Weizen", "Hafer", "Soja",
+            "Rüben", "Silage", "Kraftfutter", "Mineralfutter", "Grünfutter" };
+    private static final String[] EINHEITEN = { "Kg", "t", "Sack", "Ballen", "Liter" };
+    private static final LocalDate FIRST_DATE = LocalDate.of(2019, 1, 1);
+
+    private AnimalData() {
+    }
+
+    /**
+     * Creates the given number of animals in a store.
+     *
+     * @param size the number of animals
+     * @return the animals
+     */
+    public static AnimalStore store(int size) {
+        Random random = new Random(size);
+        AnimalStore store = new AnimalStore(size);
+        Animal animal = new Animal();
+        for (int i = 0; i < size; i++) {
+            fill(animal, random);
+            store.add(animal);
+        }
+        return store;
+    }
+
+    /**
+     * Fills an animal with random values.
+     *
+     * @param animal the animal to fill
+     * @param random the source of the values
+     */
+    public static void fill(Animal animal, Random random) {
+        animal.setTierArt(TIERE[random.nextInt(TIERE.length)] + " " + random.nextInt(40));
+        animal.setFutterArt(FUTTER[random.nextInt(FUTTER.length)] + " " + random.nextInt(4));
+        animal.setMengeneinheit(EINHEITEN[random.nextInt(EINHEITEN.length)]);
+        animal.setAktuellerBestand(random.nextInt(100_000) / 100.0);
+        animal.setTagesverbrauch(random.nextInt(1_000) / 100.0);
+        animal.setLieferfrist(random.nextInt(14));
+        animal.setBestelldatum(FIRST_DATE.plusDays(random.nextInt(730)));
+        animal.setBestellungnotwendig(random.nextBoolean() ? "Ja" : "Nein");
+    }
+
+    /**
+     * Writes the given number of animals to a new temporary file.
+     *
+     * @param size the number of animals
+     * @param format the format of the file
+     * @return the file, deleted when the JVM exits
+     * @throws IOException if the file cannot be written
+     */
+    public static File file(int size, AnimalFileFormat format) throws IOException {
+        File file = File.createTempFile("animals-" + size + "-", format.getExtension());
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            format.write(store(size).asList(), out, ProgressListener.NONE);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not write " + file, e);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,69 @@
+package ch.animal.benchmark;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.animal.util.DateUtil;
+import ch.animal.util.LocalDateAdapter;
+
+/**
+ * Converting order dates, once per animal when reading or writing XML and
+ * once per shown cell in the table.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateBenchmark {
+
+    private static final int DATES = 1024;
+
+    private final LocalDateAdapter adapter = new LocalDateAdapter();
+    private final LocalDate[] dates = new LocalDate[DATES];
+    private final String[] texts = new String[DATES];
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        for (int i = 0; i < DATES; i++) {
+            dates[i] = LocalDate.of(2019, 1, 1).plusDays(i);
+            texts[i] = adapter.marshal(dates[i]);
+        }
+    }
+
+    private int next() {
+        next = (next + 1) & (DATES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public String marshal() throws Exception {
+        return adapter.marshal(dates[next()]);
+    }
+
+    @Benchmark
+    public LocalDate unmarshal() throws Exception {
+        return adapter.unmarshal(texts[next()]);
+    }
+
+    @Benchmark
+    public String format() {
+        return DateUtil.format(dates[next()]);
+    }
+}
@@ -0,0 +1,144 @@
+package ch.animal.benchmark;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.animal.model.Animal;
+
+/**
+ * The heap kept per row: a list of animals as the XML reader builds it, the
+ * same list once the table has asked every animal for its properties, and
+ * the column store. Each benchmark builds the rows once and reports the
+ * heap that a full collection frees once they are dropped, divided by the
+ * rows. The time reported is that of building and measuring the rows and is
+ * of no interest here.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+// The serial collector reports the used heap exactly after a collection
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-XX:+UseSerialGC" })
+public class FootprintBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    private int size;
+
+    /**
+     * Animals in a list, their properties not yet created.
+     */
+    @Benchmark
+    public void animalList(Footprint result) {
+        result.bytesPerRow = retainedPerRow(this::animals);
+    }
+
+    /**
+     * Animals in a list with all their properties, as after the table has
+     * shown every row.
+     */
+    @Benchmark
+    public void animalListWithProperties(Footprint result) {
+        result.bytesPerRow = retainedPerRow(() -> {
+            List<Animal> animals = animals();
+            for (Animal animal : animals) {
+                animal.tierArtProperty();
+                animal.futterArtProperty();
+                animal.aktuellerBestandProperty();
+                animal.mengeneinheitProperty();
+                animal.bestellungnotwendigProperty();
+                animal.bestelldatumProperty();
+                animal.tagesverbrauchProperty();
+                animal.lieferfristProperty();
+            }
+            return animals;
+        });
+    }
+
+    /**
+     * The same animals in the column store.
+     */
+    @Benchmark
+    public void animalStore(Footprint result) {
+        // Created with room for exactly these rows
+        result.bytesPerRow = retainedPerRow(() -> AnimalData.store(size));
+    }
+
+    private List<Animal> animals() {
+        Random random = new Random(size);
+        List<Animal> animals = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Animal animal = new Animal();
+            AnimalData.fill(animal, random);
+            animals.add(animal);
+        }
+        return animals;
+    }
+
+    /**
+     * Builds rows and returns the heap per row freed by dropping them.
+     * Measuring what is freed, not what was added, leaves out anything an
+     * earlier invocation still holds.
+     */
+    private long retainedPerRow(Supplier<?> build) {
+        Object rows = build.get();
+        long held = usedHeap();
+        Reference.reachabilityFence(rows);
+        rows = null;
+        return (held - usedHeap()) / size;
+    }
+
+    /**
+     * Returns the heap used once the garbage is collected.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Collect until nothing more is freed
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    /**
+     * The heap kept per row, reported next to the time.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        public long bytesPerRow;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerRow = 0;
+        }
+    }
+}
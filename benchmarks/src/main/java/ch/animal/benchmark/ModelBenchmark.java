@@ -0,0 +1,97 @@
+package ch.animal.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalRowList;
+import ch.animal.model.AnimalStore;
+
+/**
+ * Creating animals and moving them in and out of the column store, which
+ * the table does for every row it shows.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ModelBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    private int size;
+
+    private AnimalStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = AnimalData.store(size);
+    }
+
+    /**
+     * Creates animal objects with all their values, as the XML reader does.
+     */
+    @Benchmark
+    public List<Animal> constructAnimals() {
+        Random random = new Random(size);
+        List<Animal> animals = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Animal animal = new Animal();
+            AnimalData.fill(animal, random);
+            animals.add(animal);
+        }
+        return animals;
+    }
+
+    /**
+     * Copies animals into a new store, as loading does batch by batch.
+     */
+    @Benchmark
+    public AnimalStore fillStore() {
+        AnimalStore copy = new AnimalStore(size);
+        copy.addAll(store.asList());
+        return copy;
+    }
+
+    /**
+     * Reads every row of the store into a new animal.
+     */
+    @Benchmark
+    public void readRows(Blackhole blackhole) {
+        for (int row = 0; row < size; row++) {
+            blackhole.consume(store.read(row));
+        }
+    }
+
+    /**
+     * Gets every element of the observable list over the store, each one a
+     * view that is kept while it is referenced.
+     */
+    @Benchmark
+    public void rowListGet(Blackhole blackhole) {
+        AnimalRowList<AnimalStore> list = new AnimalRowList<>(store);
+        for (int row = 0; row < size; row++) {
+            blackhole.consume(list.get(row));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ch.animal.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalStore;
+import ch.animal.persistence.AnimalFileFormat;
+import ch.animal.persistence.AnimalJournal;
+import ch.animal.persistence.AtomicFileWriter;
+import ch.animal.persistence.ProgressListener;
+
+/**
+ * Loading and saving animal files, the work done in the background by
+ * {@code MainApp.loadAnimalDataFromFile} and {@code saveAnimalDataToFile}
+ * without the JavaFX task around it, and the size of the saved file per
+ * format.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class PersistenceBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    private int size;
+
+    @Param({ "XML", "BINARY", "MAPPED" })
+    private AnimalFileFormat format;
+
+    private File input;
+    private File output;
+    private List<Animal> animals;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        input = AnimalData.file(size, format);
+        output = File.createTempFile("animals-saved-", format.getExtension());
+        animals = AnimalData.store(size).asList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(input.toPath());
+        Files.deleteIfExists(output.toPath());
+    }
+
+    /**
+     * Reads a file and replays its journal, like {@code AnimalLoadTask}.
+     */
+    @Benchmark
+    public AnimalStore load() throws Exception {
+        AnimalStore store = new AnimalStore();
+        format.read(input, store::addAll, ProgressListener.NONE);
+        AnimalJournal.replay(input, store.asList());
+        return store;
+    }
+
+    /**
+     * Replaces a file atomically, like {@code AnimalSaveTask} without backups.
+     */
+    @Benchmark
+    public File save() throws Exception {
+        new AtomicFileWriter(0).write(output.toPath(), out -> format.write(animals, out, ProgressListener.NONE));
+        return output;
+    }
+
+    /**
+     * Saves once and reports the size of the file as secondary result
+     * "bytes", to compare the formats by file size.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public File fileSize(FileSize result) throws Exception {
+        save();
+        result.bytes = output.length();
+        return output;
+    }
+
+    /**
+     * The size of the saved file, reported next to the time.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FileSize {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ch.animal.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.animal.model.Animal;
+import ch.animal.persistence.AnimalFileFormat;
+import ch.animal.persistence.AtomicFileWriter;
+import ch.animal.persistence.JaxbSupport;
+import ch.animal.persistence.ProgressListener;
+
+/**
+ * The first XML save after the start, measured once per fresh JVM: cold, as
+ * without {@link JaxbSupport#warmUp}, and after the warm-up has run. The
+ * steady-state save is {@code PersistenceBenchmark.save}. The first access
+ * to the JAXB context shows what the cached context saves: building it cold
+ * compared to reading it after the warm-up.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 10, jvmArgsAppend = { "-Xmx4g", "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class SaveStartupBenchmark {
+
+    @Param({ "1000", "100000" })
+    private int size;
+
+    @Param({ "false", "true" })
+    private boolean warmUp;
+
+    private File output;
+    private List<Animal> animals;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        output = File.createTempFile("animals-saved-", AnimalFileFormat.XML.getExtension());
+        animals = AnimalData.store(size).asList();
+        if (warmUp) {
+            // The part meant for the I/O thread runs here, on the thread that saves
+            CompletableFuture<Runnable> ioPart = new CompletableFuture<>();
+            JaxbSupport.warmUp(ioPart::complete);
+            ioPart.get().run();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(output.toPath());
+    }
+
+    /**
+     * Saves the animals as XML, the first save in this JVM.
+     */
+    @Benchmark
+    public File firstSave() throws Exception {
+        new AtomicFileWriter(0).write(output.toPath(),
+                out -> AnimalFileFormat.XML.write(animals, out, ProgressListener.NONE));
+        return output;
+    }
+
+    /**
+     * Gets the JAXB context the first time in this JVM.
+     */
+    @Benchmark
+    public JAXBContext firstContext() throws Exception {
+        return JaxbSupport.getContext();
+    }
+}
@@ -0,0 +1,88 @@
+package ch.animal.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.animal.model.AnimalRowList;
+import ch.animal.model.AnimalSearchIndex;
+import ch.animal.model.AnimalSearchList;
+import ch.animal.model.AnimalStore;
+
+/**
+ * Filtering the table by the search field: building the index when data is
+ * loaded, and looking up the rows of a query.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SearchBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    private int size;
+
+    private AnimalRowList<AnimalStore> animals;
+    private AnimalSearchIndex index;
+    private AnimalSearchList searchList;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        animals = new AnimalRowList<>(AnimalData.store(size));
+        index = buildIndex();
+        searchList = new AnimalSearchList(animals);
+        // The list builds its index on the first search, not while measuring
+        searchList.setSearchText("a");
+        searchList.setSearchText("");
+    }
+
+    @Benchmark
+    public AnimalSearchIndex buildIndex() {
+        AnimalSearchIndex built = new AnimalSearchIndex();
+        built.insert(0, animals.size(), animals);
+        return built;
+    }
+
+    @Benchmark
+    public int[] queryRows(Query query) {
+        return index.query(query.text).rows();
+    }
+
+    /**
+     * Typing the query into the search field and clearing it again.
+     */
+    @Benchmark
+    public int filterList(Query query) {
+        searchList.setSearchText(query.text);
+        int shown = searchList.size();
+        searchList.setSearchText("");
+        return shown;
+    }
+
+    /**
+     * The search text, separate so building the index does not depend on it.
+     */
+    @State(Scope.Benchmark)
+    public static class Query {
+
+        /** A rare hit, a frequent hit and a single letter. */
+        @Param({ "lama 3", "heu", "e" })
+        private String text;
+    }
+}
@@ -0,0 +1,103 @@
+package ch.animal.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.animal.model.AnimalRowList;
+import ch.animal.model.AnimalSortKeys;
+import ch.animal.model.AnimalStatistics;
+import ch.animal.model.AnimalStore;
+import ch.animal.util.UnitRegistry;
+
+/**
+ * The code that compares and adds up stocks across units: the dashboard
+ * totals, built when a file is loaded, and sorting the table by stock. Both
+ * look up the factor of every distinct unit once. Converting every row by
+ * looking its unit up by name shows what that saves.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UnitBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    private int size;
+
+    private AnimalStore store;
+    private AnimalRowList<AnimalStore> animals;
+    private AnimalSortKeys sortKeys;
+    private int[] rows;
+    private long[] quantities;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        store = AnimalData.store(size);
+        animals = new AnimalRowList<>(store);
+        sortKeys = new AnimalSortKeys(animals);
+        rows = new int[size];
+        for (int row = 0; row < size; row++) {
+            rows[row] = row;
+        }
+        // Reads the keys, as the first sort of the table does
+        sortKeys.sort(rows, new AnimalSortKeys.Field[] { AnimalSortKeys.Field.AKTUELLER_BESTAND },
+                new boolean[] { false });
+        quantities = new long[size];
+    }
+
+    /**
+     * Builds the statistics of all rows and reads the totals per feed type
+     * and dimension, as the dashboard does for a loaded file.
+     */
+    @Benchmark
+    public List<AnimalStatistics.StockTotal> statistics() {
+        AnimalStatistics statistics = new AnimalStatistics(animals);
+        List<AnimalStatistics.StockTotal> totals = statistics.getStockTotals();
+        statistics.dispose();
+        return totals;
+    }
+
+    /**
+     * Sorts all rows by their normalized stock, as clicking the column
+     * header does.
+     */
+    @Benchmark
+    public int[] sortByStock() {
+        return sortKeys.sort(rows, new AnimalSortKeys.Field[] { AnimalSortKeys.Field.AKTUELLER_BESTAND },
+                new boolean[] { false });
+    }
+
+    /**
+     * Converts all rows, finding the unit of every row by its name. This is
+     * what the statistics and the sort would cost per row without the
+     * factors of the distinct units.
+     */
+    @Benchmark
+    public long[] convertByName() {
+        UnitRegistry registry = UnitRegistry.getDefault();
+        for (int row = 0; row < size; row++) {
+            UnitRegistry.Unit unit = registry.find(store.getMengeneinheit(row));
+            quantities[row] = UnitRegistry.quantity(store.getAktuellerBestand(row),
+                    unit != null ? unit.getFactor() : UnitRegistry.UNKNOWN_FACTOR);
+        }
+        return quantities;
+    }
+}
@@ -2,29 +2,68 @@ package ch.animal;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 import java.util.prefs.Preferences;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
-
-import ch.animal.model.AnimalListWrapper;
+import ch.animal.diagnostics.EditDialogEvent;
+import ch.animal.diagnostics.ExportEvent;
+import ch.animal.diagnostics.FileOperationEvent;
+import ch.animal.diagnostics.LoadEvent;
+import ch.animal.diagnostics.MetricsRegistry;
+import ch.animal.diagnostics.SaveEvent;
 import ch.animal.model.Animal;
+import ch.animal.model.AnimalDiff;
+import ch.animal.model.AnimalMerge;
+import ch.animal.model.AnimalRowList;
+import ch.animal.model.AnimalStatistics;
+import ch.animal.model.AnimalStore;
+import ch.animal.model.ReorderEngine;
+import ch.animal.model.UndoHistory;
+import ch.animal.persistence.AnimalExportFormat;
+import ch.animal.persistence.AnimalFileFormat;
+import ch.animal.persistence.AnimalFileWatcher;
+import ch.animal.persistence.AnimalJournal;
+import ch.animal.persistence.AnimalLoadTask;
+import ch.animal.persistence.AnimalMergeTask;
+import ch.animal.persistence.AnimalReloadTask;
+import ch.animal.persistence.AnimalRepository;
+import ch.animal.persistence.JaxbSupport;
+import ch.animal.persistence.MappedAnimalRepository;
+import ch.animal.persistence.MappedAnimalStore;
+import ch.animal.persistence.MemoryAnimalRepository;
+import ch.animal.view.AnimalDashboardController;
 import ch.animal.view.AnimalEditDialogController;
 import ch.animal.view.AnimalOverviewController;
+import ch.animal.view.DiagnosticsController;
 import ch.animal.view.RootLayoutController;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
-import javafx.collections.FXCollections;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
+import javafx.concurrent.WorkerStateEvent;
 
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.ButtonBar;
+import javafx.scene.control.ButtonType;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 /**
  * MainApp of the Animal Feeding App
  * @author Damian Krebs  
@@ -36,26 +75,110 @@ public class MainApp extends Application {
 	// Instance variables
 	private Stage primaryStage; 
 	private BorderPane rootLayout; 
+	private RootLayoutController rootLayoutController;
 	
 	private boolean dataEdited = false;
+	private long editGeneration = 0;
+	
+	/**
+	 * Runs loading and saving one after the other, off the JavaFX Application Thread.
+	 */
+	private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "animal-io");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * Holds the current animals, in memory or in a memory-mapped store.
+	 */
+	private AnimalRepository repository;
 	
 	/**
-     * The data as an observable list of Animals.
+     * The data as an observable list of Animals, the animals of {@link #repository}.
      */
-	private ObservableList<Animal> animalData = FXCollections.observableArrayList();
+	private final ReadOnlyObjectWrapper<ObservableList<Animal>> animalData = new ReadOnlyObjectWrapper<>();
+	
+	/**
+	 * Computes the order need of the current animals from their consumption.
+	 */
+	private ReorderEngine reorderEngine;
+	
+	/**
+	 * Aggregates of the current animals for the dashboard.
+	 */
+	private AnimalStatistics statistics;
+	
+	/**
+	 * Undo and redo of the edits of the current animals.
+	 */
+	private final UndoHistory undoHistory = new UndoHistory(getUndoDepth(), UNDO_ROWS);
+	
+	/**
+	 * Rows all undo steps together may hold, about 100 bytes each.
+	 */
+	private static final long UNDO_ROWS = 2_000_000;
+	
+	/**
+	 * The state of the undo history that was last loaded or saved, see
+	 * {@link UndoHistory#getState()}. Undoing or redoing back to it clears the
+	 * edited flag.
+	 */
+	private long savedUndoState;
+	
+	/**
+	 * Notices when another program changes the current file, null if no file is watched.
+	 */
+	private AnimalFileWatcher fileWatcher;
+	
+	/**
+	 * Number of saves running, changes of the file are ignored meanwhile.
+	 */
+	private int runningSaves;
+	
+	/**
+	 * Timings, counters and errors shown in the diagnostics window.
+	 */
+	private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+	
+	private Stage diagnosticsStage;
+	private DiagnosticsController diagnosticsController;
+	
+	/**
+	 * The edit dialog, created on first use and reused for every animal.
+	 */
+	private Stage editDialogStage;
+	private AnimalEditDialogController editDialogController;
+	private long editDialogStart;
+	private EditDialogEvent editDialogEvent;
+	
+	/**
+	 * Set to true to exit once the window is shown and the last file is
+	 * loaded, printing the startup times. Used to build and check the class
+	 * data sharing archive, see the appcds profile of the pom.
+	 */
+	private static final boolean EXIT_AFTER_STARTUP = Boolean.getBoolean("animal.exitAfterStartup");
 	
     /**
      * Constructor
      */
     public MainApp() {
         // Add some sample data to not start with an empty list
-        animalData.add(new Animal("Rind", "Mais")); 
-        animalData.add(new Animal("Kalb", "Heu")); 
-        animalData.add(new Animal("Pferd", "Gras")); 
-        animalData.add(new Animal("Pony", "Hafer"));
-        animalData.add(new Animal("Schwein", "Grünfutter"));
-        animalData.add(new Animal("Huhn", "Körner"));
-        animalData.add(new Animal("Strauss", "Körner"));
+        AnimalStore sampleData = new AnimalStore();
+        sampleData.add(new Animal("Rind", "Mais")); 
+        sampleData.add(new Animal("Kalb", "Heu")); 
+        sampleData.add(new Animal("Pferd", "Gras")); 
+        sampleData.add(new Animal("Pony", "Hafer"));
+        sampleData.add(new Animal("Schwein", "Grünfutter"));
+        sampleData.add(new Animal("Huhn", "Körner"));
+        sampleData.add(new Animal("Strauss", "Körner"));
+        
+        animalData.addListener((observable, oldData, newData) -> {
+            // The steps of the old animals do not apply to the new ones
+            undoHistory.setList(currentRows());
+            savedUndoState = undoHistory.getState();
+        });
+        setRepository(new MemoryAnimalRepository(sampleData, null, 0));
     }
     
     /**
@@ -63,23 +186,194 @@ public class MainApp extends Application {
      * @return observable list of Animals
      */
     public ObservableList<Animal> getAnimalData() {
-    	return animalData;
+    	return animalData.get();
+    }
+    
+    /**
+     * Returns the aggregates of the current animals. They are exchanged
+     * together with the animal data, before it is replaced.
+     * @return the statistics of the animal data
+     */
+    public AnimalStatistics getStatistics() {
+    	return statistics;
+    }
+    
+    /**
+     * Removes the animals at the given rows of the data. However many they
+     * are, the list reports a single change, so the table is laid out once.
+     * @param rows the rows to remove, distinct and in ascending order
+     */
+    public void removeAnimals(int[] rows) {
+    	undoHistory.record("Löschen", () -> currentRows().removeRows(rows));
+    }
+    
+    /**
+     * Adds an animal at the end of the data.
+     * @param animal the new animal
+     */
+    public void addAnimal(Animal animal) {
+    	undoHistory.record("Neues Tier", () -> currentRows().add(animal));
+    }
+    
+    /**
+     * Applies the same edit to the animals at the given rows of the data, with
+     * a single change of the list. Rows not shown are edited without creating
+     * objects for them.
+     * @param description what the edit does, shown when it can be undone
+     * @param rows the rows to edit, in ascending order
+     * @param edit the change to apply to each animal
+     */
+    public void editAnimals(String description, int[] rows, Consumer<Animal> edit) {
+    	undoHistory.recordEdit(description, rows,
+    			() -> currentRows().updateRows(rows, (animal, row) -> edit.accept(animal)));
+    }
+    
+    /**
+     * Returns the undo history of the current animal data.
+     * @return the undo history
+     */
+    public UndoHistory getUndoHistory() {
+    	return undoHistory;
+    }
+    
+    /**
+     * Undoes the last deletion, addition or edit of animals. Once the data is
+     * back as it was loaded or saved, it counts as not edited.
+     */
+    public void undo() {
+    	if (undoHistory.undo()) {
+    		setEdited(undoHistory.getState() != savedUndoState);
+    	}
+    }
+    
+    /**
+     * Redoes the last undone change of animals.
+     */
+    public void redo() {
+    	if (undoHistory.redo()) {
+    		setEdited(undoHistory.getState() != savedUndoState);
+    	}
+    }
+    
+    private AnimalRowList<?> currentRows() {
+    	return repository.getAnimals();
+    }
+    
+    /**
+     * Returns the repository of the current animals, e.g. to query them
+     * through its index. It is exchanged together with the animal data.
+     * @return the repository
+     */
+    public AnimalRepository getRepository() {
+    	return repository;
+    }
+    
+    private MemoryAnimalRepository memoryRepository() {
+    	return repository instanceof MemoryAnimalRepository ? (MemoryAnimalRepository) repository : null;
+    }
+    
+    /**
+     * Returns the property holding the current list of Animals. The list is
+     * exchanged when a file is loaded and when a memory-mapped store is opened
+     * or closed.
+     * @return property of the observable list of Animals
+     */
+    public ReadOnlyObjectProperty<ObservableList<Animal>> animalDataProperty() {
+    	return animalData.getReadOnlyProperty();
+    }
+    
+    /**
+     * Replaces the current animal data by an empty list in memory. An opened
+     * memory-mapped store is closed, its file is left as it is.
+     */
+    public void newAnimalData() {
+    	setRepository(new MemoryAnimalRepository(new AnimalStore(), null, 0));
+    	setAnimalFilePath(null);
+    	setEdited(false);
     }
     
     // Rest of class
     
     @Override
     public void start(Stage primaryStage) {
+    	long start = System.nanoTime();
     	this.primaryStage = primaryStage;
     	this.primaryStage.setTitle("AnimalFeedingApp");
     	
+    	// Build the JAXB context while the window is being set up
+    	JaxbSupport.warmUp(ioExecutor);
+    	
+    	// Animals become due at midnight, not only when they are edited
+    	Timeline dayCheck = new Timeline(new KeyFrame(Duration.minutes(1),
+    			event -> reorderEngine.setToday(LocalDate.now())));
+    	dayCheck.setCycleCount(Timeline.INDEFINITE);
+    	dayCheck.play();
+    	
     	initRootLayout();
     	
     	showAnimalOverview();
+    	showAnimalDashboard();
+    	
+    	// Everything not needed for the first frame waits until it is on screen
+    	Scene scene = primaryStage.getScene();
+    	Runnable firstFrame = new Runnable() {
+    		@Override
+    		public void run() {
+    			scene.removePostLayoutPulseListener(this);
+    			recordStartup(start);
+    			Platform.runLater(() -> loadLastAnimalFile());
+    		}
+    	};
+    	scene.addPostLayoutPulseListener(firstFrame);
+    	primaryStage.show();
+    }
+    
+    /**
+     * Records how long it took from starting the JVM and from starting the
+     * application until the window was first laid out.
+     */
+    private void recordStartup(long start) {
+    	metrics.gauge("startup.startToFirstFrameMillis").set((System.nanoTime() - start) / 1_000_000);
+    	ProcessHandle.current().info().startInstant().ifPresent(processStart -> metrics.gauge(
+    			"startup.firstFrameMillis").set(System.currentTimeMillis() - processStart.toEpochMilli()));
+    }
+    
+    /**
+     * Loads the last opened animal file in the background. In the startup
+     * measurement mode, the edit dialog is created as well and the
+     * application exits once both are done.
+     */
+    private void loadLastAnimalFile() {
+    	File file = getAnimalFilePath();
+    	Task<?> task = file != null ? loadAnimalDataFromFile(file) : null;
+    	if (!EXIT_AFTER_STARTUP) {
+    		return;
+    	}
+    	long start = System.nanoTime();
+    	Runnable finish = () -> {
+    		metrics.gauge("startup.lastFileMillis").set((System.nanoTime() - start) / 1_000_000);
+    		createEditDialog();
+    		for (MetricsRegistry.Metric metric : metrics.getMetrics()) {
+    			if (metric.getName().startsWith("startup.") || metric.getName().startsWith("dialog.")) {
+    				System.out.println(metric.getName() + " " + metric.getDescription());
+    			}
+    		}
+    		Platform.exit();
+    	};
+    	if (task == null) {
+    		finish.run();
+    	} else {
+    		task.addEventHandler(WorkerStateEvent.ANY, event -> {
+    			if (task.isDone()) {
+    				finish.run();
+    			}
+    		});
+    	}
     }
 
     /**
-     * Initializes the root layout plus tries to load the last opened animal file.
+     * Initializes the root layout. The window is shown by {@link #start(Stage)}
+     * once its content is complete.
      */
     public void initRootLayout() {
         try {
@@ -93,19 +387,12 @@ public class MainApp extends Application {
             primaryStage.setScene(scene);
             
             // Give the controller access to the mainapp
-            RootLayoutController controller = loader.getController();
-            controller.setMainApp(this);
-            
-            primaryStage.show();
+            rootLayoutController = loader.getController();
+            rootLayoutController.setMainApp(this);
         } catch (IOException e) {
+            metrics.recordError("startup", e);
             e.printStackTrace();
         }
-        
-     // Try to load last opened animal file
-        File file = getAnimalFilePath();
-        if (file != null) {
-            loadAnimalDataFromFile(file);
-        }
     }
     
     /**
@@ -126,10 +413,36 @@ public class MainApp extends Application {
             controller.setMainApp(this);
 
         } catch (IOException e) {
+            metrics.recordError("startup", e);
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Shows the dashboard with the aggregates of the animals to the right of
+     * the overview.
+     */
+    public void showAnimalDashboard() {
+        try {
+            FXMLLoader loader = new FXMLLoader();
+            loader.setLocation(MainApp.class.getResource("view/AnimalDashboard.fxml"));
+            AnchorPane dashboard = (AnchorPane) loader.load();
+            rootLayout.setRight(dashboard);
+
+            AnimalDashboardController controller = loader.getController();
+            controller.setMainApp(this);
+        } catch (IOException e) {
+            metrics.recordError("startup", e);
             e.printStackTrace();
         }
     }
     
+    @Override
+    public void stop() {
+        ioExecutor.shutdown();
+        closeRepository();
+    }
+    
     /**
      * Returns the main stage.
      * @return main stage
@@ -151,6 +464,47 @@ public class MainApp extends Application {
      * @return true if the user clicked OK, false otherwise.
      */
     public boolean showAnimalEditDialog(Animal animal) {
+        editDialogStart = System.nanoTime();
+        editDialogEvent = new EditDialogEvent();
+        editDialogEvent.begin();
+        try {
+            if (editDialogStage == null && !createEditDialog()) {
+                return false;
+            }
+            
+            // Set the animal into the controller
+            editDialogController.setAnimal(animal);
+
+            // Show the dialog and wait until the user closes it. For an animal
+            // of the data, all values changed in the dialog are one undo step.
+            int row = currentRows().indexOfKey(animal.getKey());
+            if (row >= 0) {
+                undoHistory.recordEdit("Bearbeiten", new int[] { row }, editDialogStage::showAndWait);
+            } else {
+                editDialogStage.showAndWait();
+            }
+            editDialogEvent.okClicked = editDialogController.isOkClicked();
+
+            if (editDialogController.isOkClicked()) {
+            	setEdited(true);
+            	return true;
+            } else {
+            	return false;
+            }
+        } finally {
+            metrics.timer("dialog.roundtrip").recordSince(editDialogStart);
+            editDialogEvent.commit();
+        }
+    }
+    
+    /**
+     * Loads the edit dialog. It is loaded once and reused, so opening it again
+     * only fills in the animal.
+     * 
+     * @return true if the dialog could be loaded
+     */
+    private boolean createEditDialog() {
+        long start = System.nanoTime();
         try {
             // Load the fxml file and create a new stage for the popup dialog
             FXMLLoader loader = new FXMLLoader();
@@ -158,30 +512,53 @@ public class MainApp extends Application {
             AnchorPane page = (AnchorPane) loader.load();
 
             // Create the dialog stage
-            Stage dialogStage = new Stage();
-            dialogStage.setTitle("Edit Animal");
-            dialogStage.initModality(Modality.WINDOW_MODAL);
-            dialogStage.initOwner(primaryStage);
+            editDialogStage = new Stage();
+            editDialogStage.setTitle("Edit Animal");
+            editDialogStage.initModality(Modality.WINDOW_MODAL);
+            editDialogStage.initOwner(primaryStage);
             Scene scene = new Scene(page);
-            dialogStage.setScene(scene);
+            editDialogStage.setScene(scene);
+            editDialogStage.setOnShown(shown -> {
+                editDialogEvent.openNanos = System.nanoTime() - editDialogStart;
+                metrics.timer("dialog.open").record(editDialogEvent.openNanos);
+            });
 
-            // Set the animal into the controller
-            AnimalEditDialogController controller = loader.getController();
-            controller.setDialogStage(dialogStage);
-            controller.setAnimal(animal);
+            editDialogController = loader.getController();
+            editDialogController.setDialogStage(editDialogStage);
+            metrics.timer("dialog.create").recordSince(start);
+            return true;
+        } catch (IOException e) {
+            metrics.recordError("dialog", e);
+            e.printStackTrace();
+            return false;
+        }
+    }
+    
+    /**
+     * Opens the diagnostics window, or brings it to the front with current
+     * values if it is open already.
+     */
+    public void showDiagnostics() {
+        try {
+            if (diagnosticsStage == null) {
+                FXMLLoader loader = new FXMLLoader();
+                loader.setLocation(MainApp.class.getResource("view/Diagnostics.fxml"));
+                AnchorPane page = (AnchorPane) loader.load();
 
-            // Show the dialog and wait until the user closes it
-            dialogStage.showAndWait();
+                diagnosticsStage = new Stage();
+                diagnosticsStage.setTitle("Diagnose");
+                diagnosticsStage.initOwner(primaryStage);
+                diagnosticsStage.setScene(new Scene(page));
 
-            if (controller.isOkClicked()) {
-            	setEdited(true);
-            	return true;
-            } else {
-            	return false;
+                diagnosticsController = loader.getController();
+                diagnosticsController.setStage(diagnosticsStage);
             }
+            diagnosticsController.handleRefresh();
+            diagnosticsStage.show();
+            diagnosticsStage.toFront();
         } catch (IOException e) {
+            metrics.recordError("diagnostics", e);
             e.printStackTrace();
-            return false;
         }
     }
     
@@ -221,73 +598,475 @@ public class MainApp extends Application {
             // Update the stage title
             primaryStage.setTitle("AnimalFeedingApp");
         }
+        // A memory-mapped store is changed in place, only animals in memory are reloaded
+        watchAnimalFile(memoryRepository() != null ? file : null);
+    }
+    
+    /**
+     * Watches the given file for changes of other programs. If it is already
+     * watched, its current content is marked as known.
+     */
+    private void watchAnimalFile(File file) {
+        if (fileWatcher != null && fileWatcher.getFile().equals(file)) {
+            fileWatcher.markCurrent();
+            return;
+        }
+        if (fileWatcher != null) {
+            try {
+                fileWatcher.close();
+            } catch (IOException e) {
+                metrics.recordError("watch", e);
+            }
+            fileWatcher = null;
+        }
+        if (file != null) {
+            try {
+                fileWatcher = new AnimalFileWatcher(file, () -> Platform.runLater(this::animalFileChanged));
+            } catch (IOException e) {
+                // Works without, the file is just not reloaded
+                metrics.recordError("watch", e);
+            }
+        }
+    }
+    
+    /**
+     * Called when another program changed the current file. Without local
+     * changes the file is reloaded, otherwise the user decides whether to
+     * reload it or to keep the own changes.
+     */
+    private void animalFileChanged() {
+        if (fileWatcher == null || runningSaves > 0 || !fileWatcher.hasChanged()) {
+            // Our own save, or already handled
+            return;
+        }
+        File file = fileWatcher.getFile();
+        if (getEdited()) {
+            ButtonType reload = new ButtonType("Neu laden", ButtonBar.ButtonData.OK_DONE);
+            ButtonType keep = new ButtonType("Meine Änderungen behalten", ButtonBar.ButtonData.CANCEL_CLOSE);
+            Alert alert = new Alert(AlertType.CONFIRMATION,
+                    "Die Datei '" + file.getName() + "' wurde von einem anderen Programm geändert. "
+                    + "Neu laden verwirft die nicht gespeicherten Änderungen.",
+                    reload, keep);
+            alert.initOwner(primaryStage);
+            alert.setTitle("Datei geändert");
+            alert.setHeaderText("Datei wurde ausserhalb geändert");
+            if (alert.showAndWait().orElse(keep) != reload) {
+                // Saving writes all animals again, the journal belongs to the old file
+                fileWatcher.markCurrent();
+                MemoryAnimalRepository memory = memoryRepository();
+                if (memory != null) {
+                    memory.getJournal().rebase(null, memory.getJournal().mark(), 0);
+                }
+                return;
+            }
+        }
+        reloadAnimalFile(file);
+    }
+    
+    /**
+     * Reads the current file again in the background and applies only the
+     * differences to the animals in memory.
+     * 
+     * @param file the current file
+     * @return the running task
+     */
+    private Task<AnimalDiff> reloadAnimalFile(File file) {
+        // Changes from now on are reported again
+        fileWatcher.markCurrent();
+        MemoryAnimalRepository reloaded = memoryRepository();
+        long generation = editGeneration;
+        AnimalReloadTask task = new AnimalReloadTask(file, reloaded.getAnimals().getStore().copy());
+        task.setOnSucceeded(event -> {
+            if (repository != reloaded || fileWatcher == null || !fileWatcher.getFile().equals(file)) {
+                // Other animals meanwhile
+                return;
+            }
+            if (editGeneration != generation) {
+                // The differences are to the animals before the edit
+                reloadAnimalFile(file);
+                return;
+            }
+            task.getValue().apply(reloaded.getAnimals());
+            AnimalJournal journal = reloaded.getJournal();
+            journal.rebase(file, journal.mark(), task.getReplayedEntries());
+            undoHistory.clear();
+            savedUndoState = undoHistory.getState();
+            setEdited(false);
+        });
+        task.setOnFailed(event -> showLoadError(file));
+        instrument(task, "reload", file, new LoadEvent(), () -> task.getValue().getRowCount());
+        
+        rootLayoutController.showProgress(task);
+        ioExecutor.execute(task);
+        return task;
+    }
+    
+    /**
+     * Returns how many backups of the previous file are kept when saving. The
+     * preference is read from the OS specific registry and defaults to one.
+     * 
+     * @return number of backup generations, 0 for none
+     */
+    public int getBackupGenerations() {
+        Preferences prefs = Preferences.userNodeForPackage(MainApp.class);
+        return Math.max(0, prefs.getInt("backupGenerations", 1));
+    }
+    
+    /**
+     * Returns how many edits can be undone. The preference is read from the
+     * OS specific registry and defaults to 100.
+     * 
+     * @return number of undo steps, 0 for no undo
+     */
+    public int getUndoDepth() {
+        Preferences prefs = Preferences.userNodeForPackage(MainApp.class);
+        return Math.max(0, prefs.getInt("undoDepth", 100));
     }
     
     /**
      * Loads animal data from the specified file. The current animal data will
-     * be replaced.
+     * be replaced. The file is read in the background while a progress bar is
+     * shown, the animals are then put into the table in one single change.
+     * Memory-mapped stores are opened instead of being loaded.
      * 
      * @param file file to open
+     * @return the running task, or null if the file does not exist
      */
-    public void loadAnimalDataFromFile(File file) {
-        try {
-        	if(file.exists() ) {
-        		
-	            JAXBContext context = JAXBContext.newInstance(AnimalListWrapper.class);
-	            Unmarshaller um = context.createUnmarshaller();
-	
-	            // Reading XML from the file and unmarshalling
-	            AnimalListWrapper wrapper = (AnimalListWrapper) um.unmarshal(file);
-	
-	            animalData.clear();
-	            animalData.addAll(wrapper.getAnimals());
-	
-	            // Save the file path to the registry
-	            setAnimalFilePath(file);
-	            setEdited(false);
-        	}
-
-        } catch (Exception e) { 
-        	// catches ANY exception
+    public Task<?> loadAnimalDataFromFile(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        if (AnimalFileFormat.MAPPED.matches(file)) {
+            return openMappedStore(file);
+        }
+        
+        AnimalLoadTask task = new AnimalLoadTask(file);
+        task.setOnSucceeded(event -> openRepository(
+                new MemoryAnimalRepository(task.getValue(), file, task.getReplayedEntries()), () -> {
+            // Save the file path to the registry
+            setAnimalFilePath(file);
+            setEdited(false);
+        }));
+        task.setOnFailed(event -> showLoadError(file));
+        instrument(task, "load", file, new LoadEvent(), () -> task.getValue().size());
+        
+        rootLayoutController.showProgress(task);
+        ioExecutor.execute(task);
+        return task;
+    }
+    
+    /**
+     * Opens a memory-mapped store. Only the animals shown in the table are
+     * read, changes are written straight into the store.
+     * 
+     * @param file the store file
+     * @return the running task
+     */
+    private Task<MappedAnimalStore> openMappedStore(File file) {
+        Task<MappedAnimalStore> task = new Task<MappedAnimalStore>() {
+            @Override
+            protected MappedAnimalStore call() throws Exception {
+                updateMessage("Öffne " + file.getName() + "...");
+                return MappedAnimalStore.open(file.toPath(), false);
+            }
+        };
+        task.setOnSucceeded(event -> openRepository(new MappedAnimalRepository(task.getValue()), () -> {
+            // Save the file path to the registry
+            setAnimalFilePath(file);
+            setEdited(false);
+        }));
+        task.setOnFailed(event -> showLoadError(file));
+        instrument(task, "load.mapped", file, new LoadEvent(), () -> task.getValue().size());
+        
+        rootLayoutController.showProgress(task);
+        ioExecutor.execute(task);
+        return task;
+    }
+    
+    /**
+     * Merges several animal files into new animal data, which replaces the
+     * current one. The files are read in parallel in the background; animals
+     * with the same animal type and feed type are combined by the given
+     * rules. The merged animals are put into the table in one single change
+     * and are not saved to any file yet.
+     * 
+     * @param files the files to merge, in the order their animals count
+     * @param stockRule how stocks of the same animal are combined
+     * @param dateRule which order date of the same animal is kept
+     * @return the running task
+     */
+    public Task<AnimalStore> mergeAnimalFiles(List<File> files, AnimalMerge.StockRule stockRule,
+            AnimalMerge.DateRule dateRule) {
+        AnimalMergeTask task = new AnimalMergeTask(files, stockRule, dateRule);
+        task.setOnSucceeded(event -> openRepository(new MemoryAnimalRepository(task.getValue(), null, 0), () -> {
+            // The merge is new data, it is only written on "save as"
+            setAnimalFilePath(null);
+            savedUndoState = -1;
+            setEdited(true);
+        }));
+        task.setOnFailed(event -> {
             Alert alert = new Alert(AlertType.ERROR);
             alert.setTitle("Error");
-            alert.setHeaderText("Could not load data");
-            alert.setContentText("Could not load data from file:\n" + file.getPath());
-
+            alert.setHeaderText("Could not merge files");
+            alert.setContentText(String.valueOf(task.getException().getMessage()));
             alert.showAndWait();
+        });
+        instrument(task, "merge", null, new LoadEvent(), () -> task.getValue().size());
+        
+        rootLayoutController.showProgress(task);
+        ioExecutor.execute(task);
+        return task;
+    }
+    
+    /**
+     * Replaces the current repository by a loaded one. The reorder engine and
+     * the statistics read every animal, so they are created in the background
+     * first; the current animals stay shown until they are ready.
+     * 
+     * @param newRepository the repository of the loaded animals
+     * @param onOpened run once the new animals are shown
+     */
+    private void openRepository(AnimalRepository newRepository, Runnable onOpened) {
+        ObservableList<Animal> animals = newRepository.getAnimals();
+        LocalDate today = LocalDate.now();
+        Task<PreparedAnimals> task = new Task<PreparedAnimals>() {
+            @Override
+            protected PreparedAnimals call() {
+                updateMessage("Berechne Bestellungen...");
+                return new PreparedAnimals(ReorderEngine.prepare(animals, today, Platform::runLater),
+                        AnimalStatistics.prepare(animals));
+            }
+        };
+        task.setOnSucceeded(event -> {
+            setRepository(newRepository, task.getValue().reorderEngine, task.getValue().statistics);
+            onOpened.run();
+        });
+        task.setOnFailed(event -> {
+            try {
+                newRepository.close();
+            } catch (IOException e) {
+                task.getException().addSuppressed(e);
+            }
+            metrics.recordError("open", task.getException());
+            
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.setTitle("Error");
+            alert.setHeaderText("Could not open data");
+            alert.setContentText(String.valueOf(task.getException().getMessage()));
+            alert.showAndWait();
+        });
+        
+        rootLayoutController.showProgress(task);
+        ioExecutor.execute(task);
+    }
+    
+    /**
+     * Replaces the current repository by a small one, reading its animals
+     * right away.
+     * 
+     * @param newRepository the repository of the new animals
+     */
+    private void setRepository(AnimalRepository newRepository) {
+        ObservableList<Animal> animals = newRepository.getAnimals();
+        setRepository(newRepository, ReorderEngine.prepare(animals, LocalDate.now(), Platform::runLater),
+                AnimalStatistics.prepare(animals));
+    }
+    
+    /**
+     * Replaces the current repository, the old one is closed. The list is
+     * exchanged instead of being refilled, so the old animals never have to
+     * be read for a change event.
+     * 
+     * @param newRepository the repository of the new animals
+     * @param newReorderEngine the engine prepared for the new animals
+     * @param newStatistics the statistics prepared for the new animals
+     */
+    private void setRepository(AnimalRepository newRepository, ReorderEngine newReorderEngine,
+            AnimalStatistics newStatistics) {
+        closeRepository();
+        repository = newRepository;
+        if (reorderEngine != null) {
+            reorderEngine.dispose();
+        }
+        reorderEngine = newReorderEngine;
+        reorderEngine.start();
+        if (statistics != null) {
+            statistics.dispose();
+        }
+        statistics = newStatistics;
+        statistics.start();
+        if (!newRepository.isWrittenPerRow()) {
+            // Adding, deleting and editing animals all show up as list changes,
+            // the values the reorder engine computes are no edits
+            newRepository.getAnimals().addListener((ListChangeListener<Animal>) change -> {
+                if (reorderEngine == null || !reorderEngine.isWriting()) {
+                    setEdited(true);
+                }
+            });
         }
+        animalData.set(newRepository.getAnimals());
     }
     
     /**
-     * Saves the current animal data to the specified file.
+     * Closes the current repository. A memory-mapped store is closed, its
+     * file is left as it is.
+     */
+    private void closeRepository() {
+        if (repository != null) {
+            try {
+                repository.close();
+            } catch (IOException e) {
+                metrics.recordError("close", e);
+                e.printStackTrace();
+            }
+            repository = null;
+        }
+    }
+    
+    private void showLoadError(File file) {
+        Alert alert = new Alert(AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("Could not load data");
+        alert.setContentText("Could not load data from file:\n" + file.getPath());
+
+        alert.showAndWait();
+    }
+    
+    /**
+     * Saves the current animal data to the specified file. The data is copied
+     * and written in the background, so it can be edited while saving. The file
+     * is replaced only once the new content is completely on disk.
+     * <p>
+     * Saving again to the file the data was loaded from or saved to only
+     * appends the changes to the journal of the file. Once the journal has
+     * grown large, a full snapshot is written in the background.
      * 
      * @param file file to save
+     * @return the running task, or null if saving could not be started
      */
-    public void saveAnimalDataToFile(File file) {
+    public Task<Void> saveAnimalDataToFile(File file) {
+        MemoryAnimalRepository memory = memoryRepository();
+        boolean appending = memory != null && memory.getJournal().canAppend(file);
+        Task<Void> task;
         try {
-            JAXBContext context = JAXBContext.newInstance(AnimalListWrapper.class);
-            Marshaller m = context.createMarshaller();
-            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-
-            // Wrapping our animal data
-            AnimalListWrapper wrapper = new AnimalListWrapper();
-            wrapper.setAnimals(animalData);
-
-            // Marshalling and saving XML to the file
-            m.marshal(wrapper, file);
-
+            task = repository.createSaveTask(file, getBackupGenerations());
+        } catch (IOException e) {
+            metrics.recordError("save", e);
+            showSaveError(file);
+            return null;
+        }
+        long savedGeneration = editGeneration;
+        long savedState = undoHistory.getState();
+        countRunningSave(task);
+        
+        task.setOnSucceeded(event -> {
             // Save the file path to the registry
             setAnimalFilePath(file);
-            setEdited(false);
-        } catch (Exception e) { 
-        	// catches ANY exception
-            Alert alert = new Alert(AlertType.ERROR);
-            alert.setTitle("Error");
-            alert.setHeaderText("Could not save data");
-            alert.setContentText("Could not save data to file:\n" + file.getPath());
-
-            alert.showAndWait();
+            savedUndoState = savedState;
+            
+            // Edits made while saving are not in the file
+            if (editGeneration == savedGeneration) {
+                setEdited(false);
+            }
+        });
+        task.setOnFailed(event -> showSaveError(file));
+        long records = getAnimalData().size();
+        instrument(task, appending ? "save.append" : "save", file, new SaveEvent(), () -> records);
+        
+        rootLayoutController.showProgress(task);
+        ioExecutor.execute(task);
+        
+        if (appending && memory.getJournal().needsCompaction()) {
+            // Runs after the append, merges snapshot and journal into a new snapshot
+            Task<Void> compaction = memory.createSnapshotSaveTask(file, getBackupGenerations());
+            countRunningSave(compaction);
+            instrument(compaction, "save.compaction", file, new SaveEvent(), () -> records);
+            rootLayoutController.showProgress(compaction);
+            ioExecutor.execute(compaction);
         }
+        return task;
+    }
+    
+    /**
+     * Exports the current animal data to the specified file for other
+     * programs. The data is copied and exported in the background, the file
+     * the data belongs to stays the same.
+     * 
+     * @param file file to export to
+     * @param format format to export
+     * @return the running task
+     */
+    public Task<Void> exportAnimalData(File file, AnimalExportFormat format) {
+        Task<Void> task = repository.createExportTask(file, format);
+        task.setOnFailed(event -> showSaveError(file));
+        long records = getAnimalData().size();
+        instrument(task, "export", file, new ExportEvent(), () -> records);
+        
+        rootLayoutController.showProgress(task);
+        ioExecutor.execute(task);
+        return task;
+    }
+    
+    /**
+     * Counts the given save as running until it has finished.
+     */
+    private void countRunningSave(Task<?> task) {
+        runningSaves++;
+        task.stateProperty().addListener((observable, oldState, newState) -> {
+            if (newState == Worker.State.SUCCEEDED || newState == Worker.State.FAILED
+                    || newState == Worker.State.CANCELLED) {
+                runningSaves--;
+            }
+        });
+    }
+    
+    /**
+     * Measures a background load or save from the moment it starts running
+     * until it has finished, and records it as flight recorder event. A
+     * failure is recorded with its exception.
+     * 
+     * @param task the task, not yet started
+     * @param operation the name of the operation, prefix of its metrics
+     * @param file the file loaded or saved, or null
+     * @param event the event to record
+     * @param records returns the number of records once the task succeeded
+     */
+    private void instrument(Task<?> task, String operation, File file, FileOperationEvent event,
+            LongSupplier records) {
+        long[] start = new long[1];
+        task.stateProperty().addListener((observable, oldState, newState) -> {
+            if (newState == Worker.State.RUNNING) {
+                start[0] = System.nanoTime();
+                event.begin();
+                return;
+            }
+            if (newState != Worker.State.SUCCEEDED && newState != Worker.State.FAILED
+                    && newState != Worker.State.CANCELLED) {
+                return;
+            }
+            if (start[0] != 0) {
+                metrics.timer(operation + ".total").recordSince(start[0]);
+            }
+            if (newState == Worker.State.FAILED) {
+                metrics.recordError(operation, task.getException());
+            }
+            event.file = file != null ? file.getPath() : null;
+            event.outcome = newState.name();
+            if (newState == Worker.State.SUCCEEDED) {
+                event.records = records.getAsLong();
+                event.bytes = file != null ? file.length() : 0;
+            }
+            event.commit();
+        });
+    }
+    
+    private void showSaveError(File file) {
+        Alert alert = new Alert(AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("Could not save data");
+        alert.setContentText("Could not save data to file:\n" + file.getPath());
+
+        alert.showAndWait();
     }
     
     /**
@@ -295,6 +1074,9 @@ public class MainApp extends Application {
      * @param edited set to true if data was modified
      */
     public void setEdited(boolean edited) {
+    	if (edited) {
+    		editGeneration++;
+    	}
     	dataEdited = edited;
     }
     
@@ -305,4 +1087,19 @@ public class MainApp extends Application {
     public boolean getEdited() {
     	return dataEdited;
     }
+    
+    /**
+     * The reorder engine and the statistics of loaded animals, created in the
+     * background before the animals are shown.
+     */
+    private static class PreparedAnimals {
+        
+        private final ReorderEngine reorderEngine;
+        private final AnimalStatistics statistics;
+        
+        PreparedAnimals(ReorderEngine reorderEngine, AnimalStatistics statistics) {
+            this.reorderEngine = reorderEngine;
+            this.statistics = statistics;
+        }
+    }
 }
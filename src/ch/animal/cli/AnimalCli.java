@@ -0,0 +1,510 @@
+package ch.animal.cli;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalMerge;
+import ch.animal.model.AnimalStore;
+import ch.animal.persistence.AnimalFileFormat;
+import ch.animal.persistence.AnimalJournal;
+import ch.animal.persistence.AtomicFileWriter;
+import ch.animal.persistence.ProgressListener;
+
+/**
+ * Command line entry point for batch jobs on animal files. It uses the same
+ * model and persistence code as the application, but never starts the JavaFX
+ * toolkit, so it runs on machines without a display. The JavaFX jars have to
+ * be on the class path all the same, the model and the journal refer to
+ * their classes.
+ * <p>
+ * The input files of a command are read in parallel on a fixed number of
+ * threads, each file into its own {@link AnimalStore}. Directories stand for
+ * the animal files directly inside them. Every command ends with the number of
+ * records processed per second.
+ *
+ * <pre>
+ * java ch.animal.cli.AnimalCli &lt;command&gt; [options] &lt;files or directories&gt;
+ * </pre>
+ *
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalCli {
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED = 1;
+    private static final int EXIT_USAGE = 2;
+
+    /** Problems listed per file by validate, the rest are only counted. */
+    private static final int MAX_LISTED_PROBLEMS = 20;
+
+    /** Order need of a new animal, before the user chose one. */
+    private static final String BESTELLUNG_UNSET = new Animal().getBestellungnotwendig();
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: AnimalCli <command> [options] <files or directories>",
+            "",
+            "Commands:",
+            "  convert    write each input in another format into the output directory",
+            "  export     like convert, writes XML unless another format is given",
+            "  import     add the animals of all inputs to the output file",
+            "  merge      write the animals of all inputs into a new output file",
+            "  validate   check the animals of each input",
+            "  aggregate  sum up the stock per feed type and unit",
+            "",
+            "Options:",
+            "  -o, --out <path>        output file or directory",
+            "  -f, --format <format>   xml, afb or afm",
+            "  -j, --threads <n>       number of files read at the same time (default: number of cores)",
+            "  --stock <rule>          import and merge keep one animal per animal and feed type,",
+            "                          combining stocks by sum, max or first (default: sum)",
+            "  --date <rule>           like --stock, keeping the latest, earliest or first order date",
+            "                          (default: latest)");
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    private String command;
+    private File output;
+    private AnimalFileFormat format;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private AnimalMerge.StockRule stockRule;
+    private AnimalMerge.DateRule dateRule;
+    private final List<File> inputs = new ArrayList<>();
+
+    /**
+     * Creates the command line tool.
+     *
+     * @param out receives the report
+     * @param err receives errors
+     */
+    public AnimalCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new AnimalCli(System.out, System.err).run(args));
+    }
+
+    /**
+     * Runs a command.
+     *
+     * @param args the command, its options and inputs
+     * @return the exit code, 0 if the command succeeded
+     */
+    public int run(String[] args) {
+        try {
+            parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        long start = System.nanoTime();
+        AtomicInteger records = new AtomicInteger();
+        int exitCode;
+        try {
+            switch (command) {
+            case "convert":
+            case "export":
+                exitCode = convert(records);
+                break;
+            case "import":
+                exitCode = combine(records, output.exists());
+                break;
+            case "merge":
+                exitCode = combine(records, false);
+                break;
+            case "validate":
+                exitCode = validate(records);
+                break;
+            case "aggregate":
+                exitCode = aggregate(records);
+                break;
+            default:
+                throw new IllegalStateException(command);
+            }
+        } catch (Exception e) {
+            err.println(command + " failed: " + e);
+            return EXIT_FAILED;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf(Locale.ROOT, "%d records in %d files, %.2f s, %.0f records/s%n",
+                records.get(), inputs.size(), seconds, records.get() / Math.max(seconds, 1e-9));
+        return exitCode;
+    }
+
+    private void parse(String[] args) {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("No command given");
+        }
+        command = args[0];
+        if (!Arrays.asList("convert", "export", "import", "merge", "validate", "aggregate").contains(command)) {
+            throw new IllegalArgumentException("Unknown command " + command);
+        }
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+            case "-o":
+            case "--out":
+                output = new File(value(args, ++i));
+                break;
+            case "-f":
+            case "--format":
+                format = parseFormat(value(args, ++i));
+                break;
+            case "-j":
+            case "--threads":
+                try {
+                    threads = Integer.parseInt(value(args, ++i));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number of threads " + args[i]);
+                }
+                if (threads < 1) {
+                    throw new IllegalArgumentException("Invalid number of threads " + threads);
+                }
+                break;
+            case "--stock":
+                stockRule = parseRule(AnimalMerge.StockRule.class, value(args, ++i));
+                break;
+            case "--date":
+                dateRule = parseRule(AnimalMerge.DateRule.class, value(args, ++i));
+                break;
+            default:
+                addInput(new File(args[i]));
+            }
+        }
+        if (stockRule != null || dateRule != null) {
+            if (!"import".equals(command) && !"merge".equals(command)) {
+                throw new IllegalArgumentException("--stock and --date only apply to import and merge");
+            }
+            if (stockRule == null) {
+                stockRule = AnimalMerge.StockRule.SUM;
+            }
+            if (dateRule == null) {
+                dateRule = AnimalMerge.DateRule.LATEST;
+            }
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input files given");
+        }
+        if ("export".equals(command) && format == null) {
+            format = AnimalFileFormat.XML;
+        }
+        boolean writes = !"validate".equals(command) && !"aggregate".equals(command);
+        if (writes && output == null) {
+            throw new IllegalArgumentException(command + " needs an output, see --out");
+        }
+        if (("convert".equals(command) || "export".equals(command)) && format == null) {
+            throw new IllegalArgumentException(command + " needs a format, see --format");
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static AnimalFileFormat parseFormat(String name) {
+        for (AnimalFileFormat candidate : AnimalFileFormat.values()) {
+            if (candidate.getExtension().equals("." + name.toLowerCase(Locale.ROOT))) {
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format " + name);
+    }
+
+    private static <E extends Enum<E>> E parseRule(Class<E> type, String name) {
+        try {
+            return Enum.valueOf(type, name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown rule " + name);
+        }
+    }
+
+    private void addInput(File file) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles(candidate -> candidate.isFile() && isAnimalFile(candidate));
+            if (files != null) {
+                Arrays.sort(files);
+                inputs.addAll(Arrays.asList(files));
+            }
+        } else if (file.isFile()) {
+            inputs.add(file);
+        } else {
+            throw new IllegalArgumentException("No such file " + file);
+        }
+    }
+
+    private static boolean isAnimalFile(File file) {
+        for (AnimalFileFormat candidate : AnimalFileFormat.values()) {
+            if (candidate.matches(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes every input in the chosen format into the output directory.
+     */
+    private int convert(AtomicInteger records) throws Exception {
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create directory " + output);
+        }
+        return forEachInput((index, file) -> {
+            AnimalStore animals = read(file);
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            File target = new File(output, (dot > 0 ? name.substring(0, dot) : name) + format.getExtension());
+            write(animals, target, format);
+            records.addAndGet(animals.size());
+            return file + " -> " + target + ": " + animals.size() + " records";
+        });
+    }
+
+    /**
+     * Reads all inputs in parallel and writes their animals, in the order of
+     * the inputs, into one output file.
+     *
+     * @param keepExisting true to keep the animals already in the output file
+     */
+    private int combine(AtomicInteger records, boolean keepExisting) throws Exception {
+        AnimalStore[] stores = new AnimalStore[inputs.size()];
+        int exitCode = forEachInput((index, file) -> {
+            AnimalStore animals = read(file);
+            stores[index] = animals;
+            records.addAndGet(animals.size());
+            return file + ": " + animals.size() + " records";
+        });
+        if (exitCode != EXIT_OK) {
+            err.println("Nothing written to " + output);
+            return exitCode;
+        }
+
+        AnimalStore combined = keepExisting ? read(output) : new AnimalStore();
+        if (stockRule != null) {
+            // The existing animals come first, so they keep their values under the "first" rules
+            AnimalMerge merge = new AnimalMerge(stockRule, dateRule);
+            Animal animal = new Animal();
+            for (int row = 0; row < combined.size(); row++) {
+                combined.read(row, animal);
+                merge.add(animal);
+            }
+            for (AnimalStore animals : stores) {
+                for (int row = 0; row < animals.size(); row++) {
+                    animals.read(row, animal);
+                    merge.add(animal);
+                }
+            }
+            combined = merge.toStore();
+            out.println(merge.getMergedCount() + " duplicate records merged");
+        } else {
+            for (AnimalStore animals : stores) {
+                combined.addAll(animals.asList());
+            }
+        }
+        write(combined, output, format != null ? format : AnimalFileFormat.forFile(output));
+        out.println(output + ": " + combined.size() + " records");
+        return EXIT_OK;
+    }
+
+    /**
+     * Checks every animal with the rules of the edit dialog.
+     */
+    private int validate(AtomicInteger records) throws Exception {
+        AtomicInteger invalid = new AtomicInteger();
+        int exitCode = forEachInput((index, file) -> {
+            AnimalStore animals = read(file);
+            records.addAndGet(animals.size());
+            List<String> problems = new ArrayList<>();
+            int count = 0;
+            for (int row = 0; row < animals.size(); row++) {
+                String problem = problem(animals, row);
+                if (problem != null) {
+                    count++;
+                    if (problems.size() < MAX_LISTED_PROBLEMS) {
+                        problems.add("  record " + (row + 1) + ": " + problem);
+                    }
+                }
+            }
+            if (count > 0) {
+                invalid.incrementAndGet();
+            }
+            StringBuilder report = new StringBuilder(file + ": " + animals.size() + " records, " + count + " invalid");
+            for (String problem : problems) {
+                report.append(System.lineSeparator()).append(problem);
+            }
+            if (count > problems.size()) {
+                report.append(System.lineSeparator()).append("  ...");
+            }
+            return report.toString();
+        });
+        return invalid.get() > 0 ? EXIT_FAILED : exitCode;
+    }
+
+    private static String problem(AnimalStore animals, int row) {
+        if (isEmpty(animals.getTierArt(row))) {
+            return "no animal type";
+        }
+        if (isEmpty(animals.getFutterArt(row))) {
+            return "no feed type";
+        }
+        if (isEmpty(animals.getMengeneinheit(row))) {
+            return "no unit";
+        }
+        double bestand = animals.getAktuellerBestand(row);
+        if (Double.isNaN(bestand) || Double.isInfinite(bestand) || bestand < 0) {
+            return "invalid stock " + bestand;
+        }
+        String bestellung = animals.getBestellungnotwendig(row);
+        if (bestellung != null && !"Ja".equals(bestellung) && !"Nein".equals(bestellung)
+                && !BESTELLUNG_UNSET.equals(bestellung)) {
+            return "invalid order need " + bestellung;
+        }
+        if (!(animals.getTagesverbrauch(row) >= 0)) {
+            return "invalid daily consumption " + animals.getTagesverbrauch(row);
+        }
+        if (animals.getLieferfrist(row) < 0) {
+            return "invalid lead time " + animals.getLieferfrist(row);
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+
+    /**
+     * Sums up number of animals, stock and animals to order per feed type
+     * and unit. Every file is summed up on its own thread, the totals are
+     * added at the end.
+     */
+    private int aggregate(AtomicInteger records) throws Exception {
+        Map<String, Totals> totals = new TreeMap<>();
+        int exitCode = forEachInput((index, file) -> {
+            AnimalStore animals = read(file);
+            Map<String, Totals> fileTotals = new TreeMap<>();
+            for (int row = 0; row < animals.size(); row++) {
+                String key = animals.getFutterArt(row) + " [" + animals.getMengeneinheit(row) + "]";
+                fileTotals.computeIfAbsent(key, k -> new Totals()).add(animals, row);
+            }
+            synchronized (totals) {
+                fileTotals.forEach((key, value) -> totals.computeIfAbsent(key, k -> new Totals()).add(value));
+            }
+            records.addAndGet(animals.size());
+            return file + ": " + animals.size() + " records";
+        });
+        out.printf(Locale.ROOT, "%-40s %10s %15s %10s%n", "Futterart [Mengeneinheit]", "Tiere", "Bestand", "Bestellen");
+        totals.forEach((key, value) -> out.printf(Locale.ROOT, "%-40s %10d %15.2f %10d%n",
+                key, value.animals, value.bestand, value.toOrder));
+        return exitCode;
+    }
+
+    /**
+     * Runs the job for every input on the thread pool and prints the lines
+     * they return in the order of the inputs.
+     *
+     * @return {@link #EXIT_OK}, or {@link #EXIT_FAILED} if a file failed
+     */
+    private int forEachInput(FileJob job) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, inputs.size()), runnable -> {
+            Thread thread = new Thread(runnable, "animal-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                int index = i;
+                results.add(pool.submit(() -> job.run(index, inputs.get(index))));
+            }
+            int exitCode = EXIT_OK;
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    out.println(results.get(i).get());
+                } catch (ExecutionException e) {
+                    err.println(inputs.get(i) + ": " + e.getCause());
+                    exitCode = EXIT_FAILED;
+                }
+            }
+            return exitCode;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads a file including its journal, like the application does.
+     */
+    private static AnimalStore read(File file) throws Exception {
+        AnimalStore animals = new AnimalStore();
+        AnimalFileFormat.forFile(file).read(file, animals::addAll, ProgressListener.NONE);
+        AnimalJournal.replay(file, animals.asList());
+        return animals;
+    }
+
+    private static void write(AnimalStore animals, File file, AnimalFileFormat format) throws Exception {
+        new AtomicFileWriter(0).write(file.toPath(), stream -> format.write(animals.asList(), stream, ProgressListener.NONE));
+        // A journal of the old content must not be replayed onto the new one
+        Files.deleteIfExists(AnimalJournal.journalFile(file).toPath());
+    }
+
+    /**
+     * Work done for one input file.
+     */
+    private interface FileJob {
+
+        /**
+         * Processes the file.
+         *
+         * @param index the position of the file among the inputs
+         * @param file the input file
+         * @return the line to report for the file
+         * @throws Exception if the file cannot be processed
+         */
+        String run(int index, File file) throws Exception;
+    }
+
+    /**
+     * Totals of one feed type and unit.
+     */
+    private static class Totals {
+
+        int animals;
+        double bestand;
+        int toOrder;
+
+        void add(AnimalStore store, int row) {
+            animals++;
+            bestand += store.getAktuellerBestand(row);
+            if ("Ja".equals(store.getBestellungnotwendig(row))) {
+                toOrder++;
+            }
+        }
+
+        void add(Totals other) {
+            animals += other.animals;
+            bestand += other.bestand;
+            toOrder += other.toOrder;
+        }
+    }
+}
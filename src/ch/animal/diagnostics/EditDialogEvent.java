@@ -0,0 +1,27 @@
+package ch.animal.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for one round trip through the edit dialog, from
+ * opening it until the user closed it.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@Name("ch.animal.EditDialog")
+@Label("Edit Dialog")
+@Category("AnimalFeedingApp")
+public class EditDialogEvent extends Event {
+
+    @Label("Open Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long openNanos;
+
+    @Label("OK Clicked")
+    public boolean okClicked;
+}
@@ -0,0 +1,15 @@
+package ch.animal.diagnostics;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for exporting animal data to CSV or JSON lines.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@Name("ch.animal.Export")
+@Label("Animal File Export")
+public class ExportEvent extends FileOperationEvent {
+}
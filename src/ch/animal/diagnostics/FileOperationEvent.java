@@ -0,0 +1,31 @@
+package ch.animal.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Flight recorder event around loading or saving an animal file. The event
+ * is begun when the background task starts running and committed when it
+ * has finished, whatever the outcome.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@Category("AnimalFeedingApp")
+public abstract class FileOperationEvent extends Event {
+
+    @Label("File")
+    public String file;
+
+    @Label("Outcome")
+    public String outcome;
+
+    @Label("Records")
+    public long records;
+
+    @Label("File Size")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,16 @@
+package ch.animal.diagnostics;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for loading an animal file or opening a
+ * memory-mapped store.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@Name("ch.animal.Load")
+@Label("Animal File Load")
+public class LoadEvent extends FileOperationEvent {
+}
@@ -0,0 +1,384 @@
+package ch.animal.diagnostics;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.animal.persistence.AtomicFileWriter;
+
+/**
+ * Collects timings, counters and values of the application while it runs,
+ * together with the last errors. Everything is kept in memory only; the
+ * help menu shows it and can export it to a text file.
+ * <p>
+ * Metrics are created on first use and identified by their name, e.g.
+ * {@code load.parse}. The registry and its metrics are thread-safe, so the
+ * background tasks record into it directly.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class MetricsRegistry {
+
+    /** Number of errors kept, older ones are dropped. */
+    private static final int MAX_ERRORS = 50;
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Instant started = Instant.now();
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+    private final Deque<ErrorRecord> errors = new ArrayDeque<>();
+
+    /**
+     * Returns the registry of the application.
+     *
+     * @return the registry
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the timer with the given name, creating it if necessary.
+     *
+     * @param name the name of the timer
+     * @return the timer
+     */
+    public Timer timer(String name) {
+        return get(name, Timer.class);
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if necessary.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        return get(name, Counter.class);
+    }
+
+    /**
+     * Returns the gauge with the given name, creating it if necessary.
+     *
+     * @param name the name of the gauge
+     * @return the gauge
+     */
+    public Gauge gauge(String name) {
+        return get(name, Gauge.class);
+    }
+
+    private <M extends Metric> M get(String name, Class<M> type) {
+        Metric metric = metrics.computeIfAbsent(name, key -> {
+            if (type == Timer.class) {
+                return new Timer(key);
+            } else if (type == Counter.class) {
+                return new Counter(key);
+            } else {
+                return new Gauge(key);
+            }
+        });
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + metric.getClass().getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Records the current heap usage in the given gauge.
+     *
+     * @param name the name of the gauge
+     */
+    public void recordHeapUsage(String name) {
+        gauge(name).set(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    /**
+     * Records an error. Only the last errors are kept.
+     *
+     * @param operation what was being done, e.g. "load"
+     * @param error the error
+     */
+    public void recordError(String operation, Throwable error) {
+        counter("errors." + operation).increment();
+        synchronized (errors) {
+            if (errors.size() == MAX_ERRORS) {
+                errors.removeFirst();
+            }
+            errors.addLast(new ErrorRecord(Instant.now(), operation, error));
+        }
+    }
+
+    /**
+     * Returns all metrics, sorted by name.
+     *
+     * @return the metrics
+     */
+    public List<Metric> getMetrics() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    /**
+     * Returns the recorded errors, the oldest first.
+     *
+     * @return the errors
+     */
+    public List<ErrorRecord> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    /**
+     * Writes all metrics and errors to a text file, one value per line.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void export(Path file) throws IOException {
+        new AtomicFileWriter(0).write(file, stream -> {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+            out.println("# AnimalFeedingApp diagnostics");
+            out.println("exported " + Instant.now());
+            out.println("started " + started);
+            out.println("java.version " + System.getProperty("java.version"));
+            out.println("heap.max " + Runtime.getRuntime().maxMemory());
+            for (Metric metric : getMetrics()) {
+                metric.export(out);
+            }
+            for (ErrorRecord error : getErrors()) {
+                out.println();
+                out.println("error " + error.getTime() + " " + error.getOperation());
+                out.print(error.getStackTrace());
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * A named value of the registry.
+     */
+    public abstract static class Metric {
+
+        private final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of the metric.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the current value as text for the user.
+         *
+         * @return the value
+         */
+        public abstract String getDescription();
+
+        abstract void export(PrintWriter out);
+    }
+
+    /**
+     * Measures how often and how long an operation took.
+     */
+    public static class Timer extends Metric {
+
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long lastNanos;
+
+        Timer(String name) {
+            super(name);
+        }
+
+        /**
+         * Records one run of the operation.
+         *
+         * @param nanos the duration in nanoseconds
+         */
+        public synchronized void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastNanos = nanos;
+        }
+
+        /**
+         * Records one run that started at the given time.
+         *
+         * @param startNanos the start as returned by {@link System#nanoTime()}
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Returns how often the operation was recorded.
+         *
+         * @return the number of runs
+         */
+        public synchronized long getCount() {
+            return count;
+        }
+
+        @Override
+        public synchronized String getDescription() {
+            if (count == 0) {
+                return "-";
+            }
+            return String.format("%d mal, Ø %.1f ms, max %.1f ms, zuletzt %.1f ms", count,
+                    millis(totalNanos / count), millis(maxNanos), millis(lastNanos));
+        }
+
+        @Override
+        synchronized void export(PrintWriter out) {
+            out.println(getName() + ".count " + count);
+            out.println(getName() + ".totalMillis " + TimeUnit.NANOSECONDS.toMillis(totalNanos));
+            out.println(getName() + ".maxMillis " + TimeUnit.NANOSECONDS.toMillis(maxNanos));
+            out.println(getName() + ".lastMillis " + TimeUnit.NANOSECONDS.toMillis(lastNanos));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+
+    /**
+     * Counts things like records or bytes.
+     */
+    public static class Counter extends Metric {
+
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        /**
+         * Adds one.
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * Adds the given amount.
+         *
+         * @param amount the amount to add
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        /**
+         * Returns the sum counted so far.
+         *
+         * @return the sum
+         */
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("%,d", get());
+        }
+
+        @Override
+        void export(PrintWriter out) {
+            out.println(getName() + " " + get());
+        }
+    }
+
+    /**
+     * Holds the last value of a measurement, like the heap usage.
+     */
+    public static class Gauge extends Metric {
+
+        private final AtomicLong value = new AtomicLong();
+
+        Gauge(String name) {
+            super(name);
+        }
+
+        /**
+         * Sets the value.
+         *
+         * @param newValue the measured value
+         */
+        public void set(long newValue) {
+            value.set(newValue);
+        }
+
+        /**
+         * Returns the last value.
+         *
+         * @return the value
+         */
+        public long get() {
+            return value.get();
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("%,d", get());
+        }
+
+        @Override
+        void export(PrintWriter out) {
+            out.println(getName() + " " + get());
+        }
+    }
+
+    /**
+     * An error that occurred during an operation.
+     */
+    public static class ErrorRecord {
+
+        private final Instant time;
+        private final String operation;
+        private final String stackTrace;
+
+        ErrorRecord(Instant time, String operation, Throwable error) {
+            this.time = time;
+            this.operation = operation;
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            this.stackTrace = trace.toString();
+        }
+
+        public Instant getTime() {
+            return time;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getStackTrace() {
+            return stackTrace;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ch.animal.diagnostics;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for saving animal data, as snapshot or by appending
+ * to the journal.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@Name("ch.animal.Save")
+@Label("Animal File Save")
+public class SaveEvent extends FileOperationEvent {
+}
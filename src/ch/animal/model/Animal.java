@@ -5,27 +5,63 @@ import java.time.LocalDate;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
 import ch.animal.util.LocalDateAdapter;
+import ch.animal.util.Vocabulary;
 import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 
 /**
  * Model class for an Animal with all needed inputs/informations.
+ * <p>
+ * The values are kept in plain fields. The JavaFX properties are only created
+ * when they are asked for, e.g. when a table cell binds them, so animals that
+ * are never shown stay small. Feed types and units repeat across many
+ * animals and are shared through the vocabularies {@link #FUTTER_ARTEN} and
+ * {@link #MENGENEINHEITEN}.
+ * <p>
+ * The key identifies an animal for good, across saving and loading. It is
+ * assigned by the store the animal is added to, see {@link AnimalRows}; a new
+ * animal has the key 0 until then.
  * @author Damian Krebs  
  * @author Stephanie Gloor
  */
 
 public class Animal {
 	
-    private final StringProperty tierArt;
-    private final StringProperty futterArt;
-    private final DoubleProperty aktuellerBestand;
-    private final StringProperty mengeneinheit;
-    private final StringProperty bestellungnotwendig;
-    private final ObjectProperty<LocalDate> bestelldatum;
+    private static final LocalDate DEFAULT_BESTELLDATUM = LocalDate.of(1999, 2, 21);
+	
+    /** The feed types known so far, shared by all animals. */
+    public static final Vocabulary FUTTER_ARTEN = new Vocabulary(4096);
+    
+    /** The units known so far, shared by all animals. */
+    public static final Vocabulary MENGENEINHEITEN = new Vocabulary(256);
+	
+    private String tierArt;
+    private String futterArt;
+    private double aktuellerBestand;
+    private String mengeneinheit;
+    private String bestellungnotwendig;
+    private LocalDate bestelldatum;
+    private double tagesverbrauch;
+    private int lieferfrist;
+    private long key;
+    
+    // Created on first use, then they hold the value instead of the fields
+    private StringProperty tierArtProperty;
+    private StringProperty futterArtProperty;
+    private DoubleProperty aktuellerBestandProperty;
+    private StringProperty mengeneinheitProperty;
+    private StringProperty bestellungnotwendigProperty;
+    private ObjectProperty<LocalDate> bestelldatumProperty;
+    private DoubleProperty tagesverbrauchProperty;
+    private IntegerProperty lieferfristProperty;
+    
+    private Runnable changeListener;
     
     /**
      * Default constructor.
@@ -41,88 +77,292 @@ public class Animal {
      * @param futterArt initial value
      */
     public Animal(String tierArt, String futterArt) {
-    	this.tierArt = new SimpleStringProperty(tierArt);
-    	this.futterArt = new SimpleStringProperty(futterArt);
+    	this.tierArt = tierArt;
+    	this.futterArt = FUTTER_ARTEN.intern(futterArt);
     	
         // Some initial dummy data, just for convenient and easy testing
-        this.aktuellerBestand = new SimpleDoubleProperty(50.5);
-        this.mengeneinheit = new SimpleStringProperty("Kg");
-        this.bestellungnotwendig = new SimpleStringProperty("Ja, Nein");
-        this.bestelldatum = new SimpleObjectProperty<LocalDate>(LocalDate.of(1999, 2, 21));
+        this.aktuellerBestand = 50.5;
+        this.mengeneinheit = MENGENEINHEITEN.intern("Kg");
+        this.bestellungnotwendig = "Ja, Nein";
+        this.bestelldatum = DEFAULT_BESTELLDATUM;
+    }
+    
+    /**
+     * Returns a copy of this animal. The copy has its own properties, so it is
+     * not affected by later changes to this animal.
+     * 
+     * @return the copy
+     */
+    public Animal copy() {
+        Animal copy = new Animal(getTierArt(), getFutterArt());
+        copy.aktuellerBestand = getAktuellerBestand();
+        copy.mengeneinheit = getMengeneinheit();
+        copy.bestellungnotwendig = getBestellungnotwendig();
+        copy.bestelldatum = getBestelldatum();
+        copy.tagesverbrauch = getTagesverbrauch();
+        copy.lieferfrist = getLieferfrist();
+        copy.key = key;
+        return copy;
+    }
+    
+    /**
+     * Sets a listener that is called after any value of this animal changed,
+     * whether through a setter or through a property. Used by lists that keep
+     * the values of their animals elsewhere, see {@link AnimalRowList}.
+     * 
+     * @param listener the listener, or null to remove it
+     */
+    public void setChangeListener(Runnable listener) {
+        this.changeListener = listener;
+    }
+    
+    private void changed() {
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+    
+    /**
+     * Returns the key of this animal.
+     * 
+     * @return the key, or 0 if the animal was not stored yet
+     */
+    public long getKey() {
+        return key;
+    }
+    
+    /**
+     * Sets the key. Only stores and readers set it; the key of a row does not
+     * change by writing the animal back, so this is no change of its values.
+     * 
+     * @param key the key
+     */
+    public void setKey(long key) {
+        this.key = key;
     }
     
     public String getTierArt() {
-    	return tierArt.get();
+    	return tierArtProperty != null ? tierArtProperty.get() : tierArt;
     }
     
     public void setTierArt(String tierArt) {
-    	this.tierArt.set(tierArt);
+    	if (tierArtProperty != null) {
+    		tierArtProperty.set(tierArt);
+    	} else if (this.tierArt != tierArt) {
+    		this.tierArt = tierArt;
+    		changed();
+    	}
     }
     
     public StringProperty tierArtProperty() {
-    	return tierArt;
+    	if (tierArtProperty == null) {
+    		tierArtProperty = new SimpleStringProperty(this, "tierArt", tierArt) {
+    			@Override
+    			protected void invalidated() {
+    				changed();
+    			}
+    		};
+    	}
+    	return tierArtProperty;
     }
     
     public String getFutterArt() {
-    	return futterArt.get();
+    	return futterArtProperty != null ? futterArtProperty.get() : futterArt;
     }
     
     public void setFutterArt(String futterArt) {
-    	this.futterArt.set(futterArt);
+    	futterArt = FUTTER_ARTEN.intern(futterArt);
+    	if (futterArtProperty != null) {
+    		futterArtProperty.set(futterArt);
+    	} else if (this.futterArt != futterArt) {
+    		this.futterArt = futterArt;
+    		changed();
+    	}
     }
     
     public StringProperty futterArtProperty() {
-    	return futterArt;
+    	if (futterArtProperty == null) {
+    		futterArtProperty = new SimpleStringProperty(this, "futterArt", futterArt) {
+    			@Override
+    			public void set(String value) {
+    				super.set(FUTTER_ARTEN.intern(value));
+    			}
+    			
+    			@Override
+    			protected void invalidated() {
+    				changed();
+    			}
+    		};
+    	}
+    	return futterArtProperty;
     }
     
-    public Double getAktuellerBestand() {
-    	return aktuellerBestand.get();
+    public double getAktuellerBestand() {
+    	return aktuellerBestandProperty != null ? aktuellerBestandProperty.get() : aktuellerBestand;
     }
     
-    public void setAktuellerBestand(Double aktuellerBestand) {
-    	this.aktuellerBestand.set(aktuellerBestand);
+    public void setAktuellerBestand(double aktuellerBestand) {
+    	if (aktuellerBestandProperty != null) {
+    		aktuellerBestandProperty.set(aktuellerBestand);
+    	} else if (this.aktuellerBestand != aktuellerBestand) {
+    		this.aktuellerBestand = aktuellerBestand;
+    		changed();
+    	}
     }
     
     public DoubleProperty aktuellerBestandProperty() {
-    	return aktuellerBestand;
+    	if (aktuellerBestandProperty == null) {
+    		aktuellerBestandProperty = new SimpleDoubleProperty(this, "aktuellerBestand", aktuellerBestand) {
+    			@Override
+    			protected void invalidated() {
+    				changed();
+    			}
+    		};
+    	}
+    	return aktuellerBestandProperty;
     }
     
     public String getMengeneinheit() {
-    	return mengeneinheit.get();
+    	return mengeneinheitProperty != null ? mengeneinheitProperty.get() : mengeneinheit;
     }
     
     public void setMengeneinheit(String mengeneinheit) {
-    	this.mengeneinheit.set(mengeneinheit);
+    	mengeneinheit = MENGENEINHEITEN.intern(mengeneinheit);
+    	if (mengeneinheitProperty != null) {
+    		mengeneinheitProperty.set(mengeneinheit);
+    	} else if (this.mengeneinheit != mengeneinheit) {
+    		this.mengeneinheit = mengeneinheit;
+    		changed();
+    	}
     }
     
     public StringProperty mengeneinheitProperty() {
-    	return mengeneinheit;
+    	if (mengeneinheitProperty == null) {
+    		mengeneinheitProperty = new SimpleStringProperty(this, "mengeneinheit", mengeneinheit) {
+    			@Override
+    			public void set(String value) {
+    				super.set(MENGENEINHEITEN.intern(value));
+    			}
+    			
+    			@Override
+    			protected void invalidated() {
+    				changed();
+    			}
+    		};
+    	}
+    	return mengeneinheitProperty;
     }
     
     public String getBestellungnotwendig() {
-    	return bestellungnotwendig.get();
+    	return bestellungnotwendigProperty != null ? bestellungnotwendigProperty.get() : bestellungnotwendig;
     }
     
     public void setBestellungnotwendig (String bestellungnotwendig) {
-    	this.bestellungnotwendig.set(bestellungnotwendig);
+    	if (bestellungnotwendigProperty != null) {
+    		bestellungnotwendigProperty.set(bestellungnotwendig);
+    	} else if (this.bestellungnotwendig != bestellungnotwendig) {
+    		this.bestellungnotwendig = bestellungnotwendig;
+    		changed();
+    	}
     }
     
     public StringProperty bestellungnotwendigProperty() {
-    	return bestellungnotwendig;
+    	if (bestellungnotwendigProperty == null) {
+    		bestellungnotwendigProperty = new SimpleStringProperty(this, "bestellungnotwendig", bestellungnotwendig) {
+    			@Override
+    			protected void invalidated() {
+    				changed();
+    			}
+    		};
+    	}
+    	return bestellungnotwendigProperty;
     }
     
    
     
     @XmlJavaTypeAdapter(LocalDateAdapter.class) 
     public LocalDate getBestelldatum() {
-        return bestelldatum.get();
+        return bestelldatumProperty != null ? bestelldatumProperty.get() : bestelldatum;
     }
 
     public void setBestelldatum(LocalDate bestelldatum) {
-        this.bestelldatum.set(bestelldatum);
+        if (bestelldatumProperty != null) {
+            bestelldatumProperty.set(bestelldatum);
+        } else if (this.bestelldatum != bestelldatum) {
+            this.bestelldatum = bestelldatum;
+            changed();
+        }
     }
     
     public ObjectProperty<LocalDate> bestelldatumProperty() {
-        return bestelldatum;
+        if (bestelldatumProperty == null) {
+            bestelldatumProperty = new SimpleObjectProperty<LocalDate>(this, "bestelldatum", bestelldatum) {
+                @Override
+                protected void invalidated() {
+                    changed();
+                }
+            };
+        }
+        return bestelldatumProperty;
+    }
+    
+    /**
+     * Returns the consumption per day, in the unit of the stock.
+     * 
+     * @return the daily consumption, 0 if unknown
+     */
+    public double getTagesverbrauch() {
+        return tagesverbrauchProperty != null ? tagesverbrauchProperty.get() : tagesverbrauch;
+    }
+    
+    public void setTagesverbrauch(double tagesverbrauch) {
+        if (tagesverbrauchProperty != null) {
+            tagesverbrauchProperty.set(tagesverbrauch);
+        } else if (this.tagesverbrauch != tagesverbrauch) {
+            this.tagesverbrauch = tagesverbrauch;
+            changed();
+        }
+    }
+    
+    public DoubleProperty tagesverbrauchProperty() {
+        if (tagesverbrauchProperty == null) {
+            tagesverbrauchProperty = new SimpleDoubleProperty(this, "tagesverbrauch", tagesverbrauch) {
+                @Override
+                protected void invalidated() {
+                    changed();
+                }
+            };
+        }
+        return tagesverbrauchProperty;
+    }
+    
+    /**
+     * Returns the lead time of an order in days.
+     * 
+     * @return the lead time in days
+     */
+    public int getLieferfrist() {
+        return lieferfristProperty != null ? lieferfristProperty.get() : lieferfrist;
+    }
+    
+    public void setLieferfrist(int lieferfrist) {
+        if (lieferfristProperty != null) {
+            lieferfristProperty.set(lieferfrist);
+        } else if (this.lieferfrist != lieferfrist) {
+            this.lieferfrist = lieferfrist;
+            changed();
+        }
+    }
+    
+    public IntegerProperty lieferfristProperty() {
+        if (lieferfristProperty == null) {
+            lieferfristProperty = new SimpleIntegerProperty(this, "lieferfrist", lieferfrist) {
+                @Override
+                protected void invalidated() {
+                    changed();
+                }
+            };
+        }
+        return lieferfristProperty;
     }
 }
@@ -0,0 +1,302 @@
+package ch.animal.model;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Differences between the animals in memory and a newer version of them,
+ * e.g. the file they were loaded from after another program rewrote it.
+ * Applying the differences removes, changes and inserts only the rows that
+ * differ, so the cost depends on the number of changed rows and not on the
+ * size of the data.
+ * <p>
+ * If both versions have keys, e.g. a file saved by this application, a row
+ * is identified by its key. Otherwise, e.g. for a file written by another
+ * program, it is identified by its animal type and feed type. Both versions
+ * are walked in order, rows of the same identity at the same place are kept
+ * and only changed if their values differ. Rows in between are removed or
+ * added, so the list ends up in the order of the new version.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalDiff {
+
+    private final int[] removedRows;
+    private final int[] changedRows;
+    private final AnimalStore changedValues;
+    private final int[] addedRows;
+    private final AnimalStore addedValues;
+
+    private AnimalDiff(int[] removedRows, int[] changedRows, AnimalStore changedValues, int[] addedRows,
+            AnimalStore addedValues) {
+        this.removedRows = removedRows;
+        this.changedRows = changedRows;
+        this.changedValues = changedValues;
+        this.addedRows = addedRows;
+        this.addedValues = addedValues;
+    }
+
+    /**
+     * Computes the differences between two versions of the animals, rows are
+     * identified by animal type and feed type. Neither store is changed.
+     *
+     * @param current the animals as they are now
+     * @param updated the new version of the animals
+     * @return the differences turning current into updated
+     */
+    public static AnimalDiff compute(AnimalStore current, AnimalStore updated) {
+        return compute(current, updated, false);
+    }
+
+    /**
+     * Computes the differences between two versions of the animals. Neither
+     * store is changed.
+     *
+     * @param current the animals as they are now
+     * @param updated the new version of the animals
+     * @param byKey true to identify rows by their key, if the keys of the new
+     *              version were read and not assigned when it was stored
+     * @return the differences turning current into updated
+     */
+    public static AnimalDiff compute(AnimalStore current, AnimalStore updated, boolean byKey) {
+        return new Builder(current, updated, byKey).build();
+    }
+
+    /**
+     * Returns true if there are no differences.
+     *
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+        return removedRows.length == 0 && changedRows.length == 0 && addedRows.length == 0;
+    }
+
+    /**
+     * Returns the number of rows that are removed, changed or added.
+     *
+     * @return the number of differing rows
+     */
+    public int getRowCount() {
+        return removedRows.length + changedRows.length + addedRows.length;
+    }
+
+    public int getRemovedCount() {
+        return removedRows.length;
+    }
+
+    public int getChangedCount() {
+        return changedRows.length;
+    }
+
+    public int getAddedCount() {
+        return addedRows.length;
+    }
+
+    /**
+     * Applies the differences to the list whose store they were computed
+     * for: one change removing rows, one updating rows and one inserting
+     * rows.
+     *
+     * @param animals the list, with the content the differences were computed from
+     */
+    public void apply(AnimalRowList<?> animals) {
+        animals.removeRows(removedRows);
+        animals.updateRows(changedRows,
+                (animal, row) -> changedValues.read(Arrays.binarySearch(changedRows, row), animal));
+        animals.insertRows(addedRows, addedValues);
+    }
+
+    private static boolean sameValues(AnimalStore a, int rowA, AnimalStore b, int rowB) {
+        return a.getBestelldatumEpochDay(rowA) == b.getBestelldatumEpochDay(rowB)
+                && Double.compare(a.getAktuellerBestand(rowA), b.getAktuellerBestand(rowB)) == 0
+                && Double.compare(a.getTagesverbrauch(rowA), b.getTagesverbrauch(rowB)) == 0
+                && a.getLieferfrist(rowA) == b.getLieferfrist(rowB)
+                && Objects.equals(a.getTierArt(rowA), b.getTierArt(rowB))
+                && Objects.equals(a.getFutterArt(rowA), b.getFutterArt(rowB))
+                && Objects.equals(a.getMengeneinheit(rowA), b.getMengeneinheit(rowB))
+                && Objects.equals(a.getBestellungnotwendig(rowA), b.getBestellungnotwendig(rowB));
+    }
+
+    /**
+     * Walks both versions in order. Rows with the same identity at the
+     * current positions belong together. Otherwise the next row with the
+     * identity of the other version is looked for, first close by, then with
+     * an index of all rows, and the rows in between are removed or added.
+     */
+    private static class Builder {
+
+        /** Rows searched directly before the index is used. */
+        private static final int LOOKAHEAD = 1024;
+
+        /** Rows that must match after a row found with the index. */
+        private static final int CONFIRM = 8;
+
+        private final AnimalStore current;
+        private final AnimalStore updated;
+        private final boolean byKey;
+        // Identity hash and row of every row, sorted
+        private long[] currentIndex;
+        private long[] updatedIndex;
+
+        private int[] removedRows = new int[16];
+        private int removed;
+        private int[] changedRows = new int[16];
+        private final AnimalStore changedValues = new AnimalStore();
+        private int changed;
+        private int[] addedRows = new int[16];
+        private final AnimalStore addedValues = new AnimalStore();
+        private int added;
+        private int kept;
+
+        Builder(AnimalStore current, AnimalStore updated, boolean byKey) {
+            this.current = current;
+            this.updated = updated;
+            this.byKey = byKey;
+        }
+
+        AnimalDiff build() {
+            int size = current.size();
+            int newSize = updated.size();
+            int i = 0;
+            int j = 0;
+            while (i < size && j < newSize) {
+                if (sameIdentity(current, i, updated, j)) {
+                    keep(i++, j++);
+                    continue;
+                }
+                int removeUntil = lookAhead(current, i + 1, updated, j);
+                int addUntil = lookAhead(updated, j + 1, current, i);
+                if (removeUntil < 0 && addUntil < 0) {
+                    // A large block, or a row whose identity changed
+                    removeUntil = search(current, i + 1 + LOOKAHEAD, updated, j, false);
+                    addUntil = search(updated, j + 1 + LOOKAHEAD, current, i, true);
+                }
+                if (removeUntil < 0 && addUntil < 0) {
+                    remove(i++);
+                    add(j++);
+                } else if (addUntil < 0 || removeUntil >= 0 && removeUntil - i <= addUntil - j) {
+                    while (i < removeUntil) {
+                        remove(i++);
+                    }
+                } else {
+                    while (j < addUntil) {
+                        add(j++);
+                    }
+                }
+            }
+            while (i < size) {
+                remove(i++);
+            }
+            while (j < newSize) {
+                add(j++);
+            }
+            return new AnimalDiff(Arrays.copyOf(removedRows, removed), Arrays.copyOf(changedRows, changed),
+                    changedValues, Arrays.copyOf(addedRows, added), addedValues);
+        }
+
+        /**
+         * Returns the first row in the given range of the next rows of the
+         * store that has the identity of the given row of the other store,
+         * or -1.
+         */
+        private int lookAhead(AnimalStore store, int from, AnimalStore other, int row) {
+            int end = (int) Math.min(store.size(), (long) from + LOOKAHEAD);
+            for (int k = from; k < end; k++) {
+                if (sameIdentity(store, k, other, row)) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the first row from the given one on that has the identity of
+         * the given row of the other store and after which the rows of both
+         * stores continue to match, or -1.
+         */
+        private int search(AnimalStore store, int from, AnimalStore other, int row, boolean inUpdated) {
+            if (from >= store.size()) {
+                return -1;
+            }
+            long[] index = index(store, inUpdated);
+            int hash = hash(other, row);
+            int k = Arrays.binarySearch(index, (long) hash << 32 | from);
+            for (k = k >= 0 ? k : -k - 1; k < index.length && (int) (index[k] >> 32) == hash; k++) {
+                int candidate = (int) index[k];
+                if (sameIdentity(store, candidate, other, row) && continues(store, candidate, other, row)) {
+                    return candidate;
+                }
+            }
+            return -1;
+        }
+
+        private boolean continues(AnimalStore store, int row, AnimalStore other, int otherRow) {
+            int length = Math.min(CONFIRM, Math.min(store.size() - row, other.size() - otherRow));
+            for (int k = 1; k < length; k++) {
+                if (!sameIdentity(store, row + k, other, otherRow + k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long[] index(AnimalStore store, boolean inUpdated) {
+            long[] index = inUpdated ? updatedIndex : currentIndex;
+            if (index == null) {
+                index = new long[store.size()];
+                for (int row = 0; row < index.length; row++) {
+                    index[row] = (long) hash(store, row) << 32 | row;
+                }
+                Arrays.sort(index);
+                if (inUpdated) {
+                    updatedIndex = index;
+                } else {
+                    currentIndex = index;
+                }
+            }
+            return index;
+        }
+
+        private int hash(AnimalStore store, int row) {
+            if (byKey) {
+                return Long.hashCode(store.getKey(row));
+            }
+            return 31 * Objects.hashCode(store.getTierArt(row)) + Objects.hashCode(store.getFutterArt(row));
+        }
+
+        private boolean sameIdentity(AnimalStore a, int rowA, AnimalStore b, int rowB) {
+            if (byKey) {
+                return a.getKey(rowA) == b.getKey(rowB);
+            }
+            return Objects.equals(a.getTierArt(rowA), b.getTierArt(rowB))
+                    && Objects.equals(a.getFutterArt(rowA), b.getFutterArt(rowB));
+        }
+
+        private void keep(int i, int j) {
+            if (!sameValues(current, i, updated, j)) {
+                changedRows = grow(changedRows, changed);
+                // Numbered after the removal, where only kept rows are left
+                changedRows[changed++] = kept;
+                changedValues.add(updated.read(j));
+            }
+            kept++;
+        }
+
+        private void remove(int i) {
+            removedRows = grow(removedRows, removed);
+            removedRows[removed++] = i;
+        }
+
+        private void add(int j) {
+            addedRows = grow(addedRows, added);
+            // Numbered in the new version, which the list is once all rows are inserted
+            addedRows[added++] = j;
+            addedValues.add(updated.read(j));
+        }
+
+        private static int[] grow(int[] rows, int count) {
+            return count < rows.length ? rows : Arrays.copyOf(rows, rows.length * 2);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package ch.animal.model;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import ch.animal.util.StringDictionary;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Indexes on the animal type, the feed type and the order date of a list of
+ * animals, for queries that return the matching rows without looking at the
+ * others. Per type the rows are grouped by value in one array with the start
+ * of every group, the order dates are kept as {@code (epoch day << 32 | row)}
+ * in ascending order.
+ * <p>
+ * The index is built on the first query. Edits of other fields, e.g. of the
+ * stock, leave it as it is; an edit of an indexed field drops the index of
+ * that field, inserting or removing rows drops all of them. They are built
+ * again in one pass by the next query. The index must only be used on the
+ * JavaFX Application Thread.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalIndex {
+
+    private static final int[] NO_ROWS = new int[0];
+
+    private final ObservableList<Animal> animals;
+    private final ListChangeListener<Animal> listener = this::animalsChanged;
+
+    // Indexed values per row, null while they have to be read again
+    private final StringDictionary values = new StringDictionary();
+    private int[] tierArt;
+    private int[] futterArt;
+    private int[] bestelldatum;
+
+    // Rows grouped by value code + 1, so that null comes first; null while stale
+    private int[] tierArtStart;
+    private int[] tierArtRows;
+    private int[] futterArtStart;
+    private int[] futterArtRows;
+    private long[] byDate;
+
+    /**
+     * Creates the index. It follows the changes of the list until it is
+     * disposed.
+     *
+     * @param animals the animals to index
+     */
+    public AnimalIndex(ObservableList<Animal> animals) {
+        this.animals = animals;
+        animals.addListener(listener);
+    }
+
+    /**
+     * Stops following the changes of the list.
+     */
+    public void dispose() {
+        animals.removeListener(listener);
+    }
+
+    /**
+     * Returns the rows with the given animal type.
+     *
+     * @param value the animal type, compared exactly
+     * @return the rows in ascending order
+     */
+    public int[] findByTierArt(String value) {
+        readValues();
+        if (tierArtStart == null) {
+            tierArtStart = new int[values.size() + 2];
+            tierArtRows = group(tierArt, tierArtStart);
+        }
+        return rowsOf(value, tierArtStart, tierArtRows);
+    }
+
+    /**
+     * Returns the rows with the given feed type.
+     *
+     * @param value the feed type, compared exactly
+     * @return the rows in ascending order
+     */
+    public int[] findByFutterArt(String value) {
+        readValues();
+        if (futterArtStart == null) {
+            futterArtStart = new int[values.size() + 2];
+            futterArtRows = group(futterArt, futterArtStart);
+        }
+        return rowsOf(value, futterArtStart, futterArtRows);
+    }
+
+    /**
+     * Returns the rows whose order date lies in the given range. Rows
+     * without order date are never returned.
+     *
+     * @param from the first day, or null for no lower limit
+     * @param to the last day, or null for no upper limit
+     * @return the rows in ascending order
+     */
+    public int[] findOrderedBetween(LocalDate from, LocalDate to) {
+        readValues();
+        if (byDate == null) {
+            byDate = new long[bestelldatum.length];
+            for (int row = 0; row < byDate.length; row++) {
+                byDate[row] = (long) bestelldatum[row] << 32 | row;
+            }
+            Arrays.sort(byDate);
+        }
+        long low = (long) (from != null ? Math.toIntExact(from.toEpochDay()) : AnimalStore.NO_DATE + 1) << 32;
+        int first = insertionPoint(low);
+        int last = to != null ? insertionPoint((to.toEpochDay() + 1) << 32) : byDate.length;
+        if (first >= last) {
+            return NO_ROWS;
+        }
+        int[] rows = new int[last - first];
+        for (int i = first; i < last; i++) {
+            rows[i - first] = (int) byDate[i];
+        }
+        Arrays.sort(rows);
+        return rows;
+    }
+
+    private void animalsChanged(ListChangeListener.Change<? extends Animal> c) {
+        if (tierArt == null) {
+            return;
+        }
+        while (c.next()) {
+            if (!c.wasUpdated()) {
+                tierArt = null;
+                dropIndexes();
+                return;
+            }
+            for (int row = c.getFrom(); row < c.getTo(); row++) {
+                Animal animal = AnimalRowList.peek(animals, row);
+                int newTierArt = values.code(animal.getTierArt());
+                int newFutterArt = values.code(animal.getFutterArt());
+                int newDate = epochDay(animal.getBestelldatum());
+                if (newTierArt != tierArt[row]) {
+                    tierArt[row] = newTierArt;
+                    tierArtStart = null;
+                }
+                if (newFutterArt != futterArt[row]) {
+                    futterArt[row] = newFutterArt;
+                    futterArtStart = null;
+                }
+                if (newDate != bestelldatum[row]) {
+                    bestelldatum[row] = newDate;
+                    byDate = null;
+                }
+            }
+        }
+        // A new value of one field needs a group in the index of the other one as well
+        if (tierArtStart != null && tierArtStart.length < values.size() + 2) {
+            tierArtStart = null;
+        }
+        if (futterArtStart != null && futterArtStart.length < values.size() + 2) {
+            futterArtStart = null;
+        }
+    }
+
+    /**
+     * Reads the indexed values of all rows unless they are up to date.
+     */
+    private void readValues() {
+        if (tierArt != null) {
+            return;
+        }
+        int size = animals.size();
+        tierArt = new int[size];
+        futterArt = new int[size];
+        bestelldatum = new int[size];
+        if (animals instanceof AnimalRowList && ((AnimalRowList<?>) animals).getStore() instanceof AnimalStore) {
+            // The columns are read directly, without creating an animal per row
+            AnimalStore store = (AnimalStore) ((AnimalRowList<?>) animals).getStore();
+            for (int row = 0; row < size; row++) {
+                tierArt[row] = values.code(store.getTierArt(row));
+                futterArt[row] = values.code(store.getFutterArt(row));
+                bestelldatum[row] = store.getBestelldatumEpochDay(row);
+            }
+        } else {
+            for (int row = 0; row < size; row++) {
+                Animal animal = AnimalRowList.peek(animals, row);
+                tierArt[row] = values.code(animal.getTierArt());
+                futterArt[row] = values.code(animal.getFutterArt());
+                bestelldatum[row] = epochDay(animal.getBestelldatum());
+            }
+        }
+        dropIndexes();
+    }
+
+    private void dropIndexes() {
+        tierArtStart = null;
+        tierArtRows = null;
+        futterArtStart = null;
+        futterArtRows = null;
+        byDate = null;
+    }
+
+    /**
+     * Groups the rows by their code with a counting sort; the rows of a code
+     * stay in ascending order.
+     */
+    private static int[] group(int[] codes, int[] start) {
+        for (int code : codes) {
+            start[code + 2]++;
+        }
+        for (int i = 2; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        int[] next = Arrays.copyOf(start, start.length);
+        int[] rows = new int[codes.length];
+        for (int row = 0; row < codes.length; row++) {
+            rows[next[codes[row] + 1]++] = row;
+        }
+        return rows;
+    }
+
+    private int[] rowsOf(String value, int[] start, int[] rows) {
+        int code = values.find(value);
+        if (code == StringDictionary.NULL_CODE && value != null) {
+            return NO_ROWS;
+        }
+        return Arrays.copyOfRange(rows, start[code + 1], start[code + 2]);
+    }
+
+    private int insertionPoint(long key) {
+        int i = Arrays.binarySearch(byDate, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private static int epochDay(LocalDate date) {
+        return date != null ? Math.toIntExact(date.toEpochDay()) : AnimalStore.NO_DATE;
+    }
+}
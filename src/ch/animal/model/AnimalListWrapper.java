@@ -9,6 +9,8 @@ import javax.xml.bind.annotation.XmlRootElement;
 /**
  * Helper class to wrap a list of animals. This is used for saving the
  * list of animals to an XML File.
+ * Every animal is written with its key; animals of older files have no key
+ * element and get a new key when they are loaded.
  * @author Damian Krebs  
  * @author Stephanie Gloor
  */
@@ -0,0 +1,192 @@
+package ch.animal.model;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Merges animals from several sources into one list with one animal per
+ * animal type and feed type. Types are compared ignoring case and
+ * surrounding blanks, the first spelling is kept. When an animal is seen
+ * again, stock and order date are combined by the chosen rules; the other
+ * values stay those of the first animal, except that the longer lead time
+ * wins and the daily consumption is combined like the stock. The order need
+ * always comes from the same source as the order date kept.
+ * <p>
+ * A merge only holds one animal per key. Partial merges, e.g. of different
+ * files on different threads, are combined with {@link #addAll(AnimalMerge)}
+ * in the order of their sources. A merge is not thread-safe.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalMerge {
+
+    /**
+     * How the stock of the same animal in several sources is combined.
+     */
+    public enum StockRule {
+        /** The stock of all sources is added up. */
+        SUM("Summieren"),
+        /** The highest stock is kept. */
+        MAX("Höchster Bestand"),
+        /** The stock of the first source is kept. */
+        FIRST("Erster Bestand");
+
+        private final String label;
+
+        StockRule(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * Which order date of the same animal in several sources is kept.
+     */
+    public enum DateRule {
+        /** The latest order date wins, any date wins over none. */
+        LATEST("Neuestes Datum"),
+        /** The earliest order date wins, any date wins over none. */
+        EARLIEST("Ältestes Datum"),
+        /** The order date of the first source is kept, even if it has none. */
+        FIRST("Erstes Datum");
+
+        private final String label;
+
+        DateRule(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final StockRule stockRule;
+    private final DateRule dateRule;
+    private final Map<String, Animal> animals = new LinkedHashMap<>();
+    private int merged;
+
+    /**
+     * Creates an empty merge.
+     *
+     * @param stockRule how stocks are combined
+     * @param dateRule which order date is kept
+     */
+    public AnimalMerge(StockRule stockRule, DateRule dateRule) {
+        this.stockRule = stockRule;
+        this.dateRule = dateRule;
+    }
+
+    /**
+     * Adds an animal. The merge keeps its own copy.
+     *
+     * @param animal the animal to add
+     */
+    public void add(Animal animal) {
+        Animal known = animals.get(key(animal));
+        if (known == null) {
+            animals.put(key(animal), animal.copy());
+        } else {
+            combine(known, animal);
+            merged++;
+        }
+    }
+
+    /**
+     * Adds the animals of another merge with the same rules, as if they had
+     * been added after the animals of this merge.
+     *
+     * @param other the merge to add
+     */
+    public void addAll(AnimalMerge other) {
+        for (Map.Entry<String, Animal> entry : other.animals.entrySet()) {
+            Animal known = animals.get(entry.getKey());
+            if (known == null) {
+                animals.put(entry.getKey(), entry.getValue());
+            } else {
+                combine(known, entry.getValue());
+                merged++;
+            }
+        }
+        merged += other.merged;
+    }
+
+    /**
+     * Returns the number of distinct animals.
+     *
+     * @return the number of animals
+     */
+    public int size() {
+        return animals.size();
+    }
+
+    /**
+     * Returns the number of animals that were merged into one seen before.
+     *
+     * @return the number of duplicates
+     */
+    public int getMergedCount() {
+        return merged;
+    }
+
+    /**
+     * Returns the merged animals in the order they were first seen.
+     *
+     * @return the merged animals in a new store
+     */
+    public AnimalStore toStore() {
+        AnimalStore store = new AnimalStore(animals.size());
+        store.addAll(animals.values());
+        return store;
+    }
+
+    private void combine(Animal known, Animal animal) {
+        switch (stockRule) {
+        case SUM:
+            known.setAktuellerBestand(known.getAktuellerBestand() + animal.getAktuellerBestand());
+            known.setTagesverbrauch(known.getTagesverbrauch() + animal.getTagesverbrauch());
+            break;
+        case MAX:
+            known.setAktuellerBestand(Math.max(known.getAktuellerBestand(), animal.getAktuellerBestand()));
+            known.setTagesverbrauch(Math.max(known.getTagesverbrauch(), animal.getTagesverbrauch()));
+            break;
+        case FIRST:
+            break;
+        }
+
+        if (takesDate(known.getBestelldatum(), animal.getBestelldatum())) {
+            known.setBestelldatum(animal.getBestelldatum());
+            known.setBestellungnotwendig(animal.getBestellungnotwendig());
+        }
+        known.setLieferfrist(Math.max(known.getLieferfrist(), animal.getLieferfrist()));
+    }
+
+    /**
+     * Returns true if the order date of a later source replaces the one
+     * known so far.
+     */
+    private boolean takesDate(LocalDate knownDate, LocalDate date) {
+        if (dateRule == DateRule.FIRST || date == null) {
+            return false;
+        }
+        return knownDate == null
+                || dateRule == DateRule.LATEST && date.isAfter(knownDate)
+                || dateRule == DateRule.EARLIEST && date.isBefore(knownDate);
+    }
+
+    private static String key(Animal animal) {
+        return normalize(animal.getTierArt()) + '\u0000' + normalize(animal.getFutterArt());
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
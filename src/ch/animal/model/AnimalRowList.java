@@ -0,0 +1,549 @@
+package ch.animal.model;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableListBase;
+
+/**
+ * Observable list on top of {@link AnimalRows}, e.g. an {@link AnimalStore} or
+ * a memory-mapped store. Animals are only created for the rows that are
+ * actually requested, e.g. the rows a table shows. Such a view writes every
+ * change of its values back into its row and reports it as an update. Views
+ * nobody refers to anymore are garbage collected, so the heap usage depends
+ * on the number of rows shown and not on the size of the store.
+ * Animals are found, changed and removed by their key in O(1) through the
+ * key index of the store, e.g. by {@link #getByKey(long)}.
+ * The list must only be used on the JavaFX Application Thread.
+ *
+ * @param <S> the type of the store
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalRowList<S extends AnimalRows> extends ObservableListBase<Animal> {
+
+    /** Number of recently used views that are kept even if nobody refers to them. */
+    private static final int RECENT_VIEWS = 512;
+
+    private final S store;
+
+    // All live views by row, the animals themselves are only weakly referenced
+    private final Map<Integer, RowView> views = new HashMap<>();
+    private final ReferenceQueue<Animal> collectedViews = new ReferenceQueue<>();
+    private final ArrayDeque<Animal> recentViews = new ArrayDeque<>(RECENT_VIEWS);
+
+    /**
+     * Creates the list.
+     *
+     * @param store the store holding the animals
+     */
+    public AnimalRowList(S store) {
+        this.store = store;
+    }
+
+    /**
+     * Returns the store of this list.
+     *
+     * @return the store
+     */
+    public S getStore() {
+        return store;
+    }
+
+    /**
+     * Reads a row of the given list. For an {@code AnimalRowList} the row is
+     * read straight from its store without creating a view, so the returned
+     * animal must only be read, changing it has no effect on the list.
+     *
+     * @param animals the list to read
+     * @param row the row
+     * @return the animal of the row
+     */
+    public static Animal peek(List<? extends Animal> animals, int row) {
+        if (animals instanceof AnimalRowList) {
+            return ((AnimalRowList<?>) animals).getStore().read(row);
+        }
+        return animals.get(row);
+    }
+
+    /**
+     * Returns the rows removed by a change that does nothing but remove rows,
+     * like the change of {@link #removeRows(int[])}, as they were numbered
+     * before the change. Listeners use it to remove all of them in one pass
+     * instead of once per removed range.
+     *
+     * @param c the change, it is reset afterwards
+     * @return the removed rows in ascending order, or null if the change does
+     *         more than removing rows
+     */
+    static int[] removedRows(ListChangeListener.Change<?> c) {
+        int count = 0;
+        while (c.next()) {
+            if (c.wasAdded() || c.wasPermutated() || c.wasUpdated()) {
+                c.reset();
+                return null;
+            }
+            count += c.getRemovedSize();
+        }
+        c.reset();
+        int[] rows = new int[count];
+        int i = 0;
+        while (c.next()) {
+            // The sub-changes are in ascending order, each counted after the ones before
+            for (int k = 0; k < c.getRemovedSize(); k++) {
+                rows[i] = c.getFrom() + i;
+                i++;
+            }
+        }
+        c.reset();
+        return rows;
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public Animal get(int index) {
+        purgeCollectedViews();
+        RowView view = views.get(index);
+        Animal animal = view != null ? view.get() : null;
+        if (animal == null) {
+            animal = store.read(index);
+            attach(index, animal);
+        }
+        remember(animal);
+        return animal;
+    }
+
+    @Override
+    public Animal set(int index, Animal element) {
+        Animal old = get(index);
+        detach(index);
+        store.write(index, element);
+        element.setKey(store.getKey(index));
+        attach(index, element);
+
+        beginChange();
+        nextSet(index, old);
+        endChange();
+        return old;
+    }
+
+    @Override
+    public void add(int index, Animal element) {
+        store.insert(index, element);
+        element.setKey(store.getKey(index));
+        shiftViews(index, 1);
+        attach(index, element);
+
+        beginChange();
+        nextAdd(index, index + 1);
+        endChange();
+    }
+
+    @Override
+    public Animal remove(int index) {
+        Animal removed = get(index);
+        removeRange(index, index + 1);
+        return removed;
+    }
+
+    @Override
+    public void remove(int from, int to) {
+        removeRange(from, to);
+    }
+
+    @Override
+    protected void removeRange(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        List<Animal> removed = new ArrayList<>(to - from);
+        for (int row = from; row < to; row++) {
+            removed.add(get(row));
+            detach(row);
+        }
+        store.remove(from, to);
+        shiftViews(to, from - to);
+
+        beginChange();
+        nextRemove(from, removed);
+        endChange();
+    }
+
+    /**
+     * Removes the given rows with a single change event. The store moves
+     * every remaining row at most once, however many rows are removed.
+     *
+     * @param rows the rows to remove, distinct and in ascending order
+     */
+    public void removeRows(int[] rows) {
+        if (rows.length == 0) {
+            return;
+        }
+        purgeCollectedViews();
+        List<Animal> removed = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            // Views that exist are reported, the other rows are read without creating one
+            RowView view = views.get(row);
+            Animal animal = view != null ? view.get() : null;
+            removed.add(animal != null ? animal : store.read(row));
+            detach(row);
+        }
+        store.removeRows(rows);
+
+        // Every view moves down by the number of removed rows before it
+        List<RowView> moved = new ArrayList<>(views.values());
+        views.clear();
+        for (RowView view : moved) {
+            int before = Arrays.binarySearch(rows, view.row);
+            view.row -= before >= 0 ? before : -before - 1;
+            views.put(view.row, view);
+        }
+
+        beginChange();
+        int first = 0;
+        for (int i = 1; i <= rows.length; i++) {
+            if (i == rows.length || rows[i] != rows[i - 1] + 1) {
+                // The rows before this range are already gone when it is applied
+                nextRemove(rows[first] - first, removed.subList(first, i));
+                first = i;
+            }
+        }
+        endChange();
+    }
+
+    /**
+     * Inserts rows at the given positions with a single change event, the
+     * reverse of {@link #removeRows(int[])}. No views are created for the new
+     * rows.
+     *
+     * @param rows the positions of the new rows after the insertion,
+     *             distinct and in ascending order
+     * @param values the values of the new rows, row i of it goes to rows[i]
+     */
+    public void insertRows(int[] rows, AnimalRows values) {
+        if (rows.length == 0) {
+            return;
+        }
+        purgeCollectedViews();
+        store.insertRows(rows, values);
+
+        // New row i comes before every old row from rows[i] - i on
+        int[] firstMoved = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            firstMoved[i] = rows[i] - i;
+        }
+        List<RowView> moved = new ArrayList<>(views.values());
+        views.clear();
+        for (RowView view : moved) {
+            view.row += countAtMost(firstMoved, view.row);
+            views.put(view.row, view);
+        }
+
+        beginChange();
+        int first = 0;
+        for (int i = 1; i <= rows.length; i++) {
+            if (i == rows.length || rows[i] != rows[i - 1] + 1) {
+                nextAdd(rows[first], rows[i - 1] + 1);
+                first = i;
+            }
+        }
+        endChange();
+    }
+
+    /**
+     * Returns the number of values of the sorted array that are at most the
+     * given value. The array may contain a value several times.
+     */
+    private static int countAtMost(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the row of the animal with the given key.
+     *
+     * @param key the key
+     * @return the row, or -1 if no animal has the key
+     */
+    public int indexOfKey(long key) {
+        return store.rowOfKey(key);
+    }
+
+    /**
+     * Returns the animal with the given key.
+     *
+     * @param key the key
+     * @return the animal, or null if no animal has the key
+     */
+    public Animal getByKey(long key) {
+        int row = store.rowOfKey(key);
+        return row >= 0 ? get(row) : null;
+    }
+
+    /**
+     * Edits the animal with the given key, see {@link #updateRows}.
+     *
+     * @param key the key
+     * @param edit changes the animal
+     * @return true if an animal has the key
+     */
+    public boolean updateByKey(long key, Consumer<Animal> edit) {
+        int row = store.rowOfKey(key);
+        if (row < 0) {
+            return false;
+        }
+        updateRows(new int[] { row }, (animal, r) -> edit.accept(animal));
+        return true;
+    }
+
+    /**
+     * Removes the animal with the given key.
+     *
+     * @param key the key
+     * @return true if an animal had the key
+     */
+    public boolean removeByKey(long key) {
+        int row = store.rowOfKey(key);
+        if (row < 0) {
+            return false;
+        }
+        removeRows(new int[] { row });
+        return true;
+    }
+
+    /**
+     * Gives the given rows new keys with a single change event, reported as
+     * an update of the rows. Used when rows exchanged their values, so that
+     * the keys go along with the values.
+     *
+     * @param rows the rows
+     * @param keys the new keys, the same keys the rows have now in another order
+     */
+    public void setKeys(int[] rows, long[] keys) {
+        purgeCollectedViews();
+        beginChange();
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                store.setKey(rows[i], keys[i]);
+                RowView view = views.get(rows[i]);
+                Animal animal = view != null ? view.get() : null;
+                if (animal != null) {
+                    animal.setKey(keys[i]);
+                }
+                nextUpdate(rows[i]);
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Moves rows among each other with a single change event, reported as a
+     * permutation, e.g. to sort them. The animals take their keys and their
+     * views along.
+     *
+     * @param rows the rows to fill, distinct and in ascending order
+     * @param sources the rows whose animals go to them, row sources[i] goes
+     *                to rows[i]; the same rows in another order
+     */
+    public void permute(int[] rows, int[] sources) {
+        if (rows.length == 0) {
+            return;
+        }
+        store.permute(rows, sources);
+        purgeCollectedViews();
+        int from = rows[0];
+        int[] permutation = new int[rows[rows.length - 1] + 1 - from];
+        Arrays.setAll(permutation, i -> from + i);
+        for (int i = 0; i < rows.length; i++) {
+            permutation[sources[i] - from] = rows[i];
+        }
+        List<RowView> moved = new ArrayList<>();
+        views.values().removeIf(view -> {
+            if (view.row >= from && view.row < from + permutation.length) {
+                moved.add(view);
+                return true;
+            }
+            return false;
+        });
+        for (RowView view : moved) {
+            view.row = permutation[view.row - from];
+            views.put(view.row, view);
+        }
+        beginChange();
+        nextPermutation(from, from + permutation.length, permutation);
+        endChange();
+    }
+
+    /**
+     * Edits the given rows with a single change event. Rows that have a view
+     * are edited through it, the others are read into a temporary animal,
+     * edited and written back, so no views are created.
+     *
+     * @param rows the rows to edit, in ascending order
+     * @param edit changes an animal, gets the animal and its row
+     */
+    public void updateRows(int[] rows, ObjIntConsumer<Animal> edit) {
+        purgeCollectedViews();
+        beginChange();
+        try {
+            for (int row : rows) {
+                RowView view = views.get(row);
+                Animal animal = view != null ? view.get() : null;
+                if (animal != null) {
+                    // Its write-back adds the update to this change
+                    edit.accept(animal, row);
+                } else {
+                    animal = store.read(row);
+                    edit.accept(animal, row);
+                    store.write(row, animal);
+                    nextUpdate(row);
+                }
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Replaces the whole content of the store. The old animals are read once
+     * for the change event.
+     */
+    @Override
+    public boolean setAll(Collection<? extends Animal> col) {
+        List<Animal> removed = new ArrayList<>(size());
+        for (int row = 0; row < size(); row++) {
+            removed.add(get(row));
+        }
+        for (RowView view : views.values()) {
+            view.row = -1;
+            Animal animal = view.get();
+            if (animal != null) {
+                animal.setChangeListener(null);
+            }
+        }
+        views.clear();
+        recentViews.clear();
+
+        store.remove(0, store.size());
+        int row = 0;
+        for (Animal animal : col) {
+            store.insert(row, animal);
+            animal.setKey(store.getKey(row));
+            attach(row, animal);
+            row++;
+        }
+
+        beginChange();
+        nextReplace(0, row, removed);
+        endChange();
+        return true;
+    }
+
+    /**
+     * Makes the animal the view of the given row: changes of its values are
+     * written to that row. Its properties are not touched, so they are only
+     * created if someone binds them.
+     */
+    private void attach(int row, Animal animal) {
+        RowView view = new RowView(row, animal, collectedViews);
+        animal.setChangeListener(() -> writeBack(view));
+        views.put(row, view);
+    }
+
+    /**
+     * Disconnects the view of the given row, later changes of it are ignored.
+     */
+    private void detach(int row) {
+        RowView view = views.remove(row);
+        if (view != null) {
+            view.row = -1;
+            Animal animal = view.get();
+            if (animal != null) {
+                animal.setChangeListener(null);
+            }
+        }
+    }
+
+    private void writeBack(RowView view) {
+        Animal animal = view.get();
+        if (view.row < 0 || animal == null) {
+            return;
+        }
+        store.write(view.row, animal);
+
+        beginChange();
+        nextUpdate(view.row);
+        endChange();
+    }
+
+    /**
+     * Moves the views from the given row on by the given distance after rows
+     * have been inserted or removed.
+     */
+    private void shiftViews(int fromRow, int distance) {
+        List<RowView> moved = new ArrayList<>();
+        views.values().removeIf(view -> {
+            if (view.row >= fromRow) {
+                moved.add(view);
+                return true;
+            }
+            return false;
+        });
+        for (RowView view : moved) {
+            view.row += distance;
+            views.put(view.row, view);
+        }
+    }
+
+    private void remember(Animal animal) {
+        if (recentViews.size() == RECENT_VIEWS) {
+            recentViews.removeFirst();
+        }
+        recentViews.addLast(animal);
+    }
+
+    private void purgeCollectedViews() {
+        RowView collected;
+        while ((collected = (RowView) collectedViews.poll()) != null) {
+            views.remove(collected.row, collected);
+        }
+    }
+
+    /**
+     * Weak reference to a view together with its current row.
+     */
+    private static class RowView extends WeakReference<Animal> {
+
+        int row;
+
+        RowView(int row, Animal animal, ReferenceQueue<Animal> queue) {
+            super(animal, queue);
+            this.row = row;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ch.animal.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Storage that keeps animals as rows of values instead of as objects, e.g. in
+ * primitive arrays or in a file. Animals are read from and written to a row
+ * by copying their values.
+ * <p>
+ * Every row has a unique key that stays with it while rows are inserted or
+ * removed around it. Inserting a row takes over the key of the animal unless
+ * another row has it; writing a row keeps its key.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public interface AnimalRows {
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    int size();
+
+    /**
+     * Reads a row into a new animal.
+     *
+     * @param row the row
+     * @return the animal
+     */
+    Animal read(int row);
+
+    /**
+     * Copies the values of a row, including its key, into the given animal.
+     * Reading many rows into one animal creates no objects per row.
+     *
+     * @param row the row
+     * @param target the animal to fill
+     */
+    void read(int row, Animal target);
+
+    /**
+     * Returns the key of a row.
+     *
+     * @param row the row
+     * @return the key, greater than 0
+     */
+    long getKey(int row);
+
+    /**
+     * Sets the key of a row. The caller keeps the keys unique, e.g. by only
+     * exchanging the keys of rows among each other.
+     *
+     * @param row the row
+     * @param key the new key, greater than 0
+     */
+    void setKey(int row, long key);
+
+    /**
+     * Returns the row with the given key.
+     *
+     * @param key the key
+     * @return the row, or -1 if no row has the key
+     */
+    default int rowOfKey(long key) {
+        for (int row = 0; row < size(); row++) {
+            if (getKey(row) == key) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Overwrites a row with the values of the given animal. The row keeps
+     * its key.
+     *
+     * @param row the row
+     * @param source the animal to store
+     */
+    void write(int row, Animal source);
+
+    /**
+     * Inserts a row. The rows from the given row on move up by one. The row
+     * gets the key of the animal if it is free, otherwise a new one.
+     *
+     * @param row the new row, at most {@link #size()}
+     * @param source the animal to store
+     */
+    void insert(int row, Animal source);
+
+    /**
+     * Removes the rows of the given range.
+     *
+     * @param from the first row to remove
+     * @param to the row behind the last row to remove
+     */
+    void remove(int from, int to);
+
+    /**
+     * Removes the given rows. The remaining rows keep their order.
+     *
+     * @param rows the rows to remove, distinct and in ascending order
+     */
+    default void removeRows(int[] rows) {
+        // From the back, so the rows still to remove keep their position
+        int i = rows.length;
+        while (i > 0) {
+            int to = rows[--i] + 1;
+            int from = to - 1;
+            while (i > 0 && rows[i - 1] == from - 1) {
+                from = rows[--i];
+            }
+            remove(from, to);
+        }
+    }
+
+    /**
+     * Moves rows among each other, e.g. to sort them. Every row takes its
+     * key along. The other rows stay where they are.
+     *
+     * @param rows the rows to fill, distinct and in ascending order
+     * @param sources the rows whose values go to them, row sources[i] goes
+     *                to rows[i]; the same rows in another order
+     */
+    default void permute(int[] rows, int[] sources) {
+        if (rows.length == 0) {
+            return;
+        }
+        // Each cycle of the permutation is moved with a single row kept aside
+        int from = rows[0];
+        int[] source = new int[rows[rows.length - 1] + 1 - from];
+        Arrays.setAll(source, i -> from + i);
+        for (int i = 0; i < rows.length; i++) {
+            source[rows[i] - from] = sources[i];
+        }
+        BitSet moved = new BitSet(source.length);
+        for (int start = from; start < from + source.length; start++) {
+            if (moved.get(start - from) || source[start - from] == start) {
+                continue;
+            }
+            Animal first = read(start);
+            long firstKey = getKey(start);
+            int row = start;
+            while (source[row - from] != start) {
+                int next = source[row - from];
+                write(row, read(next));
+                setKey(row, getKey(next));
+                moved.set(row - from);
+                row = next;
+            }
+            write(row, first);
+            setKey(row, firstKey);
+            moved.set(row - from);
+        }
+    }
+
+    /**
+     * Inserts rows at the given positions, the reverse of
+     * {@link #removeRows(int[])}. The existing rows keep their order.
+     *
+     * @param rows the positions of the new rows after the insertion,
+     *             distinct and in ascending order
+     * @param values the values of the new rows, row i of it goes to rows[i]
+     */
+    default void insertRows(int[] rows, AnimalRows values) {
+        // In ascending order every position is final once its row is inserted
+        for (int i = 0; i < rows.length; i++) {
+            insert(rows[i], values.read(i));
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package ch.animal.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import ch.animal.util.StringDictionary;
+
+/**
+ * Search index over the animal type and feed type of a list of animals.
+ * Both fields are normalised to lower case and each distinct value gets an
+ * id. The index keeps
+ * <ul>
+ * <li>the value ids of every row,</li>
+ * <li>per value id the sorted rows using it (posting list), and</li>
+ * <li>per 1-, 2- and 3-gram the ids of the values containing it.</li>
+ * </ul>
+ * A search looks up the values containing the query through the n-grams,
+ * which only depends on the number of distinct values, and then collects the
+ * rows of those values, which costs time in the number of hits rather than
+ * in the number of rows.
+ * <p>
+ * Changing a row and inserting or removing a few rows update the posting
+ * lists in place. After larger inserts or removals, the posting lists are
+ * rebuilt in one pass on the next search. The index is not thread-safe.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalSearchIndex {
+
+    private static final int GRAM_LENGTH = 3;
+
+    /** Up to this many inserted or removed rows the posting lists are updated in place. */
+    private static final int MAX_INCREMENTAL_ROWS = 64;
+    private static final int[] NO_ROWS = new int[0];
+
+    private final StringDictionary values = new StringDictionary();
+    private final Map<String, Integer> valueIds = new HashMap<>();
+    private final Map<String, IntList> grams = new HashMap<>();
+
+    private int size;
+    private int[] tierArtValues = new int[16];
+    private int[] futterArtValues = new int[16];
+
+    // Rows by value id, null while they have to be rebuilt
+    private IntList[] postings;
+
+    /**
+     * Adds the rows from {@code from} to {@code to} of the given list, which
+     * have just been inserted there.
+     *
+     * @param from the first inserted row
+     * @param to the row behind the last inserted row
+     * @param animals the list the rows were inserted into
+     */
+    public void insert(int from, int to, List<? extends Animal> animals) {
+        int count = to - from;
+        if (size + count > tierArtValues.length) {
+            int capacity = Math.max(size + count, tierArtValues.length + (tierArtValues.length >> 1));
+            tierArtValues = Arrays.copyOf(tierArtValues, capacity);
+            futterArtValues = Arrays.copyOf(futterArtValues, capacity);
+        }
+        System.arraycopy(tierArtValues, from, tierArtValues, to, size - from);
+        System.arraycopy(futterArtValues, from, futterArtValues, to, size - from);
+        size += count;
+        for (int row = from; row < to; row++) {
+            Animal animal = AnimalRowList.peek(animals, row);
+            tierArtValues[row] = valueId(animal.getTierArt());
+            futterArtValues[row] = valueId(animal.getFutterArt());
+        }
+        if (postings != null && count <= MAX_INCREMENTAL_ROWS) {
+            shiftPostings(from, count);
+            for (int row = from; row < to; row++) {
+                addPosting(tierArtValues[row], row);
+                addPosting(futterArtValues[row], row);
+            }
+        } else {
+            postings = null;
+        }
+    }
+
+    /**
+     * Removes the rows from {@code from} to {@code to}.
+     *
+     * @param from the first removed row
+     * @param to the row behind the last removed row
+     */
+    public void remove(int from, int to) {
+        if (postings != null && to - from <= MAX_INCREMENTAL_ROWS) {
+            for (int row = from; row < to; row++) {
+                removePosting(tierArtValues[row], row);
+                removePosting(futterArtValues[row], row);
+            }
+            shiftPostings(to, from - to);
+        } else {
+            postings = null;
+        }
+        System.arraycopy(tierArtValues, to, tierArtValues, from, size - to);
+        System.arraycopy(futterArtValues, to, futterArtValues, from, size - to);
+        size -= to - from;
+    }
+
+    /**
+     * Removes the given rows in one pass.
+     *
+     * @param rows the removed rows, distinct and in ascending order
+     */
+    public void removeRows(int[] rows) {
+        if (postings != null && rows.length <= MAX_INCREMENTAL_ROWS) {
+            for (int i = rows.length - 1; i >= 0; i--) {
+                remove(rows[i], rows[i] + 1);
+            }
+            return;
+        }
+        postings = null;
+        int target = 0;
+        for (int row = 0, i = 0; row < size; row++) {
+            if (i < rows.length && rows[i] == row) {
+                i++;
+            } else {
+                tierArtValues[target] = tierArtValues[row];
+                futterArtValues[target] = futterArtValues[row];
+                target++;
+            }
+        }
+        size = target;
+    }
+
+    /**
+     * Updates a row after its animal has changed.
+     *
+     * @param row the row
+     * @param animal the animal of the row
+     */
+    public void update(int row, Animal animal) {
+        int oldTierArt = tierArtValues[row];
+        int oldFutterArt = futterArtValues[row];
+        int newTierArt = valueId(animal.getTierArt());
+        int newFutterArt = valueId(animal.getFutterArt());
+        if (oldTierArt == newTierArt && oldFutterArt == newFutterArt) {
+            return;
+        }
+        tierArtValues[row] = newTierArt;
+        futterArtValues[row] = newFutterArt;
+        if (postings != null) {
+            removePosting(oldTierArt, row);
+            removePosting(oldFutterArt, row);
+            addPosting(newTierArt, row);
+            addPosting(newFutterArt, row);
+        }
+    }
+
+    /**
+     * Moves rows after the list was permuted. The posting lists are rebuilt
+     * on the next search.
+     *
+     * @param from the first permuted row
+     * @param to the row behind the last permuted row
+     * @param permutation returns the new row of an old row
+     */
+    public void permute(int from, int to, IntUnaryOperator permutation) {
+        int[] oldTierArt = Arrays.copyOfRange(tierArtValues, from, to);
+        int[] oldFutterArt = Arrays.copyOfRange(futterArtValues, from, to);
+        for (int row = from; row < to; row++) {
+            int target = permutation.applyAsInt(row);
+            tierArtValues[target] = oldTierArt[row - from];
+            futterArtValues[target] = oldFutterArt[row - from];
+        }
+        postings = null;
+    }
+
+    /**
+     * Returns the number of rows in the index.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Prepares a search for animals whose animal type or feed type contains
+     * the given text, ignoring case.
+     *
+     * @param text the text to search
+     * @return the query
+     */
+    public Query query(String text) {
+        return new Query(normalize(text));
+    }
+
+    /**
+     * A search prepared by {@link AnimalSearchIndex#query(String)}. It stays
+     * valid while the index changes.
+     */
+    public class Query {
+
+        private final String text;
+
+        // Value ids checked so far and which of them contain the text
+        private final BitSet matchingValues = new BitSet();
+        private int checkedValues;
+
+        private Query(String text) {
+            this.text = text;
+            if (text.length() <= GRAM_LENGTH) {
+                // All grams up to this length are indexed, no need to verify
+                IntList ids = grams.get(text);
+                if (ids != null) {
+                    for (int i = 0; i < ids.size; i++) {
+                        matchingValues.set(ids.values[i]);
+                    }
+                }
+            } else {
+                IntList candidates = null;
+                for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+                    IntList ids = grams.get(text.substring(i, i + GRAM_LENGTH));
+                    if (ids == null) {
+                        candidates = null;
+                        break;
+                    }
+                    if (candidates == null || ids.size < candidates.size) {
+                        candidates = ids;
+                    }
+                }
+                if (candidates != null) {
+                    for (int i = 0; i < candidates.size; i++) {
+                        int id = candidates.values[i];
+                        if (values.get(id).contains(text)) {
+                            matchingValues.set(id);
+                        }
+                    }
+                }
+            }
+            checkedValues = values.size();
+        }
+
+        /**
+         * Returns true if this query matches every row.
+         *
+         * @return true for an empty query
+         */
+        public boolean isEmpty() {
+            return text.isEmpty();
+        }
+
+        /**
+         * Returns true if the given row matches the query.
+         *
+         * @param row the row
+         * @return true if the row matches
+         */
+        public boolean matches(int row) {
+            return isEmpty() || matchesValue(tierArtValues[row]) || matchesValue(futterArtValues[row]);
+        }
+
+        /**
+         * Returns the matching rows in ascending order.
+         *
+         * @return the matching rows
+         */
+        public int[] rows() {
+            if (isEmpty()) {
+                int[] rows = new int[size];
+                Arrays.setAll(rows, row -> row);
+                return rows;
+            }
+            checkNewValues();
+            if (matchingValues.isEmpty()) {
+                return NO_ROWS;
+            }
+            ensurePostings();
+            // Bit per row, so a row found through both fields counts once and the result is sorted
+            long[] words = new long[(size + 63) >>> 6];
+            for (int id = matchingValues.nextSetBit(0); id >= 0; id = matchingValues.nextSetBit(id + 1)) {
+                IntList posting = postings[id];
+                for (int i = 0; i < posting.size; i++) {
+                    int row = posting.values[i];
+                    words[row >>> 6] |= 1L << row;
+                }
+            }
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            int[] result = new int[count];
+            int i = 0;
+            for (int w = 0; w < words.length; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    result[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+            }
+            return result;
+        }
+
+        private boolean matchesValue(int id) {
+            if (id == StringDictionary.NULL_CODE) {
+                return false;
+            }
+            checkNewValues();
+            return matchingValues.get(id);
+        }
+
+        /**
+         * Checks values added to the index after the query was prepared.
+         */
+        private void checkNewValues() {
+            for (; checkedValues < values.size(); checkedValues++) {
+                if (values.get(checkedValues).contains(text)) {
+                    matchingValues.set(checkedValues);
+                }
+            }
+        }
+    }
+
+    private int valueId(String value) {
+        if (value == null) {
+            return StringDictionary.NULL_CODE;
+        }
+        Integer known = valueIds.get(value);
+        if (known != null) {
+            return known;
+        }
+        String normalized = normalize(value);
+        int id = values.find(normalized);
+        if (id == StringDictionary.NULL_CODE) {
+            id = values.code(normalized);
+            for (int length = 1; length <= GRAM_LENGTH; length++) {
+                for (int i = 0; i + length <= normalized.length(); i++) {
+                    IntList ids = grams.computeIfAbsent(normalized.substring(i, i + length), gram -> new IntList());
+                    // Ids are ascending, a value containing a gram twice is only added once
+                    if (ids.size == 0 || ids.values[ids.size - 1] != id) {
+                        ids.add(id);
+                    }
+                }
+            }
+            if (postings != null) {
+                if (postings.length <= id) {
+                    postings = Arrays.copyOf(postings, Math.max(id + 1, postings.length * 2));
+                }
+                postings[id] = new IntList();
+            }
+        }
+        valueIds.put(value, id);
+        return id;
+    }
+
+    /**
+     * Rebuilds the posting lists from the row arrays if rows were inserted or
+     * removed since they were built.
+     */
+    private void ensurePostings() {
+        if (postings != null) {
+            return;
+        }
+        int[] counts = new int[values.size()];
+        for (int row = 0; row < size; row++) {
+            if (tierArtValues[row] != StringDictionary.NULL_CODE) {
+                counts[tierArtValues[row]]++;
+            }
+            if (futterArtValues[row] != StringDictionary.NULL_CODE && futterArtValues[row] != tierArtValues[row]) {
+                counts[futterArtValues[row]]++;
+            }
+        }
+        postings = new IntList[Math.max(values.size(), 16)];
+        for (int id = 0; id < values.size(); id++) {
+            postings[id] = new IntList(counts[id]);
+        }
+        // Rows are visited in ascending order, so the lists come out sorted
+        for (int row = 0; row < size; row++) {
+            if (tierArtValues[row] != StringDictionary.NULL_CODE) {
+                postings[tierArtValues[row]].add(row);
+            }
+            if (futterArtValues[row] != StringDictionary.NULL_CODE && futterArtValues[row] != tierArtValues[row]) {
+                postings[futterArtValues[row]].add(row);
+            }
+        }
+    }
+
+    /**
+     * Adds the distance to all rows in the posting lists from the given row on.
+     */
+    private void shiftPostings(int fromRow, int distance) {
+        for (int id = 0; id < values.size(); id++) {
+            IntList posting = postings[id];
+            int index = Arrays.binarySearch(posting.values, 0, posting.size, fromRow);
+            for (int i = index >= 0 ? index : -index - 1; i < posting.size; i++) {
+                posting.values[i] += distance;
+            }
+        }
+    }
+
+    private void addPosting(int id, int row) {
+        if (id != StringDictionary.NULL_CODE) {
+            postings[id].insertSorted(row);
+        }
+    }
+
+    private void removePosting(int id, int row) {
+        if (id != StringDictionary.NULL_CODE) {
+            postings[id].removeSorted(row);
+        }
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Growable list of ints.
+     */
+    private static class IntList {
+
+        int[] values;
+        int size;
+
+        IntList() {
+            this(4);
+        }
+
+        IntList(int capacity) {
+            values = new int[Math.max(capacity, 4)];
+        }
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void insertSorted(int value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                // Animal type and feed type of the row have the same value
+                return;
+            }
+            index = -index - 1;
+            add(value);
+            System.arraycopy(values, index, values, index + 1, size - 1 - index);
+            values[index] = value;
+        }
+
+        void removeSorted(int value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - 1 - index);
+                size--;
+            }
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package ch.animal.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.TransformationList;
+
+/**
+ * Shows the animals of a list whose animal type or feed type contains the
+ * search text, in the order of the list. Works like a
+ * {@link javafx.collections.transformation.FilteredList}, but looks the
+ * matching rows up in an {@link AnimalSearchIndex} instead of testing every
+ * animal, so a new search text costs time in the number of hits and does not
+ * create a view for every row of an {@link AnimalRowList}.
+ * <p>
+ * The index is built by the first search, so a list that is never searched
+ * keeps no values per row and is not read when it is shown. From then on,
+ * changes to the list are applied to the index and to the shown rows one by
+ * one. Changes made through this list are passed on to the list.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalSearchList extends TransformationList<Animal, Animal> {
+
+    // Null until the first search
+    private AnimalSearchIndex index;
+    private final StringProperty searchText = new SimpleStringProperty(this, "searchText", "") {
+        @Override
+        protected void invalidated() {
+            search();
+        }
+    };
+
+    // The query of the shown rows, only used while searching
+    private AnimalSearchIndex.Query query;
+
+    // The shown rows of the list in ascending order, null if all are shown
+    private int[] rows;
+    private int size;
+
+    /**
+     * Creates the list showing all animals of the given list.
+     *
+     * @param source the list to search
+     */
+    public AnimalSearchList(ObservableList<Animal> source) {
+        super(source);
+    }
+
+    /**
+     * The text to search for. Empty to show all animals.
+     *
+     * @return the search text property
+     */
+    public StringProperty searchTextProperty() {
+        return searchText;
+    }
+
+    public String getSearchText() {
+        return searchText.get();
+    }
+
+    public void setSearchText(String text) {
+        searchText.set(text);
+    }
+
+    @Override
+    public int size() {
+        return rows == null ? getSource().size() : size;
+    }
+
+    @Override
+    public Animal get(int index) {
+        return getSource().get(getSourceIndex(index));
+    }
+
+    @Override
+    public int getSourceIndex(int index) {
+        if (rows == null) {
+            return index;
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return rows[index];
+    }
+
+    @Override
+    public int getViewIndex(int index) {
+        if (rows == null) {
+            return index;
+        }
+        int viewIndex = Arrays.binarySearch(rows, 0, size, index);
+        return viewIndex >= 0 ? viewIndex : -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ObservableList<Animal> source() {
+        return (ObservableList<Animal>) getSource();
+    }
+
+    @Override
+    public Animal set(int index, Animal element) {
+        return source().set(getSourceIndex(index), element);
+    }
+
+    /**
+     * Inserts into the list. While searching, the animal is inserted behind
+     * the shown animal before it and only shown if it matches.
+     */
+    @Override
+    public void add(int index, Animal element) {
+        if (rows == null) {
+            source().add(index, element);
+        } else if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        } else {
+            source().add(index == 0 ? 0 : rows[index - 1] + 1, element);
+        }
+    }
+
+    @Override
+    public Animal remove(int index) {
+        return source().remove(getSourceIndex(index));
+    }
+
+    @Override
+    protected void removeRange(int from, int to) {
+        if (rows == null) {
+            source().remove(from, to);
+        } else {
+            for (int i = to - 1; i >= from; i--) {
+                source().remove(rows[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the shown animals. While searching, the animals must be as
+     * many as are shown; they are written to the rows of the shown animals,
+     * so sorting the result of a search sorts these rows among each other.
+     */
+    @Override
+    public boolean setAll(Collection<? extends Animal> col) {
+        if (rows == null) {
+            return source().setAll(col);
+        }
+        if (col.size() != size) {
+            throw new UnsupportedOperationException("Only a permutation of the search result can be set");
+        }
+        // The animals may be views of the rows they are written to, so copy them first
+        List<Animal> copies = new ArrayList<>(col.size());
+        for (Animal animal : col) {
+            copies.add(animal.copy());
+        }
+        int[] targetRows = Arrays.copyOf(rows, size);
+        long[] keys = new long[copies.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = copies.get(i).getKey();
+        }
+        for (int i = 0; i < targetRows.length; i++) {
+            source().set(targetRows[i], copies.get(i));
+        }
+        if (source() instanceof AnimalRowList) {
+            // The rows keep their keys when they are set; if the animals were only reordered, the keys go along
+            AnimalRowList<?> list = (AnimalRowList<?>) source();
+            long[] oldKeys = new long[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                oldKeys[i] = list.getStore().getKey(targetRows[i]);
+            }
+            long[] sortedKeys = keys.clone();
+            Arrays.sort(sortedKeys);
+            Arrays.sort(oldKeys);
+            if (Arrays.equals(sortedKeys, oldKeys)) {
+                list.setKeys(targetRows, keys);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the shown animals by the given fields. Over an
+     * {@link AnimalSortList} only the order of that view changes, ordered by
+     * its {@link AnimalSortKeys}, so no animal is read and the rows of the
+     * list stay where they are; other lists are sorted through
+     * {@link #setAll}. While searching, the shown rows are sorted among each
+     * other.
+     *
+     * @param fields the fields to sort by, the most significant first
+     * @param descending per field true to sort it in descending order
+     */
+    public void sort(AnimalSortKeys.Field[] fields, boolean[] descending) {
+        int[] shown = rows != null ? Arrays.copyOf(rows, size) : new int[getSource().size()];
+        if (rows == null) {
+            Arrays.setAll(shown, row -> row);
+        }
+        if (source() instanceof AnimalSortList) {
+            ((AnimalSortList) source()).sort(shown, fields, descending);
+            return;
+        }
+        AnimalSortKeys sortKeys = new AnimalSortKeys(source());
+        int[] sorted = sortKeys.sort(shown, fields, descending);
+        sortKeys.dispose();
+        if (!Arrays.equals(sorted, shown)) {
+            List<Animal> animals = new ArrayList<>(sorted.length);
+            for (int row : sorted) {
+                animals.add(getSource().get(row));
+            }
+            setAll(animals);
+        }
+    }
+
+    /**
+     * Replaces the shown rows by the rows matching the search text.
+     */
+    private void search() {
+        ObservableList<? extends Animal> source = getSource();
+        if (index == null) {
+            String text = getSearchText();
+            if (text == null || text.trim().isEmpty()) {
+                // Without an index all animals are shown already
+                return;
+            }
+            index = new AnimalSearchIndex();
+            index.insert(0, source.size(), source);
+        }
+        AnimalSearchIndex.Query newQuery = index.query(getSearchText());
+        int[] oldRows = rows;
+        int oldSize = size();
+
+        query = newQuery;
+        if (query.isEmpty()) {
+            rows = null;
+        } else {
+            rows = query.rows();
+            size = rows.length;
+        }
+
+        // The list has not changed, so the old animals can be read when asked for
+        List<Animal> removed = new AbstractList<Animal>() {
+            @Override
+            public Animal get(int i) {
+                return source.get(oldRows == null ? i : oldRows[i]);
+            }
+
+            @Override
+            public int size() {
+                return oldSize;
+            }
+        };
+        fireChange(new ReplaceAllChange(this, removed));
+    }
+
+    @Override
+    protected void sourceChanged(ListChangeListener.Change<? extends Animal> c) {
+        beginChange();
+        int[] removedRows = AnimalRowList.removedRows(c);
+        if (removedRows != null && removedRows.length > 1) {
+            if (index != null) {
+                index.removeRows(removedRows);
+            }
+            removedRows(c, removedRows);
+            endChange();
+            return;
+        }
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                permute(c);
+            } else if (c.wasUpdated()) {
+                for (int row = c.getFrom(); row < c.getTo(); row++) {
+                    if (index != null) {
+                        index.update(row, c.getList().get(row));
+                    }
+                    updated(row);
+                }
+            } else {
+                if (c.wasRemoved()) {
+                    if (index != null) {
+                        index.remove(c.getFrom(), c.getFrom() + c.getRemovedSize());
+                    }
+                    removed(c.getFrom(), c.getRemoved());
+                }
+                if (c.wasAdded()) {
+                    if (index != null) {
+                        index.insert(c.getFrom(), c.getTo(), c.getList());
+                    }
+                    added(c.getFrom(), c.getTo());
+                }
+            }
+        }
+        endChange();
+    }
+
+    private void permute(ListChangeListener.Change<? extends Animal> c) {
+        if (index != null) {
+            index.permute(c.getFrom(), c.getTo(), c::getPermutation);
+        }
+        if (rows == null) {
+            int[] permutation = new int[c.getTo() - c.getFrom()];
+            for (int row = c.getFrom(); row < c.getTo(); row++) {
+                permutation[row - c.getFrom()] = c.getPermutation(row);
+            }
+            nextPermutation(c.getFrom(), c.getTo(), permutation);
+            return;
+        }
+        // The rows in the permuted range keep matching, they only move
+        int[] oldRows = Arrays.copyOf(rows, size);
+        for (int i = 0; i < size; i++) {
+            if (rows[i] >= c.getFrom() && rows[i] < c.getTo()) {
+                rows[i] = c.getPermutation(rows[i]);
+            }
+        }
+        Arrays.sort(rows, 0, size);
+        int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            int row = oldRows[i] >= c.getFrom() && oldRows[i] < c.getTo() ? c.getPermutation(oldRows[i]) : oldRows[i];
+            permutation[i] = Arrays.binarySearch(rows, 0, size, row);
+        }
+        nextPermutation(0, size, permutation);
+    }
+
+    private void updated(int row) {
+        if (rows == null) {
+            nextUpdate(row);
+            return;
+        }
+        int viewIndex = Arrays.binarySearch(rows, 0, size, row);
+        boolean matches = query.matches(row);
+        if (viewIndex >= 0 && matches) {
+            nextUpdate(viewIndex);
+        } else if (viewIndex >= 0) {
+            Animal animal = getSource().get(row);
+            System.arraycopy(rows, viewIndex + 1, rows, viewIndex, size - viewIndex - 1);
+            size--;
+            nextRemove(viewIndex, animal);
+        } else if (matches) {
+            viewIndex = -viewIndex - 1;
+            insertRow(viewIndex, row);
+            nextAdd(viewIndex, viewIndex + 1);
+        }
+    }
+
+    private void removed(int from, List<? extends Animal> removed) {
+        if (rows == null) {
+            nextRemove(from, removed);
+            return;
+        }
+        int to = from + removed.size();
+        int first = lowerBound(from);
+        int last = lowerBound(to);
+        if (last > first) {
+            List<Animal> shownRemoved = new ArrayList<>(last - first);
+            for (int i = first; i < last; i++) {
+                shownRemoved.add(removed.get(rows[i] - from));
+            }
+            nextRemove(first, shownRemoved);
+        }
+        System.arraycopy(rows, last, rows, first, size - last);
+        size -= last - first;
+        for (int i = first; i < size; i++) {
+            rows[i] -= to - from;
+        }
+    }
+
+    /**
+     * Removes many rows at once, moving each shown row only once.
+     */
+    private void removedRows(ListChangeListener.Change<? extends Animal> c, int[] removedRows) {
+        if (rows == null) {
+            while (c.next()) {
+                nextRemove(c.getFrom(), c.getRemoved());
+            }
+            return;
+        }
+        int shownRemoved = 0;
+        int removedBefore = 0;
+        while (c.next()) {
+            for (int k = 0; k < c.getRemovedSize(); k++) {
+                int viewIndex = Arrays.binarySearch(rows, 0, size, c.getFrom() + removedBefore + k);
+                if (viewIndex >= 0) {
+                    // The shown rows removed before are already gone
+                    nextRemove(viewIndex - shownRemoved, c.getRemoved().get(k));
+                    shownRemoved++;
+                }
+            }
+            removedBefore += c.getRemovedSize();
+        }
+        int newSize = 0;
+        for (int i = 0; i < size; i++) {
+            int before = Arrays.binarySearch(removedRows, rows[i]);
+            if (before < 0) {
+                rows[newSize++] = rows[i] - (-before - 1);
+            }
+        }
+        size = newSize;
+    }
+
+    private void added(int from, int to) {
+        if (rows == null) {
+            nextAdd(from, to);
+            return;
+        }
+        int first = lowerBound(from);
+        for (int i = first; i < size; i++) {
+            rows[i] += to - from;
+        }
+        int viewIndex = first;
+        for (int row = from; row < to; row++) {
+            if (query.matches(row)) {
+                insertRow(viewIndex, row);
+                viewIndex++;
+            }
+        }
+        if (viewIndex > first) {
+            nextAdd(first, viewIndex);
+        }
+    }
+
+    private void insertRow(int viewIndex, int row) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(16, size * 2));
+        }
+        System.arraycopy(rows, viewIndex, rows, viewIndex + 1, size - viewIndex);
+        rows[viewIndex] = row;
+        size++;
+    }
+
+    /**
+     * Returns the first view index whose row is at least the given row.
+     */
+    private int lowerBound(int row) {
+        int viewIndex = Arrays.binarySearch(rows, 0, size, row);
+        return viewIndex >= 0 ? viewIndex : -viewIndex - 1;
+    }
+
+    /**
+     * Change replacing the whole content, whose removed animals are only read
+     * if a listener asks for them.
+     */
+    private static class ReplaceAllChange extends ListChangeListener.Change<Animal> {
+
+        private final List<Animal> removed;
+        private int cursor = -1;
+
+        ReplaceAllChange(ObservableList<Animal> list, List<Animal> removed) {
+            super(list);
+            this.removed = removed;
+        }
+
+        @Override
+        public boolean next() {
+            cursor++;
+            return cursor == 0;
+        }
+
+        @Override
+        public void reset() {
+            cursor = -1;
+        }
+
+        @Override
+        public int getFrom() {
+            checkState();
+            return 0;
+        }
+
+        @Override
+        public int getTo() {
+            checkState();
+            return getList().size();
+        }
+
+        @Override
+        public List<Animal> getRemoved() {
+            checkState();
+            return removed;
+        }
+
+        @Override
+        protected int[] getPermutation() {
+            checkState();
+            return new int[0];
+        }
+
+        private void checkState() {
+            if (cursor != 0) {
+                throw new IllegalStateException("Invalid Change state: next() must be called before inspecting the Change.");
+            }
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package ch.animal.model;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import ch.animal.util.StringDictionary;
+import ch.animal.util.UnitRegistry;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Sort keys of the fields shown in the animal table, kept per row in
+ * primitive arrays: the strings as codes of a {@link StringDictionary} whose
+ * distinct values are ranked once with a {@link Collator}, the stock as
+ * {@code double} and the order date as epoch day. A sort turns these keys
+ * into {@code long} values that compare like the fields and orders the rows
+ * with a stable radix sort, the last field first. No animal is read and no
+ * string compared while sorting. The stock is sorted by its quantity in the
+ * unit of its row, normalized with the factor of the unit's code, so that
+ * 1 t comes after 900 Kg.
+ * <p>
+ * The keys are read on the first sort. Afterwards they follow the changes of
+ * the list: updated rows are read again, inserted, removed and moved rows
+ * are inserted, removed and moved in the arrays. Only new strings make the
+ * distinct values be ranked again. The keys must only be used on the JavaFX
+ * Application Thread.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalSortKeys {
+
+    /**
+     * The fields that can be sorted by.
+     */
+    public enum Field {
+        TIER_ART, FUTTER_ART, AKTUELLER_BESTAND, MENGENEINHEIT, BESTELLUNG_NOTWENDIG, BESTELLDATUM
+    }
+
+    private static final int DIGIT_BITS = 16;
+    private static final int DIGITS = Long.SIZE / DIGIT_BITS;
+    private static final int BUCKETS = 1 << DIGIT_BITS;
+
+    private final ObservableList<Animal> animals;
+    private final ListChangeListener<Animal> listener = this::animalsChanged;
+    private final Collator collator = Collator.getInstance();
+
+    // Rank of every string by code + 1, so that null comes first; null while strings were added
+    private final StringDictionary values = new StringDictionary();
+    private int[] ranks;
+    // Factor of every unit by code + 1, see UnitRegistry
+    private long[] unitFactors;
+
+    // Keys per row, null until they are read
+    private int size;
+    private int[] tierArt;
+    private int[] futterArt;
+    private int[] mengeneinheit;
+    private int[] bestellungnotwendig;
+    private int[] bestelldatum;
+    private double[] aktuellerBestand;
+
+    /**
+     * Creates the sort keys of a list. They follow the changes of the list
+     * until they are disposed.
+     *
+     * @param animals the animals to sort
+     */
+    public AnimalSortKeys(ObservableList<Animal> animals) {
+        this.animals = animals;
+        animals.addListener(listener);
+    }
+
+    /**
+     * Stops following the changes of the list.
+     */
+    public void dispose() {
+        animals.removeListener(listener);
+    }
+
+    /**
+     * Returns the list the keys belong to.
+     *
+     * @return the animals
+     */
+    public ObservableList<Animal> getAnimals() {
+        return animals;
+    }
+
+    /**
+     * Sorts rows of the list by the given fields. Rows with equal fields
+     * keep their order. Strings are compared with the collator of the default
+     * locale, missing values come first in ascending order.
+     *
+     * @param rows the rows to sort
+     * @param fields the fields to sort by, the most significant first
+     * @param descending per field true to sort it in descending order
+     * @return the rows in sorted order, a new array
+     */
+    public int[] sort(int[] rows, Field[] fields, boolean[] descending) {
+        readKeys();
+        rankValues();
+        unitFactors = UnitRegistry.getDefault().factorsOf(values, unitFactors);
+        int[] order = rows.clone();
+        long[] keys = new long[order.length];
+        // A stable sort per field, the most significant field last
+        for (int f = fields.length - 1; f >= 0; f--) {
+            long flip = descending[f] ? -1L : 0L;
+            for (int i = 0; i < order.length; i++) {
+                keys[i] = key(fields[f], order[i]) ^ flip;
+            }
+            radixSort(order, keys);
+        }
+        return order;
+    }
+
+    /**
+     * Returns the key of a field of a row. Keys compare like the field when
+     * they are compared as unsigned numbers.
+     */
+    private long key(Field field, int row) {
+        switch (field) {
+        case TIER_ART:
+            return ranks[tierArt[row] + 1];
+        case FUTTER_ART:
+            return ranks[futterArt[row] + 1];
+        case MENGENEINHEIT:
+            return ranks[mengeneinheit[row] + 1];
+        case BESTELLUNG_NOTWENDIG:
+            return ranks[bestellungnotwendig[row] + 1];
+        case BESTELLDATUM:
+            // NO_DATE is the smallest int and becomes 0
+            return (long) bestelldatum[row] - Integer.MIN_VALUE;
+        case AKTUELLER_BESTAND:
+            // Flipping the sign makes the signed quantity compare as unsigned
+            return UnitRegistry.quantity(aktuellerBestand[row], unitFactors[mengeneinheit[row] + 1]) ^ Long.MIN_VALUE;
+        default:
+            throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    /**
+     * Sorts the rows by their keys as unsigned numbers, 16 bits per pass.
+     * Passes over digits that are the same in all keys are skipped, e.g. the
+     * upper half of a rank.
+     */
+    private static void radixSort(int[] order, long[] keys) {
+        int n = order.length;
+        if (n < 2) {
+            return;
+        }
+        int[][] counts = new int[DIGITS][BUCKETS];
+        for (long key : keys) {
+            for (int d = 0; d < DIGITS; d++) {
+                counts[d][(int) (key >>> d * DIGIT_BITS) & BUCKETS - 1]++;
+            }
+        }
+        int[] otherOrder = new int[n];
+        long[] otherKeys = new long[n];
+        int[] sourceOrder = order;
+        long[] sourceKeys = keys;
+        for (int d = 0; d < DIGITS; d++) {
+            int[] count = counts[d];
+            int shift = d * DIGIT_BITS;
+            if (count[(int) (sourceKeys[0] >>> shift) & BUCKETS - 1] == n) {
+                continue;
+            }
+            int start = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                int c = count[b];
+                count[b] = start;
+                start += c;
+            }
+            int[] targetOrder = sourceOrder == order ? otherOrder : order;
+            long[] targetKeys = sourceKeys == keys ? otherKeys : keys;
+            for (int i = 0; i < n; i++) {
+                int target = count[(int) (sourceKeys[i] >>> shift) & BUCKETS - 1]++;
+                targetOrder[target] = sourceOrder[i];
+                targetKeys[target] = sourceKeys[i];
+            }
+            sourceOrder = targetOrder;
+            sourceKeys = targetKeys;
+        }
+        if (sourceOrder != order) {
+            System.arraycopy(sourceOrder, 0, order, 0, n);
+        }
+    }
+
+    private void animalsChanged(ListChangeListener.Change<? extends Animal> c) {
+        if (tierArt == null) {
+            return;
+        }
+        int[] removedRows = AnimalRowList.removedRows(c);
+        if (removedRows != null && removedRows.length > 1) {
+            removeRows(removedRows);
+            return;
+        }
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                permute(c);
+            } else if (c.wasUpdated()) {
+                for (int row = c.getFrom(); row < c.getTo(); row++) {
+                    readRow(row);
+                }
+            } else {
+                if (c.wasRemoved()) {
+                    remove(c.getFrom(), c.getFrom() + c.getRemovedSize());
+                }
+                if (c.wasAdded()) {
+                    insert(c.getFrom(), c.getTo());
+                }
+            }
+        }
+    }
+
+    private void permute(ListChangeListener.Change<? extends Animal> c) {
+        int from = c.getFrom();
+        int[] oldTierArt = Arrays.copyOfRange(tierArt, from, c.getTo());
+        int[] oldFutterArt = Arrays.copyOfRange(futterArt, from, c.getTo());
+        int[] oldMengeneinheit = Arrays.copyOfRange(mengeneinheit, from, c.getTo());
+        int[] oldBestellungnotwendig = Arrays.copyOfRange(bestellungnotwendig, from, c.getTo());
+        int[] oldBestelldatum = Arrays.copyOfRange(bestelldatum, from, c.getTo());
+        double[] oldAktuellerBestand = Arrays.copyOfRange(aktuellerBestand, from, c.getTo());
+        for (int row = from; row < c.getTo(); row++) {
+            int target = c.getPermutation(row);
+            tierArt[target] = oldTierArt[row - from];
+            futterArt[target] = oldFutterArt[row - from];
+            mengeneinheit[target] = oldMengeneinheit[row - from];
+            bestellungnotwendig[target] = oldBestellungnotwendig[row - from];
+            bestelldatum[target] = oldBestelldatum[row - from];
+            aktuellerBestand[target] = oldAktuellerBestand[row - from];
+        }
+    }
+
+    private void insert(int from, int to) {
+        int count = to - from;
+        if (size + count > tierArt.length) {
+            grow(Math.max(size + count, tierArt.length + (tierArt.length >> 1)));
+        }
+        int moved = size - from;
+        System.arraycopy(tierArt, from, tierArt, to, moved);
+        System.arraycopy(futterArt, from, futterArt, to, moved);
+        System.arraycopy(mengeneinheit, from, mengeneinheit, to, moved);
+        System.arraycopy(bestellungnotwendig, from, bestellungnotwendig, to, moved);
+        System.arraycopy(bestelldatum, from, bestelldatum, to, moved);
+        System.arraycopy(aktuellerBestand, from, aktuellerBestand, to, moved);
+        size += count;
+        for (int row = from; row < to; row++) {
+            readRow(row);
+        }
+    }
+
+    private void remove(int from, int to) {
+        int moved = size - to;
+        System.arraycopy(tierArt, to, tierArt, from, moved);
+        System.arraycopy(futterArt, to, futterArt, from, moved);
+        System.arraycopy(mengeneinheit, to, mengeneinheit, from, moved);
+        System.arraycopy(bestellungnotwendig, to, bestellungnotwendig, from, moved);
+        System.arraycopy(bestelldatum, to, bestelldatum, from, moved);
+        System.arraycopy(aktuellerBestand, to, aktuellerBestand, from, moved);
+        size -= to - from;
+    }
+
+    /**
+     * Removes the given rows in one pass.
+     */
+    private void removeRows(int[] rows) {
+        int target = 0;
+        for (int row = 0, i = 0; row < size; row++) {
+            if (i < rows.length && rows[i] == row) {
+                i++;
+            } else {
+                tierArt[target] = tierArt[row];
+                futterArt[target] = futterArt[row];
+                mengeneinheit[target] = mengeneinheit[row];
+                bestellungnotwendig[target] = bestellungnotwendig[row];
+                bestelldatum[target] = bestelldatum[row];
+                aktuellerBestand[target] = aktuellerBestand[row];
+                target++;
+            }
+        }
+        size = target;
+    }
+
+    /**
+     * Reads the keys of all rows unless they are read already.
+     */
+    private void readKeys() {
+        if (tierArt != null) {
+            return;
+        }
+        int count = animals.size();
+        tierArt = new int[count];
+        futterArt = new int[count];
+        mengeneinheit = new int[count];
+        bestellungnotwendig = new int[count];
+        bestelldatum = new int[count];
+        aktuellerBestand = new double[count];
+        size = 0;
+        insert(0, count);
+    }
+
+    private void readRow(int row) {
+        int oldValues = values.size();
+        if (animals instanceof AnimalRowList && ((AnimalRowList<?>) animals).getStore() instanceof AnimalStore) {
+            // The columns are read directly, without creating an animal
+            AnimalStore store = (AnimalStore) ((AnimalRowList<?>) animals).getStore();
+            tierArt[row] = values.code(store.getTierArt(row));
+            futterArt[row] = values.code(store.getFutterArt(row));
+            mengeneinheit[row] = values.code(store.getMengeneinheit(row));
+            bestellungnotwendig[row] = values.code(store.getBestellungnotwendig(row));
+            bestelldatum[row] = store.getBestelldatumEpochDay(row);
+            aktuellerBestand[row] = store.getAktuellerBestand(row);
+        } else {
+            Animal animal = AnimalRowList.peek(animals, row);
+            tierArt[row] = values.code(animal.getTierArt());
+            futterArt[row] = values.code(animal.getFutterArt());
+            mengeneinheit[row] = values.code(animal.getMengeneinheit());
+            bestellungnotwendig[row] = values.code(animal.getBestellungnotwendig());
+            LocalDate date = animal.getBestelldatum();
+            bestelldatum[row] = date != null ? Math.toIntExact(date.toEpochDay()) : AnimalStore.NO_DATE;
+            aktuellerBestand[row] = animal.getAktuellerBestand();
+        }
+        if (values.size() != oldValues) {
+            ranks = null;
+        }
+    }
+
+    /**
+     * Ranks the distinct strings with the collator unless no string was
+     * added since they were ranked. Strings the collator considers equal get
+     * the same rank.
+     */
+    private void rankValues() {
+        if (ranks != null) {
+            return;
+        }
+        CollationKey[] sorted = new CollationKey[values.size()];
+        for (int code = 0; code < sorted.length; code++) {
+            sorted[code] = collator.getCollationKey(values.get(code));
+        }
+        Arrays.sort(sorted);
+        ranks = new int[values.size() + 1];
+        int rank = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i].compareTo(sorted[i - 1]) != 0) {
+                rank++;
+            }
+            ranks[values.find(sorted[i].getSourceString()) + 1] = rank;
+        }
+    }
+
+    private void grow(int capacity) {
+        tierArt = Arrays.copyOf(tierArt, capacity);
+        futterArt = Arrays.copyOf(futterArt, capacity);
+        mengeneinheit = Arrays.copyOf(mengeneinheit, capacity);
+        bestellungnotwendig = Arrays.copyOf(bestellungnotwendig, capacity);
+        bestelldatum = Arrays.copyOf(bestelldatum, capacity);
+        aktuellerBestand = Arrays.copyOf(aktuellerBestand, capacity);
+    }
+}
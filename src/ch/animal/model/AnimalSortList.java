@@ -0,0 +1,271 @@
+package ch.animal.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.TransformationList;
+
+/**
+ * Shows the animals of a list in the order the table is sorted by, without
+ * moving them in the list. Sorting only changes the order of this view, so
+ * the list, and with it the file, the undo history and the journal, stay as
+ * they are. Until the first sort the animals are shown in the order of the
+ * list and changes of the list are passed on as they are.
+ * <p>
+ * Once sorted, the view keeps per row of the list its position and per
+ * position its row. Updated rows stay where they are shown. Rows inserted
+ * into the list are shown before the row that was at their place in the
+ * list, rows added at its end are shown at the end. Changes made through
+ * this list are passed on to the list.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalSortList extends TransformationList<Animal, Animal> {
+
+    // Created on the first sort
+    private AnimalSortKeys sortKeys;
+
+    // Row of the list per position and position per row, null until sorted
+    private int[] order;
+    private int[] positions;
+
+    /**
+     * Creates the view showing the animals in the order of the list.
+     *
+     * @param source the list to sort
+     */
+    public AnimalSortList(ObservableList<Animal> source) {
+        super(source);
+    }
+
+    @Override
+    public int size() {
+        return getSource().size();
+    }
+
+    @Override
+    public Animal get(int index) {
+        return getSource().get(getSourceIndex(index));
+    }
+
+    @Override
+    public int getSourceIndex(int index) {
+        if (order == null) {
+            return index;
+        }
+        if (index < 0 || index >= order.length) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + order.length);
+        }
+        return order[index];
+    }
+
+    @Override
+    public int getViewIndex(int index) {
+        return positions == null ? index : positions[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private ObservableList<Animal> source() {
+        return (ObservableList<Animal>) getSource();
+    }
+
+    @Override
+    public Animal set(int index, Animal element) {
+        return source().set(getSourceIndex(index), element);
+    }
+
+    /**
+     * Inserts into the list before the row shown at the given position, or
+     * at the end of the list if the position is the end.
+     */
+    @Override
+    public void add(int index, Animal element) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+        }
+        source().add(index == size() ? size() : getSourceIndex(index), element);
+    }
+
+    @Override
+    public Animal remove(int index) {
+        return source().remove(getSourceIndex(index));
+    }
+
+    /**
+     * Sorts the animals shown at the given positions among each other by the
+     * given fields, ordered by the {@link AnimalSortKeys} of the list, so no
+     * animal is read. The animals at the other positions stay where they are.
+     *
+     * @param shown the positions to sort, in ascending order
+     * @param fields the fields to sort by, the most significant first
+     * @param descending per field true to sort it in descending order
+     */
+    public void sort(int[] shown, AnimalSortKeys.Field[] fields, boolean[] descending) {
+        if (shown.length < 2) {
+            return;
+        }
+        if (sortKeys == null) {
+            sortKeys = new AnimalSortKeys(source());
+        }
+        int[] rows = new int[shown.length];
+        for (int i = 0; i < shown.length; i++) {
+            rows[i] = getSourceIndex(shown[i]);
+        }
+        int[] sorted = sortKeys.sort(rows, fields, descending);
+        if (Arrays.equals(sorted, rows)) {
+            return;
+        }
+        if (order == null) {
+            order = new int[size()];
+            Arrays.setAll(order, row -> row);
+            positions = order.clone();
+        }
+        for (int i = 0; i < shown.length; i++) {
+            order[shown[i]] = sorted[i];
+            positions[sorted[i]] = shown[i];
+        }
+        int from = shown[0];
+        int to = shown[shown.length - 1] + 1;
+        int[] permutation = new int[to - from];
+        Arrays.setAll(permutation, i -> from + i);
+        for (int i = 0; i < shown.length; i++) {
+            permutation[shown[i] - from] = positions[rows[i]];
+        }
+        beginChange();
+        nextPermutation(from, to, permutation);
+        endChange();
+    }
+
+    @Override
+    protected void sourceChanged(ListChangeListener.Change<? extends Animal> c) {
+        beginChange();
+        if (order == null) {
+            passOn(c);
+            endChange();
+            return;
+        }
+        int[] removedRows = AnimalRowList.removedRows(c);
+        if (removedRows != null && removedRows.length > 1) {
+            List<Animal> animals = new ArrayList<>(removedRows.length);
+            while (c.next()) {
+                animals.addAll(c.getRemoved());
+            }
+            removed(removedRows, animals);
+            endChange();
+            return;
+        }
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                // The rows move in the list, not in the view
+                for (int i = 0; i < order.length; i++) {
+                    if (order[i] >= c.getFrom() && order[i] < c.getTo()) {
+                        order[i] = c.getPermutation(order[i]);
+                        positions[order[i]] = i;
+                    }
+                }
+            } else if (c.wasUpdated()) {
+                for (int row = c.getFrom(); row < c.getTo(); row++) {
+                    nextUpdate(positions[row]);
+                }
+            } else if (c.wasReplaced() && c.getRemovedSize() == c.getAddedSize()) {
+                // Rows set in place stay where they are shown
+                for (int row = c.getFrom(); row < c.getTo(); row++) {
+                    nextSet(positions[row], c.getRemoved().get(row - c.getFrom()));
+                }
+            } else {
+                if (c.wasRemoved()) {
+                    int[] rows = new int[c.getRemovedSize()];
+                    Arrays.setAll(rows, i -> c.getFrom() + i);
+                    removed(rows, c.getRemoved());
+                }
+                if (c.wasAdded()) {
+                    added(c.getFrom(), c.getTo());
+                }
+            }
+        }
+        endChange();
+    }
+
+    /**
+     * Passes the changes of the list on while the view is not sorted.
+     */
+    private void passOn(ListChangeListener.Change<? extends Animal> c) {
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                int[] permutation = new int[c.getTo() - c.getFrom()];
+                for (int row = c.getFrom(); row < c.getTo(); row++) {
+                    permutation[row - c.getFrom()] = c.getPermutation(row);
+                }
+                nextPermutation(c.getFrom(), c.getTo(), permutation);
+            } else if (c.wasUpdated()) {
+                for (int row = c.getFrom(); row < c.getTo(); row++) {
+                    nextUpdate(row);
+                }
+            } else {
+                if (c.wasRemoved()) {
+                    nextRemove(c.getFrom(), c.getRemoved());
+                }
+                if (c.wasAdded()) {
+                    nextAdd(c.getFrom(), c.getTo());
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the given rows of the list from the view.
+     *
+     * @param removedRows the rows in ascending order, counted before the removal
+     * @param animals the removed animals, one per row
+     */
+    private void removed(int[] removedRows, List<? extends Animal> animals) {
+        // The removed positions in ascending order, with their animals
+        long[] removedPositions = new long[removedRows.length];
+        for (int i = 0; i < removedRows.length; i++) {
+            removedPositions[i] = (long) positions[removedRows[i]] << 32 | i;
+        }
+        Arrays.sort(removedPositions);
+        for (int i = 0; i < removedPositions.length; i++) {
+            int position = (int) (removedPositions[i] >>> 32);
+            // The positions removed before are already gone
+            nextRemove(position - i, animals.get((int) removedPositions[i]));
+        }
+
+        int[] newOrder = new int[order.length - removedRows.length];
+        int size = 0;
+        for (int row : order) {
+            int before = Arrays.binarySearch(removedRows, row);
+            if (before < 0) {
+                newOrder[size++] = row - (-before - 1);
+            }
+        }
+        setOrder(newOrder);
+    }
+
+    private void added(int from, int to) {
+        int count = to - from;
+        int at = from < order.length ? positions[from] : order.length;
+        int[] newOrder = new int[order.length + count];
+        for (int i = 0; i < order.length; i++) {
+            int row = order[i] >= from ? order[i] + count : order[i];
+            newOrder[i < at ? i : i + count] = row;
+        }
+        for (int i = 0; i < count; i++) {
+            newOrder[at + i] = from + i;
+        }
+        setOrder(newOrder);
+        nextAdd(at, at + count);
+    }
+
+    private void setOrder(int[] newOrder) {
+        order = newOrder;
+        positions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            positions[order[i]] = i;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package ch.animal.model;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import ch.animal.util.LongIntMap;
+import ch.animal.util.StringDictionary;
+import ch.animal.util.UnitRegistry;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Aggregates of a list of animals for the dashboard: the total stock per
+ * feed type and unit, the number of animals that have to be ordered and the
+ * number of order dates per month. Stocks in registered units are added up
+ * as normalized quantities in the display unit of their dimension, see
+ * {@link UnitRegistry}, so 500 g and 2 Sack make one total in Kg; stocks in
+ * unknown units keep a total of their own. The totals are exact integers.
+ * The values each row contributes are kept in primitive arrays, so a change
+ * of the list subtracts the old values of a row and adds the new ones
+ * instead of scanning the list again. An edited row costs O(1); inserted and
+ * removed rows cost O(1) each plus moving the arrays behind them.
+ * <p>
+ * The list is scanned once when the statistics are created. Listeners are
+ * told after every change; they read the aggregates when they need them,
+ * e.g. once per frame. The statistics must only be used on the JavaFX
+ * Application Thread, except for {@link #prepare}, which scans the list and
+ * can run in the background while no other thread uses the list.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalStatistics {
+
+    /** Month of a row without order date. */
+    private static final int NO_MONTH = Integer.MIN_VALUE;
+
+    private static final String NEEDED = "Ja";
+
+    private final ObservableList<Animal> animals;
+    private final ListChangeListener<Animal> listener = this::animalsChanged;
+    private Runnable onChanged;
+
+    // Group of every (feed type, unit) pair and its totals, by group
+    private final StringDictionary values = new StringDictionary();
+    private final LongIntMap groupOfPair = new LongIntMap();
+    private long[] groupPairs = new long[16];
+    private long[] groupStock = new long[16];
+    private int[] groupCount = new int[16];
+    private int groups;
+
+    // Factor of every unit and code of the unit its total is shown in, by code + 1
+    private long[] unitFactors;
+    private int[] displayUnit = { StringDictionary.NULL_CODE };
+
+    // Slot of every month and its number of order dates, by slot
+    private final LongIntMap slotOfMonth = new LongIntMap();
+    private int[] slotMonths = new int[16];
+    private int[] slotCount = new int[16];
+    private int slots;
+
+    private int reorderCount;
+
+    // Contribution of every row
+    private int size;
+    private int[] group;
+    private long[] stock;
+    private int[] month;
+    private boolean[] reorder;
+
+    /**
+     * Creates the statistics of a list. They follow the changes of the list
+     * until they are disposed.
+     *
+     * @param animals the animals
+     */
+    public AnimalStatistics(ObservableList<Animal> animals) {
+        this(animals, true);
+    }
+
+    private AnimalStatistics(ObservableList<Animal> animals, boolean follow) {
+        this.animals = animals;
+        // The display units first, so looking units up adds no strings
+        for (UnitRegistry.Dimension dimension : UnitRegistry.Dimension.values()) {
+            values.code(dimension.getDisplayUnit());
+        }
+        int count = animals.size();
+        group = new int[count];
+        stock = new long[count];
+        month = new int[count];
+        reorder = new boolean[count];
+        insert(0, count);
+        if (follow) {
+            start();
+        }
+    }
+
+    /**
+     * Creates the statistics of a list without following it yet, e.g. in the
+     * task loading the animals, so the JavaFX Application Thread does not
+     * have to read them. {@link #start()} has to be called before the list is
+     * changed.
+     *
+     * @param animals the animals
+     * @return the statistics, not started yet
+     */
+    public static AnimalStatistics prepare(ObservableList<Animal> animals) {
+        return new AnimalStatistics(animals, false);
+    }
+
+    /**
+     * Starts following the changes of the list until the statistics are
+     * disposed.
+     */
+    public void start() {
+        animals.addListener(listener);
+    }
+
+    /**
+     * Stops following the changes of the list.
+     */
+    public void dispose() {
+        animals.removeListener(listener);
+    }
+
+    /**
+     * Sets the action run after the aggregates changed.
+     *
+     * @param onChanged the action, or null
+     */
+    public void setOnChanged(Runnable onChanged) {
+        this.onChanged = onChanged;
+    }
+
+    /**
+     * Returns the number of animals.
+     *
+     * @return the number of animals
+     */
+    public int getCount() {
+        return size;
+    }
+
+    /**
+     * Returns the number of animals whose order is necessary.
+     *
+     * @return the number of animals with "Bestellung notwendig" set to "Ja"
+     */
+    public int getReorderCount() {
+        return reorderCount;
+    }
+
+    /**
+     * Returns the total stock per feed type and unit, ordered by feed type
+     * and unit. Registered units are converted to the display unit of their
+     * dimension. Combinations no animal has anymore are left out.
+     *
+     * @return the totals
+     */
+    public List<StockTotal> getStockTotals() {
+        List<StockTotal> totals = new ArrayList<>(groups);
+        for (int g = 0; g < groups; g++) {
+            if (groupCount[g] > 0) {
+                totals.add(new StockTotal(values.get((int) (groupPairs[g] >>> 32) - 2),
+                        values.get((int) groupPairs[g] - 2), groupStock[g] / 1000.0, groupCount[g]));
+            }
+        }
+        Comparator<String> strings = Comparator.nullsFirst(Comparator.naturalOrder());
+        totals.sort(Comparator.comparing(StockTotal::getFutterArt, strings)
+                .thenComparing(StockTotal::getMengeneinheit, strings));
+        return totals;
+    }
+
+    /**
+     * Returns the number of order dates per month. Months without order date
+     * are left out.
+     *
+     * @return the numbers by month, in ascending order
+     */
+    public SortedMap<YearMonth, Integer> getOrderHistogram() {
+        SortedMap<YearMonth, Integer> histogram = new TreeMap<>();
+        for (int s = 0; s < slots; s++) {
+            if (slotCount[s] > 0) {
+                histogram.put(YearMonth.of(Math.floorDiv(slotMonths[s], 12), Math.floorMod(slotMonths[s], 12) + 1),
+                        slotCount[s]);
+            }
+        }
+        return histogram;
+    }
+
+    private void animalsChanged(ListChangeListener.Change<? extends Animal> c) {
+        int[] removedRows = AnimalRowList.removedRows(c);
+        if (removedRows != null && removedRows.length > 1) {
+            removeRows(removedRows);
+        } else {
+            while (c.next()) {
+                if (c.wasPermutated()) {
+                    permute(c);
+                } else if (c.wasUpdated()) {
+                    for (int row = c.getFrom(); row < c.getTo(); row++) {
+                        subtract(row);
+                        readRow(row);
+                    }
+                } else {
+                    if (c.wasRemoved()) {
+                        remove(c.getFrom(), c.getFrom() + c.getRemovedSize());
+                    }
+                    if (c.wasAdded()) {
+                        insert(c.getFrom(), c.getTo());
+                    }
+                }
+            }
+        }
+        if (onChanged != null) {
+            onChanged.run();
+        }
+    }
+
+    private void permute(ListChangeListener.Change<? extends Animal> c) {
+        int from = c.getFrom();
+        int[] oldGroup = Arrays.copyOfRange(group, from, c.getTo());
+        long[] oldStock = Arrays.copyOfRange(stock, from, c.getTo());
+        int[] oldMonth = Arrays.copyOfRange(month, from, c.getTo());
+        boolean[] oldReorder = Arrays.copyOfRange(reorder, from, c.getTo());
+        for (int row = from; row < c.getTo(); row++) {
+            int target = c.getPermutation(row);
+            group[target] = oldGroup[row - from];
+            stock[target] = oldStock[row - from];
+            month[target] = oldMonth[row - from];
+            reorder[target] = oldReorder[row - from];
+        }
+    }
+
+    private void insert(int from, int to) {
+        int count = to - from;
+        if (size + count > group.length) {
+            int capacity = Math.max(size + count, group.length + (group.length >> 1));
+            group = Arrays.copyOf(group, capacity);
+            stock = Arrays.copyOf(stock, capacity);
+            month = Arrays.copyOf(month, capacity);
+            reorder = Arrays.copyOf(reorder, capacity);
+        }
+        int moved = size - from;
+        System.arraycopy(group, from, group, to, moved);
+        System.arraycopy(stock, from, stock, to, moved);
+        System.arraycopy(month, from, month, to, moved);
+        System.arraycopy(reorder, from, reorder, to, moved);
+        size += count;
+        for (int row = from; row < to; row++) {
+            readRow(row);
+        }
+    }
+
+    private void remove(int from, int to) {
+        for (int row = from; row < to; row++) {
+            subtract(row);
+        }
+        int moved = size - to;
+        System.arraycopy(group, to, group, from, moved);
+        System.arraycopy(stock, to, stock, from, moved);
+        System.arraycopy(month, to, month, from, moved);
+        System.arraycopy(reorder, to, reorder, from, moved);
+        size -= to - from;
+    }
+
+    /**
+     * Removes the given rows in one pass.
+     */
+    private void removeRows(int[] rows) {
+        int target = 0;
+        for (int row = 0, i = 0; row < size; row++) {
+            if (i < rows.length && rows[i] == row) {
+                subtract(row);
+                i++;
+            } else {
+                group[target] = group[row];
+                stock[target] = stock[row];
+                month[target] = month[row];
+                reorder[target] = reorder[row];
+                target++;
+            }
+        }
+        size = target;
+    }
+
+    /**
+     * Reads the values of a row and adds them to the aggregates.
+     */
+    private void readRow(int row) {
+        String futterArt;
+        String mengeneinheit;
+        double bestand;
+        int epochDay;
+        if (animals instanceof AnimalRowList && ((AnimalRowList<?>) animals).getStore() instanceof AnimalStore) {
+            // The columns are read directly, without creating an animal
+            AnimalStore store = (AnimalStore) ((AnimalRowList<?>) animals).getStore();
+            futterArt = store.getFutterArt(row);
+            mengeneinheit = store.getMengeneinheit(row);
+            bestand = store.getAktuellerBestand(row);
+            reorder[row] = NEEDED.equals(store.getBestellungnotwendig(row));
+            epochDay = store.getBestelldatumEpochDay(row);
+        } else {
+            Animal animal = AnimalRowList.peek(animals, row);
+            futterArt = animal.getFutterArt();
+            mengeneinheit = animal.getMengeneinheit();
+            bestand = animal.getAktuellerBestand();
+            reorder[row] = NEEDED.equals(animal.getBestellungnotwendig());
+            LocalDate date = animal.getBestelldatum();
+            epochDay = date != null ? Math.toIntExact(date.toEpochDay()) : AnimalStore.NO_DATE;
+        }
+        int unit = values.code(mengeneinheit);
+        if (unit + 1 >= displayUnit.length) {
+            lookUpUnits();
+        }
+        stock[row] = UnitRegistry.quantity(bestand, unitFactors[unit + 1]);
+        group[row] = groupOf(values.code(futterArt), displayUnit[unit + 1]);
+        groupStock[group[row]] += stock[row];
+        groupCount[group[row]]++;
+        if (reorder[row]) {
+            reorderCount++;
+        }
+        if (epochDay != AnimalStore.NO_DATE) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            month[row] = date.getYear() * 12 + date.getMonthValue() - 1;
+            // The slot first, it may grow the arrays
+            int slot = slotOf(month[row]);
+            slotCount[slot]++;
+        } else {
+            month[row] = NO_MONTH;
+        }
+    }
+
+    /**
+     * Subtracts the values of a row from the aggregates.
+     */
+    private void subtract(int row) {
+        groupStock[group[row]] -= stock[row];
+        groupCount[group[row]]--;
+        if (reorder[row]) {
+            reorderCount--;
+        }
+        if (month[row] != NO_MONTH) {
+            int slot = slotOf(month[row]);
+            slotCount[slot]--;
+        }
+    }
+
+    /**
+     * Looks up the units of the strings added since the last time.
+     */
+    private void lookUpUnits() {
+        UnitRegistry registry = UnitRegistry.getDefault();
+        unitFactors = registry.factorsOf(values, unitFactors);
+        int from = displayUnit.length - 1;
+        displayUnit = Arrays.copyOf(displayUnit, values.size() + 1);
+        for (int code = from; code < values.size(); code++) {
+            UnitRegistry.Unit unit = registry.find(values.get(code));
+            displayUnit[code + 1] = unit != null ? values.find(unit.getDimension().getDisplayUnit()) : code;
+        }
+    }
+
+    private int groupOf(int futterArt, int mengeneinheit) {
+        // Codes + 2 are positive, as the map needs them
+        long pair = (long) (futterArt + 2) << 32 | mengeneinheit + 2;
+        int g = groupOfPair.get(pair);
+        if (g == LongIntMap.MISSING) {
+            g = groups++;
+            if (g == groupPairs.length) {
+                groupPairs = Arrays.copyOf(groupPairs, g * 2);
+                groupStock = Arrays.copyOf(groupStock, g * 2);
+                groupCount = Arrays.copyOf(groupCount, g * 2);
+            }
+            groupPairs[g] = pair;
+            groupOfPair.put(pair, g);
+        }
+        return g;
+    }
+
+    private int slotOf(int epochMonth) {
+        // Shifted to be positive, as the map needs it
+        long key = (long) epochMonth - Integer.MIN_VALUE;
+        int s = slotOfMonth.get(key);
+        if (s == LongIntMap.MISSING) {
+            s = slots++;
+            if (s == slotMonths.length) {
+                slotMonths = Arrays.copyOf(slotMonths, s * 2);
+                slotCount = Arrays.copyOf(slotCount, s * 2);
+            }
+            slotMonths[s] = epochMonth;
+            slotOfMonth.put(key, s);
+        }
+        return s;
+    }
+
+    /**
+     * The total stock of the animals with the same feed type and unit, or
+     * units of the same dimension.
+     */
+    public static class StockTotal {
+
+        private final String futterArt;
+        private final String mengeneinheit;
+        private final double bestand;
+        private final int count;
+
+        StockTotal(String futterArt, String mengeneinheit, double bestand, int count) {
+            this.futterArt = futterArt;
+            this.mengeneinheit = mengeneinheit;
+            this.bestand = bestand;
+            this.count = count;
+        }
+
+        public String getFutterArt() {
+            return futterArt;
+        }
+
+        public String getMengeneinheit() {
+            return mengeneinheit;
+        }
+
+        public double getBestand() {
+            return bestand;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package ch.animal.model;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+import ch.animal.util.StringDictionary;
+
+/**
+ * Column store for animals in memory. Every field is kept in a primitive
+ * array: the stock and the daily consumption as {@code double}, the order
+ * date as epoch day, the lead time as {@code int} and the strings as codes of
+ * a {@link StringDictionary}, the key of a row as {@code long}. A row costs 48
+ * bytes plus the distinct strings, instead of an {@link Animal} with its
+ * properties and boxed values. Animals are only created when a row is read,
+ * see {@link AnimalRowList} for an observable list on top of the store.
+ * Rows are found by their key through a {@link RowKeyIndex}.
+ * <p>
+ * The store is not thread-safe. Use {@link #copy()} to hand the content to
+ * another thread.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalStore implements AnimalRows {
+
+    /** Epoch day standing for a missing order date. */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final StringDictionary dictionary;
+    private int size;
+    private int[] tierArt;
+    private int[] futterArt;
+    private int[] mengeneinheit;
+    private int[] bestellungnotwendig;
+    private int[] bestelldatum;
+    private double[] aktuellerBestand;
+    private double[] tagesverbrauch;
+    private int[] lieferfrist;
+    private long[] key;
+    private final RowKeyIndex keyIndex = new RowKeyIndex(row -> key[row]);
+
+    /**
+     * Creates an empty store.
+     */
+    public AnimalStore() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates an empty store with room for the given number of animals.
+     *
+     * @param capacity the initial capacity
+     */
+    public AnimalStore(int capacity) {
+        this(new StringDictionary(), Math.max(capacity, MIN_CAPACITY));
+    }
+
+    private AnimalStore(StringDictionary dictionary, int capacity) {
+        this.dictionary = dictionary;
+        tierArt = new int[capacity];
+        futterArt = new int[capacity];
+        mengeneinheit = new int[capacity];
+        bestellungnotwendig = new int[capacity];
+        bestelldatum = new int[capacity];
+        aktuellerBestand = new double[capacity];
+        tagesverbrauch = new double[capacity];
+        lieferfrist = new int[capacity];
+        key = new long[capacity];
+    }
+
+    /**
+     * Returns a copy of this store that shares nothing with it.
+     *
+     * @return the copy
+     */
+    public AnimalStore copy() {
+        AnimalStore copy = new AnimalStore(dictionary.copy(), size);
+        System.arraycopy(tierArt, 0, copy.tierArt, 0, size);
+        System.arraycopy(futterArt, 0, copy.futterArt, 0, size);
+        System.arraycopy(mengeneinheit, 0, copy.mengeneinheit, 0, size);
+        System.arraycopy(bestellungnotwendig, 0, copy.bestellungnotwendig, 0, size);
+        System.arraycopy(bestelldatum, 0, copy.bestelldatum, 0, size);
+        System.arraycopy(aktuellerBestand, 0, copy.aktuellerBestand, 0, size);
+        System.arraycopy(tagesverbrauch, 0, copy.tagesverbrauch, 0, size);
+        System.arraycopy(lieferfrist, 0, copy.lieferfrist, 0, size);
+        System.arraycopy(key, 0, copy.key, 0, size);
+        copy.keyIndex.setNextKey(keyIndex.getNextKey());
+        copy.size = size;
+        return copy;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Animal read(int row) {
+        Animal animal = new Animal();
+        read(row, animal);
+        return animal;
+    }
+
+    /**
+     * Copies the values of a row into the given animal.
+     *
+     * @param row the row
+     * @param target the animal to fill
+     */
+    @Override
+    public void read(int row, Animal target) {
+        checkRow(row, size);
+        target.setTierArt(dictionary.get(tierArt[row]));
+        target.setFutterArt(dictionary.get(futterArt[row]));
+        target.setMengeneinheit(dictionary.get(mengeneinheit[row]));
+        target.setBestellungnotwendig(dictionary.get(bestellungnotwendig[row]));
+        target.setBestelldatum(getBestelldatum(row));
+        target.setAktuellerBestand(aktuellerBestand[row]);
+        target.setTagesverbrauch(tagesverbrauch[row]);
+        target.setLieferfrist(lieferfrist[row]);
+        target.setKey(key[row]);
+    }
+
+    @Override
+    public long getKey(int row) {
+        checkRow(row, size);
+        return key[row];
+    }
+
+    @Override
+    public void setKey(int row, long newKey) {
+        checkRow(row, size);
+        if (newKey <= 0) {
+            throw new IllegalArgumentException("Invalid key " + newKey);
+        }
+        if (key[row] != newKey) {
+            key[row] = newKey;
+            keyIndex.rekeyed(newKey);
+        }
+    }
+
+    @Override
+    public int rowOfKey(long searched) {
+        return keyIndex.find(searched, size);
+    }
+
+    @Override
+    public void write(int row, Animal source) {
+        checkRow(row, size);
+        tierArt[row] = dictionary.code(source.getTierArt());
+        futterArt[row] = dictionary.code(source.getFutterArt());
+        mengeneinheit[row] = dictionary.code(source.getMengeneinheit());
+        bestellungnotwendig[row] = dictionary.code(source.getBestellungnotwendig());
+        LocalDate date = source.getBestelldatum();
+        bestelldatum[row] = date != null ? Math.toIntExact(date.toEpochDay()) : NO_DATE;
+        aktuellerBestand[row] = source.getAktuellerBestand();
+        tagesverbrauch[row] = source.getTagesverbrauch();
+        lieferfrist[row] = source.getLieferfrist();
+    }
+
+    @Override
+    public void insert(int row, Animal source) {
+        checkRow(row, size + 1);
+        long newKey = keyIndex.claim(source.getKey(), size);
+        if (size == tierArt.length) {
+            grow(size + 1);
+        }
+        int moved = size - row;
+        System.arraycopy(tierArt, row, tierArt, row + 1, moved);
+        System.arraycopy(futterArt, row, futterArt, row + 1, moved);
+        System.arraycopy(mengeneinheit, row, mengeneinheit, row + 1, moved);
+        System.arraycopy(bestellungnotwendig, row, bestellungnotwendig, row + 1, moved);
+        System.arraycopy(bestelldatum, row, bestelldatum, row + 1, moved);
+        System.arraycopy(aktuellerBestand, row, aktuellerBestand, row + 1, moved);
+        System.arraycopy(tagesverbrauch, row, tagesverbrauch, row + 1, moved);
+        System.arraycopy(lieferfrist, row, lieferfrist, row + 1, moved);
+        System.arraycopy(key, row, key, row + 1, moved);
+        size++;
+        key[row] = newKey;
+        keyIndex.inserted(row);
+        write(row, source);
+    }
+
+    /**
+     * Appends an animal.
+     *
+     * @param source the animal to store
+     */
+    public void add(Animal source) {
+        insert(size, source);
+    }
+
+    /**
+     * Appends all given animals.
+     *
+     * @param sources the animals to store
+     */
+    public void addAll(Collection<? extends Animal> sources) {
+        if (size + sources.size() > tierArt.length) {
+            grow(size + sources.size());
+        }
+        for (Animal source : sources) {
+            add(source);
+        }
+    }
+
+    @Override
+    public void remove(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + ", size " + size);
+        }
+        keyIndex.removing(from, to, size);
+        int moved = size - to;
+        System.arraycopy(tierArt, to, tierArt, from, moved);
+        System.arraycopy(futterArt, to, futterArt, from, moved);
+        System.arraycopy(mengeneinheit, to, mengeneinheit, from, moved);
+        System.arraycopy(bestellungnotwendig, to, bestellungnotwendig, from, moved);
+        System.arraycopy(bestelldatum, to, bestelldatum, from, moved);
+        System.arraycopy(aktuellerBestand, to, aktuellerBestand, from, moved);
+        System.arraycopy(tagesverbrauch, to, tagesverbrauch, from, moved);
+        System.arraycopy(lieferfrist, to, lieferfrist, from, moved);
+        System.arraycopy(key, to, key, from, moved);
+        size -= to - from;
+    }
+
+    /**
+     * Removes the given rows, moving every remaining row at most once.
+     *
+     * @param rows the rows to remove, distinct and in ascending order
+     */
+    @Override
+    public void removeRows(int[] rows) {
+        if (rows.length == 0) {
+            return;
+        }
+        for (int i = 0; i < rows.length; i++) {
+            checkRow(rows[i], size);
+            if (i > 0 && rows[i] <= rows[i - 1]) {
+                throw new IllegalArgumentException("Rows must be distinct and ascending");
+            }
+        }
+        for (int row : rows) {
+            keyIndex.removing(row, row + 1, size);
+        }
+        int target = rows[0];
+        for (int i = 0; i < rows.length; i++) {
+            // Move the rows between this removed row and the next one down
+            int from = rows[i] + 1;
+            int to = i + 1 < rows.length ? rows[i + 1] : size;
+            int moved = to - from;
+            if (moved > 0) {
+                System.arraycopy(tierArt, from, tierArt, target, moved);
+                System.arraycopy(futterArt, from, futterArt, target, moved);
+                System.arraycopy(mengeneinheit, from, mengeneinheit, target, moved);
+                System.arraycopy(bestellungnotwendig, from, bestellungnotwendig, target, moved);
+                System.arraycopy(bestelldatum, from, bestelldatum, target, moved);
+                System.arraycopy(aktuellerBestand, from, aktuellerBestand, target, moved);
+                System.arraycopy(tagesverbrauch, from, tagesverbrauch, target, moved);
+                System.arraycopy(lieferfrist, from, lieferfrist, target, moved);
+                System.arraycopy(key, from, key, target, moved);
+                target += moved;
+            }
+        }
+        size -= rows.length;
+    }
+
+    /**
+     * Inserts rows at the given positions, moving every existing row at most
+     * once.
+     *
+     * @param rows the positions of the new rows after the insertion,
+     *             distinct and in ascending order
+     * @param values the values of the new rows, row i of it goes to rows[i]
+     */
+    @Override
+    public void insertRows(int[] rows, AnimalRows values) {
+        if (rows.length == 0) {
+            return;
+        }
+        int newSize = size + rows.length;
+        for (int i = 0; i < rows.length; i++) {
+            checkRow(rows[i], newSize);
+            if (i > 0 && rows[i] <= rows[i - 1]) {
+                throw new IllegalArgumentException("Rows must be distinct and ascending");
+            }
+        }
+        // All keys are claimed before any row moves
+        keyIndex.prepare(size);
+        long[] newKeys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            newKeys[i] = keyIndex.claim(values.getKey(i), size);
+        }
+        if (newSize > tierArt.length) {
+            grow(newSize);
+        }
+        int remaining = size;
+        size = newSize;
+        for (int i = rows.length - 1; i >= 0; i--) {
+            // The last existing rows not moved yet go between this new row and the next one
+            int moved = (i + 1 < rows.length ? rows[i + 1] : newSize) - rows[i] - 1;
+            remaining -= moved;
+            if (moved > 0) {
+                int from = remaining;
+                int target = rows[i] + 1;
+                System.arraycopy(tierArt, from, tierArt, target, moved);
+                System.arraycopy(futterArt, from, futterArt, target, moved);
+                System.arraycopy(mengeneinheit, from, mengeneinheit, target, moved);
+                System.arraycopy(bestellungnotwendig, from, bestellungnotwendig, target, moved);
+                System.arraycopy(bestelldatum, from, bestelldatum, target, moved);
+                System.arraycopy(aktuellerBestand, from, aktuellerBestand, target, moved);
+                System.arraycopy(tagesverbrauch, from, tagesverbrauch, target, moved);
+                System.arraycopy(lieferfrist, from, lieferfrist, target, moved);
+                System.arraycopy(key, from, key, target, moved);
+            }
+            // The rows still to move all lie below this one
+            key[rows[i]] = newKeys[i];
+            write(rows[i], values.read(i));
+        }
+        keyIndex.inserted(rows[0]);
+    }
+
+    /**
+     * Moves rows among each other, copying every column once.
+     *
+     * @param rows the rows to fill, distinct and in ascending order
+     * @param sources the rows whose values go to them, row sources[i] goes
+     *                to rows[i]; the same rows in another order
+     */
+    @Override
+    public void permute(int[] rows, int[] sources) {
+        if (rows.length != sources.length) {
+            throw new IllegalArgumentException("Rows and sources differ in length");
+        }
+        BitSet unused = new BitSet(size);
+        for (int i = 0; i < rows.length; i++) {
+            checkRow(rows[i], size);
+            if (i > 0 && rows[i] <= rows[i - 1]) {
+                throw new IllegalArgumentException("Rows must be distinct and ascending");
+            }
+            unused.set(rows[i]);
+        }
+        for (int source : sources) {
+            checkRow(source, size);
+            if (!unused.get(source)) {
+                throw new IllegalArgumentException("Sources must be a permutation of the rows");
+            }
+            unused.clear(source);
+        }
+        permute(tierArt, rows, sources);
+        permute(futterArt, rows, sources);
+        permute(mengeneinheit, rows, sources);
+        permute(bestellungnotwendig, rows, sources);
+        permute(bestelldatum, rows, sources);
+        permute(lieferfrist, rows, sources);
+        permute(aktuellerBestand, rows, sources);
+        permute(tagesverbrauch, rows, sources);
+        permute(key, rows, sources);
+        if (rows.length > 0) {
+            keyIndex.moved(rows[0]);
+        }
+    }
+
+    private static void permute(int[] column, int[] rows, int[] sources) {
+        int[] values = new int[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            values[i] = column[sources[i]];
+        }
+        for (int i = 0; i < rows.length; i++) {
+            column[rows[i]] = values[i];
+        }
+    }
+
+    private static void permute(double[] column, int[] rows, int[] sources) {
+        double[] values = new double[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            values[i] = column[sources[i]];
+        }
+        for (int i = 0; i < rows.length; i++) {
+            column[rows[i]] = values[i];
+        }
+    }
+
+    private static void permute(long[] column, int[] rows, int[] sources) {
+        long[] values = new long[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            values[i] = column[sources[i]];
+        }
+        for (int i = 0; i < rows.length; i++) {
+            column[rows[i]] = values[i];
+        }
+    }
+
+    /**
+     * Returns the animal type of a row.
+     *
+     * @param row the row
+     * @return the animal type
+     */
+    public String getTierArt(int row) {
+        checkRow(row, size);
+        return dictionary.get(tierArt[row]);
+    }
+
+    /**
+     * Returns the feed type of a row.
+     *
+     * @param row the row
+     * @return the feed type
+     */
+    public String getFutterArt(int row) {
+        checkRow(row, size);
+        return dictionary.get(futterArt[row]);
+    }
+
+    /**
+     * Returns the unit of a row.
+     *
+     * @param row the row
+     * @return the unit
+     */
+    public String getMengeneinheit(int row) {
+        checkRow(row, size);
+        return dictionary.get(mengeneinheit[row]);
+    }
+
+    /**
+     * Returns whether an order is necessary for a row.
+     *
+     * @param row the row
+     * @return "Ja", "Nein" or null
+     */
+    public String getBestellungnotwendig(int row) {
+        checkRow(row, size);
+        return dictionary.get(bestellungnotwendig[row]);
+    }
+
+    /**
+     * Returns the current stock of a row without boxing it.
+     *
+     * @param row the row
+     * @return the current stock
+     */
+    public double getAktuellerBestand(int row) {
+        checkRow(row, size);
+        return aktuellerBestand[row];
+    }
+
+    /**
+     * Returns the daily consumption of a row.
+     *
+     * @param row the row
+     * @return the daily consumption
+     */
+    public double getTagesverbrauch(int row) {
+        checkRow(row, size);
+        return tagesverbrauch[row];
+    }
+
+    /**
+     * Returns the lead time of a row in days.
+     *
+     * @param row the row
+     * @return the lead time
+     */
+    public int getLieferfrist(int row) {
+        checkRow(row, size);
+        return lieferfrist[row];
+    }
+
+    /**
+     * Returns the order date of a row as epoch day.
+     *
+     * @param row the row
+     * @return the epoch day, or {@link #NO_DATE}
+     */
+    public int getBestelldatumEpochDay(int row) {
+        checkRow(row, size);
+        return bestelldatum[row];
+    }
+
+    /**
+     * Returns the order date of a row.
+     *
+     * @param row the row
+     * @return the order date or null
+     */
+    public LocalDate getBestelldatum(int row) {
+        int epochDay = getBestelldatumEpochDay(row);
+        return epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+
+    /**
+     * Returns a list view of the store. Reading an element creates a new
+     * animal, changing it does not change the store; use the list's
+     * {@code set} for that. Unlike {@link #write(int, Animal)}, {@code set}
+     * also takes over the key of the animal if it has one, so a journal can
+     * replay rows exchanging their keys. The view is not observable.
+     *
+     * @return the list view
+     */
+    public List<Animal> asList() {
+        return new AbstractList<Animal>() {
+            @Override
+            public Animal get(int index) {
+                return read(index);
+            }
+
+            @Override
+            public Animal set(int index, Animal element) {
+                Animal old = read(index);
+                write(index, element);
+                if (element.getKey() > 0) {
+                    setKey(index, element.getKey());
+                }
+                return old;
+            }
+
+            @Override
+            public void add(int index, Animal element) {
+                insert(index, element);
+                modCount++;
+            }
+
+            @Override
+            public Animal remove(int index) {
+                Animal old = read(index);
+                removeRange(index, index + 1);
+                return old;
+            }
+
+            @Override
+            protected void removeRange(int from, int to) {
+                AnimalStore.this.remove(from, to);
+                modCount++;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, tierArt.length + (tierArt.length >> 1));
+        tierArt = Arrays.copyOf(tierArt, capacity);
+        futterArt = Arrays.copyOf(futterArt, capacity);
+        mengeneinheit = Arrays.copyOf(mengeneinheit, capacity);
+        bestellungnotwendig = Arrays.copyOf(bestellungnotwendig, capacity);
+        bestelldatum = Arrays.copyOf(bestelldatum, capacity);
+        aktuellerBestand = Arrays.copyOf(aktuellerBestand, capacity);
+        tagesverbrauch = Arrays.copyOf(tagesverbrauch, capacity);
+        lieferfrist = Arrays.copyOf(lieferfrist, capacity);
+        key = Arrays.copyOf(key, capacity);
+    }
+
+    private static void checkRow(int row, int limit) {
+        if (row < 0 || row >= limit) {
+            throw new IndexOutOfBoundsException("Row " + row + ", limit " + limit);
+        }
+    }
+}
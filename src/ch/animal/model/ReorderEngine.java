@@ -0,0 +1,494 @@
+package ch.animal.model;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Keeps "Bestellung notwendig" and the order date of a list of animals up to
+ * date from their daily consumption. For an animal with a consumption, the
+ * stock runs out after {@code aktuellerBestand / tagesverbrauch} days, so it
+ * has to be ordered {@code lieferfrist} days before that day. This order day
+ * is written as order date, and an order is necessary once it is reached.
+ * Animals without consumption keep the values entered by hand.
+ * <p>
+ * The order day is only computed again when stock, consumption or lead time
+ * of an animal change; an order date changed by hand is kept. The order days
+ * still to come are kept in a priority queue, so moving to the next day only
+ * touches the animals that are due then and changing an animal costs
+ * O(log n).
+ * <p>
+ * Values computed because of a change of the list are written through the
+ * given executor, e.g. {@code Platform::runLater}, so the other listeners of
+ * the list see the change before the values written because of it. The
+ * engine must only be used on the JavaFX Application Thread, except for
+ * {@link #prepare}, which reads every animal and can run in the background
+ * while no other thread uses the list.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class ReorderEngine {
+
+    /** Order day of a row without consumption. */
+    private static final int NOT_TRACKED = Integer.MIN_VALUE;
+
+    /** Stock lasting longer than this many days is counted as lasting this long. */
+    private static final int MAX_DAYS_LEFT = 100 * 366;
+
+    private static final String NEEDED = "Ja";
+    private static final String NOT_NEEDED = "Nein";
+
+    private final ObservableList<Animal> animals;
+    private final ListChangeListener<Animal> listener = this::animalsChanged;
+    private final Executor writeExecutor;
+
+    private int today;
+
+    // Per row the order day and the inputs it was computed from
+    private int size;
+    private int[] orderDays = new int[16];
+    private long[] inputs = new long[16];
+
+    // Min-heap of (order day << 32 | row) for the rows whose order day is still
+    // to come. Entries whose row has another order day by now are skipped when
+    // they come up; the heap is rebuilt after rows were inserted or removed.
+    private long[] heap = new long[16];
+    private int heapSize;
+    private boolean heapValid;
+
+    // Rows whose values have to be written, or all rows
+    private final BitSet pending = new BitSet();
+    private boolean allPending;
+    private boolean writeScheduled;
+    private boolean writing;
+    private boolean disposed;
+
+    /**
+     * Creates the engine. The animals of the list that are due are updated
+     * through the executor.
+     *
+     * @param animals the animals to keep up to date
+     * @param today the current day
+     * @param writeExecutor runs the writes caused by changes of the list
+     */
+    public ReorderEngine(ObservableList<Animal> animals, LocalDate today, Executor writeExecutor) {
+        this(animals, today, writeExecutor, true);
+    }
+
+    private ReorderEngine(ObservableList<Animal> animals, LocalDate today, Executor writeExecutor, boolean follow) {
+        this.animals = animals;
+        this.today = Math.toIntExact(today.toEpochDay());
+        this.writeExecutor = writeExecutor;
+        insertRows(0, animals.size(), true);
+        ensureHeap();
+        if (follow) {
+            start();
+        }
+    }
+
+    /**
+     * Creates the engine without following the list yet, e.g. in the task
+     * loading the animals, so the JavaFX Application Thread does not have to
+     * read them. {@link #start()} has to be called before the list is
+     * changed.
+     *
+     * @param animals the animals to keep up to date
+     * @param today the current day
+     * @param writeExecutor runs the writes caused by changes of the list
+     * @return the engine, not started yet
+     */
+    public static ReorderEngine prepare(ObservableList<Animal> animals, LocalDate today, Executor writeExecutor) {
+        return new ReorderEngine(animals, today, writeExecutor, false);
+    }
+
+    /**
+     * Starts following the changes of the list. The animals that are due are
+     * updated through the executor.
+     */
+    public void start() {
+        animals.addListener(listener);
+        scheduleWrite();
+    }
+
+    /**
+     * Stops keeping the animals up to date.
+     */
+    public void dispose() {
+        animals.removeListener(listener);
+        disposed = true;
+    }
+
+    /**
+     * Moves the engine to the given day. Going forward, only the animals whose
+     * order day has come are updated.
+     *
+     * @param day the current day
+     */
+    public void setToday(LocalDate day) {
+        if (disposed) {
+            return;
+        }
+        int newToday = Math.toIntExact(day.toEpochDay());
+        if (newToday == today) {
+            return;
+        }
+        if (newToday < today) {
+            // The clock went back, rows may not be due anymore
+            today = newToday;
+            heapValid = false;
+            allPending = true;
+            writePending();
+            return;
+        }
+        // Built for the old day, so it holds the rows that become due now
+        ensureHeap();
+        today = newToday;
+        while (heapSize > 0 && (int) (heap[0] >> 32) <= today) {
+            long entry = poll();
+            int row = (int) entry;
+            if (orderDays[row] == (int) (entry >> 32)) {
+                pending.set(row);
+            }
+        }
+        writePending();
+    }
+
+    /**
+     * Returns the current day of the engine.
+     *
+     * @return the current day
+     */
+    public LocalDate getToday() {
+        return LocalDate.ofEpochDay(today);
+    }
+
+    /**
+     * Returns true while the engine writes order dates and order needs into
+     * the list, so listeners can tell its updates from edits.
+     *
+     * @return true while the engine changes the list
+     */
+    public boolean isWriting() {
+        return writing;
+    }
+
+    /**
+     * Returns the number of animals whose order day is still to come.
+     *
+     * @return the number of scheduled animals
+     */
+    public int getScheduledCount() {
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (orderDays[row] != NOT_TRACKED && orderDays[row] > today) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void animalsChanged(ListChangeListener.Change<? extends Animal> c) {
+        int[] removedRows = AnimalRowList.removedRows(c);
+        if (removedRows != null && removedRows.length > 1) {
+            removeRows(removedRows);
+            return;
+        }
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                int[] oldOrderDays = Arrays.copyOfRange(orderDays, c.getFrom(), c.getTo());
+                long[] oldInputs = Arrays.copyOfRange(inputs, c.getFrom(), c.getTo());
+                BitSet oldPending = pending.get(c.getFrom(), c.getTo());
+                pending.clear(c.getFrom(), c.getTo());
+                for (int row = c.getFrom(); row < c.getTo(); row++) {
+                    orderDays[c.getPermutation(row)] = oldOrderDays[row - c.getFrom()];
+                    inputs[c.getPermutation(row)] = oldInputs[row - c.getFrom()];
+                    if (oldPending.get(row - c.getFrom())) {
+                        pending.set(c.getPermutation(row));
+                    }
+                }
+                heapValid = false;
+            } else if (c.wasUpdated()) {
+                if (!writing) {
+                    for (int row = c.getFrom(); row < c.getTo(); row++) {
+                        update(row);
+                    }
+                }
+            } else {
+                if (c.wasRemoved()) {
+                    removeRows(c.getFrom(), c.getFrom() + c.getRemovedSize());
+                }
+                if (c.wasAdded()) {
+                    insertRows(c.getFrom(), c.getTo(), false);
+                }
+            }
+        }
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if ((allPending || !pending.isEmpty()) && !writeScheduled) {
+            writeScheduled = true;
+            writeExecutor.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Adds rows inserted into the list. The order dates of loaded rows are
+     * kept, new rows are scheduled from their stock.
+     */
+    private void insertRows(int from, int to, boolean keepDates) {
+        int count = to - from;
+        if (size + count > orderDays.length) {
+            int capacity = Math.max(size + count, orderDays.length + (orderDays.length >> 1));
+            orderDays = Arrays.copyOf(orderDays, capacity);
+            inputs = Arrays.copyOf(inputs, capacity);
+        }
+        System.arraycopy(orderDays, from, orderDays, to, size - from);
+        System.arraycopy(inputs, from, inputs, to, size - from);
+        shiftPending(from, count);
+        size += count;
+        heapValid = false;
+        for (int row = from; row < to; row++) {
+            orderDays[row] = NOT_TRACKED;
+            Animal animal = AnimalRowList.peek(animals, row);
+            if (animal.getTagesverbrauch() > 0) {
+                inputs[row] = inputs(animal);
+                LocalDate date = animal.getBestelldatum();
+                // The stored order date stays valid as long as the inputs are unchanged
+                orderDays[row] = keepDates && date != null && isDay(date.toEpochDay())
+                        ? (int) date.toEpochDay() : orderDay(animal);
+                pending.set(row);
+            }
+        }
+    }
+
+    private void removeRows(int from, int to) {
+        System.arraycopy(orderDays, to, orderDays, from, size - to);
+        System.arraycopy(inputs, to, inputs, from, size - to);
+        pending.clear(from, to);
+        shiftPending(to, from - to);
+        size -= to - from;
+        heapValid = false;
+    }
+
+    /**
+     * Removes many rows at once, moving each remaining row only once.
+     */
+    private void removeRows(int[] removedRows) {
+        BitSet oldPending = (BitSet) pending.clone();
+        pending.clear();
+        int target = 0;
+        for (int row = 0, i = 0; row < size; row++) {
+            if (i < removedRows.length && removedRows[i] == row) {
+                i++;
+            } else {
+                orderDays[target] = orderDays[row];
+                inputs[target] = inputs[row];
+                if (oldPending.get(row)) {
+                    pending.set(target);
+                }
+                target++;
+            }
+        }
+        size = target;
+        heapValid = false;
+    }
+
+    /**
+     * Moves the pending rows from the given row on by the given distance.
+     */
+    private void shiftPending(int fromRow, int distance) {
+        BitSet moved = pending.get(fromRow, Math.max(fromRow, size));
+        pending.clear(fromRow, Math.max(fromRow, size));
+        for (int i = moved.nextSetBit(0); i >= 0; i = moved.nextSetBit(i + 1)) {
+            pending.set(fromRow + i + distance);
+        }
+    }
+
+    private void update(int row) {
+        Animal animal = AnimalRowList.peek(animals, row);
+        if (animal.getTagesverbrauch() <= 0) {
+            orderDays[row] = NOT_TRACKED;
+            return;
+        }
+        long newInputs = inputs(animal);
+        LocalDate date = animal.getBestelldatum();
+        if (orderDays[row] == NOT_TRACKED || newInputs != inputs[row] || date == null || !isDay(date.toEpochDay())) {
+            inputs[row] = newInputs;
+            orderDays[row] = orderDay(animal);
+        } else {
+            // Keeps an order date changed by hand
+            orderDays[row] = (int) date.toEpochDay();
+        }
+        push(row);
+        pending.set(row);
+    }
+
+    /**
+     * Computes the order day of an animal from its stock, consumption and
+     * lead time.
+     */
+    private int orderDay(Animal animal) {
+        double daysLeft = Math.max(0, animal.getAktuellerBestand()) / animal.getTagesverbrauch();
+        int stockOut = today + (int) Math.min(Math.floor(daysLeft), MAX_DAYS_LEFT);
+        return stockOut - Math.max(0, animal.getLieferfrist());
+    }
+
+    /**
+     * Writes order date and order need of the pending rows whose values
+     * differ from the computed ones, all with one change of the list.
+     */
+    private void writePending() {
+        writeScheduled = false;
+        if (disposed) {
+            return;
+        }
+        int[] rows = new int[allPending ? size : pending.cardinality()];
+        int count = 0;
+        for (int row = allPending ? 0 : pending.nextSetBit(0); row >= 0 && row < size;
+                row = allPending ? row + 1 : pending.nextSetBit(row + 1)) {
+            if (needsWrite(row)) {
+                rows[count++] = row;
+            }
+        }
+        allPending = false;
+        pending.clear();
+        if (count == 0) {
+            return;
+        }
+        rows = Arrays.copyOf(rows, count);
+
+        writing = true;
+        try {
+            if (animals instanceof AnimalRowList) {
+                ((AnimalRowList<?>) animals).updateRows(rows, this::write);
+            } else {
+                for (int row : rows) {
+                    write(animals.get(row), row);
+                }
+            }
+        } finally {
+            writing = false;
+        }
+    }
+
+    private boolean needsWrite(int row) {
+        if (orderDays[row] == NOT_TRACKED) {
+            return false;
+        }
+        Animal stored = AnimalRowList.peek(animals, row);
+        return !LocalDate.ofEpochDay(orderDays[row]).equals(stored.getBestelldatum())
+                || !(orderDays[row] <= today ? NEEDED : NOT_NEEDED).equals(stored.getBestellungnotwendig());
+    }
+
+    private void write(Animal animal, int row) {
+        animal.setBestelldatum(LocalDate.ofEpochDay(orderDays[row]));
+        animal.setBestellungnotwendig(orderDays[row] <= today ? NEEDED : NOT_NEEDED);
+    }
+
+    private static long inputs(Animal animal) {
+        long hash = Double.doubleToLongBits(animal.getAktuellerBestand());
+        hash = 31 * hash + Double.doubleToLongBits(animal.getTagesverbrauch());
+        return 31 * hash + animal.getLieferfrist();
+    }
+
+    private static boolean isDay(long epochDay) {
+        return epochDay > NOT_TRACKED && epochDay <= Integer.MAX_VALUE;
+    }
+
+    private void push(int row) {
+        if (!heapValid || orderDays[row] <= today) {
+            return;
+        }
+        if (heapSize > 2 * size + 16) {
+            // Mostly skipped entries by now
+            heapValid = false;
+            return;
+        }
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        int i = heapSize++;
+        long entry = entry(row);
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private long poll() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (heapSize > 0) {
+            heap[i] = last;
+        }
+        return top;
+    }
+
+    /**
+     * Rebuilds the heap from the order days of all rows.
+     */
+    private void ensureHeap() {
+        if (heapValid) {
+            return;
+        }
+        heapSize = 0;
+        for (int row = 0; row < size; row++) {
+            if (orderDays[row] != NOT_TRACKED && orderDays[row] > today) {
+                if (heapSize == heap.length) {
+                    heap = Arrays.copyOf(heap, Math.max(16, heapSize * 2));
+                }
+                heap[heapSize++] = entry(row);
+            }
+        }
+        for (int i = (heapSize >>> 1) - 1; i >= 0; i--) {
+            long entry = heap[i];
+            int j = i;
+            while (true) {
+                int child = 2 * j + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (entry <= heap[child]) {
+                    break;
+                }
+                heap[j] = heap[child];
+                j = child;
+            }
+            heap[j] = entry;
+        }
+        heapValid = true;
+    }
+
+    private long entry(int row) {
+        return ((long) orderDays[row] << 32) | (row & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,171 @@
+package ch.animal.model;
+
+import java.util.function.IntToLongFunction;
+
+import ch.animal.util.LongIntMap;
+
+/**
+ * Index from the keys of the rows of a store to their rows, used by the
+ * stores to find an animal by its key and to keep keys unique. Keys are
+ * positive; a new row gets the key of its animal if no other row has it,
+ * otherwise a new one. Keys are handed out in ascending order, so only a key
+ * below the next one to hand out needs to be looked up at all.
+ * <p>
+ * The index is built when it is first needed. Inserting or removing rows
+ * only updates the keys concerned, the rows behind them are marked as moved
+ * and are numbered again on the next lookup. A lookup therefore costs O(1),
+ * after a change in the middle of the store at most as much as moving the
+ * rows behind it did.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class RowKeyIndex {
+
+    private final IntToLongFunction keyOfRow;
+
+    // Every key of the store; the rows are right below validUpTo
+    private LongIntMap rows;
+    private int validUpTo;
+    private long nextKey = 1;
+
+    /**
+     * Creates an index that has not been built yet.
+     *
+     * @param keyOfRow returns the key stored in a row
+     */
+    public RowKeyIndex(IntToLongFunction keyOfRow) {
+        this.keyOfRow = keyOfRow;
+    }
+
+    /**
+     * Returns the key the next new animal gets.
+     *
+     * @return the next key, greater than every key of the store
+     */
+    public long getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * Sets the key the next new animal gets, e.g. after the store was read.
+     *
+     * @param nextKey the next key, greater than every key of the store
+     */
+    public void setNextKey(long nextKey) {
+        this.nextKey = Math.max(1, nextKey);
+    }
+
+    /**
+     * Returns the row with the given key.
+     *
+     * @param key the key
+     * @param size the number of rows of the store
+     * @return the row, or -1 if no row has the key
+     */
+    public int find(long key, int size) {
+        if (key <= 0) {
+            return -1;
+        }
+        LongIntMap index = index(size);
+        for (int row = validUpTo; row < size; row++) {
+            index.put(keyOfRow.applyAsLong(row), row);
+        }
+        validUpTo = size;
+        return index.get(key);
+    }
+
+    /**
+     * Returns the key for a row that is about to be inserted: the requested
+     * key if it is free, otherwise a new one. The store must not have been
+     * changed yet; once the row is stored, {@link #inserted(int)} is called.
+     *
+     * @param requested the key of the animal, 0 for none
+     * @param size the number of rows of the store
+     * @return the key to store
+     */
+    public long claim(long requested, int size) {
+        long key = requested;
+        if (key <= 0 || key < nextKey && index(size).containsKey(key)) {
+            key = nextKey;
+        }
+        nextKey = Math.max(nextKey, key + 1);
+        if (rows != null) {
+            // The row is set by the next lookup
+            rows.put(key, LongIntMap.MISSING);
+        }
+        return key;
+    }
+
+    /**
+     * Builds the index unless it exists, so that several keys can be claimed
+     * before their rows are stored.
+     *
+     * @param size the number of rows of the store
+     */
+    public void prepare(int size) {
+        index(size);
+    }
+
+    /**
+     * Notes that a row has been inserted. The rows behind it have moved.
+     *
+     * @param row the new row
+     */
+    public void inserted(int row) {
+        validUpTo = Math.min(validUpTo, row);
+    }
+
+    /**
+     * Notes that rows have exchanged their places, taking their keys along.
+     *
+     * @param from the first row that may have moved
+     */
+    public void moved(int from) {
+        validUpTo = Math.min(validUpTo, from);
+    }
+
+    /**
+     * Notes that the rows of a range are about to be removed. The store must
+     * still contain them.
+     *
+     * @param from the first row to remove
+     * @param to the row behind the last row to remove
+     * @param size the number of rows of the store
+     */
+    public void removing(int from, int to, int size) {
+        if (rows != null) {
+            if (from == 0 && to == size) {
+                rows.clear();
+            } else {
+                for (int row = from; row < to; row++) {
+                    rows.remove(keyOfRow.applyAsLong(row));
+                }
+            }
+        }
+        validUpTo = Math.min(validUpTo, from);
+    }
+
+    /**
+     * Notes that the key of a row was set directly. The index is dropped and
+     * built again when it is needed, since the keys may only be unique again
+     * once several rows have exchanged theirs.
+     *
+     * @param key the new key
+     */
+    public void rekeyed(long key) {
+        rows = null;
+        nextKey = Math.max(nextKey, key + 1);
+    }
+
+    private LongIntMap index(int size) {
+        if (rows == null) {
+            rows = new LongIntMap(size);
+            for (int row = 0; row < size; row++) {
+                rows.put(keyOfRow.applyAsLong(row), row);
+            }
+            validUpTo = size;
+        }
+        return rows;
+    }
+}
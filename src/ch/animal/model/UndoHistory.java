@@ -0,0 +1,572 @@
+package ch.animal.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.ListChangeListener;
+
+/**
+ * Undo and redo of the changes made to an {@link AnimalRowList}. Only the
+ * operations run through {@link #record(String, Runnable)} or
+ * {@link #recordEdit(String, int[], Runnable)} become steps that can be
+ * undone; other updates of the list, like the order dates written by the
+ * {@link ReorderEngine}, are left alone.
+ * <p>
+ * A step only keeps what it changed: the removed or added rows with their
+ * positions, and for edited rows the fields that differ before and after,
+ * all in {@link AnimalStore}s. Its memory is proportional to the change, not
+ * to the size of the list. The oldest steps are dropped once there are more
+ * than the given depth, or once all steps together hold more than the given
+ * number of rows.
+ * <p>
+ * The history has to be used on the JavaFX Application Thread, like its list.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class UndoHistory {
+
+    private static final int TIER_ART = 1;
+    private static final int FUTTER_ART = 1 << 1;
+    private static final int MENGENEINHEIT = 1 << 2;
+    private static final int BESTELLUNGNOTWENDIG = 1 << 3;
+    private static final int BESTELLDATUM = 1 << 4;
+    private static final int AKTUELLER_BESTAND = 1 << 5;
+    private static final int TAGESVERBRAUCH = 1 << 6;
+    private static final int LIEFERFRIST = 1 << 7;
+
+    private int depth;
+    private final long maxRows;
+
+    private final Deque<Step> undoSteps = new ArrayDeque<>();
+    private final Deque<Step> redoSteps = new ArrayDeque<>();
+    private long rowCount;
+
+    // Identifies the state of the list, see getState()
+    private long nextState = 1;
+    private long baseState;
+
+    private AnimalRowList<?> list;
+    private final ListChangeListener<Animal> listener = this::listChanged;
+    private Recording recording;
+    private boolean applying;
+
+    private final ReadOnlyStringWrapper undoDescription = new ReadOnlyStringWrapper();
+    private final ReadOnlyStringWrapper redoDescription = new ReadOnlyStringWrapper();
+
+    /**
+     * Creates an empty history.
+     *
+     * @param depth the number of steps kept, 0 to keep none
+     * @param maxRows the number of rows all steps together may hold, the
+     *                last step is kept even if it holds more
+     */
+    public UndoHistory(int depth, long maxRows) {
+        if (depth < 0 || maxRows < 0) {
+            throw new IllegalArgumentException("Depth and rows must not be negative");
+        }
+        this.depth = depth;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Makes the history record the changes of the given list. The steps of
+     * the previous list are dropped.
+     *
+     * @param newList the list, or null
+     */
+    public void setList(AnimalRowList<?> newList) {
+        if (list != null) {
+            list.removeListener(listener);
+        }
+        list = newList;
+        if (list != null) {
+            list.addListener(listener);
+        }
+        if (recording != null) {
+            recording.broken = true;
+        }
+        clear();
+    }
+
+    /**
+     * Returns the number of steps kept.
+     *
+     * @return the depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Changes the number of steps kept, the oldest steps are dropped if there
+     * are more.
+     *
+     * @param depth the number of steps, 0 to keep none
+     */
+    public void setDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Depth must not be negative");
+        }
+        this.depth = depth;
+        evict();
+        updateDescriptions();
+    }
+
+    /**
+     * Runs an operation that adds or removes rows of the list and records it
+     * as one step. Updates of rows during the operation are not recorded.
+     *
+     * @param description what the operation does, shown to the user
+     * @param operation the operation
+     */
+    public void record(String description, Runnable operation) {
+        record(description, null, operation);
+    }
+
+    /**
+     * Runs an operation that changes values of the given rows and records it
+     * as one step, with the fields of the rows that differ afterwards. The
+     * operation must not add or remove rows.
+     *
+     * @param description what the operation does, shown to the user
+     * @param rows the rows the operation may change, in ascending order
+     * @param operation the operation
+     */
+    public void recordEdit(String description, int[] rows, Runnable operation) {
+        record(description, rows, operation);
+    }
+
+    private void record(String description, int[] editedRows, Runnable operation) {
+        if (recording != null) {
+            throw new IllegalStateException("Already recording " + recording.description);
+        }
+        if (list == null || depth == 0) {
+            operation.run();
+            // Nothing to undo, but the state has changed
+            clear();
+            return;
+        }
+        Recording current = new Recording(description, editedRows);
+        if (editedRows != null) {
+            current.before = new AnimalStore(editedRows.length);
+            for (int row : editedRows) {
+                current.before.add(list.getStore().read(row));
+            }
+        }
+        AnimalRowList<?> recordedList = list;
+        recording = current;
+        try {
+            operation.run();
+        } finally {
+            recording = null;
+            if (current.broken || list != recordedList) {
+                // The changes cannot be described by a step
+                clear();
+            } else {
+                if (editedRows != null) {
+                    current.addEdits(list.getStore());
+                }
+                if (!current.changes.isEmpty()) {
+                    push(new Step(description, nextState++, current.changes));
+                }
+            }
+        }
+    }
+
+    /**
+     * Undoes the last step.
+     *
+     * @return true if there was a step to undo
+     */
+    public boolean undo() {
+        Step step = undoSteps.pollLast();
+        if (step == null) {
+            return false;
+        }
+        applying = true;
+        try {
+            for (int i = step.changes.size() - 1; i >= 0; i--) {
+                step.changes.get(i).undo(list);
+            }
+        } finally {
+            applying = false;
+        }
+        redoSteps.addLast(step);
+        updateDescriptions();
+        return true;
+    }
+
+    /**
+     * Redoes the last undone step.
+     *
+     * @return true if there was a step to redo
+     */
+    public boolean redo() {
+        Step step = redoSteps.pollLast();
+        if (step == null) {
+            return false;
+        }
+        applying = true;
+        try {
+            for (RowChange change : step.changes) {
+                change.redo(list);
+            }
+        } finally {
+            applying = false;
+        }
+        undoSteps.addLast(step);
+        updateDescriptions();
+        return true;
+    }
+
+    /**
+     * Drops all steps.
+     */
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+        rowCount = 0;
+        baseState = nextState++;
+        updateDescriptions();
+    }
+
+    /**
+     * Returns a number identifying the current state of the list. Undoing and
+     * redoing back to a state returns the same number again, every other
+     * state has another one. Used to tell whether the list is as it was
+     * saved.
+     *
+     * @return the state
+     */
+    public long getState() {
+        Step last = undoSteps.peekLast();
+        return last != null ? last.state : baseState;
+    }
+
+    /**
+     * Returns the number of rows all steps hold together.
+     *
+     * @return the number of rows
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the description of the step undone next.
+     *
+     * @return the description, null if there is nothing to undo
+     */
+    public ReadOnlyStringProperty undoDescriptionProperty() {
+        return undoDescription.getReadOnlyProperty();
+    }
+
+    /**
+     * Returns the description of the step redone next.
+     *
+     * @return the description, null if there is nothing to redo
+     */
+    public ReadOnlyStringProperty redoDescriptionProperty() {
+        return redoDescription.getReadOnlyProperty();
+    }
+
+    private void push(Step step) {
+        for (Step dropped : redoSteps) {
+            rowCount -= dropped.rows;
+        }
+        redoSteps.clear();
+        undoSteps.addLast(step);
+        rowCount += step.rows;
+        evict();
+        updateDescriptions();
+    }
+
+    private void evict() {
+        while (undoSteps.size() > depth || rowCount > maxRows && undoSteps.size() > 1) {
+            Step dropped = undoSteps.removeFirst();
+            rowCount -= dropped.rows;
+            // Undoing can't go back further, so the list never gets to a state before it
+            baseState = dropped.state;
+        }
+    }
+
+    private void updateDescriptions() {
+        Step undo = undoSteps.peekLast();
+        Step redo = redoSteps.peekLast();
+        undoDescription.set(undo != null ? undo.description : null);
+        redoDescription.set(redo != null ? redo.description : null);
+    }
+
+    private void listChanged(ListChangeListener.Change<? extends Animal> c) {
+        if (applying) {
+            return;
+        }
+        boolean structural = false;
+        while (c.next()) {
+            structural |= !c.wasUpdated();
+        }
+        c.reset();
+        if (!structural) {
+            // Updates are only recorded for edits, by comparing the rows
+            return;
+        }
+        if (recording == null || recording.editedRows != null) {
+            // Rows moved without a step, the positions of the steps are wrong now
+            if (recording != null) {
+                recording.broken = true;
+            }
+            clear();
+            return;
+        }
+        int[] removed = AnimalRowList.removedRows(c);
+        if (removed != null) {
+            AnimalStore values = new AnimalStore(removed.length);
+            while (c.next()) {
+                values.addAll(c.getRemoved());
+            }
+            recording.changes.add(new RowChange(false, removed, values));
+            return;
+        }
+        int[] added = addedRows(c);
+        if (added == null) {
+            recording.broken = true;
+            return;
+        }
+        AnimalStore values = new AnimalStore(added.length);
+        for (int row : added) {
+            values.add(list.getStore().read(row));
+        }
+        recording.changes.add(new RowChange(true, added, values));
+    }
+
+    /**
+     * Returns the rows added by a change that does nothing but add rows.
+     *
+     * @return the added rows in ascending order, or null if the change does
+     *         more than adding rows
+     */
+    private static int[] addedRows(ListChangeListener.Change<? extends Animal> c) {
+        int count = 0;
+        while (c.next()) {
+            if (c.wasRemoved() || c.wasPermutated() || c.wasUpdated()) {
+                c.reset();
+                return null;
+            }
+            count += c.getAddedSize();
+        }
+        c.reset();
+        int[] rows = new int[count];
+        int i = 0;
+        while (c.next()) {
+            for (int row = c.getFrom(); row < c.getTo(); row++) {
+                rows[i++] = row;
+            }
+        }
+        c.reset();
+        return rows;
+    }
+
+    /**
+     * Returns the fields that differ between the two animals.
+     */
+    private static int changedFields(Animal before, Animal after) {
+        int fields = 0;
+        if (!Objects.equals(before.getTierArt(), after.getTierArt())) {
+            fields |= TIER_ART;
+        }
+        if (!Objects.equals(before.getFutterArt(), after.getFutterArt())) {
+            fields |= FUTTER_ART;
+        }
+        if (!Objects.equals(before.getMengeneinheit(), after.getMengeneinheit())) {
+            fields |= MENGENEINHEIT;
+        }
+        if (!Objects.equals(before.getBestellungnotwendig(), after.getBestellungnotwendig())) {
+            fields |= BESTELLUNGNOTWENDIG;
+        }
+        if (!Objects.equals(before.getBestelldatum(), after.getBestelldatum())) {
+            fields |= BESTELLDATUM;
+        }
+        if (Double.compare(before.getAktuellerBestand(), after.getAktuellerBestand()) != 0) {
+            fields |= AKTUELLER_BESTAND;
+        }
+        if (Double.compare(before.getTagesverbrauch(), after.getTagesverbrauch()) != 0) {
+            fields |= TAGESVERBRAUCH;
+        }
+        if (before.getLieferfrist() != after.getLieferfrist()) {
+            fields |= LIEFERFRIST;
+        }
+        return fields;
+    }
+
+    /**
+     * Copies the given fields from one animal to another. Only changed
+     * values are set, so the target reports nothing for the other fields.
+     */
+    private static void copyFields(Animal source, Animal target, int fields) {
+        if ((fields & TIER_ART) != 0) {
+            target.setTierArt(source.getTierArt());
+        }
+        if ((fields & FUTTER_ART) != 0) {
+            target.setFutterArt(source.getFutterArt());
+        }
+        if ((fields & MENGENEINHEIT) != 0) {
+            target.setMengeneinheit(source.getMengeneinheit());
+        }
+        if ((fields & BESTELLUNGNOTWENDIG) != 0) {
+            target.setBestellungnotwendig(source.getBestellungnotwendig());
+        }
+        if ((fields & BESTELLDATUM) != 0) {
+            target.setBestelldatum(source.getBestelldatum());
+        }
+        if ((fields & AKTUELLER_BESTAND) != 0) {
+            target.setAktuellerBestand(source.getAktuellerBestand());
+        }
+        if ((fields & TAGESVERBRAUCH) != 0) {
+            target.setTagesverbrauch(source.getTagesverbrauch());
+        }
+        if ((fields & LIEFERFRIST) != 0) {
+            target.setLieferfrist(source.getLieferfrist());
+        }
+    }
+
+    /**
+     * The operation being recorded.
+     */
+    private static class Recording {
+
+        final String description;
+        final int[] editedRows;
+        AnimalStore before;
+        final List<RowChange> changes = new ArrayList<>();
+        boolean broken;
+
+        Recording(String description, int[] editedRows) {
+            this.description = description;
+            this.editedRows = editedRows;
+        }
+
+        /**
+         * Compares the edited rows with their values before the operation and
+         * keeps the rows that changed.
+         */
+        void addEdits(AnimalRows store) {
+            int[] rows = new int[editedRows.length];
+            byte[] fields = new byte[editedRows.length];
+            AnimalStore oldValues = new AnimalStore();
+            AnimalStore newValues = new AnimalStore();
+            int count = 0;
+            // The stores copy the values, so one animal is enough for the old ones
+            Animal oldValue = new Animal();
+            for (int i = 0; i < editedRows.length; i++) {
+                before.read(i, oldValue);
+                Animal newValue = store.read(editedRows[i]);
+                int changed = changedFields(oldValue, newValue);
+                if (changed != 0) {
+                    rows[count] = editedRows[i];
+                    fields[count] = (byte) changed;
+                    oldValues.add(oldValue);
+                    newValues.add(newValue);
+                    count++;
+                }
+            }
+            if (count > 0) {
+                changes.add(new FieldEdit(Arrays.copyOf(rows, count), Arrays.copyOf(fields, count),
+                        oldValues, newValues));
+            }
+        }
+    }
+
+    /**
+     * One undoable operation, made of the changes of the list in the order
+     * they happened.
+     */
+    private static class Step {
+
+        final String description;
+        final long state;
+        final List<RowChange> changes;
+        final long rows;
+
+        Step(String description, long state, List<RowChange> changes) {
+            this.description = description;
+            this.state = state;
+            this.changes = changes;
+            long count = 0;
+            for (RowChange change : changes) {
+                count += change.rows.length;
+            }
+            this.rows = count;
+        }
+    }
+
+    /**
+     * Rows added to or removed from the list, with their values.
+     */
+    private static class RowChange {
+
+        final boolean added;
+        final int[] rows;
+        final AnimalStore values;
+
+        RowChange(boolean added, int[] rows, AnimalStore values) {
+            this.added = added;
+            this.rows = rows;
+            this.values = values;
+        }
+
+        void undo(AnimalRowList<?> list) {
+            if (added) {
+                list.removeRows(rows);
+            } else {
+                list.insertRows(rows, values);
+            }
+        }
+
+        void redo(AnimalRowList<?> list) {
+            if (added) {
+                list.insertRows(rows, values);
+            } else {
+                list.removeRows(rows);
+            }
+        }
+    }
+
+    /**
+     * Fields of rows changed in place, with their values before and after.
+     */
+    private static class FieldEdit extends RowChange {
+
+        final byte[] fields;
+        final AnimalStore newValues;
+
+        FieldEdit(int[] rows, byte[] fields, AnimalStore oldValues, AnimalStore newValues) {
+            super(false, rows, oldValues);
+            this.fields = fields;
+            this.newValues = newValues;
+        }
+
+        @Override
+        void undo(AnimalRowList<?> list) {
+            apply(list, values);
+        }
+
+        @Override
+        void redo(AnimalRowList<?> list) {
+            apply(list, newValues);
+        }
+
+        private void apply(AnimalRowList<?> list, AnimalStore source) {
+            list.updateRows(rows, (animal, row) -> {
+                int i = Arrays.binarySearch(rows, row);
+                copyFields(source.read(i), animal, fields[i] & 0xFF);
+            });
+        }
+    }
+}
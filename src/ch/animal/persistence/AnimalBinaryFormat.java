@@ -0,0 +1,260 @@
+package ch.animal.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ch.animal.model.Animal;
+import ch.animal.util.StringDictionary;
+
+/**
+ * Compact binary snapshot of a list of animals. All strings are stored once
+ * in a dictionary and referenced by their code, dates are stored as epoch day
+ * and the stock as raw double.
+ *
+ * <pre>
+ * int    magic "AFBS"
+ * short  version
+ * int    dictionary size, followed by the strings (int length + UTF-8 bytes)
+ * int    record count, followed by the records:
+ *        int tierArt, int futterArt, int mengeneinheit, int bestellungnotwendig,
+ *        long bestelldatum (epoch day), double aktuellerBestand,
+ *        double tagesverbrauch, int lieferfrist (since version 2),
+ *        long key (since version 3)
+ * </pre>
+ *
+ * String codes are {@link StringDictionary#NULL_CODE} for null, a missing
+ * date is stored as {@link Long#MIN_VALUE}. Version 1 snapshots are still
+ * read, their animals have no consumption and lead time. Animals of snapshots
+ * before version 3 have no key and get a new one when they are stored.
+ * Sizes and counts are checked against what is left of the file before
+ * anything is allocated for them, so a corrupt or foreign file is reported
+ * as {@link IOException}.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalBinaryFormat {
+
+    /** File header, "AFBS" in ASCII. */
+    public static final int MAGIC = 0x41464253;
+
+    /** Current version of the format. */
+    public static final short VERSION = 3;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int BATCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Bytes before the dictionary strings: magic, version and dictionary size. */
+    private static final int HEADER_SIZE = 4 + 2 + 4;
+
+    /**
+     * Writes the animals to the given stream. The stream is flushed but not
+     * closed.
+     *
+     * @param animals the animals to write
+     * @param out the stream to write to
+     * @param progress receives the number of animals written and the total
+     * @throws IOException if writing fails or the thread is interrupted
+     */
+    public void write(List<Animal> animals, OutputStream out, ProgressListener progress) throws IOException {
+        int total = animals.size();
+
+        // First pass: collect the strings and their codes
+        StringDictionary dictionary = new StringDictionary();
+        int[] codes = new int[total * 4];
+        for (int i = 0; i < total; i++) {
+            Animal animal = animals.get(i);
+            codes[i * 4] = dictionary.code(animal.getTierArt());
+            codes[i * 4 + 1] = dictionary.code(animal.getFutterArt());
+            codes[i * 4 + 2] = dictionary.code(animal.getMengeneinheit());
+            codes[i * 4 + 3] = dictionary.code(animal.getBestellungnotwendig());
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+
+        data.writeInt(dictionary.size());
+        for (int code = 0; code < dictionary.size(); code++) {
+            byte[] bytes = dictionary.get(code).getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+
+        data.writeInt(total);
+        for (int i = 0; i < total; i++) {
+            Animal animal = animals.get(i);
+            data.writeInt(codes[i * 4]);
+            data.writeInt(codes[i * 4 + 1]);
+            data.writeInt(codes[i * 4 + 2]);
+            data.writeInt(codes[i * 4 + 3]);
+            LocalDate date = animal.getBestelldatum();
+            data.writeLong(date != null ? date.toEpochDay() : NO_DATE);
+            data.writeDouble(animal.getAktuellerBestand());
+            data.writeDouble(animal.getTagesverbrauch());
+            data.writeInt(animal.getLieferfrist());
+            data.writeLong(animal.getKey());
+
+            if ((i + 1) % BATCH_SIZE == 0) {
+                checkInterrupted();
+                progress.progress(i + 1, total);
+            }
+        }
+        data.flush();
+        progress.progress(total, total);
+    }
+
+    /**
+     * Reads all animals from the given file and passes them to the consumer
+     * in batches.
+     *
+     * @param file the file to read
+     * @param batchConsumer receives the animals batch by batch
+     * @param progress receives the number of animals read and the total
+     * @return the number of animals read
+     * @throws IOException if the file cannot be read, is no binary snapshot or
+     *             the thread is interrupted
+     */
+    public int read(File file, Consumer<List<Animal>> batchConsumer, ProgressListener progress) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            return read(in, file.length(), batchConsumer, progress);
+        }
+    }
+
+    /**
+     * Reads all animals from the given stream and passes them to the consumer
+     * in batches. The stream is not closed. Its length is unknown, so sizes
+     * read from it are only checked as the data arrives.
+     *
+     * @param in the stream to read
+     * @param batchConsumer receives the animals batch by batch
+     * @param progress receives the number of animals read and the total
+     * @return the number of animals read
+     * @throws IOException if the stream cannot be read, is no binary snapshot or
+     *             the thread is interrupted
+     */
+    public int read(InputStream in, Consumer<List<Animal>> batchConsumer, ProgressListener progress)
+            throws IOException {
+        return read(in, Long.MAX_VALUE, batchConsumer, progress);
+    }
+
+    private int read(InputStream in, long length, Consumer<List<Animal>> batchConsumer, ProgressListener progress)
+            throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a binary animal snapshot");
+        }
+        short version = data.readShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        long remaining = length - HEADER_SIZE;
+        int dictionarySize = data.readInt();
+        checkCount("dictionary size", dictionarySize, Integer.BYTES, remaining);
+        String[] dictionary = new String[Math.min(dictionarySize, BATCH_SIZE)];
+        for (int code = 0; code < dictionarySize; code++) {
+            int stringLength = data.readInt();
+            remaining -= Integer.BYTES;
+            checkCount("string length", stringLength, 1, remaining);
+            // Grows with the bytes actually read, whatever the length claims
+            byte[] bytes = data.readNBytes(stringLength);
+            if (bytes.length != stringLength) {
+                throw new EOFException("Binary snapshot ends within string " + code);
+            }
+            remaining -= stringLength;
+            if (code == dictionary.length) {
+                dictionary = Arrays.copyOf(dictionary, (int) Math.min(dictionarySize, 2L * code));
+            }
+            dictionary[code] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int total = data.readInt();
+        checkCount("record count", total, recordSize(version), remaining - Integer.BYTES);
+        List<Animal> batch = new ArrayList<>(Math.min(total, BATCH_SIZE));
+        for (int i = 0; i < total; i++) {
+            Animal animal = new Animal(lookup(dictionary, data.readInt()), lookup(dictionary, data.readInt()));
+            animal.setMengeneinheit(lookup(dictionary, data.readInt()));
+            animal.setBestellungnotwendig(lookup(dictionary, data.readInt()));
+            long epochDay = data.readLong();
+            animal.setBestelldatum(epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null);
+            animal.setAktuellerBestand(data.readDouble());
+            if (version >= 2) {
+                animal.setTagesverbrauch(data.readDouble());
+                animal.setLieferfrist(data.readInt());
+            }
+            if (version >= 3) {
+                animal.setKey(data.readLong());
+            }
+            batch.add(animal);
+
+            if (batch.size() == BATCH_SIZE) {
+                checkInterrupted();
+                batchConsumer.accept(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+                progress.progress(i + 1, total);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(batch);
+        }
+        progress.progress(total, total);
+        return total;
+    }
+
+    /**
+     * Returns the bytes of a record of the given version.
+     */
+    private static int recordSize(short version) {
+        int size = 4 * Integer.BYTES + Long.BYTES + Double.BYTES;
+        if (version >= 2) {
+            size += Double.BYTES + Integer.BYTES;
+        }
+        if (version >= 3) {
+            size += Long.BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * Checks a count read from the file: it must not be negative and its
+     * items of the given size must fit into the rest of the file.
+     */
+    private static void checkCount(String name, int count, int itemSize, long remaining) throws IOException {
+        if (count < 0 || (long) count * itemSize > remaining) {
+            throw new IOException("Invalid " + name + " " + count + ", the snapshot is corrupt");
+        }
+    }
+
+    private static String lookup(String[] dictionary, int code) throws IOException {
+        if (code == StringDictionary.NULL_CODE) {
+            return null;
+        }
+        if (code < 0 || code >= dictionary.length) {
+            throw new IOException("Invalid string code " + code);
+        }
+        return dictionary[code];
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Binary snapshot transfer was interrupted");
+        }
+    }
+}
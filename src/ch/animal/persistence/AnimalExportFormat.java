@@ -0,0 +1,187 @@
+package ch.animal.persistence;
+
+import java.io.File;
+import java.time.LocalDate;
+
+import ch.animal.model.Animal;
+
+/**
+ * The formats animal data can be exported to for other programs, e.g. an
+ * ERP. Unlike an {@link AnimalFileFormat}, an export cannot be opened again.
+ * Every animal becomes one line, so the lines of a range of animals can be
+ * encoded independently of the others, see {@link AnimalExportTask}. Numbers
+ * are written with a dot and dates as ISO dates, whatever the locale.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public enum AnimalExportFormat {
+
+    /** Comma separated values with a header line, as in RFC 4180. */
+    CSV("CSV files (*.csv)", ".csv") {
+        @Override
+        public void writeHeader(StringBuilder out) {
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(FIELDS[i]);
+            }
+            out.append("\r\n");
+        }
+
+        @Override
+        public void encode(Animal animal, StringBuilder out) {
+            out.append(animal.getKey()).append(',');
+            appendCsv(animal.getTierArt(), out);
+            out.append(',');
+            appendCsv(animal.getFutterArt(), out);
+            out.append(',').append(animal.getAktuellerBestand()).append(',');
+            appendCsv(animal.getMengeneinheit(), out);
+            out.append(',');
+            appendCsv(animal.getBestellungnotwendig(), out);
+            out.append(',');
+            LocalDate bestelldatum = animal.getBestelldatum();
+            if (bestelldatum != null) {
+                out.append(bestelldatum);
+            }
+            out.append(',').append(animal.getTagesverbrauch())
+                    .append(',').append(animal.getLieferfrist()).append("\r\n");
+        }
+    },
+
+    /** One JSON object per line, missing values as null. */
+    JSON_LINES("JSON Lines files (*.jsonl)", ".jsonl") {
+        @Override
+        public void writeHeader(StringBuilder out) {
+            // The field names are in every line
+        }
+
+        @Override
+        public void encode(Animal animal, StringBuilder out) {
+            out.append("{\"").append(FIELDS[0]).append("\":").append(animal.getKey());
+            appendJson(FIELDS[1], animal.getTierArt(), out);
+            appendJson(FIELDS[2], animal.getFutterArt(), out);
+            appendJson(FIELDS[3], animal.getAktuellerBestand(), out);
+            appendJson(FIELDS[4], animal.getMengeneinheit(), out);
+            appendJson(FIELDS[5], animal.getBestellungnotwendig(), out);
+            LocalDate bestelldatum = animal.getBestelldatum();
+            appendJson(FIELDS[6], bestelldatum != null ? bestelldatum.toString() : null, out);
+            appendJson(FIELDS[7], animal.getTagesverbrauch(), out);
+            out.append(",\"").append(FIELDS[8]).append("\":").append(animal.getLieferfrist()).append("}\n");
+        }
+    };
+
+    /** The names of the exported fields, in the order they are written. */
+    private static final String[] FIELDS = { "key", "tierArt", "futterArt", "aktuellerBestand",
+            "mengeneinheit", "bestellungnotwendig", "bestelldatum", "tagesverbrauch", "lieferfrist" };
+
+    private final String description;
+    private final String extension;
+
+    AnimalExportFormat(String description, String extension) {
+        this.description = description;
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the description shown in file choosers.
+     *
+     * @return the description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the file extension including the dot.
+     *
+     * @return the extension, e.g. ".csv"
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Returns true if the file has the extension of this format.
+     *
+     * @param file the file to check
+     * @return true if the extension matches
+     */
+    public boolean matches(File file) {
+        return file.getName().toLowerCase().endsWith(extension);
+    }
+
+    /**
+     * Appends what comes before the first animal, e.g. a header line.
+     *
+     * @param out the text to append to
+     */
+    public abstract void writeHeader(StringBuilder out);
+
+    /**
+     * Appends the line of one animal, including the line break.
+     *
+     * @param animal the animal
+     * @param out the text to append to
+     */
+    public abstract void encode(Animal animal, StringBuilder out);
+
+    /**
+     * Appends a CSV field, quoted if it contains a separator, a quote or a
+     * line break. Null stays empty.
+     */
+    private static void appendCsv(String value, StringBuilder out) {
+        if (value == null) {
+            return;
+        }
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quoted) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+
+    private static void appendJson(String name, String value, StringBuilder out) {
+        out.append(",\"").append(name).append("\":");
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static void appendJson(String name, double value, StringBuilder out) {
+        out.append(",\"").append(name).append("\":");
+        // JSON has no NaN and no infinity
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+        } else {
+            out.append(value);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package ch.animal.persistence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.animal.diagnostics.MetricsRegistry;
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalRows;
+import javafx.concurrent.Task;
+
+/**
+ * Background task that exports animals for other programs, see
+ * {@link AnimalExportFormat}. The rows are encoded in chunks by several
+ * threads while the task writes the finished chunks in row order. Only a few
+ * chunks per thread are under way at a time, so the memory used does not
+ * grow with the number of rows; every chunk reads its rows into one reused
+ * animal.
+ * <p>
+ * The task works on a snapshot of the animals, taken when it starts, so the
+ * table can be edited while it runs. The export is written through an
+ * {@link AtomicFileWriter}, so a failed or cancelled export leaves no
+ * half-written file behind.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalExportTask extends Task<Void> {
+
+    /** Rows encoded together, about half a megabyte of text. */
+    private static final int CHUNK_ROWS = 4096;
+
+    /** Chunks under way per encoding thread. */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private final Callable<? extends AnimalRows> snapshot;
+    private final File file;
+    private final AnimalExportFormat format;
+
+    /**
+     * Creates the task.
+     *
+     * @param snapshot takes the animals to export in the background; they
+     *                 are not changed while the task runs and closed when it
+     *                 has finished if they are {@link Closeable}
+     * @param file the file to write
+     * @param format the format to write
+     */
+    public AnimalExportTask(Callable<? extends AnimalRows> snapshot, File file, AnimalExportFormat format) {
+        this.snapshot = snapshot;
+        this.file = file;
+        this.format = format;
+        updateTitle("Exportieren");
+    }
+
+    /**
+     * Returns the file this task writes.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected Void call() throws Exception {
+        updateMessage("Exportiere " + file.getName() + "...");
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        long start = System.nanoTime();
+        AnimalRows rows = snapshot.call();
+        int size = rows.size();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService encoders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "export-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            new AtomicFileWriter().write(file.toPath(), out -> {
+                StringBuilder header = new StringBuilder();
+                format.writeHeader(header);
+                write(out, StandardCharsets.UTF_8.encode(CharBuffer.wrap(header)));
+
+                // Chunks are submitted in row order and written in the same order
+                Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+                int next = 0;
+                int written = 0;
+                while (written < size) {
+                    while (next < size && pending.size() < threads * CHUNKS_PER_THREAD) {
+                        int from = next;
+                        int to = Math.min(from + CHUNK_ROWS, size);
+                        pending.add(encoders.submit(() -> encode(rows, from, to)));
+                        next = to;
+                    }
+                    if (isCancelled()) {
+                        // Leaves the chosen file as it was
+                        throw new CancellationException();
+                    }
+                    write(out, take(pending.remove()));
+                    written = Math.min(written + CHUNK_ROWS, size);
+                    updateProgress(written, size);
+                }
+            });
+        } finally {
+            encoders.shutdownNow();
+            if (rows instanceof Closeable) {
+                ((Closeable) rows).close();
+            }
+        }
+        metrics.timer("export.write").recordSince(start);
+        metrics.counter("export.records").add(size);
+        metrics.counter("export.bytes").add(file.length());
+
+        updateMessage(size + " Tiere exportiert");
+        return null;
+    }
+
+    /**
+     * Encodes a range of rows into UTF-8 text. Runs on an encoding thread.
+     */
+    private ByteBuffer encode(AnimalRows rows, int from, int to) {
+        Animal animal = new Animal();
+        StringBuilder text = new StringBuilder((to - from) * 128);
+        for (int row = from; row < to; row++) {
+            rows.read(row, animal);
+            format.encode(animal, text);
+        }
+        return StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+    }
+
+    /**
+     * Waits for an encoded chunk and passes on the exception of its encoding.
+     */
+    private static ByteBuffer take(Future<ByteBuffer> chunk) throws Exception {
+        try {
+            return chunk.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static void write(OutputStream out, ByteBuffer buffer) throws IOException {
+        // Encoded chunks are heap buffers
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+}
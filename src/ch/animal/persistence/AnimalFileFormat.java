@@ -0,0 +1,138 @@
+package ch.animal.persistence;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ch.animal.model.Animal;
+
+/**
+ * The file formats animal data can be stored in. The format of a file is
+ * chosen by its extension.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public enum AnimalFileFormat {
+
+    /** Formatted XML as written by JAXB. */
+    XML("XML files (*.xml)", ".xml") {
+        @Override
+        public int read(File file, Consumer<List<Animal>> batchConsumer, ProgressListener progress)
+                throws Exception {
+            return new AnimalXmlReader().read(file, batchConsumer, progress);
+        }
+
+        @Override
+        public void write(List<Animal> animals, OutputStream out, ProgressListener progress) throws Exception {
+            new AnimalXmlWriter().write(animals, out, progress);
+        }
+    },
+
+    /** Compact binary snapshot, see {@link AnimalBinaryFormat}. */
+    BINARY("Binary snapshot (*.afb)", ".afb") {
+        @Override
+        public int read(File file, Consumer<List<Animal>> batchConsumer, ProgressListener progress)
+                throws Exception {
+            return new AnimalBinaryFormat().read(file, batchConsumer, progress);
+        }
+
+        @Override
+        public void write(List<Animal> animals, OutputStream out, ProgressListener progress) throws Exception {
+            new AnimalBinaryFormat().write(animals, out, progress);
+        }
+    },
+
+    /**
+     * Fixed-width record file that is opened memory-mapped instead of being
+     * loaded, see {@link MappedAnimalStore}.
+     */
+    MAPPED("Memory-mapped store (*.afm)", ".afm") {
+        @Override
+        public int read(File file, Consumer<List<Animal>> batchConsumer, ProgressListener progress)
+                throws Exception {
+            return MappedAnimalStore.read(file.toPath(), batchConsumer, progress);
+        }
+
+        @Override
+        public void write(List<Animal> animals, OutputStream out, ProgressListener progress) throws Exception {
+            MappedAnimalStore.write(animals, out, progress);
+        }
+    };
+
+    private final String description;
+    private final String extension;
+
+    AnimalFileFormat(String description, String extension) {
+        this.description = description;
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the description shown in file choosers.
+     *
+     * @return the description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the file extension including the dot.
+     *
+     * @return the extension, e.g. ".xml"
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Returns true if the file has the extension of this format.
+     *
+     * @param file the file to check
+     * @return true if the extension matches
+     */
+    public boolean matches(File file) {
+        return file.getName().toLowerCase().endsWith(extension);
+    }
+
+    /**
+     * Returns the format of the given file. Files with an unknown extension
+     * are treated as XML, like all files before the binary format existed.
+     *
+     * @param file the file
+     * @return the format of the file
+     */
+    public static AnimalFileFormat forFile(File file) {
+        for (AnimalFileFormat format : values()) {
+            if (format.matches(file)) {
+                return format;
+            }
+        }
+        return XML;
+    }
+
+    /**
+     * Reads all animals from the file and passes them to the consumer in batches.
+     *
+     * @param file the file to read
+     * @param batchConsumer receives the animals batch by batch
+     * @param progress receives the progress
+     * @return the number of animals read
+     * @throws Exception if the file cannot be read
+     */
+    public abstract int read(File file, Consumer<List<Animal>> batchConsumer, ProgressListener progress)
+            throws Exception;
+
+    /**
+     * Writes the animals to the stream. The stream is flushed but not closed.
+     *
+     * @param animals the animals to write
+     * @param out the stream to write to
+     * @param progress receives the progress
+     * @throws Exception if the animals cannot be written
+     */
+    public abstract void write(List<Animal> animals, OutputStream out, ProgressListener progress)
+            throws Exception;
+}
@@ -0,0 +1,144 @@
+package ch.animal.persistence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches an animal file for changes made by other programs, e.g. scanners
+ * rewriting the file. The directory of the file is watched with a
+ * {@link WatchService}; a burst of writes is reported once, when the file has
+ * not been touched for {@link #QUIET_MILLIS}.
+ * <p>
+ * A change is only reported if size or modification time of the file differ
+ * from the state last marked with {@link #markCurrent()}, so the application
+ * marks the file after loading and saving it and does not see its own
+ * writes. The listener is called on the thread of the watcher.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalFileWatcher implements Closeable {
+
+    /** Time without writes after which a change is reported. */
+    public static final long QUIET_MILLIS = 500;
+
+    private final File file;
+    private final Runnable listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    // "size:modified" of the file as last marked, read by the watcher thread
+    private volatile String marked;
+
+    /**
+     * Starts watching the given file.
+     *
+     * @param file the file
+     * @param listener called on the thread of the watcher when the file was changed
+     * @throws IOException if the directory of the file cannot be watched
+     */
+    public AnimalFileWatcher(File file, Runnable listener) throws IOException {
+        this.file = file;
+        this.listener = listener;
+        Path directory = file.getAbsoluteFile().toPath().getParent();
+        watchService = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        markCurrent();
+        thread = new Thread(this::watch, "animal-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the watched file.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Marks the current content of the file as known, e.g. after it was
+     * loaded or saved. Only later changes are reported.
+     */
+    public void markCurrent() {
+        marked = state();
+    }
+
+    /**
+     * Returns true if the file has been changed since it was last marked. A
+     * missing file counts as unchanged, it is reported once it is back.
+     *
+     * @return true if the file changed
+     */
+    public boolean hasChanged() {
+        String state = state();
+        return state != null && !state.equals(marked);
+    }
+
+    private String state() {
+        Path path = file.toPath();
+        try {
+            return Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!concernsFile(watchService.take())) {
+                    continue;
+                }
+                // Wait until the other program has finished writing
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    concernsFile(key);
+                }
+                if (hasChanged()) {
+                    listener.run();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Takes the events of the key and returns true if one is about the file.
+     */
+    private boolean concernsFile(WatchKey key) {
+        boolean concerns = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            concerns |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getName().equals(String.valueOf(event.context()));
+        }
+        key.reset();
+        return concerns;
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
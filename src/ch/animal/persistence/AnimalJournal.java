@@ -0,0 +1,530 @@
+package ch.animal.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.animal.diagnostics.MetricsRegistry;
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalRowList;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+
+/**
+ * Write-ahead journal of the changes made to a list of animals since it was
+ * loaded from or saved to a snapshot file. Saving to the same file again only
+ * appends the recorded changes to {@code <file>.journal}, which costs
+ * O(changes) instead of rewriting the whole file. Loading a file replays its
+ * journal on top of the snapshot.
+ * <p>
+ * The changes are captured from the list change events, so the list must
+ * report changes of its animals as updates, as
+ * {@link ch.animal.model.AnimalRowList} does.
+ * Operations refer to list indices and are
+ * replayed in the order they were recorded. Added and changed animals are recorded
+ * with their key, so replaying them restores the keys as well. Rows moved
+ * among each other, e.g. by sorting the table, are recorded as a single entry
+ * with their new positions instead of an entry per row. The journal header stores size
+ * and modification time of the snapshot it belongs to, so a journal left
+ * behind by a later full save is recognised as stale and ignored.
+ * <p>
+ * The journal is used on the JavaFX Application Thread, the tasks it creates
+ * do their I/O in the background.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalJournal {
+
+    /** File header, "AFJL" in ASCII. */
+    public static final int MAGIC = 0x41464A4C;
+
+    /** Current version of the journal format. */
+    public static final short VERSION = 4;
+
+    /** Journal entries from which on a full snapshot is written, at least. */
+    private static final int MIN_COMPACTION_ENTRIES = 10_000;
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_SET = 3;
+    private static final byte OP_MOVE = 4;
+
+    /** Header version meaning the journal belongs to no snapshot, e.g. an older one. */
+    private static final short STALE = -2;
+
+    private final ObservableList<Animal> animals;
+    private final List<Entry> pending = new ArrayList<>();
+
+    // Snapshot file the pending entries are based on, null if there is none
+    private File baseFile;
+    private long journalEntries;
+
+    /**
+     * Creates a journal recording the changes of the given list.
+     *
+     * @param animals the list to record, must report changes of animals as updates
+     */
+    public AnimalJournal(ObservableList<Animal> animals) {
+        this.animals = animals;
+        animals.addListener(this::record);
+    }
+
+    /**
+     * Returns the journal file belonging to a snapshot file.
+     *
+     * @param file the snapshot file
+     * @return the journal file
+     */
+    public static File journalFile(File file) {
+        return new File(file.getPath() + ".journal");
+    }
+
+    /**
+     * Starts a new journal after the list has been loaded from or completely
+     * saved to the given file. The first {@code recorded} pending entries are
+     * contained in that snapshot and are dropped, later ones are kept.
+     *
+     * @param file the snapshot file, or null if the list has no snapshot
+     * @param recorded the number of entries returned by {@link #mark()} when
+     *            the snapshot was taken
+     * @param entriesInJournal the number of entries already in the journal file
+     */
+    public void rebase(File file, int recorded, long entriesInJournal) {
+        pending.subList(0, Math.min(recorded, pending.size())).clear();
+        baseFile = file;
+        journalEntries = entriesInJournal;
+    }
+
+    /**
+     * Returns the number of pending entries. Pass it to
+     * {@link #rebase(File, int, long)} once the snapshot taken now is saved.
+     *
+     * @return the number of pending entries
+     */
+    public int mark() {
+        return pending.size();
+    }
+
+    /**
+     * Returns true if saving to the given file can be done by appending the
+     * pending entries to its journal.
+     *
+     * @param file the file to save to
+     * @return true if an append is possible
+     */
+    public boolean canAppend(File file) {
+        return baseFile != null && baseFile.getAbsoluteFile().equals(file.getAbsoluteFile())
+                && !AnimalFileFormat.MAPPED.matches(file) && file.exists();
+    }
+
+    /**
+     * Returns true if the journal of the base file has grown large enough that
+     * a full snapshot should be written.
+     *
+     * @return true if the journal should be compacted
+     */
+    public boolean needsCompaction() {
+        return journalEntries > Math.max(MIN_COMPACTION_ENTRIES, animals.size() / 4);
+    }
+
+    /**
+     * Creates a task appending the pending entries to the journal of the base
+     * file. The entries are taken now, changes made later stay pending.
+     *
+     * @return the task, not yet started
+     */
+    public Task<Void> createAppendTask() {
+        File file = baseFile;
+        List<Entry> entries = new ArrayList<>(pending);
+        pending.clear();
+        journalEntries += entries.size();
+
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                updateMessage("Speichere Änderungen in " + file.getName() + "...");
+                long start = System.nanoTime();
+                append(file, entries);
+                MetricsRegistry metrics = MetricsRegistry.getDefault();
+                metrics.timer("save.journalAppend").recordSince(start);
+                metrics.counter("save.journalEntries").add(entries.size());
+                updateProgress(1, 1);
+                updateMessage(entries.size() + " Änderungen gespeichert");
+                return null;
+            }
+        };
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, event -> {
+            // The entries are lost for the journal, the next save writes everything
+            baseFile = null;
+        });
+        return task;
+    }
+
+    /**
+     * Replays the journal of the given snapshot file onto the animals read from
+     * that file. A missing journal is ignored, a stale one is deleted. A
+     * journal whose last entry was only partly written, e.g. because of a
+     * crash, is replayed up to that entry and cut off behind it, so that later
+     * changes are appended after the last complete entry. A journal of an
+     * older version is rewritten in the current version, so that later changes
+     * can be appended to it.
+     *
+     * @param file the snapshot file
+     * @param animals the animals read from the snapshot
+     * @return the number of entries replayed
+     * @throws IOException if the journal cannot be read
+     */
+    public static long replay(File file, List<Animal> animals) throws IOException {
+        File journal = journalFile(file);
+        if (!journal.exists()) {
+            return 0;
+        }
+        List<Entry> upgraded = null;
+        long count = 0;
+        long length = journal.length();
+        // End of the last complete entry
+        long complete = 0;
+        short version;
+        CountingInputStream counted = new CountingInputStream(new BufferedInputStream(new FileInputStream(journal)));
+        try (DataInputStream in = new DataInputStream(counted)) {
+            version = readHeader(in, file);
+            if (version >= 0) {
+                if (version < VERSION) {
+                    upgraded = new ArrayList<>();
+                }
+                complete = counted.getCount();
+                while (complete < length) {
+                    Entry entry;
+                    try {
+                        entry = Entry.read(in, version, length - complete);
+                    } catch (EOFException | UTFDataFormatException | MalformedEntryException e) {
+                        // Partly written, the rest of the file is no entry
+                        break;
+                    }
+                    entry.apply(animals);
+                    if (upgraded != null) {
+                        upgraded.add(entry);
+                    }
+                    complete = counted.getCount();
+                    count++;
+                }
+            }
+        }
+        if (version == STALE) {
+            // Appending to it would put the new entries behind a header nothing matches
+            Files.delete(journal.toPath());
+            return 0;
+        }
+        if (version < 0) {
+            return 0;
+        }
+        if (upgraded == null && complete < length) {
+            try (FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(complete);
+                channel.force(true);
+            }
+        }
+        if (upgraded != null) {
+            List<Entry> entries = upgraded;
+            new AtomicFileWriter().write(journal.toPath(), out -> {
+                DataOutputStream data = new DataOutputStream(out);
+                writeHeader(data, file);
+                for (Entry entry : entries) {
+                    entry.write(data);
+                }
+                data.flush();
+            });
+        }
+        return count;
+    }
+
+    private void record(ListChangeListener.Change<? extends Animal> c) {
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                int[] permutation = new int[c.getTo() - c.getFrom()];
+                for (int i = 0; i < permutation.length; i++) {
+                    permutation[i] = c.getPermutation(c.getFrom() + i) - c.getFrom();
+                }
+                pending.add(new Entry(c.getFrom(), permutation));
+            } else if (c.wasUpdated()) {
+                for (int i = c.getFrom(); i < c.getTo(); i++) {
+                    pending.add(new Entry(OP_SET, i, 0, copyOf(i)));
+                }
+            } else {
+                if (c.wasRemoved()) {
+                    pending.add(new Entry(OP_REMOVE, c.getFrom(), c.getRemovedSize(), null));
+                }
+                if (c.wasAdded()) {
+                    for (int i = c.getFrom(); i < c.getTo(); i++) {
+                        pending.add(new Entry(OP_ADD, i, 0, copyOf(i)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of a row that is not shared with the list. Rows of an
+     * {@link AnimalRowList} are read straight from its store, without
+     * creating a view of every row.
+     */
+    private Animal copyOf(int row) {
+        if (animals instanceof AnimalRowList) {
+            return ((AnimalRowList<?>) animals).getStore().read(row);
+        }
+        return animals.get(row).copy();
+    }
+
+    private static void append(File file, List<Entry> entries) throws IOException {
+        Path journal = journalFile(file).toPath();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (!Files.exists(journal)) {
+            writeHeader(out, file);
+        }
+        for (Entry entry : entries) {
+            entry.write(out);
+        }
+        out.flush();
+
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, File file) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(file.length());
+        out.writeLong(file.lastModified());
+    }
+
+    /**
+     * Reads the header and returns the version of the journal, -1 if it is no
+     * journal of a supported version, or {@link #STALE} if it belongs to
+     * another snapshot or its header was only partly written.
+     */
+    private static short readHeader(DataInputStream in, File file) throws IOException {
+        try {
+            if (in.readInt() != MAGIC) {
+                return -1;
+            }
+            short version = in.readShort();
+            if (version < 1 || version > VERSION) {
+                return -1;
+            }
+            return in.readLong() == file.length() && in.readLong() == file.lastModified() ? version : STALE;
+        } catch (EOFException e) {
+            return STALE;
+        }
+    }
+
+    /**
+     * Thrown for bytes that cannot be the start of an entry, e.g. the zeros
+     * a crash may leave behind the last written entry.
+     */
+    private static class MalformedEntryException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        MalformedEntryException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Counts the bytes read, to find the end of the last complete entry.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * One recorded operation.
+     */
+    private static class Entry {
+
+        final byte op;
+        final int index;
+        final int count;
+        final Animal animal;
+        // New position of every moved row, relative to index
+        final int[] permutation;
+
+        Entry(byte op, int index, int count, Animal animal) {
+            this.op = op;
+            this.index = index;
+            this.count = count;
+            this.animal = animal;
+            this.permutation = null;
+        }
+
+        Entry(int index, int[] permutation) {
+            this.op = OP_MOVE;
+            this.index = index;
+            this.count = permutation.length;
+            this.animal = null;
+            this.permutation = permutation;
+        }
+
+        void apply(List<Animal> animals) throws IOException {
+            int limit = op == OP_ADD ? animals.size() + 1 : animals.size() - Math.max(count, 1) + 1;
+            if (index < 0 || index >= limit) {
+                throw new IOException("Journal does not match its snapshot");
+            }
+            switch (op) {
+            case OP_ADD:
+                animals.add(index, animal);
+                break;
+            case OP_REMOVE:
+                animals.subList(index, index + count).clear();
+                break;
+            case OP_MOVE:
+                List<Animal> moved = new ArrayList<>(animals.subList(index, index + count));
+                for (int i = 0; i < count; i++) {
+                    if (permutation[i] < 0 || permutation[i] >= count) {
+                        throw new IOException("Journal does not match its snapshot");
+                    }
+                    animals.set(index + permutation[i], moved.get(i));
+                }
+                break;
+            default:
+                animals.set(index, animal);
+                break;
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(op);
+            out.writeInt(index);
+            if (op == OP_REMOVE) {
+                out.writeInt(count);
+            } else if (op == OP_MOVE) {
+                out.writeInt(count);
+                for (int position : permutation) {
+                    out.writeInt(position);
+                }
+            } else {
+                writeString(out, animal.getTierArt());
+                writeString(out, animal.getFutterArt());
+                writeString(out, animal.getMengeneinheit());
+                writeString(out, animal.getBestellungnotwendig());
+                LocalDate date = animal.getBestelldatum();
+                out.writeLong(date != null ? date.toEpochDay() : Long.MIN_VALUE);
+                out.writeDouble(animal.getAktuellerBestand());
+                out.writeDouble(animal.getTagesverbrauch());
+                out.writeInt(animal.getLieferfrist());
+                out.writeLong(animal.getKey());
+            }
+        }
+
+        /**
+         * Reads an entry. Bytes that cannot be an entry, e.g. a move of more
+         * rows than bytes are left, are reported as {@link MalformedEntryException}.
+         */
+        static Entry read(DataInputStream in, short version, long remaining) throws IOException {
+            byte op = in.readByte();
+            int index = in.readInt();
+            if (op == OP_REMOVE) {
+                return new Entry(op, index, in.readInt(), null);
+            }
+            if (op == OP_MOVE) {
+                int count = in.readInt();
+                if (count < 0 || (long) count * Integer.BYTES > remaining) {
+                    throw new MalformedEntryException("Invalid move of " + count + " rows");
+                }
+                int[] permutation = new int[count];
+                for (int i = 0; i < permutation.length; i++) {
+                    permutation[i] = in.readInt();
+                }
+                return new Entry(index, permutation);
+            }
+            if (op != OP_ADD && op != OP_SET) {
+                throw new MalformedEntryException("Unknown journal operation " + op);
+            }
+            Animal animal = new Animal(readString(in), readString(in));
+            animal.setMengeneinheit(readString(in));
+            animal.setBestellungnotwendig(readString(in));
+            long epochDay = in.readLong();
+            animal.setBestelldatum(epochDay != Long.MIN_VALUE ? LocalDate.ofEpochDay(epochDay) : null);
+            animal.setAktuellerBestand(in.readDouble());
+            if (version >= 2) {
+                animal.setTagesverbrauch(in.readDouble());
+                animal.setLieferfrist(in.readInt());
+            }
+            if (version >= 3) {
+                animal.setKey(in.readLong());
+            }
+            return new Entry(op, index, 0, animal);
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+}
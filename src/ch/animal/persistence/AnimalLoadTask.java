@@ -0,0 +1,75 @@
+package ch.animal.persistence;
+
+import java.io.File;
+
+import ch.animal.diagnostics.MetricsRegistry;
+import ch.animal.model.AnimalStore;
+import javafx.concurrent.Task;
+
+/**
+ * Background task that reads the animals of a file in any of the
+ * {@link AnimalFileFormat}s. The file is streamed in batches which are
+ * copied into the columns of an {@link AnimalStore}, so the reader never holds
+ * more than one batch of animal objects. The caller publishes the result on the JavaFX
+ * Application Thread in one go. Changes recorded in the journal of the file
+ * are replayed, see {@link AnimalJournal}.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalLoadTask extends Task<AnimalStore> {
+
+    private final File file;
+    private long replayedEntries;
+
+    /**
+     * Creates the task.
+     *
+     * @param file the file to load
+     */
+    public AnimalLoadTask(File file) {
+        this.file = file;
+        updateTitle("Laden");
+    }
+
+    /**
+     * Returns the file this task reads.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of journal entries replayed on top of the file.
+     *
+     * @return the number of replayed entries, valid once the task succeeded
+     */
+    public long getReplayedEntries() {
+        return replayedEntries;
+    }
+
+    @Override
+    protected AnimalStore call() throws Exception {
+        updateMessage("Lade " + file.getName() + "...");
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        long start = System.nanoTime();
+        AnimalStore animals = new AnimalStore();
+        AnimalFileFormat.forFile(file).read(file, animals::addAll, this::updateProgress);
+        metrics.timer("load.parse").recordSince(start);
+
+        start = System.nanoTime();
+        replayedEntries = AnimalJournal.replay(file, animals.asList());
+        metrics.timer("load.journal").recordSince(start);
+
+        metrics.counter("load.records").add(animals.size());
+        metrics.counter("load.bytes").add(file.length());
+        metrics.counter("load.journalEntries").add(replayedEntries);
+        metrics.recordHeapUsage("load.heapUsed");
+
+        updateMessage(animals.size() + " Tiere geladen");
+        return animals;
+    }
+}
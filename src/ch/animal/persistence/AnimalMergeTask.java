@@ -0,0 +1,148 @@
+package ch.animal.persistence;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalMerge;
+import ch.animal.model.AnimalStore;
+import javafx.concurrent.Task;
+
+/**
+ * Background task that reads several animal files and merges them into one
+ * store, see {@link AnimalMerge}. The files are split in halves on a
+ * fork/join pool until one file is left; every file is read and merged on
+ * its own, the partial merges are then combined in the order of the files.
+ * Parsing dominates the work, so the task scales with the number of cores
+ * as long as there are at least as many files.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalMergeTask extends Task<AnimalStore> {
+
+    private final List<File> files;
+    private final AnimalMerge.StockRule stockRule;
+    private final AnimalMerge.DateRule dateRule;
+    private final int parallelism;
+    private final AtomicInteger filesRead = new AtomicInteger();
+    private int mergedCount;
+
+    /**
+     * Creates the task using one thread per core.
+     *
+     * @param files the files to merge, in the order their animals count
+     * @param stockRule how stocks of the same animal are combined
+     * @param dateRule which order date of the same animal is kept
+     */
+    public AnimalMergeTask(List<File> files, AnimalMerge.StockRule stockRule, AnimalMerge.DateRule dateRule) {
+        this(files, stockRule, dateRule, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the task.
+     *
+     * @param files the files to merge, in the order their animals count
+     * @param stockRule how stocks of the same animal are combined
+     * @param dateRule which order date of the same animal is kept
+     * @param parallelism the number of files read at the same time
+     */
+    public AnimalMergeTask(List<File> files, AnimalMerge.StockRule stockRule, AnimalMerge.DateRule dateRule,
+            int parallelism) {
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No files to merge");
+        }
+        this.files = new ArrayList<>(files);
+        this.stockRule = stockRule;
+        this.dateRule = dateRule;
+        this.parallelism = Math.max(1, Math.min(parallelism, files.size()));
+        updateTitle("Zusammenführen");
+    }
+
+    /**
+     * Returns the number of animals that were merged into one of another
+     * file or further up in the same file.
+     *
+     * @return the number of duplicates, valid once the task succeeded
+     */
+    public int getMergedCount() {
+        return mergedCount;
+    }
+
+    @Override
+    protected AnimalStore call() throws Exception {
+        updateMessage("Führe " + files.size() + " Dateien zusammen...");
+        updateProgress(0, files.size());
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        AnimalMerge merge;
+        try {
+            merge = pool.invoke(new MergeRange(0, files.size()));
+        } finally {
+            pool.shutdownNow();
+        }
+        mergedCount = merge.getMergedCount();
+
+        updateMessage(merge.size() + " Tiere, " + mergedCount + " zusammengeführt");
+        return merge.toStore();
+    }
+
+    /**
+     * Reads one file including its journal and merges its animals.
+     */
+    private AnimalMerge mergeFile(File file) throws Exception {
+        AnimalStore animals = new AnimalStore();
+        AnimalFileFormat.forFile(file).read(file, animals::addAll, ProgressListener.NONE);
+        AnimalJournal.replay(file, animals.asList());
+
+        AnimalMerge merge = new AnimalMerge(stockRule, dateRule);
+        Animal animal = new Animal();
+        for (int row = 0; row < animals.size(); row++) {
+            animals.read(row, animal);
+            merge.add(animal);
+        }
+        updateProgress(filesRead.incrementAndGet(), files.size());
+        return merge;
+    }
+
+    /**
+     * Merges the files from {@code from} inclusive to {@code to} exclusive.
+     */
+    private class MergeRange extends RecursiveTask<AnimalMerge> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        MergeRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected AnimalMerge compute() {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+            if (to - from == 1) {
+                try {
+                    return mergeFile(files.get(from));
+                } catch (Exception e) {
+                    throw new IllegalStateException("Could not read " + files.get(from), e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            MergeRange right = new MergeRange(middle, to);
+            right.fork();
+            AnimalMerge left = new MergeRange(from, middle).compute();
+            left.addAll(right.join());
+            return left;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ch.animal.persistence;
+
+import java.io.File;
+
+import ch.animal.diagnostics.MetricsRegistry;
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalDiff;
+import ch.animal.model.AnimalStore;
+import javafx.concurrent.Task;
+
+/**
+ * Background task that reads a file again after another program changed it
+ * and computes the differences to the animals in memory, see
+ * {@link AnimalDiff}, by key if every animal of the file has one. The caller
+ * applies them on the JavaFX Application Thread, so only the changed rows are
+ * touched there.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalReloadTask extends Task<AnimalDiff> {
+
+    private final File file;
+    private final AnimalStore current;
+    private long replayedEntries;
+    private boolean keyed = true;
+
+    /**
+     * Creates the task.
+     *
+     * @param file the file to read
+     * @param current a copy of the animals in memory, it is not changed
+     */
+    public AnimalReloadTask(File file, AnimalStore current) {
+        this.file = file;
+        this.current = current;
+        updateTitle("Neu laden");
+    }
+
+    /**
+     * Returns the number of journal entries replayed on top of the file.
+     *
+     * @return the number of replayed entries, valid once the task succeeded
+     */
+    public long getReplayedEntries() {
+        return replayedEntries;
+    }
+
+    @Override
+    protected AnimalDiff call() throws Exception {
+        updateMessage("Lade " + file.getName() + " neu...");
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        long start = System.nanoTime();
+        AnimalStore animals = new AnimalStore();
+        AnimalFileFormat.forFile(file).read(file, batch -> {
+            for (Animal animal : batch) {
+                // Files of other programs or older versions have no keys, the store makes them up
+                keyed &= animal.getKey() > 0;
+            }
+            animals.addAll(batch);
+        }, this::updateProgress);
+        replayedEntries = AnimalJournal.replay(file, animals.asList());
+        metrics.timer("reload.parse").recordSince(start);
+
+        start = System.nanoTime();
+        AnimalDiff diff = AnimalDiff.compute(current, animals, keyed);
+        metrics.timer("reload.diff").recordSince(start);
+        metrics.counter("reload.changedRows").add(diff.getRowCount());
+
+        updateMessage(diff.getRowCount() + " Tiere geändert");
+        return diff;
+    }
+}
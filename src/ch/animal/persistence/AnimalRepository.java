@@ -0,0 +1,79 @@
+package ch.animal.persistence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import ch.animal.model.AnimalIndex;
+import ch.animal.model.AnimalRowList;
+import javafx.concurrent.Task;
+
+/**
+ * Storage of the animals the application works on. The animals are offered
+ * as an {@link AnimalRowList}, which only reads the rows that are shown, and
+ * can be queried by animal type, feed type and order date through an
+ * {@link AnimalIndex}.
+ * <p>
+ * {@link MemoryAnimalRepository} holds the animals in memory and saves the
+ * changes to the journal of their file, {@link MappedAnimalRepository}
+ * writes every change straight into a memory-mapped store file. Both run
+ * in-process and need nothing but the file. A repository must only be used
+ * on the JavaFX Application Thread.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public interface AnimalRepository extends Closeable {
+
+    /**
+     * Returns the animals of this repository.
+     *
+     * @return the animals
+     */
+    AnimalRowList<?> getAnimals();
+
+    /**
+     * Returns the index of the animals, built on the first query.
+     *
+     * @return the index
+     */
+    AnimalIndex getIndex();
+
+    /**
+     * Returns true if every change is written to the file as it is made, so
+     * saving only has to make it durable.
+     *
+     * @return true if changes are written per row
+     */
+    boolean isWrittenPerRow();
+
+    /**
+     * Creates a task saving the animals to the given file. Only what changed
+     * is written if the repository allows it.
+     *
+     * @param file the file to save to
+     * @param backupGenerations number of backups of the previous file to keep
+     * @return the task, not yet started
+     * @throws IOException if saving cannot be prepared
+     */
+    Task<Void> createSaveTask(File file, int backupGenerations) throws IOException;
+
+    /**
+     * Creates a task exporting the animals to the given file. The task works
+     * on a snapshot of the animals, so they can be changed while it runs.
+     * A snapshot that takes long, like copying a file, is taken by the task
+     * in the background.
+     *
+     * @param file the file to export to
+     * @param format the format to export
+     * @return the task, not yet started
+     */
+    Task<Void> createExportTask(File file, AnimalExportFormat format);
+
+    /**
+     * Releases the repository. Unsaved changes of a repository that is not
+     * written per row are lost.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,71 @@
+package ch.animal.persistence;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import ch.animal.diagnostics.MetricsRegistry;
+import ch.animal.model.Animal;
+import javafx.concurrent.Task;
+
+/**
+ * Background task that writes animals to a file. The task works on a snapshot
+ * of the animals, so the list shown in the table can be edited while it runs.
+ * The format is chosen by the file extension, see {@link AnimalFileFormat}.
+ * The file is replaced atomically, see {@link AtomicFileWriter}.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalSaveTask extends Task<Void> {
+
+    private final File file;
+    private final List<Animal> snapshot;
+    private final int backupGenerations;
+
+    /**
+     * Creates the task.
+     *
+     * @param file the file to write
+     * @param snapshot copies of the animals to write, not shared with the table
+     * @param backupGenerations number of backups of the previous file to keep
+     */
+    public AnimalSaveTask(File file, List<Animal> snapshot, int backupGenerations) {
+        this.file = file;
+        this.snapshot = snapshot;
+        this.backupGenerations = backupGenerations;
+        updateTitle("Speichern");
+    }
+
+    /**
+     * Returns the file this task writes.
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    protected Void call() throws Exception {
+        updateMessage("Speichere " + file.getName() + "...");
+
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        long start = System.nanoTime();
+        AnimalFileFormat format = AnimalFileFormat.forFile(file);
+        new AtomicFileWriter(backupGenerations).write(file.toPath(), out -> {
+            long marshalStart = System.nanoTime();
+            format.write(snapshot, out, this::updateProgress);
+            metrics.timer("save.marshal").recordSince(marshalStart);
+        });
+        // Includes forcing the file to disk and replacing the old one
+        metrics.timer("save.write").recordSince(start);
+        metrics.counter("save.records").add(snapshot.size());
+        metrics.counter("save.bytes").add(file.length());
+        // The file now holds everything, an old journal of it is obsolete
+        Files.deleteIfExists(AnimalJournal.journalFile(file).toPath());
+
+        updateMessage(snapshot.size() + " Tiere gespeichert");
+        return null;
+    }
+}
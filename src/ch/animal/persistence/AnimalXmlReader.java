@@ -0,0 +1,164 @@
+package ch.animal.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import ch.animal.model.Animal;
+
+/**
+ * Streaming reader for animal XML files. Instead of unmarshalling the whole
+ * list at once, the {@code <animal>} elements are pulled one at a time with
+ * StAX and handed out in batches, so only one batch is held by the reader.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalXmlReader {
+
+    /** Number of animals handed out per batch if nothing else is specified. */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String ANIMAL_ELEMENT = "animal";
+
+    private final int batchSize;
+
+    /**
+     * Creates a reader with the default batch size.
+     */
+    public AnimalXmlReader() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a reader handing out batches of the given size.
+     *
+     * @param batchSize number of animals per batch
+     */
+    public AnimalXmlReader(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Reads all animals from the given file. The animals are passed to the
+     * consumer in batches in the order they appear in the file; the last
+     * batch may be smaller than the batch size.
+     *
+     * @param file the XML file to read
+     * @param batchConsumer receives the animals batch by batch
+     * @param progress receives the number of bytes read and the file size
+     * @return the number of animals read
+     * @throws IOException if the file cannot be read or the thread is interrupted
+     * @throws JAXBException if an animal element cannot be unmarshalled
+     * @throws XMLStreamException if the file is not well-formed XML
+     */
+    public int read(File file, Consumer<List<Animal>> batchConsumer, ProgressListener progress)
+            throws IOException, JAXBException, XMLStreamException {
+        long totalBytes = file.length();
+
+        try (CountingInputStream in = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            XMLStreamReader xsr = createInputFactory().createXMLStreamReader(in);
+            try {
+                Unmarshaller um = JaxbSupport.getUnmarshaller();
+
+                int count = 0;
+                List<Animal> batch = new ArrayList<>(batchSize);
+                while (xsr.hasNext()) {
+                    if (xsr.isStartElement() && ANIMAL_ELEMENT.equals(xsr.getLocalName())) {
+                        // Unmarshalling moves the cursor behind the end tag of the element
+                        batch.add(um.unmarshal(xsr, Animal.class).getValue());
+                        count++;
+
+                        if (batch.size() == batchSize) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                throw new InterruptedIOException("Reading " + file + " was interrupted");
+                            }
+                            batchConsumer.accept(batch);
+                            batch = new ArrayList<>(batchSize);
+                            progress.progress(in.getCount(), totalBytes);
+                        }
+                    } else {
+                        xsr.next();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    batchConsumer.accept(batch);
+                }
+                progress.progress(totalBytes, totalBytes);
+                return count;
+            } finally {
+                xsr.close();
+            }
+        }
+    }
+
+    /**
+     * Creates the StAX factory. DTDs and external entities are disabled, the
+     * files only ever contain plain animal elements.
+     */
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Input stream counting the bytes that have been read, used for the
+     * progress report.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ch.animal.persistence;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+
+import ch.animal.model.Animal;
+
+/**
+ * Streaming writer for animal XML files. The animals are marshalled one by one
+ * into the same document structure as {@link ch.animal.model.AnimalListWrapper},
+ * which allows progress reports and cancellation between two animals.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalXmlWriter {
+
+    private static final QName ANIMAL_ELEMENT = new QName("animal");
+
+    /** Number of animals written between two progress reports. */
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Writes the animals as XML to the given stream. The stream is flushed but
+     * not closed.
+     *
+     * @param animals the animals to write
+     * @param out the stream to write to
+     * @param progress receives the number of animals written and the total
+     * @throws IOException if writing fails or the thread is interrupted
+     * @throws JAXBException if an animal cannot be marshalled
+     */
+    public void write(List<Animal> animals, OutputStream out, ProgressListener progress)
+            throws IOException, JAXBException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        Marshaller m = JaxbSupport.getFragmentMarshaller();
+
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        writer.write("<animals>\n");
+
+        int total = animals.size();
+        for (int i = 0; i < total; i++) {
+            m.marshal(new JAXBElement<>(ANIMAL_ELEMENT, Animal.class, animals.get(i)), writer);
+            writer.write('\n');
+
+            if ((i + 1) % PROGRESS_INTERVAL == 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Writing animals was interrupted");
+                }
+                progress.progress(i + 1, total);
+            }
+        }
+
+        writer.write("</animals>\n");
+        writer.flush();
+        progress.progress(total, total);
+    }
+}
@@ -0,0 +1,168 @@
+package ch.animal.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes files in a crash-safe way. The content is written to a temporary file
+ * next to the target, forced to disk and then renamed over the target, so the
+ * target always holds either the complete old or the complete new content.
+ * Optionally the previous content is kept in rolling backup files
+ * ({@code name.bak}, {@code name.bak2}, ...).
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AtomicFileWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int backupGenerations;
+
+    /**
+     * Creates a writer that does not keep backups.
+     */
+    public AtomicFileWriter() {
+        this(0);
+    }
+
+    /**
+     * Creates a writer that keeps the given number of backup generations.
+     *
+     * @param backupGenerations number of backups to keep, 0 for none
+     */
+    public AtomicFileWriter(int backupGenerations) {
+        if (backupGenerations < 0) {
+            throw new IllegalArgumentException("backupGenerations must not be negative: " + backupGenerations);
+        }
+        this.backupGenerations = backupGenerations;
+    }
+
+    /**
+     * Writes the content to the target file. If anything fails, the target is
+     * left untouched and the temporary file is removed.
+     *
+     * @param target the file to write
+     * @param content writes the content into the given stream
+     * @throws IOException if the content cannot be written or moved into place
+     */
+    public void write(Path target, ContentWriter content) throws IOException {
+        Path absoluteTarget = target.toAbsolutePath();
+        Path dir = absoluteTarget.getParent();
+        Path temp = Files.createTempFile(dir, "." + absoluteTarget.getFileName() + ".", ".tmp");
+        try {
+            copyPermissions(absoluteTarget, temp);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+                content.writeTo(out);
+                out.flush();
+                channel.force(true);
+            }
+
+            if (backupGenerations > 0 && Files.exists(absoluteTarget)) {
+                rotateBackups(absoluteTarget);
+            }
+            moveIntoPlace(temp, absoluteTarget);
+            forceDirectory(dir);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } catch (Exception e) {
+            Files.deleteIfExists(temp);
+            throw new IOException("Could not write " + target, e);
+        }
+    }
+
+    /**
+     * Returns the backup file of the given generation, 1 being the newest.
+     *
+     * @param target the file the backup belongs to
+     * @param generation the generation, starting at 1
+     * @return the backup file
+     */
+    public static Path backupFile(Path target, int generation) {
+        String name = target.getFileName() + (generation == 1 ? ".bak" : ".bak" + generation);
+        return target.resolveSibling(name);
+    }
+
+    /**
+     * Shifts the existing backups by one generation and keeps the current
+     * target as newest backup. The target itself stays in place.
+     */
+    private void rotateBackups(Path target) throws IOException {
+        Files.deleteIfExists(backupFile(target, backupGenerations));
+        for (int generation = backupGenerations - 1; generation >= 1; generation--) {
+            Path backup = backupFile(target, generation);
+            if (Files.exists(backup)) {
+                Files.move(backup, backupFile(target, generation + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        Path newest = backupFile(target, 1);
+        try {
+            // A hard link keeps the old content without copying it
+            Files.createLink(newest, target);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(target, newest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Gives the temporary file the permissions of the file it replaces, the
+     * temporary file is only readable by the owner.
+     */
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            if (Files.exists(from)) {
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // No POSIX file system, the defaults apply
+        }
+    }
+
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Forces the directory entry of the renamed file to disk. Not every
+     * platform allows opening a directory, in that case the rename is left to
+     * the file system.
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform
+        }
+    }
+
+    /**
+     * Writes the content of a file.
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+
+        /**
+         * Writes the content into the stream. The stream must not be closed.
+         *
+         * @param out the stream to write to
+         * @throws Exception if the content cannot be written
+         */
+        void writeTo(OutputStream out) throws Exception;
+    }
+}
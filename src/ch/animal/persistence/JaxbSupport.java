@@ -0,0 +1,137 @@
+package ch.animal.persistence;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalListWrapper;
+
+/**
+ * Shared JAXB setup for all XML persistence. Building a {@link JAXBContext}
+ * reflects over all model classes, so the context is built only once and
+ * reused. The context itself is thread-safe, marshallers and unmarshallers
+ * are not, so every thread gets its own reusable instance.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public final class JaxbSupport {
+
+    private static volatile JAXBContext context;
+
+    private static final ThreadLocal<Marshaller> MARSHALLER = new ThreadLocal<>();
+    private static final ThreadLocal<Marshaller> FRAGMENT_MARSHALLER = new ThreadLocal<>();
+    private static final ThreadLocal<Unmarshaller> UNMARSHALLER = new ThreadLocal<>();
+
+    private JaxbSupport() {
+    }
+
+    /**
+     * Returns the JAXB context for {@link AnimalListWrapper} and all classes
+     * reachable from it. The context is created on the first call.
+     *
+     * @return the shared context
+     * @throws JAXBException if the context cannot be created
+     */
+    public static JAXBContext getContext() throws JAXBException {
+        JAXBContext result = context;
+        if (result == null) {
+            synchronized (JaxbSupport.class) {
+                result = context;
+                if (result == null) {
+                    result = JAXBContext.newInstance(AnimalListWrapper.class);
+                    context = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the marshaller of the calling thread. It writes formatted output.
+     *
+     * @return a marshaller that may only be used by the calling thread
+     * @throws JAXBException if the marshaller cannot be created
+     */
+    public static Marshaller getMarshaller() throws JAXBException {
+        Marshaller m = MARSHALLER.get();
+        if (m == null) {
+            m = getContext().createMarshaller();
+            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            MARSHALLER.set(m);
+        }
+        return m;
+    }
+
+    /**
+     * Returns the fragment marshaller of the calling thread. It writes
+     * formatted output without an XML declaration, so single elements can be
+     * written into a document one after the other.
+     *
+     * @return a marshaller that may only be used by the calling thread
+     * @throws JAXBException if the marshaller cannot be created
+     */
+    public static Marshaller getFragmentMarshaller() throws JAXBException {
+        Marshaller m = FRAGMENT_MARSHALLER.get();
+        if (m == null) {
+            m = getContext().createMarshaller();
+            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            m.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            FRAGMENT_MARSHALLER.set(m);
+        }
+        return m;
+    }
+
+    /**
+     * Returns the unmarshaller of the calling thread.
+     *
+     * @return an unmarshaller that may only be used by the calling thread
+     * @throws JAXBException if the unmarshaller cannot be created
+     */
+    public static Unmarshaller getUnmarshaller() throws JAXBException {
+        Unmarshaller um = UNMARSHALLER.get();
+        if (um == null) {
+            um = getContext().createUnmarshaller();
+            UNMARSHALLER.set(um);
+        }
+        return um;
+    }
+
+    /**
+     * Builds the context on a background thread and marshals an empty list
+     * once, so the JAXB runtime classes are loaded before the first save.
+     * Then the marshaller and unmarshaller of the thread that loads and saves
+     * are created on that thread, so the first save finds them ready.
+     * Failures are ignored here, they show up again on the first real load
+     * or save.
+     *
+     * @param ioThread runs the loads and saves, on a single thread
+     */
+    public static void warmUp(Executor ioThread) {
+        Thread warmUp = new Thread(() -> {
+            try {
+                getContext().createMarshaller().marshal(new AnimalListWrapper(), OutputStream.nullOutputStream());
+            } catch (JAXBException e) {
+                return;
+            }
+            ioThread.execute(() -> {
+                try {
+                    getUnmarshaller();
+                    new AnimalXmlWriter().write(Collections.singletonList(new Animal()),
+                            OutputStream.nullOutputStream(), ProgressListener.NONE);
+                } catch (JAXBException | IOException e) {
+                    // Only the warm-up failed, not a load or save
+                }
+            });
+        }, "jaxb-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+}
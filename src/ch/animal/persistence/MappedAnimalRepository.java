@@ -0,0 +1,69 @@
+package ch.animal.persistence;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.animal.model.AnimalIndex;
+import ch.animal.model.AnimalRowList;
+import javafx.concurrent.Task;
+
+/**
+ * Repository on a {@link MappedAnimalStore}. Opening it reads nothing but the
+ * header and the string dictionary, the table reads the rows it shows. Every
+ * change is written into its record in the mapped file as it is made, so
+ * saving to the store file only forces the written records to disk.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class MappedAnimalRepository implements AnimalRepository {
+
+    private final AnimalRowList<MappedAnimalStore> animals;
+    private final AnimalIndex index;
+
+    /**
+     * Creates the repository on an opened store. The store is closed with
+     * the repository.
+     *
+     * @param store the store
+     */
+    public MappedAnimalRepository(MappedAnimalStore store) {
+        animals = new AnimalRowList<>(store);
+        index = new AnimalIndex(animals);
+    }
+
+    @Override
+    public AnimalRowList<MappedAnimalStore> getAnimals() {
+        return animals;
+    }
+
+    @Override
+    public AnimalIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public boolean isWrittenPerRow() {
+        return true;
+    }
+
+    @Override
+    public Task<Void> createSaveTask(File file, int backupGenerations) throws IOException {
+        return new MappedSaveTask(animals.getStore(), file, backupGenerations);
+    }
+
+    /**
+     * Creates a task exporting a copy of the store file. The copy is taken
+     * by the task in the background and deleted when the export has finished.
+     */
+    @Override
+    public Task<Void> createExportTask(File file, AnimalExportFormat format) {
+        return new AnimalExportTask(animals.getStore()::copy, file, format);
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.dispose();
+        animals.getStore().close();
+    }
+}
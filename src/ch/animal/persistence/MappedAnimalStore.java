@@ -0,0 +1,738 @@
+package ch.animal.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ch.animal.model.Animal;
+import ch.animal.model.AnimalRows;
+import ch.animal.model.AnimalStore;
+import ch.animal.model.RowKeyIndex;
+import ch.animal.util.StringDictionary;
+
+/**
+ * Animal records in a file of fixed-width records that is mapped into memory
+ * with {@link FileChannel#map}. Only the string dictionary is held on the
+ * heap, the records are read and written in place, so very large inventories
+ * can be opened without loading them. The index of the keys is only built
+ * once an animal is looked up by its key, see {@link RowKeyIndex}.
+ *
+ * <pre>
+ * header (32 bytes):
+ *   int magic "AFMS", short version, short record size, int record count,
+ *   int record capacity, int dictionary size, long next key, 4 bytes reserved
+ * records (capacity * 56 bytes):
+ *   int tierArt, int futterArt, int mengeneinheit, int bestellungnotwendig,
+ *   long bestelldatum (epoch day), double aktuellerBestand,
+ *   double tagesverbrauch, int lieferfrist, 4 bytes reserved, long key
+ * dictionary (behind the record capacity):
+ *   int length + UTF-8 bytes per string
+ * </pre>
+ *
+ * Strings are stored by their dictionary code like in
+ * {@link AnimalBinaryFormat}. The mapped region is limited to 2 GB, i.e. about
+ * 38 million records. A store is not thread-safe, except that
+ * {@link #copy()} may be called from another thread.
+ * <p>
+ * Version 1 stores have 32-byte records without consumption and lead time,
+ * version 2 stores have 48-byte records without key. They can be opened
+ * read-only as they are, their rows then have the row number plus one as
+ * key, like after an upgrade. Opening one for writing first rewrites it in
+ * the current version.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class MappedAnimalStore implements AnimalRows, Closeable {
+
+    /** File header, "AFMS" in ASCII. */
+    public static final int MAGIC = 0x41464D53;
+
+    /** Current version of the format. */
+    public static final short VERSION = 3;
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 56;
+    private static final int V1_RECORD_SIZE = 32;
+    private static final int V2_RECORD_SIZE = 48;
+    private static final int KEY_OFFSET = 48;
+
+    private static final int COUNT_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int DICTIONARY_SIZE_OFFSET = 16;
+    private static final int NEXT_KEY_OFFSET = 20;
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int MOVE_CHUNK = 64 * 1024;
+    private static final int COPY_ATTEMPTS = 20;
+    private static final int COPY_RETRY_MILLIS = 25;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean readOnly;
+    private final StringDictionary dictionary = new StringDictionary();
+    private final RowKeyIndex keyIndex = new RowKeyIndex(this::keyOf);
+
+    // Odd while a change is being written, see copy()
+    private volatile long version;
+    private int changeDepth;
+    // Deletes the file when the store is closed
+    private boolean temporary;
+
+    private MappedByteBuffer buffer;
+    private int recordSize = RECORD_SIZE;
+    private int size;
+    private int capacity;
+    private long dictionaryEnd;
+
+    private MappedAnimalStore(Path path, FileChannel channel, boolean readOnly) {
+        this.path = path;
+        this.channel = channel;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Creates a new, empty store. An existing file is overwritten.
+     *
+     * @param path the file of the store
+     * @return the opened store
+     * @throws IOException if the file cannot be created
+     */
+    public static MappedAnimalStore create(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedAnimalStore store = new MappedAnimalStore(path, channel, false);
+        try {
+            store.capacity = MIN_CAPACITY;
+            store.dictionaryEnd = store.dictionaryOffset();
+            store.map();
+            store.buffer.putInt(0, MAGIC);
+            store.buffer.putShort(4, VERSION);
+            store.buffer.putShort(6, (short) RECORD_SIZE);
+            store.buffer.putInt(COUNT_OFFSET, 0);
+            store.buffer.putInt(CAPACITY_OFFSET, store.capacity);
+            store.buffer.putInt(DICTIONARY_SIZE_OFFSET, 0);
+            store.buffer.putLong(NEXT_KEY_OFFSET, store.keyIndex.getNextKey());
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing store. A store of an older version that is opened for
+     * writing is rewritten in the current version first.
+     *
+     * @param path the file of the store
+     * @param readOnly true to open the store for reading only
+     * @return the opened store
+     * @throws IOException if the file cannot be opened or is no animal store
+     */
+    public static MappedAnimalStore open(Path path, boolean readOnly) throws IOException {
+        if (!readOnly) {
+            upgrade(path);
+        }
+        FileChannel channel = readOnly
+                ? FileChannel.open(path, StandardOpenOption.READ)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedAnimalStore store = new MappedAnimalStore(path, channel, readOnly);
+        try {
+            store.readHeader();
+            store.map();
+            store.readDictionary();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the animals as a complete store file to the given stream. The
+     * stream is flushed but not closed.
+     *
+     * @param animals the animals to write
+     * @param out the stream to write to
+     * @param progress receives the number of animals written and the total
+     * @throws IOException if writing fails or the thread is interrupted
+     */
+    public static void write(List<Animal> animals, OutputStream out, ProgressListener progress) throws IOException {
+        int total = animals.size();
+        StringDictionary dictionary = new StringDictionary();
+        long maxKey = 0;
+        int withoutKey = 0;
+        for (Animal animal : animals) {
+            dictionary.code(animal.getTierArt());
+            dictionary.code(animal.getFutterArt());
+            dictionary.code(animal.getMengeneinheit());
+            dictionary.code(animal.getBestellungnotwendig());
+            maxKey = Math.max(maxKey, animal.getKey());
+            if (animal.getKey() <= 0) {
+                withoutKey++;
+            }
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, MOVE_CHUNK));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeShort(RECORD_SIZE);
+        data.writeInt(total);
+        data.writeInt(total);
+        data.writeInt(dictionary.size());
+        // Animals without key get the keys behind the highest one
+        data.writeLong(maxKey + withoutKey + 1);
+        data.write(new byte[HEADER_SIZE - 28]);
+
+        for (int i = 0; i < total; i++) {
+            Animal animal = animals.get(i);
+            data.writeInt(dictionary.find(animal.getTierArt()));
+            data.writeInt(dictionary.find(animal.getFutterArt()));
+            data.writeInt(dictionary.find(animal.getMengeneinheit()));
+            data.writeInt(dictionary.find(animal.getBestellungnotwendig()));
+            LocalDate date = animal.getBestelldatum();
+            data.writeLong(date != null ? date.toEpochDay() : NO_DATE);
+            data.writeDouble(animal.getAktuellerBestand());
+            data.writeDouble(animal.getTagesverbrauch());
+            data.writeInt(animal.getLieferfrist());
+            data.writeInt(0);
+            data.writeLong(animal.getKey() > 0 ? animal.getKey() : ++maxKey);
+
+            if ((i + 1) % 1000 == 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Writing animals was interrupted");
+                }
+                progress.progress(i + 1, total);
+            }
+        }
+
+        for (int code = 0; code < dictionary.size(); code++) {
+            byte[] bytes = dictionary.get(code).getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+        data.flush();
+        progress.progress(total, total);
+    }
+
+    /**
+     * Reads all records of a store file and passes them to the consumer in
+     * batches.
+     *
+     * @param path the file of the store
+     * @param batchConsumer receives the animals batch by batch
+     * @param progress receives the number of animals read and the total
+     * @return the number of animals read
+     * @throws IOException if the file cannot be read or the thread is interrupted
+     */
+    public static int read(Path path, Consumer<List<Animal>> batchConsumer, ProgressListener progress)
+            throws IOException {
+        try (MappedAnimalStore store = open(path, true)) {
+            int total = store.size();
+            List<Animal> batch = new ArrayList<>();
+            for (int row = 0; row < total; row++) {
+                batch.add(store.read(row));
+                if (batch.size() == 1000) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Reading " + path + " was interrupted");
+                    }
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>();
+                    progress.progress(row + 1, total);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batchConsumer.accept(batch);
+            }
+            progress.progress(total, total);
+            return total;
+        }
+    }
+
+    /**
+     * Returns the file of this store.
+     *
+     * @return the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Copies the store file to a temporary file and opens the copy read-only.
+     * The copy is deleted when it is closed. Unlike the other methods, this
+     * one may be called from another thread than the one changing the store:
+     * a copy that overlapped a change is taken again.
+     *
+     * @return the copy
+     * @throws IOException if the copy cannot be taken, also if the store was
+     *                     changed during every attempt
+     */
+    public MappedAnimalStore copy() throws IOException {
+        Path snapshot = Files.createTempFile("animals", AnimalFileFormat.MAPPED.getExtension());
+        try {
+            for (int attempt = 0; attempt < COPY_ATTEMPTS; attempt++) {
+                long before = version;
+                if ((before & 1) == 0) {
+                    // The copy reads through the page cache and sees all written records
+                    Files.copy(path, snapshot, StandardCopyOption.REPLACE_EXISTING);
+                    if (version == before) {
+                        MappedAnimalStore copy = open(snapshot, true);
+                        copy.temporary = true;
+                        return copy;
+                    }
+                }
+                Thread.sleep(COPY_RETRY_MILLIS);
+            }
+            throw new IOException("Animal store kept changing while it was copied: " + path);
+        } catch (InterruptedException e) {
+            Files.deleteIfExists(snapshot);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + path);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(snapshot);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of records.
+     *
+     * @return the number of records
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads a record into a new animal.
+     *
+     * @param row the row of the record
+     * @return the animal
+     */
+    @Override
+    public Animal read(int row) {
+        Animal animal = new Animal();
+        read(row, animal);
+        return animal;
+    }
+
+    /**
+     * Copies the values of a record into the given animal.
+     *
+     * @param row the row of the record
+     * @param target the animal to fill
+     */
+    @Override
+    public void read(int row, Animal target) {
+        checkRow(row, size);
+        int offset = offset(row);
+        target.setTierArt(dictionary.get(buffer.getInt(offset)));
+        target.setFutterArt(dictionary.get(buffer.getInt(offset + 4)));
+        target.setMengeneinheit(dictionary.get(buffer.getInt(offset + 8)));
+        target.setBestellungnotwendig(dictionary.get(buffer.getInt(offset + 12)));
+        long epochDay = buffer.getLong(offset + 16);
+        target.setBestelldatum(epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null);
+        target.setAktuellerBestand(buffer.getDouble(offset + 24));
+        if (recordSize >= V2_RECORD_SIZE) {
+            target.setTagesverbrauch(buffer.getDouble(offset + 32));
+            target.setLieferfrist(buffer.getInt(offset + 40));
+        }
+        target.setKey(keyOf(row));
+    }
+
+    @Override
+    public long getKey(int row) {
+        checkRow(row, size);
+        return keyOf(row);
+    }
+
+    @Override
+    public void setKey(int row, long key) {
+        beginChange();
+        try {
+            checkRow(row, size);
+            if (key <= 0) {
+                throw new IllegalArgumentException("Invalid key " + key);
+            }
+            if (keyOf(row) != key) {
+                buffer.putLong(offset(row) + KEY_OFFSET, key);
+                keyIndex.rekeyed(key);
+                buffer.putLong(NEXT_KEY_OFFSET, keyIndex.getNextKey());
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    @Override
+    public int rowOfKey(long key) {
+        return keyIndex.find(key, size);
+    }
+
+    /**
+     * Overwrites a record with the values of the given animal. The record
+     * keeps its key.
+     *
+     * @param row the row of the record
+     * @param source the animal to store
+     */
+    @Override
+    public void write(int row, Animal source) {
+        beginChange();
+        try {
+            checkRow(row, size);
+            int offset = offset(row);
+            buffer.putInt(offset, code(source.getTierArt()));
+            buffer.putInt(offset + 4, code(source.getFutterArt()));
+            buffer.putInt(offset + 8, code(source.getMengeneinheit()));
+            buffer.putInt(offset + 12, code(source.getBestellungnotwendig()));
+            LocalDate date = source.getBestelldatum();
+            buffer.putLong(offset + 16, date != null ? date.toEpochDay() : NO_DATE);
+            buffer.putDouble(offset + 24, source.getAktuellerBestand());
+            buffer.putDouble(offset + 32, source.getTagesverbrauch());
+            buffer.putInt(offset + 40, source.getLieferfrist());
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Inserts a record. The records from the given row on move up by one.
+     * The record gets the key of the animal if it is free, otherwise a new one.
+     *
+     * @param row the row of the new record, at most {@link #size()}
+     * @param source the animal to store
+     */
+    @Override
+    public void insert(int row, Animal source) {
+        beginChange();
+        try {
+            checkRow(row, size + 1);
+            long key = keyIndex.claim(source.getKey(), size);
+            if (size == capacity) {
+                grow();
+            }
+            move(offset(row), offset(row + 1), (size - row) * RECORD_SIZE);
+            setSize(size + 1);
+            buffer.putLong(offset(row) + KEY_OFFSET, key);
+            buffer.putLong(NEXT_KEY_OFFSET, keyIndex.getNextKey());
+            keyIndex.inserted(row);
+            write(row, source);
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Removes the records of the given range.
+     *
+     * @param from the first row to remove
+     * @param to the row behind the last row to remove
+     */
+    @Override
+    public void remove(int from, int to) {
+        beginChange();
+        try {
+            if (from < 0 || to > size || from > to) {
+                throw new IndexOutOfBoundsException("Range " + from + ".." + to + ", size " + size);
+            }
+            keyIndex.removing(from, to, size);
+            move(offset(to), offset(from), (size - to) * RECORD_SIZE);
+            setSize(size - (to - from));
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Removes the given records, moving every remaining record at most once.
+     *
+     * @param rows the rows to remove, distinct and in ascending order
+     */
+    @Override
+    public void removeRows(int[] rows) {
+        beginChange();
+        try {
+            if (rows.length == 0) {
+                return;
+            }
+            for (int i = 0; i < rows.length; i++) {
+                checkRow(rows[i], size);
+                if (i > 0 && rows[i] <= rows[i - 1]) {
+                    throw new IllegalArgumentException("Rows must be distinct and ascending");
+                }
+            }
+            for (int row : rows) {
+                keyIndex.removing(row, row + 1, size);
+            }
+            int target = rows[0];
+            for (int i = 0; i < rows.length; i++) {
+                int from = rows[i] + 1;
+                int to = i + 1 < rows.length ? rows[i + 1] : size;
+                if (to > from) {
+                    move(offset(from), offset(target), (to - from) * recordSize);
+                    target += to - from;
+                }
+            }
+            setSize(size - rows.length);
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Writes all changes through to the disk.
+     */
+    public void force() {
+        if (!readOnly) {
+            buffer.force();
+            try {
+                channel.force(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            force();
+        } finally {
+            channel.close();
+            if (temporary) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private int code(String value) {
+        int code = dictionary.find(value);
+        if (code == StringDictionary.NULL_CODE && value != null) {
+            code = dictionary.code(value);
+            appendDictionaryEntry(value);
+        }
+        return code;
+    }
+
+    private void appendDictionaryEntry(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length);
+        entry.putInt(bytes.length).put(bytes).flip();
+        try {
+            writeFully(entry, dictionaryEnd);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        dictionaryEnd += entry.capacity();
+        buffer.putInt(DICTIONARY_SIZE_OFFSET, dictionary.size());
+    }
+
+    /**
+     * Doubles the record capacity. The dictionary behind the records is moved
+     * to the end of the new capacity.
+     */
+    private void grow() {
+        long oldDictionaryOffset = dictionaryOffset();
+        int newCapacity = Math.max(MIN_CAPACITY, capacity * 2);
+        if ((long) HEADER_SIZE + (long) newCapacity * RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Animal store is full: " + path);
+        }
+        try {
+            ByteBuffer entries = ByteBuffer.allocate((int) (dictionaryEnd - oldDictionaryOffset));
+            while (entries.hasRemaining()) {
+                if (channel.read(entries, oldDictionaryOffset + entries.position()) < 0) {
+                    throw new IOException("Unexpected end of dictionary in " + path);
+                }
+            }
+            entries.flip();
+
+            capacity = newCapacity;
+            writeFully(entries, dictionaryOffset());
+            dictionaryEnd = dictionaryOffset() + entries.capacity();
+            map();
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Moves a range of bytes inside the mapped buffer. The ranges may overlap.
+     */
+    private void move(int from, int to, int length) {
+        byte[] chunk = new byte[Math.min(length, MOVE_CHUNK)];
+        if (to > from) {
+            // Moving up: copy from the end so nothing is overwritten before it is read
+            for (int done = 0; done < length; ) {
+                int n = Math.min(chunk.length, length - done);
+                int start = length - done - n;
+                buffer.get(from + start, chunk, 0, n);
+                buffer.put(to + start, chunk, 0, n);
+                done += n;
+            }
+        } else if (to < from) {
+            for (int done = 0; done < length; ) {
+                int n = Math.min(chunk.length, length - done);
+                buffer.get(from + done, chunk, 0, n);
+                buffer.put(to + done, chunk, 0, n);
+                done += n;
+            }
+        }
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Not an animal store: " + path);
+            }
+        }
+        header.flip();
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not an animal store: " + path);
+        }
+        short version = header.getShort(4);
+        recordSize = header.getShort(6);
+        if (!(version == VERSION && recordSize == RECORD_SIZE || version == 2 && recordSize == V2_RECORD_SIZE
+                || version == 1 && recordSize == V1_RECORD_SIZE)) {
+            throw new IOException("Unsupported animal store version " + version + ": " + path);
+        }
+        size = header.getInt(COUNT_OFFSET);
+        capacity = header.getInt(CAPACITY_OFFSET);
+        // Mapping the records for writing would silently extend a file that is too short
+        long records = (long) capacity * recordSize;
+        if (size < 0 || capacity < size || records > Integer.MAX_VALUE - HEADER_SIZE
+                || HEADER_SIZE + records > channel.size()) {
+            throw new IOException("Corrupt animal store header: " + path);
+        }
+        keyIndex.setNextKey(version == VERSION ? header.getLong(NEXT_KEY_OFFSET) : size + 1L);
+    }
+
+    /**
+     * Rewrites a store of an older version in the current version.
+     */
+    private static void upgrade(Path path) throws IOException {
+        // The old records are copied to the heap, the file must not be mapped while it is replaced
+        AnimalStore animals = new AnimalStore();
+        try (MappedAnimalStore old = open(path, true)) {
+            if (old.recordSize == RECORD_SIZE) {
+                return;
+            }
+            for (int row = 0; row < old.size(); row++) {
+                animals.add(old.read(row));
+            }
+        }
+        new AtomicFileWriter().write(path, out -> write(animals.asList(), out, ProgressListener.NONE));
+    }
+
+    private void readDictionary() throws IOException {
+        int dictionarySize = buffer.getInt(DICTIONARY_SIZE_OFFSET);
+        long position = dictionaryOffset();
+        long remaining = channel.size() - position;
+        checkCount("dictionary size", dictionarySize, Integer.BYTES, remaining);
+        channel.position(position);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        for (int code = 0; code < dictionarySize; code++) {
+            int length = in.readInt();
+            remaining -= Integer.BYTES;
+            checkCount("string length", length, 1, remaining);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            remaining -= length;
+            dictionary.code(new String(bytes, StandardCharsets.UTF_8));
+            position += 4 + bytes.length;
+        }
+        dictionaryEnd = position;
+    }
+
+    /**
+     * Checks a count read from the file before anything is allocated for it:
+     * as many items of the given size must fit into the rest of the file.
+     */
+    private void checkCount(String name, int count, int itemSize, long remaining) throws IOException {
+        if (count < 0 || (long) count * itemSize > remaining) {
+            throw new IOException("Invalid " + name + " " + count + ", the animal store is corrupt: " + path);
+        }
+    }
+
+    private void map() throws IOException {
+        long length = dictionaryOffset();
+        buffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private void setSize(int newSize) {
+        size = newSize;
+        buffer.putInt(COUNT_OFFSET, size);
+    }
+
+    private long dictionaryOffset() {
+        return HEADER_SIZE + (long) capacity * recordSize;
+    }
+
+    private int offset(int row) {
+        return HEADER_SIZE + row * recordSize;
+    }
+
+    private long keyOf(int row) {
+        // Older stores have no keys, their rows are numbered like when they are upgraded
+        return recordSize == RECORD_SIZE ? buffer.getLong(offset(row) + KEY_OFFSET) : row + 1L;
+    }
+
+    /**
+     * Starts a change. The version is odd until the outermost change has
+     * ended, so a copy taken meanwhile is recognised as inconsistent.
+     */
+    private void beginChange() {
+        checkWritable();
+        if (changeDepth++ == 0) {
+            version++;
+        }
+    }
+
+    private void endChange() {
+        if (--changeDepth == 0) {
+            version++;
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Animal store is read-only: " + path);
+        }
+    }
+
+    private static void checkRow(int row, int limit) {
+        if (row < 0 || row >= limit) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + limit);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ch.animal.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+
+import ch.animal.model.Animal;
+import javafx.concurrent.Task;
+
+/**
+ * Background task that saves the content of a {@link MappedAnimalStore}.
+ * Saving to the file of the store itself only forces the changes to disk.
+ * Saving to another file works on a copy of the store file, which is taken
+ * when the task is created, so the animals never have to be loaded as a whole.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class MappedSaveTask extends Task<Void> {
+
+    private final MappedAnimalStore store;
+    private final File file;
+    private final Path snapshot;
+    private final int backupGenerations;
+
+    /**
+     * Creates the task. Must be called on the thread that modifies the store,
+     * as the snapshot for saving to another file is taken here.
+     *
+     * @param store the store to save
+     * @param file the file to write
+     * @param backupGenerations number of backups of the previous file to keep
+     * @throws IOException if the snapshot cannot be taken
+     */
+    public MappedSaveTask(MappedAnimalStore store, File file, int backupGenerations) throws IOException {
+        this.store = store;
+        this.file = file;
+        this.backupGenerations = backupGenerations;
+        if (isStoreFile()) {
+            snapshot = null;
+        } else {
+            // The copy reads through the page cache and sees all written records
+            snapshot = Files.createTempFile("animals", AnimalFileFormat.MAPPED.getExtension());
+            Files.copy(store.getPath(), snapshot, StandardCopyOption.REPLACE_EXISTING);
+        }
+        updateTitle("Speichern");
+    }
+
+    @Override
+    protected Void call() throws Exception {
+        updateMessage("Speichere " + file.getName() + "...");
+        if (snapshot == null) {
+            store.force();
+            updateProgress(1, 1);
+        } else {
+            try (MappedAnimalStore copy = MappedAnimalStore.open(snapshot, true)) {
+                AbstractList<Animal> animals = new AbstractList<Animal>() {
+                    @Override
+                    public Animal get(int index) {
+                        return copy.read(index);
+                    }
+
+                    @Override
+                    public int size() {
+                        return copy.size();
+                    }
+                };
+                AnimalFileFormat format = AnimalFileFormat.forFile(file);
+                new AtomicFileWriter(backupGenerations).write(file.toPath(),
+                        out -> format.write(animals, out, this::updateProgress));
+                // The file now holds everything, an old journal of it is obsolete
+                Files.deleteIfExists(AnimalJournal.journalFile(file).toPath());
+            } finally {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+        updateMessage("Gespeichert");
+        return null;
+    }
+
+    private boolean isStoreFile() throws IOException {
+        return file.exists() && Files.isSameFile(file.toPath(), store.getPath());
+    }
+}
@@ -0,0 +1,104 @@
+package ch.animal.persistence;
+
+import java.io.File;
+
+import ch.animal.model.AnimalIndex;
+import ch.animal.model.AnimalRowList;
+import ch.animal.model.AnimalStore;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+
+/**
+ * Repository holding the animals in an {@link AnimalStore} in memory. The
+ * changes are recorded by an {@link AnimalJournal}, so saving to the file the
+ * animals came from only appends them to its journal; other files get a
+ * complete snapshot.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class MemoryAnimalRepository implements AnimalRepository {
+
+    private final AnimalRowList<AnimalStore> animals;
+    private final AnimalJournal journal;
+    private final AnimalIndex index;
+
+    /**
+     * Creates the repository.
+     *
+     * @param store the animals
+     * @param file the file the animals were loaded from, or null
+     * @param entriesInJournal the number of entries in the journal of the file
+     */
+    public MemoryAnimalRepository(AnimalStore store, File file, long entriesInJournal) {
+        animals = new AnimalRowList<>(store);
+        journal = new AnimalJournal(animals);
+        journal.rebase(file, 0, entriesInJournal);
+        index = new AnimalIndex(animals);
+    }
+
+    @Override
+    public AnimalRowList<AnimalStore> getAnimals() {
+        return animals;
+    }
+
+    @Override
+    public AnimalIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the journal recording the changes since the last save.
+     *
+     * @return the journal
+     */
+    public AnimalJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public boolean isWrittenPerRow() {
+        return false;
+    }
+
+    /**
+     * Creates a task appending the changes to the journal of the file if it
+     * is the file of the animals, otherwise one writing a snapshot.
+     */
+    @Override
+    public Task<Void> createSaveTask(File file, int backupGenerations) {
+        if (journal.canAppend(file)) {
+            return journal.createAppendTask();
+        }
+        return createSnapshotSaveTask(file, backupGenerations);
+    }
+
+    @Override
+    public Task<Void> createExportTask(File file, AnimalExportFormat format) {
+        AnimalStore snapshot = animals.getStore().copy();
+        return new AnimalExportTask(() -> snapshot, file, format);
+    }
+
+    /**
+     * Creates a task writing a complete snapshot of the animals. Once it
+     * succeeded, the journal starts anew for the file.
+     *
+     * @param file the file to write
+     * @param backupGenerations number of backups of the previous file to keep
+     * @return the task, not yet started
+     */
+    public Task<Void> createSnapshotSaveTask(File file, int backupGenerations) {
+        // Copying the columns is cheap compared to copying every animal
+        AnimalStore snapshot = animals.getStore().copy();
+        int recorded = journal.mark();
+
+        AnimalSaveTask task = new AnimalSaveTask(file, snapshot.asList(), backupGenerations);
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, event -> journal.rebase(file, recorded, 0));
+        return task;
+    }
+
+    @Override
+    public void close() {
+        index.dispose();
+    }
+}
@@ -0,0 +1,22 @@
+package ch.animal.persistence;
+
+/**
+ * Callback to report the progress of a long running read or write operation.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+@FunctionalInterface
+public interface ProgressListener {
+
+    /** Listener that ignores all progress updates. */
+    ProgressListener NONE = (workDone, totalWork) -> { };
+
+    /**
+     * Called whenever some more work has been done.
+     *
+     * @param workDone the amount of work done so far
+     * @param totalWork the total amount of work, or -1 if unknown
+     */
+    void progress(long workDone, long totalWork);
+}
@@ -0,0 +1,88 @@
+package ch.animal.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary assigning a number (code) to every distinct string. Used to store
+ * repeated values such as feed types or units as small integers.
+ * Codes are assigned in the order the strings are added, starting at 0.
+ * {@code null} always has the code {@link #NULL_CODE}.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class StringDictionary {
+
+    /** The code of {@code null}. */
+    public static final int NULL_CODE = -1;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * Returns a copy of this dictionary with the same codes.
+     *
+     * @return the copy
+     */
+    public StringDictionary copy() {
+        StringDictionary copy = new StringDictionary();
+        copy.codes.putAll(codes);
+        copy.values.addAll(values);
+        return copy;
+    }
+
+    /**
+     * Returns the code of the given string, adding it if it is not yet known.
+     *
+     * @param value the string or null
+     * @return the code of the string
+     */
+    public int code(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the given string without adding it.
+     *
+     * @param value the string or null
+     * @return the code, or {@link #NULL_CODE} if the string is null or unknown
+     */
+    public int find(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : NULL_CODE;
+    }
+
+    /**
+     * Returns the string of the given code.
+     *
+     * @param code a code returned by {@link #code(String)}
+     * @return the string, or null for {@link #NULL_CODE}
+     */
+    public String get(int code) {
+        return code == NULL_CODE ? null : values.get(code);
+    }
+
+    /**
+     * Returns the number of distinct strings.
+     *
+     * @return the number of strings
+     */
+    public int size() {
+        return values.size();
+    }
+}
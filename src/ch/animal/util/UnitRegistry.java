@@ -0,0 +1,250 @@
+package ch.animal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the units a stock can be given in, with the factor that turns
+ * an amount into a normalized quantity: a {@code long} in thousandths of the
+ * base unit of its dimension, i.e. grams, millilitres or thousandths of a
+ * piece. Quantities of the same dimension can be added and compared as
+ * integers, whatever unit they were entered in.
+ * <p>
+ * Units are found by name or alias, ignoring case. Sacks and bales count as
+ * mass with a default weight; a farm with other sizes registers its own at
+ * startup. Stores and statistics look the units of their distinct strings up
+ * once, see {@link #factorsOf(StringDictionary, long[])}, so no string is
+ * parsed per row. The registry can be used from several threads.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class UnitRegistry {
+
+    /** Factor of a unit that is not registered: the amount is kept in thousandths of it. */
+    public static final long UNKNOWN_FACTOR = 1000;
+
+    private static final UnitRegistry DEFAULT = createDefault();
+
+    private final Map<String, Unit> units = new ConcurrentHashMap<>();
+    private final List<Unit> registered = new ArrayList<>();
+
+    /**
+     * What a unit measures, with the unit quantities are shown in.
+     */
+    public enum Dimension {
+        MASS("Kg"), VOLUME("Liter"), COUNT("Stück");
+
+        private final String displayUnit;
+
+        Dimension(String displayUnit) {
+            this.displayUnit = displayUnit;
+        }
+
+        /**
+         * Returns the unit a quantity of this dimension is shown in; a
+         * quantity is in thousandths of it.
+         *
+         * @return the name of the unit
+         */
+        public String getDisplayUnit() {
+            return displayUnit;
+        }
+    }
+
+    /**
+     * A registered unit.
+     */
+    public static final class Unit {
+
+        private final String name;
+        private final Dimension dimension;
+        private final long factor;
+
+        /**
+         * Creates a unit.
+         *
+         * @param name the name shown to the user
+         * @param dimension what the unit measures
+         * @param factor the quantity of one of this unit, in thousandths of
+         *               the display unit of the dimension
+         */
+        public Unit(String name, Dimension dimension, long factor) {
+            if (factor <= 0) {
+                throw new IllegalArgumentException("Invalid factor " + factor + " of unit " + name);
+            }
+            this.name = name;
+            this.dimension = dimension;
+            this.factor = factor;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Dimension getDimension() {
+            return dimension;
+        }
+
+        public long getFactor() {
+            return factor;
+        }
+
+        /**
+         * Returns true if the given amount of this unit can be normalized
+         * without overflow.
+         *
+         * @param amount the amount
+         * @return true if {@link #toQuantity(double)} can represent it
+         */
+        public boolean canConvert(double amount) {
+            return Math.abs(amount * factor) < Long.MAX_VALUE;
+        }
+
+        /**
+         * Returns the normalized quantity of an amount of this unit.
+         *
+         * @param amount the amount
+         * @return the quantity in thousandths of the display unit, rounded
+         */
+        public long toQuantity(double amount) {
+            return quantity(amount, factor);
+        }
+
+        /**
+         * Returns the amount of this unit a normalized quantity makes.
+         *
+         * @param quantity the quantity in thousandths of the display unit
+         * @return the amount
+         */
+        public double toAmount(long quantity) {
+            return (double) quantity / factor;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Returns the registry used by the application.
+     *
+     * @return the default registry
+     */
+    public static UnitRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the normalized quantity of an amount, given the factor of its
+     * unit.
+     *
+     * @param amount the amount
+     * @param factor the factor of the unit, e.g. {@link #UNKNOWN_FACTOR}
+     * @return the quantity, rounded
+     */
+    public static long quantity(double amount, long factor) {
+        return Math.round(amount * factor);
+    }
+
+    private static UnitRegistry createDefault() {
+        UnitRegistry registry = new UnitRegistry();
+        registry.register(new Unit("g", Dimension.MASS, 1), "gramm");
+        registry.register(new Unit("Kg", Dimension.MASS, 1_000), "kilogramm");
+        registry.register(new Unit("t", Dimension.MASS, 1_000_000), "tonne", "tonnen");
+        registry.register(new Unit("Sack", Dimension.MASS, 25_000), "säcke");
+        registry.register(new Unit("Ballen", Dimension.MASS, 20_000));
+        registry.register(new Unit("ml", Dimension.VOLUME, 1), "milliliter");
+        registry.register(new Unit("Liter", Dimension.VOLUME, 1_000), "l");
+        registry.register(new Unit("Stück", Dimension.COUNT, 1_000), "stk");
+        return registry;
+    }
+
+    /**
+     * Registers a unit, replacing every unit found by its name or one of its
+     * aliases. The replaced units are no longer found by any of their names.
+     *
+     * @param unit the unit
+     * @param aliases other names the unit is found by
+     */
+    public synchronized void register(Unit unit, String... aliases) {
+        List<String> names = new ArrayList<>(aliases.length + 1);
+        names.add(normalize(unit.getName()));
+        for (String alias : aliases) {
+            names.add(normalize(alias));
+        }
+        Set<Unit> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (String name : names) {
+            Unit known = units.get(name);
+            if (known != null) {
+                replaced.add(known);
+            }
+        }
+        // Registering a unit again only adds aliases
+        replaced.remove(unit);
+        // The new names first, so that they are found while the old ones are removed
+        for (String name : names) {
+            units.put(name, unit);
+        }
+        units.values().removeIf(replaced::contains);
+        registered.removeIf(replaced::contains);
+        if (!registered.contains(unit)) {
+            registered.add(unit);
+        }
+    }
+
+    /**
+     * Returns the unit with the given name or alias.
+     *
+     * @param name the name, case and surrounding blanks are ignored
+     * @return the unit, or null if no unit has this name
+     */
+    public Unit find(String name) {
+        return name == null ? null : units.get(normalize(name));
+    }
+
+    /**
+     * Returns the registered units in the order they were registered.
+     *
+     * @return the units
+     */
+    public synchronized List<Unit> getUnits() {
+        return new ArrayList<>(registered);
+    }
+
+    /**
+     * Returns the factors of the strings of a dictionary of unit names, by
+     * code + 1 so that null comes first. Unknown units and null get
+     * {@link #UNKNOWN_FACTOR}. Only strings added to the dictionary since the
+     * given array was returned are looked up.
+     *
+     * @param names the unit names
+     * @param known the array returned last time for this dictionary, or null
+     * @return the factors, the given array if no string was added
+     */
+    public long[] factorsOf(StringDictionary names, long[] known) {
+        int from = known != null ? known.length - 1 : 0;
+        if (from == names.size()) {
+            return known;
+        }
+        long[] factors = known != null ? Arrays.copyOf(known, names.size() + 1) : new long[names.size() + 1];
+        factors[0] = UNKNOWN_FACTOR;
+        for (int code = from; code < names.size(); code++) {
+            Unit unit = find(names.get(code));
+            factors[code + 1] = unit != null ? unit.getFactor() : UNKNOWN_FACTOR;
+        }
+        return factors;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
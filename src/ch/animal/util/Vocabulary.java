@@ -0,0 +1,86 @@
+package ch.animal.util;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded set of known values of a text field, e.g. the feed types. Equal
+ * strings are mapped to one shared instance, so thousands of animals with the
+ * same feed type hold one string instead of one each. The known values can
+ * be offered for selection.
+ * <p>
+ * Once the vocabulary is full, new values are returned as they are, so a file
+ * with free text in a field cannot let it grow without limit. The vocabulary
+ * can be used from several threads, e.g. by a loader in the background.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class Vocabulary {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty vocabulary.
+     *
+     * @param maxSize the maximum number of values kept
+     */
+    public Vocabulary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the shared instance of the given value. The value is added if
+     * it is not yet known and the vocabulary is not full.
+     *
+     * @param value the value or null
+     * @return the shared instance, or the value itself if it is not kept
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String known = values.get(value);
+        if (known != null) {
+            return known;
+        }
+        if (values.size() >= maxSize) {
+            return value;
+        }
+        known = values.putIfAbsent(value, value);
+        return known != null ? known : value;
+    }
+
+    /**
+     * Returns true if the value is known.
+     *
+     * @param value the value
+     * @return true if the value is in the vocabulary
+     */
+    public boolean contains(String value) {
+        return value != null && values.containsKey(value);
+    }
+
+    /**
+     * Returns the known values in alphabetical order, for selection lists.
+     *
+     * @return a sorted copy of the values
+     */
+    public List<String> values() {
+        List<String> sorted = new ArrayList<>(values.keySet());
+        sorted.sort(Collator.getInstance());
+        return sorted;
+    }
+
+    /**
+     * Returns the number of known values.
+     *
+     * @return the number of values
+     */
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,125 @@
+package ch.animal.view;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javafx.animation.AnimationTimer;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.fxml.FXML;
+import javafx.scene.chart.BarChart;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import ch.animal.MainApp;
+import ch.animal.model.AnimalStatistics;
+import ch.animal.model.AnimalStatistics.StockTotal;
+
+/**
+ * Dashboard next to the animal overview: the number of animals and of
+ * animals to order, the total stock per feed type and unit and the order
+ * dates per month, from a year ago to a year ahead. The values come from an
+ * {@link AnimalStatistics} that follows every change of the animals; the
+ * dashboard itself is redrawn at most once per frame, however many changes
+ * arrive in between.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class AnimalDashboardController {
+
+    /** Months shown before and after the current one. */
+    private static final int CHART_MONTHS = 12;
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("MM.yyyy");
+
+    @FXML
+    private Label countLabel;
+    @FXML
+    private Label reorderLabel;
+    @FXML
+    private TableView<StockTotal> totalTable;
+    @FXML
+    private TableColumn<StockTotal, String> futterArtColumn;
+    @FXML
+    private TableColumn<StockTotal, String> mengeneinheitColumn;
+    @FXML
+    private TableColumn<StockTotal, Number> bestandColumn;
+    @FXML
+    private TableColumn<StockTotal, Number> countColumn;
+    @FXML
+    private BarChart<String, Number> orderChart;
+
+    private final XYChart.Series<String, Number> orderSeries = new XYChart.Series<>();
+    private AnimalStatistics statistics;
+
+    // Runs on the next frame and stops again, so changes until then are drawn once
+    private final AnimationTimer redraw = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            stop();
+            showStatistics();
+        }
+    };
+
+    /**
+     * Initializes the controller class. This method is automatically called
+     * after the fxml file has been loaded.
+     */
+    @FXML
+    private void initialize() {
+        futterArtColumn.setCellValueFactory(
+                cellData -> new ReadOnlyStringWrapper(cellData.getValue().getFutterArt()));
+        mengeneinheitColumn.setCellValueFactory(
+                cellData -> new ReadOnlyStringWrapper(cellData.getValue().getMengeneinheit()));
+        bestandColumn.setCellValueFactory(
+                cellData -> new ReadOnlyDoubleWrapper(cellData.getValue().getBestand()));
+        countColumn.setCellValueFactory(
+                cellData -> new ReadOnlyIntegerWrapper(cellData.getValue().getCount()));
+        orderChart.getData().add(orderSeries);
+    }
+
+    /**
+     * Is called by the main application to give a reference back to itself.
+     * The dashboard follows the statistics of the animals when the list of
+     * animals is exchanged.
+     *
+     * @param mainApp mainApp of the application
+     */
+    public void setMainApp(MainApp mainApp) {
+        mainApp.animalDataProperty().addListener(
+                (observable, oldData, newData) -> follow(mainApp.getStatistics()));
+        follow(mainApp.getStatistics());
+    }
+
+    private void follow(AnimalStatistics newStatistics) {
+        if (statistics != null) {
+            statistics.setOnChanged(null);
+        }
+        statistics = newStatistics;
+        statistics.setOnChanged(redraw::start);
+        redraw.start();
+    }
+
+    /**
+     * Shows the current values of the statistics.
+     */
+    private void showStatistics() {
+        countLabel.setText(statistics.getCount() + " Tiere");
+        reorderLabel.setText("Bestellung notwendig: " + statistics.getReorderCount());
+        totalTable.getItems().setAll(statistics.getStockTotals());
+
+        YearMonth now = YearMonth.now();
+        List<XYChart.Data<String, Number>> bars = new ArrayList<>();
+        for (Map.Entry<YearMonth, Integer> month : statistics.getOrderHistogram()
+                .subMap(now.minusMonths(CHART_MONTHS), now.plusMonths(CHART_MONTHS + 1)).entrySet()) {
+            bars.add(new XYChart.Data<>(MONTH_FORMATTER.format(month.getKey()), month.getValue()));
+        }
+        orderSeries.getData().setAll(bars);
+    }
+}
@@ -11,8 +11,11 @@ import javafx.scene.control.TextField;
 import javafx.stage.Stage;
 
 import java.time.LocalDate;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import ch.animal.model.Animal;
+import ch.animal.util.UnitRegistry;
 
 /**
  * Dialog to edit details of an animal.
@@ -36,15 +39,19 @@ public class AnimalEditDialogController {
 	@FXML
     private TextField tierArtField;
     @FXML
-    private TextField futterArtField;
+    private ComboBox<String> futterArtField;
     @FXML
     private TextField aktuellerBestandField;
     @FXML
-    private TextField mengeneinheitField;
+    private ComboBox<String> mengeneinheitField;
     @FXML
     private ComboBox<String> bestellungnotwendigBox;
     @FXML
     private DatePicker bestelldatumField;
+    @FXML
+    private TextField tagesverbrauchField;
+    @FXML
+    private TextField lieferfristField;
 
     private Stage dialogStage;
     private Animal animal;
@@ -69,23 +76,37 @@ public class AnimalEditDialogController {
     }
     
     /**
-     * Sets the animal to be edited in the dialog.
+     * Sets the animal to be edited in the dialog. The dialog is reused, so
+     * everything shown is reset to the values of the animal.
      * 
      * @param animal sets the animal to be edited
      */
     public void setAnimal(Animal animal) {
         this.animal = animal;
+        okClicked = false;
       
         tierArtField.setText(animal.getTierArt());
-        futterArtField.setText(animal.getFutterArt());
+        // Offer the values used so far, new ones can still be typed in
+        futterArtField.setItems(FXCollections.observableArrayList(Animal.FUTTER_ARTEN.values()));
+        futterArtField.setValue(animal.getFutterArt());
         aktuellerBestandField.setText(Double.toString(animal.getAktuellerBestand()));
-        mengeneinheitField.setText(animal.getMengeneinheit());
+        // The registered units first, then the other ones used so far
+        Set<String> units = new LinkedHashSet<>();
+        for (UnitRegistry.Unit unit : UnitRegistry.getDefault().getUnits()) {
+            units.add(unit.getName());
+        }
+        units.addAll(Animal.MENGENEINHEITEN.values());
+        mengeneinheitField.setItems(FXCollections.observableArrayList(units));
+        mengeneinheitField.setValue(animal.getMengeneinheit());
         bestellungnotwendigBox.setItems(bestellungnotwendigList);
         bestellungnotwendigBox.setValue(animal.getBestellungnotwendig());
         bestelldatumField.setValue(animal.getBestelldatum());
+        tagesverbrauchField.setText(Double.toString(animal.getTagesverbrauch()));
+        lieferfristField.setText(Integer.toString(animal.getLieferfrist()));
         
         // no manual entry - date picker still available
         bestelldatumField.setEditable(false);
+        tierArtField.requestFocus();
     }
     
     /**
@@ -104,11 +125,15 @@ public class AnimalEditDialogController {
     private void handleOk() {
         if (isInputValid()) {
             animal.setTierArt(tierArtField.getText());
-            animal.setFutterArt(futterArtField.getText());
+            animal.setFutterArt(Animal.FUTTER_ARTEN.intern(getText(futterArtField)));
             animal.setAktuellerBestand(Double.parseDouble(aktuellerBestandField.getText()));
-            animal.setMengeneinheit(mengeneinheitField.getText());
+            // Stored with the registered name, so "kg" and "Kg" are one unit
+            animal.setMengeneinheit(Animal.MENGENEINHEITEN.intern(
+                    UnitRegistry.getDefault().find(getText(mengeneinheitField)).getName()));
             animal.setBestellungnotwendig(bestellungnotwendigBox.getValue());
             animal.setBestelldatum(bestelldatumField.getValue());
+            animal.setTagesverbrauch(Double.parseDouble(tagesverbrauchField.getText()));
+            animal.setLieferfrist(Integer.parseInt(lieferfristField.getText()));
 
             okClicked = true;
             dialogStage.close();
@@ -134,6 +159,15 @@ public class AnimalEditDialogController {
         dialogStage.close();
     }
     
+    /**
+     * Returns the text typed into an editable combo box. The value of the box
+     * is only updated when the input is committed, the text of its editor is
+     * always current.
+     */
+    private static String getText(ComboBox<String> box) {
+        return box.getEditor().getText();
+    }
+    
     /**
      * Validates the user input in the text fields.
      * 
@@ -145,7 +179,7 @@ public class AnimalEditDialogController {
         if (tierArtField.getText() == null || tierArtField.getText().length() == 0) {
             errorMessage += "Ungültige Eingabe in Feld 'Tierart'!\n"; 
         }
-        if (futterArtField.getText() == null || futterArtField.getText().length() == 0) {
+        if (getText(futterArtField) == null || getText(futterArtField).length() == 0) {
             errorMessage += "Ungültige Eingabe im Feld 'Futterart'!\n"; 
         }
         if (aktuellerBestandField.getText() == null || aktuellerBestandField.getText().length() == 0) {
@@ -159,8 +193,38 @@ public class AnimalEditDialogController {
             }
         }
         
-        if (mengeneinheitField.getText() == null || mengeneinheitField.getText().length() == 0) {
+        if (getText(mengeneinheitField) == null || getText(mengeneinheitField).length() == 0) {
             errorMessage += "Ungültige Einabe im Feld 'Mengeneinheit'!\n";
+        } else {
+            UnitRegistry.Unit unit = UnitRegistry.getDefault().find(getText(mengeneinheitField));
+            if (unit == null) {
+                errorMessage += "Ungültige Eingabe im Feld 'Mengeneinheit' (unbekannte Einheit, erlaubt sind "
+                        + UnitRegistry.getDefault().getUnits() + ")!\n";
+            } else {
+                try {
+                    if (!unit.canConvert(Double.parseDouble(aktuellerBestandField.getText()))) {
+                        errorMessage += "Ungültige Eingabe im Feld 'Aktueller Bestand' (zu gross für die Einheit)!\n";
+                    }
+                } catch (NumberFormatException | NullPointerException e) {
+                    // already reported above
+                }
+            }
+        }
+        
+        // a consumption of 0 leaves the order need to the user
+        try {
+            if (Double.parseDouble(tagesverbrauchField.getText()) < 0) {
+                errorMessage += "Ungültige Eingabe im Feld 'Tagesverbrauch' (darf nicht negativ sein)!\n";
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            errorMessage += "Ungültige Eingabe im Feld 'Tagesverbrauch' (muss eine Zahl sein)!\n";
+        }
+        try {
+            if (Integer.parseInt(lieferfristField.getText()) < 0) {
+                errorMessage += "Ungültige Eingabe im Feld 'Lieferfrist' (darf nicht negativ sein)!\n";
+            }
+        } catch (NumberFormatException e) {
+            errorMessage += "Ungültige Eingabe im Feld 'Lieferfrist' (muss eine ganze Zahl sein)!\n";
         }
 
         if (errorMessage.length() == 0) {
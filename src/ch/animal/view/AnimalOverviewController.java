@@ -1,15 +1,34 @@
 package ch.animal.view;
 
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.DoubleUnaryOperator;
+
+import javafx.beans.binding.Bindings;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.DatePicker;
+import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
 import ch.animal.MainApp;
+import ch.animal.diagnostics.MetricsRegistry;
 import ch.animal.model.Animal;
+import ch.animal.model.AnimalSearchList;
+import ch.animal.model.AnimalSortList;
+import ch.animal.model.AnimalSortKeys;
 import ch.animal.util.DateUtil;
 
 /**
@@ -19,12 +38,25 @@ import ch.animal.util.DateUtil;
  */
 public class AnimalOverviewController {
 	
+    @FXML
+    private TextField searchField;
     @FXML
     private TableView<Animal> animalTable;
     @FXML
     private TableColumn<Animal, String> tierArtColumn;
     @FXML
     private TableColumn<Animal, String> futterArtColumn;
+    @FXML
+    private TableColumn<Animal, Number> aktuellerBestandColumn;
+    @FXML
+    private TableColumn<Animal, String> mengeneinheitColumn;
+    @FXML
+    private TableColumn<Animal, String> bestellungnotwendigColumn;
+    @FXML
+    private TableColumn<Animal, LocalDate> bestelldatumColumn;
+
+    // The field each column is sorted by
+    private final Map<TableColumn<Animal, ?>, AnimalSortKeys.Field> sortFields = new HashMap<>();
 
     @FXML
     private Label tierArtLabel;
@@ -38,6 +70,10 @@ public class AnimalOverviewController {
     private Label bestellungnotwendigLabel;
     @FXML
     private Label bestelldatumLabel;
+    @FXML
+    private Label tagesverbrauchLabel;
+    @FXML
+    private Label lieferfristLabel;
     
     // Reference to the main application.
     private MainApp mainApp;
@@ -55,11 +91,41 @@ public class AnimalOverviewController {
      */
     @FXML
     private void initialize() {
-        // Initialize the animal table with the two columns
+        // Initialize the animal table with a column per field
         tierArtColumn.setCellValueFactory(
                 cellData -> cellData.getValue().tierArtProperty());
         futterArtColumn.setCellValueFactory(
                 cellData -> cellData.getValue().futterArtProperty());
+        aktuellerBestandColumn.setCellValueFactory(
+                cellData -> cellData.getValue().aktuellerBestandProperty());
+        mengeneinheitColumn.setCellValueFactory(
+                cellData -> cellData.getValue().mengeneinheitProperty());
+        bestellungnotwendigColumn.setCellValueFactory(
+                cellData -> cellData.getValue().bestellungnotwendigProperty());
+        bestelldatumColumn.setCellValueFactory(
+                cellData -> cellData.getValue().bestelldatumProperty());
+        bestelldatumColumn.setCellFactory(column -> new TableCell<Animal, LocalDate>() {
+            @Override
+            protected void updateItem(LocalDate date, boolean empty) {
+                super.updateItem(date, empty);
+                setText(empty ? null : DateUtil.format(date));
+            }
+        });
+
+        // Sorting moves the rows by precomputed keys instead of comparing the animals
+        sortFields.put(tierArtColumn, AnimalSortKeys.Field.TIER_ART);
+        sortFields.put(futterArtColumn, AnimalSortKeys.Field.FUTTER_ART);
+        sortFields.put(aktuellerBestandColumn, AnimalSortKeys.Field.AKTUELLER_BESTAND);
+        sortFields.put(mengeneinheitColumn, AnimalSortKeys.Field.MENGENEINHEIT);
+        sortFields.put(bestellungnotwendigColumn, AnimalSortKeys.Field.BESTELLUNG_NOTWENDIG);
+        sortFields.put(bestelldatumColumn, AnimalSortKeys.Field.BESTELLDATUM);
+        animalTable.setSortPolicy(table -> {
+            sortAnimals();
+            return true;
+        });
+
+        // Several animals can be selected for the bulk operations
+        animalTable.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
         // Clear animal details
         showAnimalDetails(null);
@@ -77,10 +143,35 @@ public class AnimalOverviewController {
     public void setMainApp(MainApp mainApp) {
     	this.mainApp = mainApp;
     	
-        // Add observable list data to the table
-    	animalTable.setItems(mainApp.getAnimalData());
+        // Add observable list data to the table, it follows when the list is exchanged.
+        // The table shows the animals matching the search field while typing,
+        // sorted without moving them in the data.
+    	animalTable.itemsProperty().bind(Bindings.createObjectBinding(() -> {
+    		AnimalSearchList searchList = new AnimalSearchList(new AnimalSortList(mainApp.getAnimalData()));
+    		searchList.searchTextProperty().bind(searchField.textProperty());
+    		return searchList;
+    	}, mainApp.animalDataProperty()));
     }
     
+    /**
+     * Sorts the shown animals by the sort order of the table.
+     */
+    private void sortAnimals() {
+        List<TableColumn<Animal, ?>> sortOrder = animalTable.getSortOrder();
+        if (sortOrder.isEmpty() || !(animalTable.getItems() instanceof AnimalSearchList)) {
+            return;
+        }
+        AnimalSortKeys.Field[] fields = new AnimalSortKeys.Field[sortOrder.size()];
+        boolean[] descending = new boolean[sortOrder.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = sortFields.get(sortOrder.get(i));
+            descending[i] = sortOrder.get(i).getSortType() == TableColumn.SortType.DESCENDING;
+        }
+        long start = System.nanoTime();
+        ((AnimalSearchList) animalTable.getItems()).sort(fields, descending);
+        MetricsRegistry.getDefault().timer("table.sort").recordSince(start);
+    }
+
     /**
      * Fills all text fields to show details about the animal.
      * If the specified animal is null, all text fields are cleared.
@@ -98,6 +189,8 @@ public class AnimalOverviewController {
     		
     		bestelldatumLabel.setText(DateUtil.format(animal.getBestelldatum()));
     		// bestelldatumLabel.setText(...);
+    		tagesverbrauchLabel.setText(Double.toString(animal.getTagesverbrauch()));
+    		lieferfristLabel.setText(Integer.toString(animal.getLieferfrist()));
     	} else {
     		// Animal is null, remove all the text.
     		tierArtLabel.setText("");
@@ -105,6 +198,8 @@ public class AnimalOverviewController {
     		aktuellerBestandLabel.setText("");
     		mengeneinheitLabel.setText("");
     		bestellungnotwendigLabel.setText("");
+    		tagesverbrauchLabel.setText("");
+    		lieferfristLabel.setText("");
     	}
     }
     /**
@@ -112,19 +207,142 @@ public class AnimalOverviewController {
      */
     @FXML
     private void handleDeleteAnimal() {
-    	int selectedIndex = animalTable.getSelectionModel().getSelectedIndex();
-    	if (selectedIndex >= 0) {
-    		animalTable.getItems().remove(selectedIndex);
+    	int[] rows = getSelectedRows();
+    	if (rows.length > 0) {
+    		// All selected animals go with one change
+    		mainApp.removeAnimals(rows);
     	} else {
-    		// Nothing selected.
-    		Alert alert = new Alert(AlertType.WARNING);
-            alert.initOwner(mainApp.getPrimaryStage());
-            alert.setTitle("Keine Auswahl");
-            alert.setHeaderText("Kein Tier ausgewählt");
-            alert.setContentText("Bitte Tier auswählen");
-
-            alert.showAndWait();
+    		showNoSelection();
+    	}
+    }
+    
+    /**
+     * Called when the user chooses to set the feed type of the selected
+     * animals.
+     */
+    @FXML
+    private void handleBulkFutterArt() {
+    	int[] rows = getSelectedRows();
+    	if (rows.length == 0) {
+    		showNoSelection();
+    		return;
     	}
+    	TextInputDialog dialog = new TextInputDialog();
+    	dialog.initOwner(mainApp.getPrimaryStage());
+    	dialog.setTitle("Futterart setzen");
+    	dialog.setHeaderText(rows.length + " Tiere ausgewählt");
+    	dialog.setContentText("Futterart:");
+    	Optional<String> result = dialog.showAndWait();
+    	if (result.isPresent() && !result.get().trim().isEmpty()) {
+    		String futterArt = Animal.FUTTER_ARTEN.intern(result.get().trim());
+    		mainApp.editAnimals("Futterart setzen", rows, animal -> animal.setFutterArt(futterArt));
+    	}
+    }
+    
+    /**
+     * Called when the user chooses to adjust the stock of the selected
+     * animals, either by an amount like "-5" or by a percentage like "+10%".
+     */
+    @FXML
+    private void handleBulkBestand() {
+    	int[] rows = getSelectedRows();
+    	if (rows.length == 0) {
+    		showNoSelection();
+    		return;
+    	}
+    	TextInputDialog dialog = new TextInputDialog();
+    	dialog.initOwner(mainApp.getPrimaryStage());
+    	dialog.setTitle("Bestand anpassen");
+    	dialog.setHeaderText(rows.length + " Tiere ausgewählt");
+    	dialog.setContentText("Änderung (z.B. +10, -5 oder -20%):");
+    	Optional<String> result = dialog.showAndWait();
+    	if (!result.isPresent()) {
+    		return;
+    	}
+    	DoubleUnaryOperator adjustment = parseAdjustment(result.get());
+    	if (adjustment == null) {
+    		Alert alert = new Alert(AlertType.ERROR);
+    		alert.initOwner(mainApp.getPrimaryStage());
+    		alert.setTitle("Fehlerhafte Eingaben");
+    		alert.setHeaderText("Bitte fehlerhafte Eingaben korrigieren");
+    		alert.setContentText("Ungültige Änderung '" + result.get() + "' (muss eine Zahl oder ein Prozentwert sein)!");
+    		alert.showAndWait();
+    		return;
+    	}
+    	mainApp.editAnimals("Bestand anpassen", rows,
+    			animal -> animal.setAktuellerBestand(adjustment.applyAsDouble(animal.getAktuellerBestand())));
+    }
+    
+    /**
+     * Called when the user chooses to set the order date of the selected
+     * animals.
+     */
+    @FXML
+    private void handleBulkBestelldatum() {
+    	int[] rows = getSelectedRows();
+    	if (rows.length == 0) {
+    		showNoSelection();
+    		return;
+    	}
+    	DatePicker datePicker = new DatePicker(LocalDate.now());
+    	Dialog<LocalDate> dialog = new Dialog<>();
+    	dialog.initOwner(mainApp.getPrimaryStage());
+    	dialog.setTitle("Bestelldatum setzen");
+    	dialog.setHeaderText(rows.length + " Tiere ausgewählt");
+    	dialog.getDialogPane().setContent(datePicker);
+    	dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+    	dialog.setResultConverter(button -> button == ButtonType.OK ? datePicker.getValue() : null);
+    	Optional<LocalDate> result = dialog.showAndWait();
+    	if (result.isPresent()) {
+    		LocalDate bestelldatum = result.get();
+    		mainApp.editAnimals("Bestelldatum setzen", rows, animal -> animal.setBestelldatum(bestelldatum));
+    	}
+    }
+    
+    /**
+     * Returns the rows of the selected animals in the data, in ascending order.
+     */
+    private int[] getSelectedRows() {
+    	List<Integer> indices = animalTable.getSelectionModel().getSelectedIndices();
+    	AnimalSearchList items = (AnimalSearchList) animalTable.getItems();
+    	// The table shows the sorted search result, its indices are mapped to rows of the data
+    	return indices.stream()
+    			.filter(index -> index >= 0)
+    			.mapToInt(index -> items.getSourceIndexFor(mainApp.getAnimalData(), index))
+    			.sorted()
+    			.distinct()
+    			.toArray();
+    }
+    
+    /**
+     * Parses a stock adjustment, an amount to add like "+10" or "-5", or a
+     * percentage like "-20%". The stock never drops below 0.
+     * 
+     * @return the adjustment, or null if the text is no valid adjustment
+     */
+    private static DoubleUnaryOperator parseAdjustment(String text) {
+    	String value = text.trim().replace(',', '.');
+    	try {
+    		if (value.endsWith("%")) {
+    			double factor = 1 + Double.parseDouble(value.substring(0, value.length() - 1).trim()) / 100;
+    			return bestand -> Math.max(0, bestand * factor);
+    		}
+    		double delta = Double.parseDouble(value);
+    		return bestand -> Math.max(0, bestand + delta);
+    	} catch (NumberFormatException e) {
+    		return null;
+    	}
+    }
+    
+    private void showNoSelection() {
+    	// Nothing selected.
+    	Alert alert = new Alert(AlertType.WARNING);
+    	alert.initOwner(mainApp.getPrimaryStage());
+    	alert.setTitle("Keine Auswahl");
+    	alert.setHeaderText("Kein Tier ausgewählt");
+    	alert.setContentText("Bitte Tier auswählen");
+    	
+    	alert.showAndWait();
     }
     
     /**
@@ -136,7 +354,7 @@ public class AnimalOverviewController {
         Animal tempAnimal = new Animal();
         boolean okClicked = mainApp.showAnimalEditDialog(tempAnimal);
         if (okClicked) {
-            mainApp.getAnimalData().add(tempAnimal);
+            mainApp.addAnimal(tempAnimal);
         }
     }
     
@@ -0,0 +1,106 @@
+package ch.animal.view;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.animal.diagnostics.MetricsRegistry;
+import ch.animal.diagnostics.MetricsRegistry.ErrorRecord;
+import ch.animal.diagnostics.MetricsRegistry.Metric;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.fxml.FXML;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextArea;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
+
+/**
+ * Window showing the metrics and the last errors of the application, see
+ * {@link MetricsRegistry}. Both can be exported to a text file.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+public class DiagnosticsController {
+
+    @FXML
+    private TableView<Metric> metricTable;
+    @FXML
+    private TableColumn<Metric, String> nameColumn;
+    @FXML
+    private TableColumn<Metric, String> valueColumn;
+    @FXML
+    private TextArea errorArea;
+
+    private Stage stage;
+    private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+
+    /**
+     * Initializes the controller class. This method is automatically called
+     * after the fxml file has been loaded.
+     */
+    @FXML
+    private void initialize() {
+        nameColumn.setCellValueFactory(cellData -> new ReadOnlyStringWrapper(cellData.getValue().getName()));
+        valueColumn.setCellValueFactory(cellData -> new ReadOnlyStringWrapper(cellData.getValue().getDescription()));
+    }
+
+    /**
+     * Sets the stage of this window.
+     *
+     * @param stage the stage
+     */
+    public void setStage(Stage stage) {
+        this.stage = stage;
+    }
+
+    /**
+     * Shows the current values of the registry.
+     */
+    @FXML
+    public void handleRefresh() {
+        metricTable.setItems(FXCollections.observableArrayList(metrics.getMetrics()));
+        StringBuilder text = new StringBuilder();
+        for (ErrorRecord error : metrics.getErrors()) {
+            text.append(error.getTime()).append(' ').append(error.getOperation()).append('\n');
+            text.append(error.getStackTrace()).append('\n');
+        }
+        errorArea.setText(text.length() > 0 ? text.toString() : "Keine Fehler");
+    }
+
+    /**
+     * Lets the user choose a file and writes the metrics and errors into it.
+     */
+    @FXML
+    private void handleExport() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text files (*.txt)", "*.txt"));
+        fileChooser.setInitialFileName("animalfeeding-diagnostics.txt");
+        File file = fileChooser.showSaveDialog(stage);
+        if (file == null) {
+            return;
+        }
+        try {
+            metrics.export(file.toPath());
+        } catch (IOException e) {
+            metrics.recordError("diagnostics", e);
+            Alert alert = new Alert(AlertType.ERROR);
+            alert.initOwner(stage);
+            alert.setTitle("Error");
+            alert.setHeaderText("Could not export diagnostics");
+            alert.setContentText("Could not write file:\n" + file.getPath());
+            alert.showAndWait();
+        }
+    }
+
+    /**
+     * Closes the window.
+     */
+    @FXML
+    private void handleClose() {
+        stage.close();
+    }
+}
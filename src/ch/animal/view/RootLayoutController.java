@@ -1,16 +1,37 @@
 package ch.animal.view;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import javafx.stage.WindowEvent;
 import javafx.scene.control.ButtonBar;
 import ch.animal.MainApp;
+import ch.animal.diagnostics.MetricsRegistry;
+import ch.animal.model.AnimalMerge;
+import ch.animal.persistence.AnimalExportFormat;
+import ch.animal.persistence.AnimalFileFormat;
 
 /**
  * The controller for the root layout. The root layout provides the basic
@@ -21,6 +42,20 @@ import ch.animal.MainApp;
  */
 public class RootLayoutController {
 	
+    @FXML
+    private HBox statusBar;
+    @FXML
+    private ProgressBar progressBar;
+    @FXML
+    private Label statusLabel;
+    @FXML
+    private MenuItem undoMenuItem;
+    @FXML
+    private MenuItem redoMenuItem;
+    
+    // Background operation shown in the status bar
+    private Worker<?> shownWorker;
+	
     // Reference to the main application
     private MainApp mainApp;
 
@@ -33,8 +68,60 @@ public class RootLayoutController {
         this.mainApp = mainApp;
         mainApp.getPrimaryStage().setOnCloseRequest((WindowEvent we) -> 
         {
+            // handleExit decides itself when to exit, e.g. after saving
+            we.consume();
             this.handleExit();
         });
+        
+        // The menu tells what is undone or redone
+        bindUndoItem(undoMenuItem, "Rückgängig", mainApp.getUndoHistory().undoDescriptionProperty());
+        bindUndoItem(redoMenuItem, "Wiederholen", mainApp.getUndoHistory().redoDescriptionProperty());
+    }
+    
+    private static void bindUndoItem(MenuItem item, String text, ReadOnlyStringProperty description) {
+        item.disableProperty().bind(description.isNull());
+        item.textProperty().bind(Bindings.when(description.isNull())
+                .then(text)
+                .otherwise(Bindings.concat(text, ": ", description)));
+    }
+    
+    /**
+     * Shows the progress of a background operation in the status bar. The
+     * status bar is hidden again as soon as the operation is finished.
+     * 
+     * @param worker the running or scheduled background operation
+     */
+    public void showProgress(Worker<?> worker) {
+        shownWorker = worker;
+        progressBar.progressProperty().bind(worker.progressProperty());
+        statusLabel.textProperty().bind(worker.messageProperty());
+        statusBar.setManaged(true);
+        statusBar.setVisible(true);
+        
+        worker.stateProperty().addListener((observable, oldState, newState) -> {
+            if (newState == Worker.State.SUCCEEDED || newState == Worker.State.FAILED
+                    || newState == Worker.State.CANCELLED) {
+                if (shownWorker != worker) {
+                    // Another operation is shown meanwhile
+                    return;
+                }
+                shownWorker = null;
+                progressBar.progressProperty().unbind();
+                statusLabel.textProperty().unbind();
+                statusBar.setVisible(false);
+                statusBar.setManaged(false);
+            }
+        });
+    }
+    
+    /**
+     * Cancels the background operation shown in the status bar.
+     */
+    @FXML
+    private void handleCancelTask() {
+        if (shownWorker != null) {
+            shownWorker.cancel();
+        }
     }
     
     /**
@@ -42,8 +129,7 @@ public class RootLayoutController {
      */
     @FXML
     private void handleNew() {
-        mainApp.getAnimalData().clear();
-        mainApp.setAnimalFilePath(null);
+        mainApp.newAnimalData();
     }
     
     /**
@@ -51,32 +137,91 @@ public class RootLayoutController {
      */
     @FXML
     private void handleOpen() {
-        FileChooser fileChooser = new FileChooser();
-
-        // Set extension filter
-        FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter(
-                "XML files (*.xml)", "*.xml");
-        fileChooser.getExtensionFilters().add(extFilter);
-
         // Show open file dialog
-        File file = fileChooser.showOpenDialog(mainApp.getPrimaryStage());
+        File file = animalFileChooser().showOpenDialog(mainApp.getPrimaryStage());
 
         if (file != null) {
             mainApp.loadAnimalDataFromFile(file);
         }
     }
     
+    /**
+     * Lets the user select several animal files and the rules for animals
+     * found in more than one of them, then replaces the animal data by the
+     * merged files.
+     */
+    @FXML
+    private void handleMerge() {
+        List<File> files = animalFileChooser().showOpenMultipleDialog(mainApp.getPrimaryStage());
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+        
+        ComboBox<AnimalMerge.StockRule> stockRule = new ComboBox<>(
+                FXCollections.observableArrayList(AnimalMerge.StockRule.values()));
+        stockRule.setValue(AnimalMerge.StockRule.SUM);
+        ComboBox<AnimalMerge.DateRule> dateRule = new ComboBox<>(
+                FXCollections.observableArrayList(AnimalMerge.DateRule.values()));
+        dateRule.setValue(AnimalMerge.DateRule.LATEST);
+        
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Bestand"), stockRule);
+        grid.addRow(1, new Label("Bestelldatum"), dateRule);
+        
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.initOwner(mainApp.getPrimaryStage());
+        dialog.setTitle("Dateien zusammenführen");
+        dialog.setHeaderText(files.size() + " Dateien ausgewählt. Gleiche Tier- und Futterarten werden zusammengefasst.");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        Optional<ButtonType> result = dialog.showAndWait();
+        if (result.isPresent() && result.get() == ButtonType.OK) {
+            mainApp.mergeAnimalFiles(files, stockRule.getValue(), dateRule.getValue());
+        }
+    }
+    
+    /**
+     * Creates a file chooser for opening animal files, filtering all
+     * supported formats first.
+     */
+    private static FileChooser animalFileChooser() {
+        FileChooser fileChooser = new FileChooser();
+
+        // Set extension filters, all supported formats first
+        List<String> allExtensions = new ArrayList<>();
+        for (AnimalFileFormat format : AnimalFileFormat.values()) {
+            allExtensions.add("*" + format.getExtension());
+        }
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                "Animal files", allExtensions));
+        for (AnimalFileFormat format : AnimalFileFormat.values()) {
+            fileChooser.getExtensionFilters().add(extensionFilter(format));
+        }
+        return fileChooser;
+    }
+    
     /**
      * Saves the file to the animal file that is currently open. If there is no
      * open file, the "save as" dialog is shown.
      */
     @FXML
     private void handleSave() {
+        save();
+    }
+    
+    /**
+     * Saves to the open animal file or asks for a file if there is none.
+     * 
+     * @return the running save, or null if the user did not choose a file
+     */
+    private Task<Void> save() {
         File animalFile = mainApp.getAnimalFilePath();
         if (animalFile != null) {
-            mainApp.saveAnimalDataToFile(animalFile);
+            return mainApp.saveAnimalDataToFile(animalFile);
         } else {
-            handleSaveAs();
+            return saveAs();
         }
     }
     
@@ -85,25 +230,101 @@ public class RootLayoutController {
      */
     @FXML
     private void handleSaveAs() {
+        saveAs();
+    }
+    
+    /**
+     * Lets the user choose a file and saves to it.
+     * 
+     * @return the running save, or null if the user did not choose a file
+     */
+    private Task<Void> saveAs() {
         FileChooser fileChooser = new FileChooser();
 
-        // Set extension filter
-        FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter(
-                "XML files (*.xml)", "*.xml");
-        fileChooser.getExtensionFilters().add(extFilter);
+        // Set extension filters, one per format
+        Map<FileChooser.ExtensionFilter, AnimalFileFormat> formats = new HashMap<>();
+        for (AnimalFileFormat format : AnimalFileFormat.values()) {
+            FileChooser.ExtensionFilter extFilter = extensionFilter(format);
+            formats.put(extFilter, format);
+            fileChooser.getExtensionFilters().add(extFilter);
+        }
 
         // Show save file dialog
         File file = fileChooser.showSaveDialog(mainApp.getPrimaryStage());
 
         if (file != null) {
-            // Make sure it has the correct extension
-            if (!file.getPath().endsWith(".xml")) {
-                file = new File(file.getPath() + ".xml");
+            // Make sure it has the extension of the chosen format
+            AnimalFileFormat format = formats.getOrDefault(
+                    fileChooser.getSelectedExtensionFilter(), AnimalFileFormat.XML);
+            if (!format.matches(file)) {
+                file = new File(file.getPath() + format.getExtension());
+            }
+            return mainApp.saveAnimalDataToFile(file);
+        }
+        return null;
+    }
+    
+    /**
+     * Lets the user choose a file and a format and exports the animals to it.
+     */
+    @FXML
+    private void handleExport() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Exportieren");
+
+        // Set extension filters, one per format
+        Map<FileChooser.ExtensionFilter, AnimalExportFormat> formats = new HashMap<>();
+        for (AnimalExportFormat format : AnimalExportFormat.values()) {
+            FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter(
+                    format.getDescription(), "*" + format.getExtension());
+            formats.put(extFilter, format);
+            fileChooser.getExtensionFilters().add(extFilter);
+        }
+
+        File file = fileChooser.showSaveDialog(mainApp.getPrimaryStage());
+
+        if (file != null) {
+            // Make sure it has the extension of the chosen format
+            AnimalExportFormat format = formats.getOrDefault(
+                    fileChooser.getSelectedExtensionFilter(), AnimalExportFormat.CSV);
+            if (!format.matches(file)) {
+                file = new File(file.getPath() + format.getExtension());
             }
-            mainApp.saveAnimalDataToFile(file);
+            mainApp.exportAnimalData(file, format);
         }
     }
     
+    /**
+     * Creates the file chooser filter of the given format.
+     */
+    private static FileChooser.ExtensionFilter extensionFilter(AnimalFileFormat format) {
+        return new FileChooser.ExtensionFilter(format.getDescription(), "*" + format.getExtension());
+    }
+    
+    /**
+     * Undoes the last change of the animals.
+     */
+    @FXML
+    private void handleUndo() {
+        mainApp.undo();
+    }
+    
+    /**
+     * Redoes the last undone change of the animals.
+     */
+    @FXML
+    private void handleRedo() {
+        mainApp.redo();
+    }
+    
+    /**
+     * Opens the window with the timings and errors of the application.
+     */
+    @FXML
+    private void handleDiagnostics() {
+        mainApp.showDiagnostics();
+    }
+    
     /**
      * Opens an about dialog of the authors.
      */
@@ -133,13 +354,15 @@ public class RootLayoutController {
 	    		rt.exec("open  " + url);
 	    	}
     	} catch (Exception ex) {
+    		MetricsRegistry.getDefault().recordError("documentation", ex);
     		ex.printStackTrace();
     	}
     }
     
     
     /**
-     * Closes the application after asking if the data should be saved
+     * Closes the application after asking if the data should be saved. If the
+     * data is saved, the application is closed once the save has succeeded.
      */
     @FXML
     private void handleExit() {
@@ -153,7 +376,13 @@ public class RootLayoutController {
             		speichern, verwerfen);            
             Optional<ButtonType> result = alert.showAndWait();
             if (result.orElse(verwerfen) == speichern) {
-            	handleSave();
+            	Task<Void> saving = save();
+            	if (saving != null) {
+            		// Stay open if saving fails, so the data is not lost
+            		saving.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED,
+            				event -> System.exit(0));
+            		return;
+            	}
             }    		
     	}
     	
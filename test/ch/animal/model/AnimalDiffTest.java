@@ -0,0 +1,201 @@
+package ch.animal.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that applying the {@link AnimalDiff} of two versions to a list of
+ * the first version turns it into the second one.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class AnimalDiffTest {
+
+    // More rows than the diff searches directly
+    private static final int BLOCK = 1500;
+
+    private final Random random = new Random(7);
+    private long nextKey = 1;
+
+    @Test
+    void findsNoDifferencesBetweenEqualVersions() {
+        List<Animal> animals = animals(100);
+
+        AnimalDiff diff = AnimalDiff.compute(store(animals), store(animals));
+
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    void changesOnlyTheRowsWithOtherValues() {
+        List<Animal> current = animals(100);
+        List<Animal> updated = copies(current);
+        updated.get(3).setAktuellerBestand(99);
+        updated.get(50).setBestelldatum(null);
+
+        AnimalDiff diff = assertAppliesTo(current, updated, false);
+
+        assertEquals(2, diff.getChangedCount());
+        assertEquals(2, diff.getRowCount());
+    }
+
+    @Test
+    void insertsAndRemovesRows() {
+        List<Animal> current = animals(200);
+        List<Animal> updated = copies(current);
+        updated.remove(150);
+        updated.subList(20, 30).clear();
+        updated.add(0, animal(nextKey++));
+        updated.add(100, animal(nextKey++));
+        updated.add(animal(nextKey++));
+
+        AnimalDiff diff = assertAppliesTo(current, updated, false);
+
+        assertEquals(11, diff.getRemovedCount());
+        assertEquals(3, diff.getAddedCount());
+    }
+
+    @Test
+    void movesABlockLargerThanTheLookahead() {
+        List<Animal> current = animals(3 * BLOCK);
+        List<Animal> updated = copies(current);
+        List<Animal> block = new ArrayList<>(updated.subList(0, BLOCK));
+        updated.subList(0, BLOCK).clear();
+        updated.addAll(BLOCK, block);
+
+        AnimalDiff diff = assertAppliesTo(current, updated, false);
+
+        // Only the moved block is removed and added again, the other rows are kept
+        assertEquals(BLOCK, diff.getRemovedCount());
+        assertEquals(BLOCK, diff.getAddedCount());
+    }
+
+    @Test
+    void identifiesRowsByKey() {
+        List<Animal> current = animals(100);
+        List<Animal> updated = copies(current);
+        // A new animal type is a change of the row with this key, not another row
+        updated.get(10).setTierArt("Lama");
+        // Rows of the same animal and feed type are told apart by their key
+        updated.get(20).setTierArt(updated.get(21).getTierArt());
+        updated.get(20).setFutterArt(updated.get(21).getFutterArt());
+        updated.remove(60);
+
+        AnimalDiff diff = assertAppliesTo(current, updated, true);
+
+        assertEquals(2, diff.getChangedCount());
+        assertEquals(1, diff.getRemovedCount());
+        assertEquals(0, diff.getAddedCount());
+    }
+
+    @Test
+    void appliesRandomEdits() {
+        for (boolean byKey : new boolean[] { false, true }) {
+            for (int round = 0; round < 20; round++) {
+                List<Animal> current = animals(random.nextInt(2 * BLOCK));
+                List<Animal> updated = copies(current);
+                for (int edit = random.nextInt(20); edit > 0; edit--) {
+                    edit(updated);
+                }
+                assertAppliesTo(current, updated, byKey);
+            }
+        }
+    }
+
+    private void edit(List<Animal> animals) {
+        int row = animals.isEmpty() ? 0 : random.nextInt(animals.size());
+        switch (random.nextInt(5)) {
+        case 0:
+            animals.add(row, animal(nextKey++));
+            break;
+        case 1:
+            if (!animals.isEmpty()) {
+                animals.subList(row, Math.min(animals.size(), row + random.nextInt(BLOCK))).clear();
+            }
+            break;
+        case 2:
+            if (!animals.isEmpty()) {
+                animals.get(row).setAktuellerBestand(random.nextInt(100));
+            }
+            break;
+        case 3:
+            if (!animals.isEmpty()) {
+                animals.get(row).setFutterArt("Futter " + random.nextInt(10));
+            }
+            break;
+        default:
+            // A block moved elsewhere
+            int to = Math.min(animals.size(), row + random.nextInt(BLOCK));
+            List<Animal> block = new ArrayList<>(animals.subList(row, to));
+            animals.subList(row, to).clear();
+            animals.addAll(animals.isEmpty() ? 0 : random.nextInt(animals.size() + 1), block);
+            break;
+        }
+    }
+
+    /**
+     * Applies the diff of the versions to a list of the current version and
+     * checks that it holds the updated version afterwards.
+     */
+    private static AnimalDiff assertAppliesTo(List<Animal> current, List<Animal> updated, boolean byKey) {
+        AnimalRowList<AnimalStore> list = new AnimalRowList<>(store(current));
+        AnimalStore updatedStore = store(updated);
+
+        AnimalDiff diff = AnimalDiff.compute(list.getStore(), updatedStore, byKey);
+        diff.apply(list);
+
+        assertEquals(updatedStore.size(), list.size());
+        for (int row = 0; row < updatedStore.size(); row++) {
+            assertEquals(describe(updatedStore.read(row)), describe(list.getStore().read(row)), "Row " + row);
+            if (byKey) {
+                assertEquals(updatedStore.getKey(row), list.getStore().getKey(row), "Key of row " + row);
+            }
+        }
+        return diff;
+    }
+
+    private static String describe(Animal animal) {
+        return animal.getTierArt() + "|" + animal.getFutterArt() + "|" + animal.getAktuellerBestand() + "|"
+                + animal.getMengeneinheit() + "|" + animal.getBestellungnotwendig() + "|"
+                + animal.getBestelldatum() + "|" + animal.getTagesverbrauch() + "|" + animal.getLieferfrist();
+    }
+
+    private List<Animal> animals(int count) {
+        List<Animal> animals = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            animals.add(animal(nextKey++));
+        }
+        return animals;
+    }
+
+    private Animal animal(long key) {
+        // Animal and feed type together identify the row
+        Animal animal = new Animal("Tier " + key, "Futter " + key % 7);
+        animal.setKey(key);
+        animal.setAktuellerBestand(key % 50);
+        animal.setBestelldatum(LocalDate.of(2024, 1, 1).plusDays(key % 30));
+        return animal;
+    }
+
+    private static List<Animal> copies(List<Animal> animals) {
+        List<Animal> copies = new ArrayList<>(animals.size());
+        for (Animal animal : animals) {
+            copies.add(animal.copy());
+        }
+        return copies;
+    }
+
+    private static AnimalStore store(List<Animal> animals) {
+        AnimalStore store = new AnimalStore(animals.size());
+        store.addAll(animals);
+        return store;
+    }
+}
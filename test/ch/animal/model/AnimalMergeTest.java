@@ -0,0 +1,88 @@
+package ch.animal.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+import ch.animal.model.AnimalMerge.DateRule;
+import ch.animal.model.AnimalMerge.StockRule;
+
+/**
+ * Tests which order date and order need {@link AnimalMerge} keeps.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class AnimalMergeTest {
+
+    private static final LocalDate MARCH = LocalDate.of(2024, 3, 1);
+    private static final LocalDate APRIL = LocalDate.of(2024, 4, 1);
+
+    @Test
+    void takesTheLatestDateWithItsOrderNeed() {
+        Animal merged = merge(DateRule.LATEST, animal(MARCH, "Nein"), animal(APRIL, "Ja"));
+
+        assertEquals(APRIL, merged.getBestelldatum());
+        assertEquals("Ja", merged.getBestellungnotwendig());
+    }
+
+    @Test
+    void takesTheEarliestDateWithItsOrderNeed() {
+        Animal merged = merge(DateRule.EARLIEST, animal(APRIL, "Nein"), animal(MARCH, "Ja"));
+
+        assertEquals(MARCH, merged.getBestelldatum());
+        assertEquals("Ja", merged.getBestellungnotwendig());
+    }
+
+    @Test
+    void takesADateOverNoneWithItsOrderNeed() {
+        Animal merged = merge(DateRule.LATEST, animal(null, "Nein"), animal(MARCH, "Ja"));
+
+        assertEquals(MARCH, merged.getBestelldatum());
+        assertEquals("Ja", merged.getBestellungnotwendig());
+    }
+
+    @Test
+    void keepsAFirstSourceWithoutDate() {
+        Animal merged = merge(DateRule.FIRST, animal(null, "Nein"), animal(MARCH, "Ja"));
+
+        assertNull(merged.getBestelldatum());
+        assertEquals("Nein", merged.getBestellungnotwendig());
+    }
+
+    @Test
+    void keepsTheFirstDateAcrossPartialMerges() {
+        AnimalMerge first = new AnimalMerge(StockRule.SUM, DateRule.FIRST);
+        first.add(animal(APRIL, "Nein"));
+        AnimalMerge second = new AnimalMerge(StockRule.SUM, DateRule.FIRST);
+        second.add(animal(MARCH, "Ja"));
+
+        first.addAll(second);
+        Animal merged = first.toStore().read(0);
+
+        assertEquals(APRIL, merged.getBestelldatum());
+        assertEquals("Nein", merged.getBestellungnotwendig());
+        assertEquals(20, merged.getAktuellerBestand());
+        assertEquals(1, first.getMergedCount());
+    }
+
+    private static Animal merge(DateRule dateRule, Animal... sources) {
+        AnimalMerge merge = new AnimalMerge(StockRule.SUM, dateRule);
+        for (Animal source : sources) {
+            merge.add(source);
+        }
+        assertEquals(1, merge.size());
+        return merge.toStore().read(0);
+    }
+
+    private static Animal animal(LocalDate bestelldatum, String bestellungnotwendig) {
+        Animal animal = new Animal("Kuh", "Heu");
+        animal.setAktuellerBestand(10);
+        animal.setBestelldatum(bestelldatum);
+        animal.setBestellungnotwendig(bestellungnotwendig);
+        return animal;
+    }
+}
@@ -0,0 +1,210 @@
+package ch.animal.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javafx.collections.ObservableList;
+
+/**
+ * Tests that {@link AnimalSearchList} shows the same animals as a scan of
+ * its list for the search text, also after the list has changed.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class AnimalSearchListTest {
+
+    private static final String[] TIER_ARTEN = { "Kuh", "Pferd", "Schaf", "Ziege", "Huhn" };
+    private static final String[] FUTTER_ARTEN = { "Heu", "Hafer", "Gras", "Körner", "Silage", "Rüben", "Stroh" };
+
+    // More than the index updates in place
+    private static final int ROWS = 300;
+
+    private AnimalRowList<AnimalStore> animals;
+    private AnimalSearchList searchList;
+
+    @BeforeEach
+    void setUp() {
+        AnimalStore store = new AnimalStore();
+        for (int row = 0; row < ROWS; row++) {
+            store.add(animal(row));
+        }
+        animals = new AnimalRowList<>(store);
+        searchList = new AnimalSearchList(animals);
+    }
+
+    @Test
+    void findsTheAnimalsOfAScan() {
+        for (String text : new String[] { "", "h", "he", "heu", "HAFER", "  gras ", "erd", "rü", "stroh", "x" }) {
+            searchList.setSearchText(text);
+            assertMatchesScan();
+        }
+    }
+
+    @Test
+    void findsAnimalsChangedBeforeTheFirstSearch() {
+        // The index is only built by the first search
+        animals.add(0, new Animal("Lama", "Heu"));
+        animals.removeRows(new int[] { 5, 6, 100 });
+        animals.updateRows(new int[] { 10 }, (animal, row) -> animal.setFutterArt("Luzerne"));
+        assertMatchesScan();
+
+        for (String text : new String[] { "la", "luz", "" }) {
+            searchList.setSearchText(text);
+            assertMatchesScan();
+        }
+        animals.add(new Animal("Alpaka", "Luzerne"));
+        searchList.setSearchText("luz");
+        assertMatchesScan();
+    }
+
+    @Test
+    void followsAddedAnimals() {
+        searchList.setSearchText("ha");
+        animals.add(0, new Animal("Kuh", "Hafer"));
+        assertMatchesScan();
+        animals.add(150, new Animal("Schaf", "Heu"));
+        assertMatchesScan();
+        animals.add(new Animal("Huhn", "Hafer"));
+        assertMatchesScan();
+
+        AnimalStore values = new AnimalStore();
+        int[] rows = new int[100];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i * 3;
+            values.add(animal(i + 7));
+        }
+        animals.insertRows(rows, values);
+        assertMatchesScan();
+    }
+
+    @Test
+    void followsRemovedAnimals() {
+        searchList.setSearchText("ha");
+        animals.remove(0);
+        assertMatchesScan();
+        animals.remove(10, 40);
+        assertMatchesScan();
+        animals.removeRows(new int[] { 3, 4, 20 });
+        assertMatchesScan();
+
+        int[] rows = new int[100];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i * 2 + 1;
+        }
+        animals.removeRows(rows);
+        assertMatchesScan();
+    }
+
+    @Test
+    void followsUpdatedAnimals() {
+        searchList.setSearchText("hafer");
+        int[] rows = new int[ROWS / 5];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i * 5;
+        }
+        // Some rows start and some stop matching
+        animals.updateRows(rows, (animal, row) -> animal.setFutterArt(row % 2 == 0 ? "Hafer" : "Heu"));
+        assertMatchesScan();
+        animals.updateRows(new int[] { 1 }, (animal, row) -> animal.setTierArt("Haflinger"));
+        assertMatchesScan();
+        animals.set(2, new Animal("Pferd", "Hafer"));
+        assertMatchesScan();
+    }
+
+    @Test
+    void followsPermutedAnimals() {
+        searchList.setSearchText("ü");
+        int[] rows = new int[ROWS - 20];
+        int[] sources = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i + 10;
+            sources[i] = rows.length - 1 - i + 10;
+        }
+        animals.permute(rows, sources);
+        assertMatchesScan();
+    }
+
+    @Test
+    void followsAReplacedList() {
+        searchList.setSearchText("ha");
+        List<Animal> replaced = new ArrayList<>();
+        for (int row = 0; row < ROWS / 2; row++) {
+            replaced.add(animal(row * 7 + 3));
+        }
+        animals.setAll(replaced);
+        assertMatchesScan();
+    }
+
+    @Test
+    void setsTheShownAnimalsAmongEachOther() {
+        searchList.setSearchText("he");
+        List<Animal> shown = new ArrayList<>();
+        for (Animal animal : searchList) {
+            shown.add(animal);
+        }
+        Collections.reverse(shown);
+        List<String> expected = futterArten(shown);
+
+        searchList.setAll(shown);
+
+        assertEquals(expected, futterArten(searchList));
+        assertMatchesScan();
+    }
+
+    @Test
+    void followsTheOrderOfASortedView() {
+        AnimalSortList sortList = new AnimalSortList(animals);
+        searchList = new AnimalSearchList(sortList);
+        searchList.setSearchText("h");
+        searchList.sort(new AnimalSortKeys.Field[] { AnimalSortKeys.Field.FUTTER_ART }, new boolean[] { false });
+        assertMatchesScan();
+
+        animals.add(5, new Animal("Huhn", "Hafer"));
+        animals.removeRows(new int[] { 0, 1, 2 });
+        animals.updateRows(new int[] { 7 }, (animal, row) -> animal.setFutterArt("Heu"));
+        searchList.setSearchText("he");
+        assertMatchesScan();
+    }
+
+    /**
+     * Checks the shown animals against the animals of the list that contain
+     * the search text, in the order of the list.
+     */
+    private void assertMatchesScan() {
+        String text = searchList.getSearchText().trim().toLowerCase(Locale.ROOT);
+        ObservableList<? extends Animal> source = searchList.getSource();
+        List<Long> expected = new ArrayList<>();
+        for (Animal animal : source) {
+            if (animal.getTierArt().toLowerCase(Locale.ROOT).contains(text)
+                    || animal.getFutterArt().toLowerCase(Locale.ROOT).contains(text)) {
+                expected.add(animal.getKey());
+            }
+        }
+        List<Long> shown = new ArrayList<>();
+        for (int i = 0; i < searchList.size(); i++) {
+            shown.add(searchList.get(i).getKey());
+            assertEquals(i, searchList.getViewIndex(searchList.getSourceIndex(i)));
+        }
+        assertEquals(expected, shown);
+    }
+
+    private static List<String> futterArten(List<Animal> list) {
+        List<String> futterArten = new ArrayList<>();
+        for (Animal animal : list) {
+            futterArten.add(animal.getFutterArt());
+        }
+        return futterArten;
+    }
+
+    private static Animal animal(int i) {
+        return new Animal(TIER_ARTEN[i % TIER_ARTEN.length], FUTTER_ARTEN[i * 3 % FUTTER_ARTEN.length]);
+    }
+}
@@ -0,0 +1,175 @@
+package ch.animal.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.text.Collator;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ch.animal.model.AnimalSortKeys.Field;
+import ch.animal.util.UnitRegistry;
+
+/**
+ * Tests that {@link AnimalSortKeys} orders rows like a stable sort with a
+ * {@link Comparator} of the animals, also after the list has changed.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class AnimalSortKeysTest {
+
+    private static final String[] TIER_ARTEN = { "Kuh", "kuh", "Pferd", "Äsche", "Ziege", null };
+    private static final String[] EINHEITEN = { "Kg", "t", "g", "Liter", "Eimer", null };
+    private static final String[] BESTELLUNGEN = { "Ja", "Nein", null };
+    private static final LocalDate[] DATEN = { LocalDate.of(2024, 3, 1), LocalDate.of(2023, 12, 24), null };
+
+    private static final Field[][] FIELDS = {
+        { Field.TIER_ART },
+        { Field.AKTUELLER_BESTAND },
+        { Field.BESTELLDATUM },
+        { Field.MENGENEINHEIT, Field.BESTELLDATUM },
+        { Field.BESTELLUNG_NOTWENDIG, Field.TIER_ART, Field.AKTUELLER_BESTAND },
+        { Field.FUTTER_ART, Field.AKTUELLER_BESTAND, Field.MENGENEINHEIT, Field.TIER_ART },
+    };
+
+    private final Random random = new Random(42);
+    private final Collator collator = Collator.getInstance();
+    private AnimalRowList<AnimalStore> animals;
+    private AnimalSortKeys sortKeys;
+
+    @BeforeEach
+    void setUp() {
+        AnimalStore store = new AnimalStore();
+        for (int row = 0; row < 500; row++) {
+            store.add(randomAnimal());
+        }
+        animals = new AnimalRowList<>(store);
+        sortKeys = new AnimalSortKeys(animals);
+    }
+
+    @Test
+    void sortsAllRowsLikeAComparator() {
+        for (Field[] fields : FIELDS) {
+            assertSortsLikeAComparator(allRows(), fields, new boolean[fields.length]);
+            boolean[] descending = new boolean[fields.length];
+            Arrays.fill(descending, true);
+            assertSortsLikeAComparator(allRows(), fields, descending);
+            for (int f = 0; f < fields.length; f++) {
+                descending[f] = f % 2 == 0;
+            }
+            assertSortsLikeAComparator(allRows(), fields, descending);
+        }
+    }
+
+    @Test
+    void sortsSomeRowsInTheirGivenOrderOfTies() {
+        // Like a search result sorted again, ties keep the order they are given in
+        int[] rows = random.ints(0, animals.size()).distinct().limit(120).toArray();
+        for (Field[] fields : FIELDS) {
+            assertSortsLikeAComparator(rows, fields, new boolean[fields.length]);
+        }
+    }
+
+    @Test
+    void sortsLikeAComparatorAfterEdits() {
+        Field[] fields = { Field.MENGENEINHEIT, Field.TIER_ART, Field.AKTUELLER_BESTAND };
+        boolean[] descending = { false, true, false };
+        assertSortsLikeAComparator(allRows(), fields, descending);
+
+        animals.updateRows(new int[] { 0, 10, 20 }, (animal, row) -> {
+            // New strings are ranked again
+            animal.setTierArt("Alpaka " + row);
+            animal.setMengeneinheit("Sack");
+            animal.setAktuellerBestand(row / 10);
+        });
+        assertSortsLikeAComparator(allRows(), fields, descending);
+
+        animals.add(3, randomAnimal());
+        animals.add(randomAnimal());
+        animals.remove(7);
+        animals.removeRows(new int[] { 1, 2, 50, 51, 400 });
+        assertSortsLikeAComparator(allRows(), fields, descending);
+
+        int[] rows = allRows();
+        int[] sources = rows.clone();
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = sources.length - 1 - i;
+        }
+        animals.permute(rows, sources);
+        assertSortsLikeAComparator(allRows(), fields, descending);
+    }
+
+    private void assertSortsLikeAComparator(int[] rows, Field[] fields, boolean[] descending) {
+        Comparator<Integer> comparator = null;
+        for (int f = 0; f < fields.length; f++) {
+            Comparator<Integer> field = comparator(fields[f]);
+            if (descending[f]) {
+                field = field.reversed();
+            }
+            comparator = comparator == null ? field : comparator.thenComparing(field);
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int row : rows) {
+            expected.add(row);
+        }
+        // A stable sort as well
+        expected.sort(comparator);
+
+        int[] sorted = sortKeys.sort(rows, fields, descending);
+
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), sorted,
+                Arrays.toString(fields) + " " + Arrays.toString(descending));
+    }
+
+    private Comparator<Integer> comparator(Field field) {
+        AnimalStore store = animals.getStore();
+        Comparator<String> strings = Comparator.nullsFirst(collator::compare);
+        switch (field) {
+        case TIER_ART:
+            return Comparator.comparing(store::getTierArt, strings);
+        case FUTTER_ART:
+            return Comparator.comparing(store::getFutterArt, strings);
+        case MENGENEINHEIT:
+            return Comparator.comparing(store::getMengeneinheit, strings);
+        case BESTELLUNG_NOTWENDIG:
+            return Comparator.comparing(store::getBestellungnotwendig, strings);
+        case BESTELLDATUM:
+            return Comparator.comparing(store::getBestelldatum, Comparator.nullsFirst(Comparator.naturalOrder()));
+        case AKTUELLER_BESTAND:
+            // By the quantity in the unit's smallest step, so 0.5 g and 1 g are a tie
+            return Comparator.comparingLong(row -> {
+                UnitRegistry.Unit unit = UnitRegistry.getDefault().find(store.getMengeneinheit(row));
+                long factor = unit != null ? unit.getFactor() : UnitRegistry.UNKNOWN_FACTOR;
+                return UnitRegistry.quantity(store.getAktuellerBestand(row), factor);
+            });
+        default:
+            throw new IllegalArgumentException("Unknown field " + field);
+        }
+    }
+
+    private int[] allRows() {
+        int[] rows = new int[animals.size()];
+        Arrays.setAll(rows, row -> row);
+        return rows;
+    }
+
+    private Animal randomAnimal() {
+        Animal animal = new Animal(pick(TIER_ARTEN), random.nextBoolean() ? "Heu" : "Hafer");
+        animal.setMengeneinheit(pick(EINHEITEN));
+        animal.setAktuellerBestand(random.nextInt(40) / 2.0);
+        animal.setBestellungnotwendig(pick(BESTELLUNGEN));
+        animal.setBestelldatum(pick(DATEN));
+        return animal;
+    }
+
+    private <T> T pick(T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
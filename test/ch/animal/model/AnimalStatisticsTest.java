@@ -0,0 +1,163 @@
+package ch.animal.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the aggregates {@link AnimalStatistics} keeps up to date equal
+ * the aggregates computed again from the changed list.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class AnimalStatisticsTest {
+
+    private static final String[] FUTTER_ARTEN = { "Heu", "Hafer", "Gras", null };
+    private static final String[] EINHEITEN = { "Kg", "g", "t", "Sack", "Liter", "Eimer", null };
+    private static final String[] BESTELLUNGEN = { "Ja", "Nein", null };
+
+    private final Random random = new Random(11);
+    private AnimalRowList<AnimalStore> animals;
+    private AnimalStatistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        AnimalStore store = new AnimalStore();
+        for (int row = 0; row < 300; row++) {
+            store.add(randomAnimal());
+        }
+        animals = new AnimalRowList<>(store);
+        statistics = new AnimalStatistics(animals);
+    }
+
+    @Test
+    void addsStocksOfOneDimensionInItsDisplayUnit() {
+        AnimalStore store = new AnimalStore();
+        store.add(animal("Heu", "g", 500));
+        store.add(animal("Heu", "Sack", 2));
+        store.add(animal("Heu", "Eimer", 3));
+
+        List<String> totals = describe(new AnimalStatistics(new AnimalRowList<>(store)));
+
+        // An unknown unit keeps a total of its own
+        assertEquals(List.of("Heu 3.0 Eimer (1)", "Heu 50.5 Kg (2)"), totals);
+    }
+
+    @Test
+    void followsAddedAnimals() {
+        animals.add(randomAnimal());
+        animals.add(0, randomAnimal());
+        assertEqualsRecomputed();
+
+        AnimalStore values = new AnimalStore();
+        for (int i = 0; i < 20; i++) {
+            values.add(randomAnimal());
+        }
+        int[] rows = new int[20];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i * 7;
+        }
+        animals.insertRows(rows, values);
+        assertEqualsRecomputed();
+    }
+
+    @Test
+    void followsRemovedAnimals() {
+        animals.remove(5);
+        assertEqualsRecomputed();
+        animals.remove(100, 150);
+        assertEqualsRecomputed();
+        animals.removeRows(new int[] { 0, 1, 20, 99, 200 });
+        assertEqualsRecomputed();
+    }
+
+    @Test
+    void followsUpdatedAnimals() {
+        int[] rows = new int[60];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i * 4;
+        }
+        animals.updateRows(rows, (animal, row) -> {
+            Animal values = randomAnimal();
+            animal.setFutterArt(values.getFutterArt());
+            animal.setMengeneinheit(values.getMengeneinheit());
+            animal.setAktuellerBestand(values.getAktuellerBestand());
+            animal.setBestellungnotwendig(values.getBestellungnotwendig());
+            animal.setBestelldatum(values.getBestelldatum());
+        });
+        assertEqualsRecomputed();
+
+        animals.set(3, randomAnimal());
+        assertEqualsRecomputed();
+    }
+
+    @Test
+    void followsPermutedAndReplacedAnimals() {
+        int[] rows = new int[animals.size()];
+        int[] sources = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+            sources[i] = (i * 7) % rows.length;
+        }
+        animals.permute(rows, sources);
+        assertEqualsRecomputed();
+
+        List<Animal> replaced = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            replaced.add(randomAnimal());
+        }
+        animals.setAll(replaced);
+        assertEqualsRecomputed();
+    }
+
+    /**
+     * Compares the aggregates kept up to date with those of new statistics,
+     * which scan the list.
+     */
+    private void assertEqualsRecomputed() {
+        AnimalStatistics recomputed = new AnimalStatistics(animals);
+        try {
+            assertEquals(recomputed.getCount(), statistics.getCount());
+            assertEquals(recomputed.getReorderCount(), statistics.getReorderCount());
+            assertEquals(describe(recomputed), describe(statistics));
+            assertEquals(recomputed.getOrderHistogram(), statistics.getOrderHistogram());
+        } finally {
+            recomputed.dispose();
+        }
+    }
+
+    private static List<String> describe(AnimalStatistics statistics) {
+        List<String> totals = new ArrayList<>();
+        for (AnimalStatistics.StockTotal total : statistics.getStockTotals()) {
+            totals.add(total.getFutterArt() + " " + total.getBestand() + " " + total.getMengeneinheit()
+                    + " (" + total.getCount() + ")");
+        }
+        return totals;
+    }
+
+    private Animal randomAnimal() {
+        Animal animal = animal(pick(FUTTER_ARTEN), pick(EINHEITEN), random.nextInt(100) / 2.0);
+        animal.setBestellungnotwendig(pick(BESTELLUNGEN));
+        animal.setBestelldatum(random.nextInt(5) == 0 ? null
+                : LocalDate.of(2024, 1, 1).plusDays(random.nextInt(400)));
+        return animal;
+    }
+
+    private static Animal animal(String futterArt, String mengeneinheit, double bestand) {
+        Animal animal = new Animal("Kuh", futterArt);
+        animal.setMengeneinheit(mengeneinheit);
+        animal.setAktuellerBestand(bestand);
+        return animal;
+    }
+
+    private <T> T pick(T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
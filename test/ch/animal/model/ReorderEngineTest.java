@@ -0,0 +1,107 @@
+package ch.animal.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javafx.collections.ListChangeListener;
+
+/**
+ * Tests that the updates written by {@link ReorderEngine} can be told from
+ * edits of the list.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class ReorderEngineTest {
+
+    private static final LocalDate TODAY = LocalDate.of(2024, 3, 1);
+
+    private final Deque<Runnable> writes = new ArrayDeque<>();
+    private final List<Boolean> writingPerUpdate = new ArrayList<>();
+    private AnimalRowList<AnimalStore> animals;
+    private ReorderEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        AnimalStore store = new AnimalStore();
+        Animal animal = new Animal("Kuh", "Heu");
+        animal.setAktuellerBestand(10);
+        animal.setTagesverbrauch(1);
+        animal.setLieferfrist(2);
+        // Loaded rows keep their order date, this one gets it computed
+        animal.setBestelldatum(null);
+        store.add(animal);
+        animals = new AnimalRowList<>(store);
+        engine = new ReorderEngine(animals, TODAY, writes::add);
+        animals.addListener((ListChangeListener<Animal>) c -> {
+            while (c.next()) {
+                if (c.wasUpdated()) {
+                    writingPerUpdate.add(engine.isWriting());
+                }
+            }
+        });
+    }
+
+    @Test
+    void writesTheOrderDateAsItsOwnUpdate() {
+        runWrites();
+
+        assertEquals(List.of(true), writingPerUpdate);
+        assertEquals(TODAY.plusDays(8), animals.getStore().getBestelldatum(0));
+        assertFalse(engine.isWriting());
+    }
+
+    @Test
+    void reportsAnEditAsNoWrite() {
+        runWrites();
+        writingPerUpdate.clear();
+
+        animals.updateRows(new int[] { 0 }, (animal, row) -> animal.setAktuellerBestand(4));
+        runWrites();
+
+        assertEquals(List.of(false, true), writingPerUpdate);
+        assertEquals(TODAY.plusDays(2), animals.getStore().getBestelldatum(0));
+    }
+
+    @Test
+    void writesTheDueAnimalsOnTheNextDay() {
+        runWrites();
+        writingPerUpdate.clear();
+
+        engine.setToday(TODAY.plusDays(8));
+
+        assertEquals(List.of(true), writingPerUpdate);
+        assertEquals("Ja", animals.getStore().getBestellungnotwendig(0));
+    }
+
+    @Test
+    void writesOnlyOnceAPreparedEngineIsStarted() {
+        runWrites();
+        engine.dispose();
+        animals.updateRows(new int[] { 0 }, (animal, row) -> animal.setBestelldatum(null));
+
+        ReorderEngine prepared = ReorderEngine.prepare(animals, TODAY, writes::add);
+        assertTrue(writes.isEmpty());
+        prepared.start();
+        runWrites();
+
+        assertEquals(TODAY.plusDays(8), animals.getStore().getBestelldatum(0));
+        assertEquals(1, prepared.getScheduledCount());
+    }
+
+    private void runWrites() {
+        while (!writes.isEmpty()) {
+            writes.remove().run();
+        }
+    }
+}
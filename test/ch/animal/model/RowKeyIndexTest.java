@@ -0,0 +1,96 @@
+package ch.animal.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the {@link RowKeyIndex} of a store finds the row of every key
+ * after rows were inserted, removed and moved.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class RowKeyIndexTest {
+
+    private AnimalRowList<AnimalStore> animals;
+
+    @BeforeEach
+    void setUp() {
+        AnimalStore store = new AnimalStore();
+        for (int row = 0; row < 1000; row++) {
+            store.add(new Animal("Kuh " + row, "Heu"));
+        }
+        animals = new AnimalRowList<>(store);
+        // The index is built by the first lookup
+        assertFindsEveryRow();
+    }
+
+    @Test
+    void findsTheRowsAfterARemoval() {
+        long removedKey = animals.getStore().getKey(500);
+        animals.removeRows(new int[] { 0, 10, 500, 999 });
+        assertFindsEveryRow();
+        assertEquals(-1, animals.indexOfKey(removedKey));
+
+        animals.remove(100, 300);
+        assertFindsEveryRow();
+    }
+
+    @Test
+    void findsTheRowsAfterAnInsertion() {
+        AnimalStore values = new AnimalStore();
+        values.add(new Animal("Pferd", "Hafer"));
+        values.add(new Animal("Schaf", "Gras"));
+        animals.insertRows(new int[] { 0, 600 }, values);
+        assertFindsEveryRow();
+
+        animals.add(300, new Animal("Ziege", "Heu"));
+        assertFindsEveryRow();
+    }
+
+    @Test
+    void findsTheRowsAfterAPermutation() {
+        int[] rows = new int[500];
+        int[] sources = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = 250 + i;
+            sources[i] = 749 - i;
+        }
+        animals.permute(rows, sources);
+        assertFindsEveryRow();
+    }
+
+    @Test
+    void keepsTheKeysUnique() {
+        long usedKey = animals.getStore().getKey(3);
+        Animal copy = new Animal("Kuh", "Heu");
+        copy.setKey(usedKey);
+        animals.add(copy);
+        assertNotEquals(usedKey, animals.getStore().getKey(animals.size() - 1));
+
+        // A key freed by a removal can be taken by the animal that had it
+        Animal removed = animals.remove(3);
+        animals.add(0, removed);
+        assertEquals(usedKey, animals.getStore().getKey(0));
+        assertFindsEveryRow();
+    }
+
+    /**
+     * Checks the row found for every key against the key stored in the row.
+     */
+    private void assertFindsEveryRow() {
+        Set<Long> keys = new HashSet<>();
+        for (int row = 0; row < animals.size(); row++) {
+            long key = animals.getStore().getKey(row);
+            assertTrue(keys.add(key), "Key " + key + " is not unique");
+            assertEquals(row, animals.indexOfKey(key));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package ch.animal.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests undoing and redoing the steps recorded by {@link UndoHistory}.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class UndoHistoryTest {
+
+    private AnimalRowList<AnimalStore> animals;
+    private UndoHistory history;
+
+    @BeforeEach
+    void setUp() {
+        AnimalStore store = new AnimalStore();
+        for (String tierArt : new String[] { "Kuh", "Pferd", "Schaf", "Ziege" }) {
+            Animal animal = new Animal(tierArt, "Heu");
+            animal.setAktuellerBestand(10);
+            store.add(animal);
+        }
+        animals = new AnimalRowList<>(store);
+        history = new UndoHistory(10, 1000);
+        history.setList(animals);
+    }
+
+    @Test
+    void undoesAndRedoesARemoval() {
+        long loaded = history.getState();
+        history.record("Löschen", () -> animals.removeRows(new int[] { 1, 3 }));
+
+        assertEquals(List.of("Kuh", "Schaf"), tierArten());
+        assertEquals("Löschen", history.undoDescriptionProperty().get());
+
+        assertTrue(history.undo());
+        assertEquals(List.of("Kuh", "Pferd", "Schaf", "Ziege"), tierArten());
+        assertEquals(loaded, history.getState());
+        assertEquals("Löschen", history.redoDescriptionProperty().get());
+
+        assertTrue(history.redo());
+        assertEquals(List.of("Kuh", "Schaf"), tierArten());
+        assertNotEquals(loaded, history.getState());
+    }
+
+    @Test
+    void undoesAnAddition() {
+        history.record("Neues Tier", () -> animals.add(new Animal("Huhn", "Körner")));
+
+        assertTrue(history.undo());
+        assertEquals(List.of("Kuh", "Pferd", "Schaf", "Ziege"), tierArten());
+
+        assertTrue(history.redo());
+        assertEquals("Huhn", animals.getStore().getTierArt(4));
+        assertEquals("Körner", animals.getStore().getFutterArt(4));
+    }
+
+    @Test
+    void undoesAnEditOfSeveralRows() {
+        history.recordEdit("Bestand", new int[] { 0, 2 },
+                () -> animals.updateRows(new int[] { 0, 2 }, (animal, row) -> animal.setAktuellerBestand(row)));
+
+        assertEquals(0, animals.getStore().getAktuellerBestand(0));
+        assertEquals(2, animals.getStore().getAktuellerBestand(2));
+
+        assertTrue(history.undo());
+        assertEquals(10, animals.getStore().getAktuellerBestand(0));
+        assertEquals(10, animals.getStore().getAktuellerBestand(2));
+
+        assertTrue(history.redo());
+        assertEquals(2, animals.getStore().getAktuellerBestand(2));
+    }
+
+    @Test
+    void undoesStepsInReverseOrder() {
+        history.record("Löschen", () -> animals.removeRows(new int[] { 0 }));
+        history.recordEdit("Futter", new int[] { 0 },
+                () -> animals.updateRows(new int[] { 0 }, (animal, row) -> animal.setFutterArt("Hafer")));
+
+        assertTrue(history.undo());
+        assertEquals("Heu", animals.getStore().getFutterArt(0));
+        assertEquals("Pferd", animals.getStore().getTierArt(0));
+        assertTrue(history.undo());
+        assertEquals(List.of("Kuh", "Pferd", "Schaf", "Ziege"), tierArten());
+        assertFalse(history.undo());
+    }
+
+    @Test
+    void leavesUpdatesOutsideOfStepsAlone() {
+        history.record("Löschen", () -> animals.removeRows(new int[] { 3 }));
+        // As the reorder engine writes its order dates
+        animals.updateRows(new int[] { 0 }, (animal, row) -> animal.setBestellungnotwendig("Ja"));
+
+        assertTrue(history.undo());
+        assertEquals(List.of("Kuh", "Pferd", "Schaf", "Ziege"), tierArten());
+        assertEquals("Ja", animals.getStore().getBestellungnotwendig(0));
+    }
+
+    @Test
+    void dropsTheStepsWhenRowsMoveWithoutAStep() {
+        history.record("Löschen", () -> animals.removeRows(new int[] { 3 }));
+        animals.remove(0);
+
+        assertFalse(history.undo());
+        assertNull(history.undoDescriptionProperty().get());
+    }
+
+    @Test
+    void keepsTheStepsWhenTheTableIsSorted() {
+        long loaded = history.getState();
+        history.record("Löschen", () -> animals.removeRows(new int[] { 1 }));
+        long removed = history.getState();
+        AnimalSearchList table = new AnimalSearchList(new AnimalSortList(animals));
+
+        table.sort(new AnimalSortKeys.Field[] { AnimalSortKeys.Field.TIER_ART }, new boolean[] { true });
+
+        assertEquals(List.of("Ziege", "Schaf", "Kuh"), shown(table));
+        // Only the table is sorted, the rows stay where they are
+        assertEquals(List.of("Kuh", "Schaf", "Ziege"), tierArten());
+        assertEquals(removed, history.getState());
+        assertEquals("Löschen", history.undoDescriptionProperty().get());
+
+        assertTrue(history.undo());
+        assertEquals(List.of("Kuh", "Pferd", "Schaf", "Ziege"), tierArten());
+        assertEquals(loaded, history.getState());
+        assertEquals(4, table.size());
+    }
+
+    @Test
+    void keepsOnlyTheGivenNumberOfSteps() {
+        history.setDepth(1);
+        history.record("Löschen", () -> animals.removeRows(new int[] { 3 }));
+        history.record("Löschen", () -> animals.removeRows(new int[] { 2 }));
+
+        assertTrue(history.undo());
+        assertFalse(history.undo());
+        assertEquals(List.of("Kuh", "Pferd", "Schaf"), tierArten());
+    }
+
+    private List<String> tierArten() {
+        List<String> tierArten = new ArrayList<>();
+        for (int row = 0; row < animals.size(); row++) {
+            tierArten.add(animals.getStore().getTierArt(row));
+        }
+        return tierArten;
+    }
+
+    private static List<String> shown(List<Animal> table) {
+        List<String> tierArten = new ArrayList<>();
+        for (Animal animal : table) {
+            tierArten.add(animal.getTierArt());
+        }
+        return tierArten;
+    }
+}
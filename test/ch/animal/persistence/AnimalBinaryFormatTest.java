@@ -0,0 +1,114 @@
+package ch.animal.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ch.animal.model.Animal;
+
+/**
+ * Tests reading and writing {@link AnimalBinaryFormat}, also of corrupt files.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class AnimalBinaryFormatTest {
+
+    /** Offset of the dictionary size: magic and version. */
+    private static final int DICTIONARY_SIZE_OFFSET = 6;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsWhatWasWritten() throws IOException {
+        Animal animal = new Animal("Kuh", "Heu");
+        animal.setMengeneinheit("Kg");
+        animal.setAktuellerBestand(12.5);
+        animal.setBestelldatum(LocalDate.of(2024, 3, 1));
+        animal.setKey(7);
+        Animal empty = new Animal(null, null);
+        empty.setKey(8);
+
+        List<Animal> read = read(write(Arrays.asList(animal, empty)));
+
+        assertEquals(2, read.size());
+        assertEquals("Heu", read.get(0).getFutterArt());
+        assertEquals(12.5, read.get(0).getAktuellerBestand());
+        assertEquals(LocalDate.of(2024, 3, 1), read.get(0).getBestelldatum());
+        assertEquals(7, read.get(0).getKey());
+        assertNull(read.get(1).getTierArt());
+    }
+
+    @Test
+    void rejectsANegativeDictionarySize() throws IOException {
+        byte[] bytes = write(List.of(new Animal("Kuh", "Heu")));
+        ByteBuffer.wrap(bytes).putInt(DICTIONARY_SIZE_OFFSET, -1);
+
+        assertThrows(IOException.class, () -> read(bytes));
+    }
+
+    @Test
+    void rejectsADictionaryLargerThanTheFile() throws IOException {
+        byte[] bytes = write(List.of(new Animal("Kuh", "Heu")));
+        ByteBuffer.wrap(bytes).putInt(DICTIONARY_SIZE_OFFSET, Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> read(bytes));
+    }
+
+    @Test
+    void rejectsAStringLongerThanTheFile() throws IOException {
+        byte[] bytes = write(List.of(new Animal("Kuh", "Heu")));
+        // The length of the first string follows the dictionary size
+        ByteBuffer.wrap(bytes).putInt(DICTIONARY_SIZE_OFFSET + 4, Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> read(bytes));
+    }
+
+    @Test
+    void rejectsARecordCountLargerThanTheFile() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(AnimalBinaryFormat.MAGIC);
+        data.writeShort(AnimalBinaryFormat.VERSION);
+        data.writeInt(0);
+        data.writeInt(1_000_000);
+
+        assertThrows(IOException.class, () -> read(out.toByteArray()));
+    }
+
+    @Test
+    void rejectsATruncatedFile() throws IOException {
+        byte[] bytes = write(List.of(new Animal("Kuh", "Heu"), new Animal("Pferd", "Hafer")));
+
+        assertThrows(IOException.class, () -> read(Arrays.copyOf(bytes, bytes.length - 10)));
+    }
+
+    private static byte[] write(List<Animal> animals) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new AnimalBinaryFormat().write(animals, out, ProgressListener.NONE);
+        return out.toByteArray();
+    }
+
+    private List<Animal> read(byte[] bytes) throws IOException {
+        Path file = dir.resolve("animals.afb");
+        Files.write(file, bytes);
+        List<Animal> animals = new ArrayList<>();
+        new AnimalBinaryFormat().read(file.toFile(), animals::addAll, ProgressListener.NONE);
+        return animals;
+    }
+}
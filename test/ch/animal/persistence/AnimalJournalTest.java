@@ -0,0 +1,171 @@
+package ch.animal.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ch.animal.model.Animal;
+
+/**
+ * Tests replaying {@link AnimalJournal} files, also ones whose last entry was
+ * only partly written. The journals are written here byte by byte in the
+ * format of the current version.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class AnimalJournalTest {
+
+    private static final byte OP_SET = 3;
+
+    @TempDir
+    Path dir;
+
+    private File snapshot;
+    private Path journal;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        snapshot = dir.resolve("animals.afb").toFile();
+        Files.writeString(snapshot.toPath(), "snapshot");
+        journal = AnimalJournal.journalFile(snapshot).toPath();
+    }
+
+    @Test
+    void replaysAllEntries() throws IOException {
+        write(header(), set(0, "Heu"), set(1, "Hafer"));
+
+        List<Animal> animals = animals();
+
+        assertEquals(2, AnimalJournal.replay(snapshot, animals));
+        assertEquals("Heu", animals.get(0).getFutterArt());
+        assertEquals("Hafer", animals.get(1).getFutterArt());
+    }
+
+    @Test
+    void cutsOffAPartlyWrittenEntry() throws IOException {
+        byte[] header = header();
+        byte[] first = set(0, "Heu");
+        byte[] second = set(1, "Hafer");
+        write(header, first, Arrays.copyOf(second, second.length / 2));
+
+        List<Animal> animals = animals();
+
+        assertEquals(1, AnimalJournal.replay(snapshot, animals));
+        assertEquals("Heu", animals.get(0).getFutterArt());
+        assertEquals("Stroh", animals.get(1).getFutterArt());
+        assertEquals(header.length + first.length, Files.size(journal));
+    }
+
+    @Test
+    void cutsOffAPartlyWrittenString() throws IOException {
+        byte[] header = header();
+        byte[] first = set(0, "Heu");
+        ByteArrayOutputStream torn = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(torn);
+        out.writeByte(OP_SET);
+        out.writeInt(1);
+        out.writeBoolean(true);
+        // A two-byte character cut after its first byte
+        out.writeShort(2);
+        out.writeByte(0xC3);
+        out.writeByte('A');
+        write(header, first, torn.toByteArray());
+
+        List<Animal> animals = animals();
+
+        assertEquals(1, AnimalJournal.replay(snapshot, animals));
+        assertEquals(header.length + first.length, Files.size(journal));
+    }
+
+    @Test
+    void cutsOffZerosBehindTheLastEntry() throws IOException {
+        byte[] header = header();
+        byte[] first = set(0, "Heu");
+        write(header, first, new byte[64]);
+
+        assertEquals(1, AnimalJournal.replay(snapshot, animals()));
+        assertEquals(header.length + first.length, Files.size(journal));
+    }
+
+    @Test
+    void appendsAfterTheLastCompleteEntry() throws IOException {
+        byte[] second = set(1, "Hafer");
+        write(header(), set(0, "Heu"), Arrays.copyOf(second, 7));
+        AnimalJournal.replay(snapshot, animals());
+
+        Files.write(journal, set(1, "Mais"), StandardOpenOption.APPEND);
+        List<Animal> animals = animals();
+
+        assertEquals(2, AnimalJournal.replay(snapshot, animals));
+        assertEquals("Heu", animals.get(0).getFutterArt());
+        assertEquals("Mais", animals.get(1).getFutterArt());
+    }
+
+    @Test
+    void deletesAStaleJournal() throws IOException {
+        write(header(), set(0, "Heu"));
+        Files.writeString(snapshot.toPath(), "a later full save");
+
+        List<Animal> animals = animals();
+
+        assertEquals(0, AnimalJournal.replay(snapshot, animals));
+        assertEquals("Stroh", animals.get(0).getFutterArt());
+        assertFalse(Files.exists(journal));
+    }
+
+    private static List<Animal> animals() {
+        return new ArrayList<>(Arrays.asList(new Animal("Kuh", "Stroh"), new Animal("Pferd", "Stroh")));
+    }
+
+    private void write(byte[]... parts) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part);
+        }
+        Files.write(journal, bytes.toByteArray());
+    }
+
+    private byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(AnimalJournal.MAGIC);
+        out.writeShort(AnimalJournal.VERSION);
+        out.writeLong(snapshot.length());
+        out.writeLong(snapshot.lastModified());
+        return bytes.toByteArray();
+    }
+
+    private static byte[] set(int index, String futterArt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_SET);
+        out.writeInt(index);
+        for (String value : new String[] { "Kuh", futterArt, "Kg", null }) {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+        out.writeLong(Long.MIN_VALUE);
+        out.writeDouble(10);
+        out.writeDouble(1);
+        out.writeInt(3);
+        out.writeLong(index + 1);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,108 @@
+package ch.animal.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that {@link AtomicFileWriter} never leaves a partial file visible.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class AtomicFileWriterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replacesTheContent() throws IOException {
+        Path target = dir.resolve("animals.xml");
+        Files.writeString(target, "old");
+
+        new AtomicFileWriter().write(target, out -> out.write(bytes("new")));
+
+        assertEquals("new", Files.readString(target));
+        assertEquals(List.of("animals.xml"), fileNames());
+    }
+
+    @Test
+    void keepsTheOldContentWhileWriting() throws IOException {
+        Path target = dir.resolve("animals.xml");
+        Files.writeString(target, "old");
+
+        new AtomicFileWriter().write(target, out -> {
+            out.write(bytes("half"));
+            out.flush();
+            assertEquals("old", Files.readString(target));
+            out.write(bytes(" and the rest"));
+        });
+
+        assertEquals("half and the rest", Files.readString(target));
+    }
+
+    @Test
+    void keepsTheOldContentIfWritingFails() throws IOException {
+        Path target = dir.resolve("animals.xml");
+        Files.writeString(target, "old");
+
+        IOException failure = assertThrows(IOException.class,
+                () -> new AtomicFileWriter(1).write(target, out -> {
+                    out.write(bytes("half"));
+                    out.flush();
+                    throw new Exception("marshalling failed");
+                }));
+
+        assertEquals("marshalling failed", failure.getCause().getMessage());
+        assertEquals("old", Files.readString(target));
+        assertEquals(List.of("animals.xml"), fileNames());
+    }
+
+    @Test
+    void createsNoFileIfTheFirstWriteFails() throws IOException {
+        Path target = dir.resolve("animals.xml");
+
+        assertThrows(IOException.class, () -> new AtomicFileWriter().write(target, out -> {
+            out.write(bytes("half"));
+            throw new IOException("disk full");
+        }));
+
+        assertFalse(Files.exists(target));
+        assertEquals(List.of(), fileNames());
+    }
+
+    @Test
+    void rotatesTheBackups() throws IOException {
+        Path target = dir.resolve("animals.xml");
+        AtomicFileWriter writer = new AtomicFileWriter(2);
+        for (String content : new String[] { "1", "2", "3", "4" }) {
+            writer.write(target, out -> out.write(bytes(content)));
+        }
+
+        assertEquals("4", Files.readString(target));
+        assertEquals("3", Files.readString(AtomicFileWriter.backupFile(target, 1)));
+        assertEquals("2", Files.readString(AtomicFileWriter.backupFile(target, 2)));
+        assertEquals(List.of("animals.xml", "animals.xml.bak", "animals.xml.bak2"), fileNames());
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
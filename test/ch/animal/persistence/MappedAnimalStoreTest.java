@@ -0,0 +1,130 @@
+package ch.animal.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ch.animal.model.Animal;
+
+/**
+ * Tests copying a {@link MappedAnimalStore}, also while it is changed, and
+ * opening corrupt store files.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class MappedAnimalStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void copiesTheWrittenRecordsAndDeletesTheCopyWhenClosed() throws IOException {
+        try (MappedAnimalStore store = MappedAnimalStore.create(dir.resolve("animals.afm"))) {
+            store.insert(0, new Animal("Kuh", "Heu"));
+            store.insert(1, new Animal("Pferd", "Hafer"));
+
+            Path copyPath;
+            try (MappedAnimalStore copy = store.copy()) {
+                copyPath = copy.getPath();
+                assertEquals(2, copy.size());
+                assertEquals("Hafer", copy.read(1).getFutterArt());
+                assertEquals(store.getKey(1), copy.getKey(1));
+            }
+            assertFalse(Files.exists(copyPath));
+        }
+    }
+
+    @Test
+    void copiesAConsistentStateWhileTheStoreIsChanged() throws Exception {
+        try (MappedAnimalStore store = MappedAnimalStore.create(dir.resolve("animals.afm"))) {
+            CompletableFuture<Void> copies = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 20; i++) {
+                    try (MappedAnimalStore copy = store.copy()) {
+                        // Every row was written completely before the next one was inserted
+                        for (int row = 0; row < copy.size(); row++) {
+                            assertEquals("Futter " + row, copy.read(row).getFutterArt());
+                        }
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            for (int row = 0; !copies.isDone(); row++) {
+                store.insert(row, new Animal("Kuh", "Futter " + row));
+                // Edits come one by one, not without pause
+                Thread.sleep(1);
+            }
+            copies.get();
+            assertTrue(store.size() > 0);
+        }
+    }
+
+    @Test
+    void rejectsACapacityBeyondTheEndOfTheFile() throws IOException {
+        Path path = storeWithOneAnimal();
+        long length = Files.size(path);
+        // The record capacity in the header
+        writeInt(path, 12, 1_000_000);
+
+        assertThrows(IOException.class, () -> MappedAnimalStore.open(path, false));
+        assertEquals(length, Files.size(path));
+    }
+
+    @Test
+    void rejectsADictionarySizeBeyondTheEndOfTheFile() throws IOException {
+        Path path = storeWithOneAnimal();
+        // The dictionary size in the header
+        writeInt(path, 16, Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> MappedAnimalStore.open(path, true));
+    }
+
+    @Test
+    void rejectsAStringLengthBeyondTheEndOfTheFile() throws IOException {
+        Path path = storeWithOneAnimal();
+        int capacity = readInt(path, 12);
+        // The length of the first string of the dictionary behind the records
+        writeInt(path, MappedAnimalStore.HEADER_SIZE + (long) capacity * MappedAnimalStore.RECORD_SIZE,
+                Integer.MAX_VALUE);
+
+        assertThrows(IOException.class, () -> MappedAnimalStore.open(path, true));
+    }
+
+    private Path storeWithOneAnimal() throws IOException {
+        Path path = dir.resolve("animals.afm");
+        try (MappedAnimalStore store = MappedAnimalStore.create(path)) {
+            store.insert(0, new Animal("Kuh", "Heu"));
+        }
+        try (MappedAnimalStore store = MappedAnimalStore.open(path, true)) {
+            assertEquals("Heu", store.read(0).getFutterArt());
+        }
+        return path;
+    }
+
+    private static int readInt(Path path, long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer value = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(value, position);
+            return value.getInt(0);
+        }
+    }
+
+    private static void writeInt(Path path, long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), position);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ch.animal.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests putting, finding and removing keys of a {@link LongIntMap}, also
+ * across the end of its table and while it grows.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class LongIntMapTest {
+
+    @Test
+    void putsGetsAndRemovesKeys() {
+        LongIntMap map = new LongIntMap();
+        map.put(7, 70);
+        map.put(8, 80);
+        map.put(7, 71);
+
+        assertEquals(2, map.size());
+        assertEquals(71, map.get(7));
+        assertEquals(80, map.get(8));
+        assertEquals(LongIntMap.MISSING, map.get(9));
+        assertTrue(map.containsKey(8));
+
+        assertTrue(map.remove(7));
+        assertFalse(map.remove(7));
+        assertEquals(LongIntMap.MISSING, map.get(7));
+        assertEquals(80, map.get(8));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void rejectsKeysBelowOne() {
+        LongIntMap map = new LongIntMap();
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> map.put(-5, 1));
+    }
+
+    @Test
+    void findsKeysProbedAcrossTheEndOfTheTable() {
+        // Keys that all belong into the last slot of the initial table, so their run wraps around
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < 5; key++) {
+            if (slotOf(key, 15) == 15) {
+                keys.add(key);
+            }
+        }
+        LongIntMap map = new LongIntMap();
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.get(i), i);
+        }
+
+        // Removing the first keys moves the later ones back across the end
+        assertTrue(map.remove(keys.get(0)));
+        assertTrue(map.remove(keys.get(2)));
+
+        assertEquals(LongIntMap.MISSING, map.get(keys.get(0)));
+        assertEquals(1, map.get(keys.get(1)));
+        assertEquals(LongIntMap.MISSING, map.get(keys.get(2)));
+        assertEquals(3, map.get(keys.get(3)));
+        assertEquals(4, map.get(keys.get(4)));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void keepsAllKeysWhileItGrows() {
+        LongIntMap map = new LongIntMap();
+        for (int i = 1; i <= 100_000; i++) {
+            map.put(i, i * 2);
+        }
+        for (int i = 1; i <= 100_000; i += 2) {
+            map.remove(i);
+        }
+
+        assertEquals(50_000, map.size());
+        for (int i = 1; i <= 100_000; i++) {
+            assertEquals(i % 2 == 0 ? i * 2 : LongIntMap.MISSING, map.get(i));
+        }
+    }
+
+    @Test
+    void behavesLikeAHashMap() {
+        Random random = new Random(3);
+        LongIntMap map = new LongIntMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        // Few distinct keys, so runs collide, wrap around and shrink often
+        for (int i = 0; i < 50_000; i++) {
+            long key = 1 + random.nextInt(200);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 1; key <= 200; key++) {
+            assertEquals(expected.getOrDefault(key, LongIntMap.MISSING), map.get(key));
+        }
+    }
+
+    /**
+     * The slot the map puts a key into first, for a table of mask + 1 slots.
+     */
+    private static int slotOf(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+}
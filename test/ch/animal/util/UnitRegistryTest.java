@@ -0,0 +1,84 @@
+package ch.animal.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ch.animal.util.UnitRegistry.Dimension;
+import ch.animal.util.UnitRegistry.Unit;
+
+/**
+ * Tests finding and replacing units in a {@link UnitRegistry}.
+ * @author Damian Krebs
+ * @author Stephanie Gloor
+ */
+
+class UnitRegistryTest {
+
+    @Test
+    void findsUnitsByNameAndAliasIgnoringCase() {
+        UnitRegistry registry = new UnitRegistry();
+        Unit liter = new Unit("Liter", Dimension.VOLUME, 1_000);
+        registry.register(liter, "l");
+
+        assertSame(liter, registry.find(" liter "));
+        assertSame(liter, registry.find("L"));
+        assertNull(registry.find("Kg"));
+    }
+
+    @Test
+    void replacingAUnitRemovesItsAliases() {
+        UnitRegistry registry = new UnitRegistry();
+        registry.register(new Unit("Sack", Dimension.MASS, 25_000), "säcke", "sk");
+        Unit sack = new Unit("Sack", Dimension.MASS, 50_000);
+        registry.register(sack, "säcke");
+
+        assertSame(sack, registry.find("Säcke"));
+        assertNull(registry.find("sk"));
+        assertEquals(List.of(sack), registry.getUnits());
+    }
+
+    @Test
+    void anAliasReplacesTheUnitOfThatName() {
+        UnitRegistry registry = new UnitRegistry();
+        registry.register(new Unit("t", Dimension.MASS, 1_000_000), "tonne");
+        Unit tonne = new Unit("Tonne", Dimension.MASS, 1_000_000);
+        registry.register(tonne, "t");
+
+        assertSame(tonne, registry.find("t"));
+        assertSame(tonne, registry.find("tonne"));
+        assertEquals(List.of(tonne), registry.getUnits());
+    }
+
+    @Test
+    void registeringAUnitAgainAddsAliases() {
+        UnitRegistry registry = new UnitRegistry();
+        Unit kg = new Unit("Kg", Dimension.MASS, 1_000);
+        registry.register(kg, "kilogramm");
+        registry.register(kg, "kilo");
+
+        assertSame(kg, registry.find("kilogramm"));
+        assertSame(kg, registry.find("kilo"));
+        assertEquals(List.of(kg), registry.getUnits());
+    }
+
+    @Test
+    void looksUpTheFactorsOfNewStringsOnly() {
+        UnitRegistry registry = UnitRegistry.getDefault();
+        StringDictionary names = new StringDictionary();
+        names.code("Sack");
+        long[] factors = registry.factorsOf(names, null);
+        names.code("unbekannt");
+
+        long[] more = registry.factorsOf(names, factors);
+
+        assertSame(more, registry.factorsOf(names, more));
+        assertEquals(UnitRegistry.UNKNOWN_FACTOR, more[0]);
+        assertEquals(25_000, more[1]);
+        assertEquals(UnitRegistry.UNKNOWN_FACTOR, more[2]);
+    }
+}